@@ -7,7 +7,7 @@ package com.sismics.docs.core.constant;
  */
 public enum ConfigType {
     /**
-     * Lucene directory storage type.
+     * Lucene directory storage type (RAM, FILE or MMAP).
      */
     LUCENE_DIRECTORY_STORAGE,
     /**
@@ -83,6 +83,119 @@ public class Constants {
      */
     public static final String BCRYPT_WORK_ENV = "DOCS_BCRYPT_WORK";
 
+    /**
+     * Interval between two Lucene index commits, in seconds.
+     * 0 commits the index after each write (durable, but slow on bulk imports).
+     */
+    public static final String LUCENE_COMMIT_INTERVAL_ENV = "DOCS_LUCENE_COMMIT_INTERVAL";
+
+    /**
+     * Default interval between two Lucene index commits, in seconds.
+     */
+    public static final int DEFAULT_LUCENE_COMMIT_INTERVAL = 5;
+
+    /**
+     * Answer document lists from the Lucene index only, the database being queried for the returned page.
+     * Lists are then updated asynchronously, shortly after the documents.
+     */
+    public static final String LUCENE_STRUCTURED_SEARCH_ENV = "DOCS_LUCENE_STRUCTURED_SEARCH";
+
+    /**
+     * Share the stored data of the identical files of a user, with their content and thumbnails.
+     */
+    public static final String STORAGE_DEDUPLICATION_ENV = "DOCS_STORAGE_DEDUPLICATION";
+
+    /**
+     * Bucket of an S3 compatible object storage, used instead of the storage directory if set.
+     */
+    public static final String S3_BUCKET_ENV = "DOCS_S3_BUCKET";
+
+    /**
+     * URL of the S3 compatible object storage, the bucket being addressed in the path.
+     */
+    public static final String S3_ENDPOINT_ENV = "DOCS_S3_ENDPOINT";
+
+    /**
+     * Default URL of the S3 object storage.
+     */
+    public static final String DEFAULT_S3_ENDPOINT = "https://s3.amazonaws.com";
+
+    /**
+     * Region of the S3 compatible object storage.
+     */
+    public static final String S3_REGION_ENV = "DOCS_S3_REGION";
+
+    /**
+     * Default region of the S3 object storage.
+     */
+    public static final String DEFAULT_S3_REGION = "us-east-1";
+
+    /**
+     * Credentials of the S3 compatible object storage.
+     */
+    public static final String S3_ACCESS_KEY_ENV = "DOCS_S3_ACCESS_KEY";
+    public static final String S3_SECRET_KEY_ENV = "DOCS_S3_SECRET_KEY";
+
+    /**
+     * Number of PDF pages OCR-ized in parallel.
+     */
+    public static final String OCR_CONCURRENCY_ENV = "DOCS_OCR_CONCURRENCY";
+
+    /**
+     * Number of OCR workers kept ready for each language in use, the OCR concurrency by default.
+     */
+    public static final String OCR_WARM_WORKERS_ENV = "DOCS_OCR_WARM_WORKERS";
+
+    /**
+     * Maximum time to OCR an image, in seconds.
+     */
+    public static final String OCR_TIMEOUT_ENV = "DOCS_OCR_TIMEOUT";
+
+    /**
+     * Default maximum time to OCR an image, in seconds.
+     */
+    public static final int DEFAULT_OCR_TIMEOUT = 300;
+
+    /**
+     * Number of derived encryption keys kept in memory.
+     */
+    public static final String ENCRYPTION_KEY_CACHE_SIZE_ENV = "DOCS_ENCRYPTION_KEY_CACHE_SIZE";
+
+    /**
+     * Default number of derived encryption keys kept in memory.
+     */
+    public static final int DEFAULT_ENCRYPTION_KEY_CACHE_SIZE = 256;
+
+    /**
+     * Number of authenticated principals kept in memory.
+     */
+    public static final String PRINCIPAL_CACHE_SIZE_ENV = "DOCS_PRINCIPAL_CACHE_SIZE";
+
+    /**
+     * Default number of authenticated principals kept in memory.
+     */
+    public static final int DEFAULT_PRINCIPAL_CACHE_SIZE = 1000;
+
+    /**
+     * Time an authenticated principal is kept in memory, in seconds.
+     */
+    public static final int PRINCIPAL_CACHE_DURATION_SECONDS = 60;
+
+    /**
+     * Maximum size of the cached file renditions on disk, in megabytes.
+     */
+    public static final String RENDITION_CACHE_SIZE_ENV = "DOCS_RENDITION_CACHE_SIZE";
+
+    /**
+     * Default maximum size of the cached file renditions on disk, in megabytes.
+     */
+    public static final int DEFAULT_RENDITION_CACHE_SIZE = 1024;
+
+    /**
+     * Time an idle upload session is kept before being discarded, in hours.
+     */
+    public static final int UPLOAD_SESSION_EXPIRATION_HOUR = 24;
+
     /**
      * Expiration time of the password recovery in hours.
      */
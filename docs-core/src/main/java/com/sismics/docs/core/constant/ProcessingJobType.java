@@ -0,0 +1,18 @@
+package com.sismics.docs.core.constant;
+
+/**
+ * Processing job types.
+ *
+ * @author bgamard
+ */
+public enum ProcessingJobType {
+    /**
+     * Process a new file.
+     */
+    FILE_CREATED,
+
+    /**
+     * Process an existing file again.
+     */
+    FILE_UPDATED
+}
@@ -0,0 +1,81 @@
+package com.sismics.docs.core.constant;
+
+/**
+ * Asynchronous processing lanes.
+ * Each lane has its own bounded queue and workers, so a slow lane never starves the others.
+ *
+ * @author bgamard
+ */
+public enum ProcessingLane {
+    /**
+     * Thumbnails generation.
+     */
+    THUMBNAIL(2, 1000),
+
+    /**
+     * Text extraction and OCR.
+     */
+    CONTENT(Math.max(Runtime.getRuntime().availableProcessors() / 2, 2), 1000),
+
+    /**
+     * Index and metadata updates.
+     */
+    INDEXING(2, 10000),
+
+    /**
+     * Webhooks calls.
+     */
+    WEBHOOK(2, 1000),
+
+    /**
+     * Storage cleaning, kept apart so a long collection never holds an indexing worker.
+     */
+    STORAGE(1, 10);
+
+    /**
+     * Default number of workers.
+     */
+    private final int defaultConcurrency;
+
+    /**
+     * Default maximum number of queued tasks.
+     */
+    private final int defaultQueueSize;
+
+    /**
+     * Constructor.
+     *
+     * @param defaultConcurrency Default number of workers
+     * @param defaultQueueSize Default maximum number of queued tasks
+     */
+    ProcessingLane(int defaultConcurrency, int defaultQueueSize) {
+        this.defaultConcurrency = defaultConcurrency;
+        this.defaultQueueSize = defaultQueueSize;
+    }
+
+    public int getDefaultConcurrency() {
+        return defaultConcurrency;
+    }
+
+    public int getDefaultQueueSize() {
+        return defaultQueueSize;
+    }
+
+    /**
+     * Returns the environment variable overriding the number of workers.
+     *
+     * @return Environment variable name
+     */
+    public String getConcurrencyEnv() {
+        return "DOCS_PROCESSING_" + name() + "_CONCURRENCY";
+    }
+
+    /**
+     * Returns the environment variable overriding the maximum number of queued tasks.
+     *
+     * @return Environment variable name
+     */
+    public String getQueueSizeEnv() {
+        return "DOCS_PROCESSING_" + name() + "_QUEUE_SIZE";
+    }
+}
@@ -13,6 +13,7 @@ import com.sismics.util.context.ThreadLocalContext;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -37,6 +38,7 @@ public class AclDao {
         // Create the ACL
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(acl);
+        new DocumentPermissionDao().updateBySourceId(acl.getSourceId());
 
         // Create audit log
         AuditLogUtil.create(acl, AuditLogType.CREATE, userId);
@@ -65,23 +67,38 @@ public class AclDao {
      * @param sourceId Source ID
      * @return ACL DTO list
      */
-    @SuppressWarnings("unchecked")
     public List<AclDto> getBySourceId(String sourceId, AclType type) {
+        return getBySourceIdList(Collections.singletonList(sourceId), type);
+    }
+
+    /**
+     * Search ACLs of several sources at once.
+     *
+     * @param sourceIdList Source ID list
+     * @param type ACL type, null for all types
+     * @return ACL DTO list
+     */
+    @SuppressWarnings("unchecked")
+    public List<AclDto> getBySourceIdList(List<String> sourceIdList, AclType type) {
+        if (sourceIdList.isEmpty()) {
+            return new ArrayList<>();
+        }
+
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        StringBuilder sb = new StringBuilder("select a.ACL_ID_C, a.ACL_PERM_C, a.ACL_TARGETID_C, ")
+        StringBuilder sb = new StringBuilder("select a.ACL_ID_C, a.ACL_SOURCEID_C, a.ACL_PERM_C, a.ACL_TARGETID_C, ")
                 .append(" u.USE_USERNAME_C, s.SHA_ID_C, s.SHA_NAME_C, g.GRP_NAME_C ")
                 .append(" from T_ACL a ")
                 .append(" left join T_USER u on u.USE_ID_C = a.ACL_TARGETID_C ")
                 .append(" left join T_SHARE s on s.SHA_ID_C = a.ACL_TARGETID_C ")
                 .append(" left join T_GROUP g on g.GRP_ID_C = a.ACL_TARGETID_C ")
-                .append(" where a.ACL_DELETEDATE_D is null and a.ACL_SOURCEID_C = :sourceId ");
+                .append(" where a.ACL_DELETEDATE_D is null and a.ACL_SOURCEID_C in (:sourceIdList) ");
         if (type != null) {
             sb.append(" and a.ACL_TYPE_C = :type");
         }
 
         // Perform the query
         Query q = em.createNativeQuery(sb.toString());
-        q.setParameter("sourceId", sourceId);
+        q.setParameter("sourceIdList", sourceIdList);
         if (type != null) {
             q.setParameter("type", type.name());
         }
@@ -93,6 +110,7 @@ public class AclDao {
             int i = 0;
             AclDto aclDto = new AclDto();
             aclDto.setId((String) o[i++]);
+            aclDto.setSourceId((String) o[i++]);
             aclDto.setPerm(PermType.valueOf((String) o[i++]));
             aclDto.setTargetId((String) o[i++]);
             String userName = (String) o[i++];
@@ -136,10 +154,9 @@ public class AclDao {
         StringBuilder sb = new StringBuilder("select a.ACL_ID_C from T_ACL a ");
         sb.append(" where a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = :sourceId and a.ACL_PERM_C = :perm and a.ACL_DELETEDATE_D is null ");
         sb.append(" union all ");
-        sb.append(" select a.ACL_ID_C from T_ACL a, T_DOCUMENT_TAG dt, T_DOCUMENT d ");
-        sb.append(" where a.ACL_SOURCEID_C = dt.DOT_IDTAG_C and dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt.DOT_DELETEDATE_D is null ");
-        sb.append(" and d.DOC_ID_C = :sourceId and d.DOC_DELETEDATE_D is null ");
-        sb.append(" and a.ACL_TARGETID_C in (:targetIdList) and a.ACL_PERM_C = :perm and a.ACL_DELETEDATE_D is null ");
+        // Permissions inherited by documents from their tags
+        sb.append(" select p.DPM_IDDOCUMENT_C from T_DOCUMENT_PERMISSION p ");
+        sb.append(" where p.DPM_IDDOCUMENT_C = :sourceId and p.DPM_IDTARGET_C in (:targetIdList) and p.DPM_PERM_C = :perm ");
         Query q = em.createNativeQuery(sb.toString());
         q.setParameter("sourceId", sourceId);
         q.setParameter("perm", perm.name());
@@ -181,5 +198,6 @@ public class AclDao {
         q.setParameter("type", type);
         q.setParameter("dateNow", new Date());
         q.executeUpdate();
+        new DocumentPermissionDao().updateBySourceId(sourceId);
     }
 }
\ No newline at end of file
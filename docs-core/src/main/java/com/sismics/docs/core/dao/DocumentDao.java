@@ -59,6 +59,36 @@ public class DocumentDao {
         return q.getResultList();
     }
 
+    /**
+     * Returns the active documents with an ID in a range, ordered by ID.
+     * Used to page through all documents without an offset.
+     *
+     * @param fromId Exclusive lower bound of the IDs (null for no bound)
+     * @param toId Exclusive upper bound of the IDs (null for no bound)
+     * @param limit Limit
+     * @return List of documents
+     */
+    public List<Document> findByIdRange(String fromId, String toId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        StringBuilder sb = new StringBuilder("select d from Document d where d.deleteDate is null");
+        if (fromId != null) {
+            sb.append(" and d.id > :fromId");
+        }
+        if (toId != null) {
+            sb.append(" and d.id < :toId");
+        }
+        sb.append(" order by d.id");
+        TypedQuery<Document> q = em.createQuery(sb.toString(), Document.class);
+        if (fromId != null) {
+            q.setParameter("fromId", fromId);
+        }
+        if (toId != null) {
+            q.setParameter("toId", toId);
+        }
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
     /**
      * Returns the list of all active documents from a user.
      * 
@@ -155,6 +185,7 @@ public class DocumentDao {
         q.setParameter("documentId", id);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new DocumentPermissionDao().updateBySourceId(id);
         
         q = em.createQuery("update DocumentTag dt set dt.deleteDate = :dateNow where dt.documentId = :documentId and dt.deleteDate is not null");
         q.setParameter("documentId", id);
@@ -0,0 +1,148 @@
+package com.sismics.docs.core.dao;
+
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.util.context.ThreadLocalContext;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Document permission DAO.
+ * Effective permissions of the documents, from their own ACLs and the ACLs of their tags.
+ * They are updated in the same transaction as the ACLs and tags they come from.
+ *
+ * @author bgamard
+ */
+public class DocumentPermissionDao {
+    /**
+     * Effective permissions of the documents matching a condition on d.DOC_ID_C.
+     */
+    private static final String PERMISSION_QUERY = "select d.DOC_ID_C, a.ACL_TARGETID_C, a.ACL_PERM_C from T_DOCUMENT d " +
+            " join T_ACL a on a.ACL_SOURCEID_C = d.DOC_ID_C and a.ACL_DELETEDATE_D is null " +
+            " where d.DOC_DELETEDATE_D is null %1$s " +
+            " union " +
+            " select d.DOC_ID_C, a.ACL_TARGETID_C, a.ACL_PERM_C from T_DOCUMENT d " +
+            " join T_DOCUMENT_TAG dt on dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt.DOT_DELETEDATE_D is null " +
+            " join T_ACL a on a.ACL_SOURCEID_C = dt.DOT_IDTAG_C and a.ACL_DELETEDATE_D is null " +
+            " where d.DOC_DELETEDATE_D is null %1$s ";
+
+    /**
+     * Documents whose permissions depend on a source: the document itself, or the documents tagged by it.
+     */
+    private static final String SOURCE_DOCUMENT_QUERY = "select d.DOC_ID_C from T_DOCUMENT d where d.DOC_ID_C = :sourceId " +
+            " union select dt.DOT_IDDOCUMENT_C from T_DOCUMENT_TAG dt where dt.DOT_IDTAG_C = :sourceId ";
+
+    /**
+     * Materialized permissions.
+     */
+    private static final String MATERIALIZED_QUERY = "select p.DPM_IDDOCUMENT_C, p.DPM_IDTARGET_C, p.DPM_PERM_C from T_DOCUMENT_PERMISSION p ";
+
+    /**
+     * Update the permissions depending on an ACL source.
+     * Must be called after the ACLs of a document or a tag, or the tags of a document, are modified.
+     *
+     * @param sourceId Document or tag ID
+     */
+    public void updateBySourceId(String sourceId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("delete from T_DOCUMENT_PERMISSION where DPM_IDDOCUMENT_C in (" + SOURCE_DOCUMENT_QUERY + ")");
+        q.setParameter("sourceId", sourceId);
+        q.executeUpdate();
+
+        q = em.createNativeQuery("insert into T_DOCUMENT_PERMISSION (DPM_IDDOCUMENT_C, DPM_IDTARGET_C, DPM_PERM_C) " +
+                String.format(PERMISSION_QUERY, " and d.DOC_ID_C in (" + SOURCE_DOCUMENT_QUERY + ") "));
+        q.setParameter("sourceId", sourceId);
+        q.executeUpdate();
+    }
+
+    /**
+     * Returns the active documents whose permissions depend on an ACL source.
+     *
+     * @param sourceId Document or tag ID
+     * @return List of document IDs
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getDocumentIdListBySourceId(String sourceId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select d.DOC_ID_C from T_DOCUMENT d where d.DOC_DELETEDATE_D is null and d.DOC_ID_C in (" + SOURCE_DOCUMENT_QUERY + ")");
+        q.setParameter("sourceId", sourceId);
+        return q.getResultList();
+    }
+
+    /**
+     * Returns the targets having a permission on documents.
+     *
+     * @param documentIdList Document IDs
+     * @param perm Permission
+     * @return Target IDs by document ID, documents without any target are absent
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, List<String>> getTargetIdMap(Collection<String> documentIdList, PermType perm) {
+        Map<String, List<String>> targetIdMap = new HashMap<>();
+        if (documentIdList.isEmpty()) {
+            return targetIdMap;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select p.DPM_IDDOCUMENT_C, p.DPM_IDTARGET_C from T_DOCUMENT_PERMISSION p " +
+                " where p.DPM_IDDOCUMENT_C in (:documentIdList) and p.DPM_PERM_C = :perm");
+        q.setParameter("documentIdList", documentIdList);
+        q.setParameter("perm", perm.name());
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            targetIdMap.computeIfAbsent((String) o[0], k -> new ArrayList<>()).add((String) o[1]);
+        }
+        return targetIdMap;
+    }
+
+    /**
+     * Delete the permissions given to an ACL target.
+     * Must be called after all ACLs of a target are deleted.
+     *
+     * @param targetId Target ID
+     */
+    public void deleteByTargetId(String targetId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("delete from T_DOCUMENT_PERMISSION where DPM_IDTARGET_C = :targetId");
+        q.setParameter("targetId", targetId);
+        q.executeUpdate();
+    }
+
+    /**
+     * Rebuild all permissions from the ACLs.
+     */
+    public void rebuild() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.createNativeQuery("delete from T_DOCUMENT_PERMISSION").executeUpdate();
+        em.createNativeQuery("insert into T_DOCUMENT_PERMISSION (DPM_IDDOCUMENT_C, DPM_IDTARGET_C, DPM_PERM_C) " +
+                String.format(PERMISSION_QUERY, "")).executeUpdate();
+    }
+
+    /**
+     * Returns the number of permissions given by the ACLs and missing from the materialized permissions.
+     *
+     * @return Number of missing permissions
+     */
+    public long getMissingCount() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select count(*) from (select * from (" + String.format(PERMISSION_QUERY, "") + ") c " +
+                " except " + MATERIALIZED_QUERY + ") x");
+        return ((Number) q.getSingleResult()).longValue();
+    }
+
+    /**
+     * Returns the number of materialized permissions not given by the ACLs anymore.
+     *
+     * @return Number of extra permissions
+     */
+    public long getExtraCount() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select count(*) from (" + MATERIALIZED_QUERY +
+                " except select * from (" + String.format(PERMISSION_QUERY, "") + ") c) x");
+        return ((Number) q.getSingleResult()).longValue();
+    }
+}
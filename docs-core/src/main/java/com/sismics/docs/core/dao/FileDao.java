@@ -6,11 +6,19 @@ import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.util.context.ThreadLocalContext;
 
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.NoResultException;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -27,8 +35,11 @@ public class FileDao {
      * @return New ID
      */
     public String create(File file, String userId) {
-        // Create the UUID
+        // Create the UUID, the file owns its stored data unless it shares the data of another file
         file.setId(UUID.randomUUID().toString());
+        if (file.getStorageId() == null) {
+            file.setStorageId(file.getId());
+        }
         
         // Create the file
         EntityManager em = ThreadLocalContext.get().getEntityManager();
@@ -56,6 +67,88 @@ public class FileDao {
         return q.getResultList();
     }
     
+    /**
+     * Returns the active files with an ID in a range, ordered by ID.
+     * Used to page through all files without an offset.
+     *
+     * @param fromId Exclusive lower bound of the IDs (null for no bound)
+     * @param toId Exclusive upper bound of the IDs (null for no bound)
+     * @param limit Limit
+     * @return List of files
+     */
+    public List<File> findByIdRange(String fromId, String toId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        StringBuilder sb = new StringBuilder("select f from File f where f.deleteDate is null");
+        if (fromId != null) {
+            sb.append(" and f.id > :fromId");
+        }
+        if (toId != null) {
+            sb.append(" and f.id < :toId");
+        }
+        sb.append(" order by f.id");
+        TypedQuery<File> q = em.createQuery(sb.toString(), File.class);
+        if (fromId != null) {
+            q.setParameter("fromId", fromId);
+        }
+        if (toId != null) {
+            q.setParameter("toId", toId);
+        }
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
+    /**
+     * Returns the distinct storage IDs of the active files, ordered.
+     * Used to page through all storage IDs without an offset.
+     *
+     * @param fromStorageId Exclusive lower bound of the storage IDs (null for no bound)
+     * @param limit Limit
+     * @return List of storage IDs
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> findStorageIds(String fromStorageId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        StringBuilder sb = new StringBuilder("select distinct f.FIL_IDSTORAGE_C from T_FILE f where f.FIL_DELETEDATE_D is null");
+        if (fromStorageId != null) {
+            sb.append(" and f.FIL_IDSTORAGE_C > :fromStorageId");
+        }
+        sb.append(" order by f.FIL_IDSTORAGE_C");
+        Query q = em.createNativeQuery(sb.toString());
+        if (fromStorageId != null) {
+            q.setParameter("fromStorageId", fromStorageId);
+        }
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
+    /**
+     * Returns the storage IDs referenced by active files, among a list of storage IDs.
+     *
+     * @param storageIds Storage IDs
+     * @return Referenced storage IDs
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> getReferencedStorageIds(Collection<String> storageIds) {
+        if (storageIds.isEmpty()) {
+            return new HashSet<>();
+        }
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select distinct f.FIL_IDSTORAGE_C from T_FILE f where f.FIL_IDSTORAGE_C in (:storageIds) and f.FIL_DELETEDATE_D is null");
+        q.setParameter("storageIds", storageIds);
+        return new HashSet<>((List<String>) q.getResultList());
+    }
+
+    /**
+     * Returns the number of active files.
+     *
+     * @return Number of files
+     */
+    public long getFileCount() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query query = em.createNativeQuery("select count(f.FIL_ID_C) from T_FILE f where f.FIL_DELETEDATE_D is null");
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
     /**
      * Returns the list of all files from a user.
      * 
@@ -160,6 +253,8 @@ public class FileDao {
         fileDb.setMimeType(file.getMimeType());
         fileDb.setVersionId(file.getVersionId());
         fileDb.setLatestVersion(file.isLatestVersion());
+        fileDb.setHash(file.getHash());
+        fileDb.setStorageId(file.getStorageId());
 
         return file;
     }
@@ -224,4 +319,71 @@ public class FileDao {
         q.setParameter("versionId", versionId);
         return q.getResultList();
     }
+
+    /**
+     * Returns the MIME types of the files of several documents.
+     *
+     * @param documentIds Documents IDs
+     * @return Distinct MIME types by document ID, documents without files are absent
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, List<String>> getMimeTypeMap(Collection<String> documentIds) {
+        Map<String, List<String>> mimeTypeMap = new HashMap<>();
+        if (documentIds.isEmpty()) {
+            return mimeTypeMap;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select distinct f.FIL_IDDOC_C, f.FIL_MIMETYPE_C from T_FILE f " +
+                " where f.FIL_IDDOC_C in (:documentIds) and f.FIL_DELETEDATE_D is null");
+        q.setParameter("documentIds", documentIds);
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            mimeTypeMap.computeIfAbsent((String) o[0], k -> new ArrayList<>()).add((String) o[1]);
+        }
+        return mimeTypeMap;
+    }
+
+    /**
+     * Returns an active file of a user with the same content, locked until the end of the transaction.
+     * The lock prevents the stored data from being deleted while a new file starts sharing it.
+     *
+     * @param userId User ID
+     * @param hash Content hash
+     * @param language Language the content was extracted in, can be null
+     * @param excludedId ID of the file looking for an identical file
+     * @return Identical file or null
+     */
+    @SuppressWarnings("unchecked")
+    public File getIdenticalFile(String userId, String hash, String language, String excludedId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select f.FIL_ID_C from T_FILE f " +
+                " left join T_DOCUMENT d on d.DOC_ID_C = f.FIL_IDDOC_C " +
+                " where f.FIL_IDUSER_C = :userId and f.FIL_HASH_C = :hash and f.FIL_ID_C <> :excludedId " +
+                " and f.FIL_DELETEDATE_D is null and coalesce(d.DOC_LANGUAGE_C, '') = :language");
+        q.setParameter("userId", userId);
+        q.setParameter("hash", hash);
+        q.setParameter("excludedId", excludedId);
+        q.setParameter("language", language == null ? "" : language);
+        for (String id : (List<String>) q.getResultList()) {
+            File file = em.find(File.class, id);
+            em.refresh(file, LockModeType.PESSIMISTIC_WRITE);
+            if (file.getDeleteDate() == null) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of active files sharing stored data.
+     *
+     * @param storageId Storage ID
+     * @return Number of files
+     */
+    public long getStorageReferenceCount(String storageId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select count(f.FIL_ID_C) from T_FILE f where f.FIL_IDSTORAGE_C = :storageId and f.FIL_DELETEDATE_D is null");
+        q.setParameter("storageId", storageId);
+        return ((Number) q.getSingleResult()).longValue();
+    }
 }
@@ -106,6 +106,7 @@ public class GroupDao {
         q.setParameter("groupId", groupDb.getId());
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new DocumentPermissionDao().deleteByTargetId(groupDb.getId());
 
         q = em.createQuery("update Group g set g.parentId = null where g.parentId = :groupId and g.deleteDate is null");
         q.setParameter("groupId", groupDb.getId());
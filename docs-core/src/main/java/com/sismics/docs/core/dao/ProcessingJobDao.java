@@ -0,0 +1,73 @@
+package com.sismics.docs.core.dao;
+
+import com.sismics.docs.core.model.jpa.ProcessingJob;
+import com.sismics.util.context.ThreadLocalContext;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Processing job DAO.
+ *
+ * @author bgamard
+ */
+public class ProcessingJobDao {
+    /**
+     * Creates a new processing job.
+     *
+     * @param processingJob Processing job
+     * @return New ID
+     */
+    public String create(ProcessingJob processingJob) {
+        // Create the UUID
+        processingJob.setId(UUID.randomUUID().toString());
+
+        // Create the processing job
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        processingJob.setAttemptCount(0);
+        processingJob.setCreateDate(new Date());
+        em.persist(processingJob);
+
+        return processingJob.getId();
+    }
+
+    /**
+     * Returns all pending processing jobs, oldest first.
+     *
+     * @return List of processing jobs
+     */
+    public List<ProcessingJob> findAll() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<ProcessingJob> q = em.createQuery("select j from ProcessingJob j order by j.createDate", ProcessingJob.class);
+        return q.getResultList();
+    }
+
+    /**
+     * Updates a processing job.
+     *
+     * @param processingJob Processing job
+     * @return Updated processing job
+     */
+    public ProcessingJob update(ProcessingJob processingJob) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        ProcessingJob processingJobDb = em.find(ProcessingJob.class, processingJob.getId());
+        processingJobDb.setAttemptCount(processingJob.getAttemptCount());
+        return processingJobDb;
+    }
+
+    /**
+     * Deletes the processing jobs of a file.
+     *
+     * @param fileId File ID
+     */
+    public void deleteByFileId(String fileId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("delete from ProcessingJob j where j.fileId = :fileId");
+        q.setParameter("fileId", fileId);
+        q.executeUpdate();
+    }
+}
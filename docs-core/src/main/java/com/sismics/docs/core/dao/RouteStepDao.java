@@ -151,4 +151,30 @@ public class RouteStepDao {
         q.setParameter("id", id);
         q.executeUpdate();
     }
+
+    /**
+     * Returns the targets of the current route steps of several documents.
+     *
+     * @param documentIdList Document ID list
+     * @return Target ID of the current route step by document ID, documents without an active route are absent
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, String> getCurrentTargetIdMap(Collection<String> documentIdList) {
+        Map<String, String> targetIdMap = new HashMap<>();
+        if (documentIdList.isEmpty()) {
+            return targetIdMap;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select rs3.idDocument, rs.RTP_IDTARGET_C from T_ROUTE_STEP rs " +
+                " join (select r.RTE_IDDOCUMENT_C idDocument, rs.RTP_IDROUTE_C idRoute, min(rs.RTP_ORDER_N) minOrder from T_ROUTE_STEP rs " +
+                "   join T_ROUTE r on r.RTE_ID_C = rs.RTP_IDROUTE_C and r.RTE_DELETEDATE_D is null " +
+                "   where r.RTE_IDDOCUMENT_C in (:documentIdList) and rs.RTP_DELETEDATE_D is null and rs.RTP_ENDDATE_D is null " +
+                "   group by rs.RTP_IDROUTE_C, r.RTE_IDDOCUMENT_C) rs3 on rs.RTP_IDROUTE_C = rs3.idRoute and rs.RTP_ORDER_N = rs3.minOrder ");
+        q.setParameter("documentIdList", documentIdList);
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            targetIdMap.put((String) o[0], (String) o[1]);
+        }
+        return targetIdMap;
+    }
 }
@@ -5,7 +5,11 @@ import com.sismics.util.context.ThreadLocalContext;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -54,5 +58,26 @@ public class ShareDao {
         q.setParameter("targetId", id);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new DocumentPermissionDao().deleteByTargetId(id);
+    }
+
+    /**
+     * Returns the documents having at least one share.
+     *
+     * @param documentIdList Document ID list
+     * @return Shared document IDs
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> getSharedDocumentIdSet(Collection<String> documentIdList) {
+        if (documentIdList.isEmpty()) {
+            return new HashSet<>();
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select distinct a.ACL_SOURCEID_C from T_ACL a " +
+                " join T_SHARE s on s.SHA_ID_C = a.ACL_TARGETID_C and s.SHA_DELETEDATE_D is null " +
+                " where a.ACL_SOURCEID_C in (:documentIdList) and a.ACL_DELETEDATE_D is null");
+        q.setParameter("documentIdList", documentIdList);
+        return new HashSet<>((List<String>) q.getResultList());
     }
 }
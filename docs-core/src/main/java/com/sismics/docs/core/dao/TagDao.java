@@ -79,6 +79,9 @@ public class TagDao {
                 em.persist(documentTag);
             }
         }
+
+        // Permissions inherited from the tags
+        new DocumentPermissionDao().updateBySourceId(documentId);
     }
     
     /**
@@ -131,6 +134,7 @@ public class TagDao {
         q.setParameter("tagId", tagId);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new DocumentPermissionDao().updateBySourceId(tagId);
 
         q = em.createQuery("update Tag t set t.parentId = null where t.parentId = :tagId and t.deleteDate is null");
         q.setParameter("tagId", tagId);
@@ -222,5 +226,92 @@ public class TagDao {
 
         return tagDtoList;
     }
+
+    /**
+     * Returns the tags of several documents, sorted by name.
+     *
+     * @param documentIdList Document ID list
+     * @param targetIdList ACL target ID list, the tags must be readable by one of them
+     * @return Tags by document ID, documents without tags are absent
+     */
+    public Map<String, List<TagDto>> findByDocumentIdList(List<String> documentIdList, List<String> targetIdList) {
+        Map<String, List<TagDto>> tagDtoMap = new HashMap<>();
+        if (documentIdList.isEmpty()) {
+            return tagDtoMap;
+        }
+
+        Map<String, Object> parameterMap = new HashMap<>();
+        StringBuilder sb = new StringBuilder("select distinct dt.DOT_IDDOCUMENT_C, t.TAG_ID_C, t.TAG_NAME_C, t.TAG_COLOR_C, t.TAG_IDPARENT_C, u.USE_USERNAME_C ");
+        sb.append(" from T_TAG t ");
+        sb.append(" join T_USER u on t.TAG_IDUSER_C = u.USE_ID_C ");
+        sb.append(" join T_DOCUMENT_TAG dt on dt.DOT_IDTAG_C = t.TAG_ID_C and dt.DOT_DELETEDATE_D is null ");
+        if (targetIdList != null && !SecurityUtil.skipAclCheck(targetIdList)) {
+            sb.append(" join T_ACL a on a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = t.TAG_ID_C and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null ");
+            parameterMap.put("targetIdList", targetIdList);
+        }
+        sb.append(" where dt.DOT_IDDOCUMENT_C in (:documentIdList) and t.TAG_DELETEDATE_D is null ");
+        sb.append(" order by t.TAG_NAME_C asc ");
+        parameterMap.put("documentIdList", documentIdList);
+
+        // Perform the search
+        @SuppressWarnings("unchecked")
+        List<Object[]> l = QueryUtil.getNativeQuery(new QueryParam(sb.toString(), parameterMap)).getResultList();
+
+        // Assemble results
+        for (Object[] o : l) {
+            int i = 0;
+            String documentId = (String) o[i++];
+            TagDto tagDto = new TagDto()
+                    .setId((String) o[i++])
+                    .setName((String) o[i++])
+                    .setColor((String) o[i++])
+                    .setParentId((String) o[i++])
+                    .setCreator((String) o[i]);
+            tagDtoMap.computeIfAbsent(documentId, k -> new ArrayList<>()).add(tagDto);
+        }
+
+        return tagDtoMap;
+    }
+
+    /**
+     * Returns the tag IDs of several documents.
+     *
+     * @param documentIdList Document ID list
+     * @return Tag IDs by document ID, documents without tags are absent
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, List<String>> getTagIdMap(Collection<String> documentIdList) {
+        Map<String, List<String>> tagIdMap = new HashMap<>();
+        if (documentIdList.isEmpty()) {
+            return tagIdMap;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select dt.DOT_IDDOCUMENT_C, dt.DOT_IDTAG_C from T_DOCUMENT_TAG dt " +
+                " join T_TAG t on t.TAG_ID_C = dt.DOT_IDTAG_C and t.TAG_DELETEDATE_D is null " +
+                " where dt.DOT_IDDOCUMENT_C in (:documentIdList) and dt.DOT_DELETEDATE_D is null");
+        q.setParameter("documentIdList", documentIdList);
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            tagIdMap.computeIfAbsent((String) o[0], k -> new ArrayList<>()).add((String) o[1]);
+        }
+        return tagIdMap;
+    }
+
+    /**
+     * Returns the parent of all active tags having one.
+     *
+     * @return Parent tag ID by tag ID
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, String> getParentIdMap() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select t.TAG_ID_C, t.TAG_IDPARENT_C from T_TAG t " +
+                " where t.TAG_IDPARENT_C is not null and t.TAG_DELETEDATE_D is null");
+        Map<String, String> parentIdMap = new HashMap<>();
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            parentIdMap.put((String) o[0], (String) o[1]);
+        }
+        return parentIdMap;
+    }
 }
 
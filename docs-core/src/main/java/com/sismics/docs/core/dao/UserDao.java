@@ -271,6 +271,7 @@ public class UserDao {
         q.setParameter("userId", userDb.getId());
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new DocumentPermissionDao().deleteByTargetId(userDb.getId());
         
         q = em.createQuery("update Comment c set c.deleteDate = :dateNow where c.userId = :userId and c.deleteDate is null");
         q.setParameter("userId", userDb.getId());
@@ -0,0 +1,77 @@
+package com.sismics.docs.core.dao.dto;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Facet counts of a document search.
+ * Counts are sorted by decreasing count.
+ *
+ * @author bgamard
+ */
+public class DocumentFacetsDto {
+    /**
+     * Number of documents by tag ID, a tag counting the documents of its children.
+     */
+    private Map<String, Integer> tagCountMap = new LinkedHashMap<>();
+
+    /**
+     * Number of documents by MIME type of their files.
+     */
+    private Map<String, Integer> mimeTypeCountMap = new LinkedHashMap<>();
+
+    /**
+     * Number of documents by language.
+     */
+    private Map<String, Integer> languageCountMap = new LinkedHashMap<>();
+
+    /**
+     * Number of documents by creator ID.
+     */
+    private Map<String, Integer> creatorCountMap = new LinkedHashMap<>();
+
+    /**
+     * Number of documents by creation month (yyyy-MM).
+     */
+    private Map<String, Integer> createMonthCountMap = new LinkedHashMap<>();
+
+    public Map<String, Integer> getTagCountMap() {
+        return tagCountMap;
+    }
+
+    public void setTagCountMap(Map<String, Integer> tagCountMap) {
+        this.tagCountMap = tagCountMap;
+    }
+
+    public Map<String, Integer> getMimeTypeCountMap() {
+        return mimeTypeCountMap;
+    }
+
+    public void setMimeTypeCountMap(Map<String, Integer> mimeTypeCountMap) {
+        this.mimeTypeCountMap = mimeTypeCountMap;
+    }
+
+    public Map<String, Integer> getLanguageCountMap() {
+        return languageCountMap;
+    }
+
+    public void setLanguageCountMap(Map<String, Integer> languageCountMap) {
+        this.languageCountMap = languageCountMap;
+    }
+
+    public Map<String, Integer> getCreatorCountMap() {
+        return creatorCountMap;
+    }
+
+    public void setCreatorCountMap(Map<String, Integer> creatorCountMap) {
+        this.creatorCountMap = creatorCountMap;
+    }
+
+    public Map<String, Integer> getCreateMonthCountMap() {
+        return createMonthCountMap;
+    }
+
+    public void setCreateMonthCountMap(Map<String, Integer> createMonthCountMap) {
+        this.createMonthCountMap = createMonthCountMap;
+    }
+}
@@ -0,0 +1,31 @@
+package com.sismics.docs.core.event;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Clean storage event.
+ *
+ * @author bgamard
+ */
+public class CleanStorageAsyncEvent {
+    /**
+     * True to only report what would be cleaned.
+     */
+    private boolean dryRun;
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public CleanStorageAsyncEvent setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("dryRun", dryRun)
+                .toString();
+    }
+}
@@ -13,6 +13,11 @@ public class FileDeletedAsyncEvent extends UserEvent {
      */
     private String fileId;
 
+    /**
+     * ID of the stored data of the file.
+     */
+    private String storageId;
+
     public String getFileId() {
         return fileId;
     }
@@ -21,10 +26,19 @@ public class FileDeletedAsyncEvent extends UserEvent {
         this.fileId = fileId;
     }
 
+    public String getStorageId() {
+        return storageId;
+    }
+
+    public void setStorageId(String storageId) {
+        this.storageId = storageId;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
             .add("fileId", fileId)
+            .add("storageId", storageId)
             .toString();
     }
 }
\ No newline at end of file
@@ -25,6 +25,11 @@ public abstract class FileEvent extends UserEvent {
      */
     private Path unencryptedFile;
 
+    /**
+     * True if the content and thumbnails are shared with an identical file, there is nothing to extract.
+     */
+    private boolean contentReused;
+
     public String getFileId() {
         return fileId;
     }
@@ -50,11 +55,21 @@ public abstract class FileEvent extends UserEvent {
         return this;
     }
 
+    public boolean isContentReused() {
+        return contentReused;
+    }
+
+    public FileEvent setContentReused(boolean contentReused) {
+        this.contentReused = contentReused;
+        return this;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
             .add("fileId", fileId)
             .add("language", language)
+            .add("contentReused", contentReused)
             .toString();
     }
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package com.sismics.docs.core.event;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Tag updated event, fired when a tag is moved in the hierarchy or deleted.
+ *
+ * @author bgamard
+ */
+public class TagUpdatedAsyncEvent extends UserEvent {
+    /**
+     * Tag ID.
+     */
+    private String tagId;
+
+    public String getTagId() {
+        return tagId;
+    }
+
+    public void setTagId(String tagId) {
+        this.tagId = tagId;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("tagId", tagId)
+            .toString();
+    }
+}
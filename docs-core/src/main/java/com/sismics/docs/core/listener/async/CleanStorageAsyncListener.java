@@ -0,0 +1,35 @@
+package com.sismics.docs.core.listener.async;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.sismics.docs.core.event.CleanStorageAsyncEvent;
+import com.sismics.docs.core.model.context.AppContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listener on clean storage.
+ *
+ * @author bgamard
+ */
+public class CleanStorageAsyncListener {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(CleanStorageAsyncListener.class);
+
+    /**
+     * Clean the file and DB storage.
+     *
+     * @param event Clean storage event
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final CleanStorageAsyncEvent event) {
+        if (log.isInfoEnabled()) {
+            log.info("Clean storage event: " + event.toString());
+        }
+
+        AppContext.getInstance().getStorageCleaner().clean(event.isDryRun());
+    }
+}
@@ -2,6 +2,7 @@ package com.sismics.docs.core.listener.async;
 
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
+import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.event.FileDeletedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.util.FileUtil;
@@ -9,6 +10,8 @@ import com.sismics.docs.core.util.TransactionUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+
 /**
  * Listener on file deleted.
  * 
@@ -33,10 +36,17 @@ public class FileDeletedAsyncListener {
             log.info("File deleted event: " + event.toString());
         }
 
-        // Delete the file from storage
-        FileUtil.delete(event.getFileId());
-
         TransactionUtil.handle(() -> {
+            // Delete the stored data once no file shares it anymore
+            String storageId = event.getStorageId() == null ? event.getFileId() : event.getStorageId();
+            if (new FileDao().getStorageReferenceCount(storageId) == 0) {
+                try {
+                    FileUtil.delete(storageId);
+                } catch (IOException e) {
+                    log.error("Unable to delete the stored data: " + storageId, e);
+                }
+            }
+
             // Update index
             AppContext.getInstance().getIndexingHandler().deleteDocument(event.getFileId());
         });
@@ -10,28 +10,19 @@ import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
-import com.sismics.docs.core.util.EncryptionUtil;
 import com.sismics.docs.core.util.FileUtil;
 import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.docs.core.util.format.FormatHandler;
 import com.sismics.docs.core.util.format.FormatHandlerUtil;
-import com.sismics.util.ImageUtil;
-import com.sismics.util.Scalr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
-import java.awt.image.BufferedImage;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Listener on file processing.
+ * Extracts the text content of files, thumbnails are generated by {@link FileThumbnailAsyncListener}.
  * 
  * @author bgamard
  */
@@ -71,7 +62,6 @@ public class FileProcessingAsyncListener {
 
     /**
      * Process a file :
-     * Generate thumbnails
      * Extract and save text content
      *
      * @param event File event
@@ -83,7 +73,7 @@ public class FileProcessingAsyncListener {
 
         // Open a first transaction to get what we need to start the processing
         TransactionUtil.handle(() -> {
-            // Generate thumbnail, extract content
+            // Extract content
             file.set(new FileDao().getActiveById(event.getFileId()));
             if (file.get() == null) {
                 // The file has been deleted since
@@ -101,7 +91,7 @@ public class FileProcessingAsyncListener {
             FileUtil.endProcessingFile(event.getFileId());
             return;
         }
-        String content = extractContent(event, user.get(), file.get());
+        String content = event.isContentReused() ? file.get().getContent() : extractContent(event, file.get());
 
         // Open a new transaction to save the file content
         TransactionUtil.handle(() -> {
@@ -132,11 +122,10 @@ public class FileProcessingAsyncListener {
      * This is executed outside of a transaction.
      *
      * @param event File event
-     * @param user User whom created the file
      * @param file Fresh file
      * @return Text content
      */
-    private String extractContent(FileEvent event, User user, File file) {
+    private String extractContent(FileEvent event, File file) {
         // Find a format handler
         FormatHandler formatHandler = FormatHandlerUtil.find(file.getMimeType());
         if (formatHandler == null) {
@@ -144,32 +133,6 @@ public class FileProcessingAsyncListener {
             return null;
         }
 
-        // Generate file variations
-        try {
-            Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-            BufferedImage image = formatHandler.generateThumbnail(event.getUnencryptedFile());
-            if (image != null) {
-                // Generate thumbnails from image
-                BufferedImage web = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 1280);
-                BufferedImage thumbnail = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 256);
-                image.flush();
-
-                // Write "web" encrypted image
-                Path outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_web");
-                try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
-                    ImageUtil.writeJpeg(web, outputStream);
-                }
-
-                // Write "thumb" encrypted image
-                outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_thumb");
-                try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
-                    ImageUtil.writeJpeg(thumbnail, outputStream);
-                }
-            }
-        } catch (Throwable e) {
-            log.error("Unable to generate thumbnails for: " + file, e);
-        }
-
         // Extract text content from the file
         long startTime = System.currentTimeMillis();
         String content = null;
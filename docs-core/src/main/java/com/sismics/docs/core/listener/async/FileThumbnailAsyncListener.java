@@ -0,0 +1,107 @@
+package com.sismics.docs.core.listener.async;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.event.FileCreatedAsyncEvent;
+import com.sismics.docs.core.event.FileEvent;
+import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.format.FormatHandler;
+import com.sismics.docs.core.util.format.FormatHandlerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Listener on file thumbnails generation.
+ *
+ * @author bgamard
+ */
+public class FileThumbnailAsyncListener {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(FileThumbnailAsyncListener.class);
+
+    /**
+     * File created.
+     *
+     * @param event File created event
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final FileCreatedAsyncEvent event) {
+        generateThumbnails(event);
+    }
+
+    /**
+     * File updated.
+     *
+     * @param event File updated event
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final FileUpdatedAsyncEvent event) {
+        generateThumbnails(event);
+    }
+
+    /**
+     * Generate the web rendition of a file.
+     *
+     * @param event File event
+     */
+    private void generateThumbnails(FileEvent event) {
+        AtomicReference<File> file = new AtomicReference<>();
+        AtomicReference<User> user = new AtomicReference<>();
+
+        try {
+            if (event.isContentReused()) {
+                // The thumbnails are already there
+                return;
+            }
+
+            TransactionUtil.handle(() -> {
+                file.set(new FileDao().getActiveById(event.getFileId()));
+                if (file.get() == null) {
+                    // The file has been deleted since
+                    return;
+                }
+
+                // Get the creating user from the database for its private key
+                UserDao userDao = new UserDao();
+                user.set(userDao.getById(file.get().getUserId()));
+            });
+
+            // Generate the thumbnails outside of a transaction
+            if (user.get() == null || file.get() == null) {
+                // The user or file has been deleted
+                return;
+            }
+
+            // Find a format handler
+            FormatHandler formatHandler = FormatHandlerUtil.find(file.get().getMimeType());
+            if (formatHandler == null) {
+                return;
+            }
+
+            BufferedImage image = formatHandler.generateThumbnail(event.getUnencryptedFile());
+            if (image != null) {
+                // Only the web rendition is stored, the smaller ones are downscaled from it on demand
+                AppContext.getInstance().getRenditionManager().writeWebRendition(image, file.get().getStorageId(), user.get().getPrivateKey());
+                image.flush();
+            }
+        } catch (Throwable e) {
+            log.error("Unable to generate thumbnails for: " + file.get(), e);
+        } finally {
+            FileUtil.endProcessingFile(event.getFileId());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.sismics.docs.core.listener.async;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.sismics.docs.core.event.TagUpdatedAsyncEvent;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listener on tag updated.
+ *
+ * @author bgamard
+ */
+public class TagUpdatedAsyncListener {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(TagUpdatedAsyncListener.class);
+
+    /**
+     * Tag updated.
+     *
+     * @param event Tag updated event
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final TagUpdatedAsyncEvent event) {
+        if (log.isInfoEnabled()) {
+            log.info("Tag updated event: " + event.toString());
+        }
+
+        TransactionUtil.handle(() -> AppContext.getInstance().getIndexingHandler()
+                .updateTag(event.getTagId()));
+    }
+}
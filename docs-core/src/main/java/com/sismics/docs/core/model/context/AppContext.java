@@ -5,15 +5,27 @@ import com.google.common.collect.Lists;
 import com.google.common.eventbus.AsyncEventBus;
 import com.google.common.eventbus.EventBus;
 import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.constant.ProcessingLane;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.listener.async.*;
 import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.service.FileService;
 import com.sismics.docs.core.service.InboxService;
+import com.sismics.docs.core.service.ProcessingScheduler;
+import com.sismics.docs.core.util.ConfigUtil;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.FileUtil;
 import com.sismics.docs.core.util.PdfUtil;
+import com.sismics.docs.core.util.indexing.IndexRebuilder;
 import com.sismics.docs.core.util.indexing.IndexingHandler;
+import com.sismics.docs.core.util.ocr.OcrEngine;
+import com.sismics.docs.core.util.ocr.TesseractOcrEngine;
+import com.sismics.docs.core.util.rendition.RenditionManager;
+import com.sismics.docs.core.util.storage.StorageBackend;
+import com.sismics.docs.core.util.storage.StorageCleaner;
 import com.sismics.util.ClasspathScanner;
 import com.sismics.util.EnvironmentUtil;
+import com.sismics.util.context.ThreadLocalContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,9 +53,9 @@ public class AppContext {
     private static AppContext instance;
 
     /**
-     * Generic asynchronous event bus.
+     * Asynchronous processing scheduler.
      */
-    private EventBus asyncEventBus;
+    private ProcessingScheduler processingScheduler;
 
     /**
      * Asynchronous bus for email sending.
@@ -55,6 +67,31 @@ public class AppContext {
      */
     private IndexingHandler indexingHandler;
 
+    /**
+     * Index rebuilder.
+     */
+    private IndexRebuilder indexRebuilder;
+
+    /**
+     * Storage backend of the files data.
+     */
+    private StorageBackend storageBackend;
+
+    /**
+     * Storage cleaner.
+     */
+    private StorageCleaner storageCleaner;
+
+    /**
+     * Renditions of the files.
+     */
+    private RenditionManager renditionManager;
+
+    /**
+     * OCR engine.
+     */
+    private OcrEngine ocrEngine;
+
     /**
      * Inbox scanning service.
      */
@@ -66,7 +103,7 @@ public class AppContext {
     private FileService fileService;
 
     /**
-     * Asynchronous executors.
+     * Asynchronous executors of the mail event bus.
      */
     private List<ThreadPoolExecutor> asyncExecutorList;
 
@@ -76,7 +113,30 @@ public class AppContext {
     private void startUp() {
         resetEventBus();
 
+        // Start storage backend
+        try {
+            List<Class<? extends StorageBackend>> storageBackendList = Lists.newArrayList(
+                    new ClasspathScanner<StorageBackend>().findClasses(StorageBackend.class, "com.sismics.docs.core.util.storage"));
+            for (Class<? extends StorageBackend> backendClass : storageBackendList) {
+                StorageBackend backend = backendClass.getDeclaredConstructor().newInstance();
+                if (backend.accept()) {
+                    storageBackend = backend;
+                    break;
+                }
+            }
+            storageBackend.startUp();
+        } catch (Exception e) {
+            log.error("Error starting the storage backend", e);
+        }
+        storageCleaner = new StorageCleaner();
+        renditionManager = new RenditionManager(DirectoryUtil.getRenditionDirectory(),
+                ConfigUtil.getEnvIntegerValue(Constants.RENDITION_CACHE_SIZE_ENV, Constants.DEFAULT_RENDITION_CACHE_SIZE) * 1024L * 1024L);
+        ocrEngine = new TesseractOcrEngine(
+                ConfigUtil.getEnvIntegerValue(Constants.OCR_WARM_WORKERS_ENV, ConfigUtil.getOcrConcurrency()),
+                ConfigUtil.getEnvIntegerValue(Constants.OCR_TIMEOUT_ENV, Constants.DEFAULT_OCR_TIMEOUT));
+
         // Start indexing handler
+        indexRebuilder = new IndexRebuilder();
         try {
             List<Class<? extends IndexingHandler>> indexingHandlerList = Lists.newArrayList(
                     new ClasspathScanner<IndexingHandler>().findClasses(IndexingHandler.class, "com.sismics.docs.core.util.indexing"));
@@ -105,6 +165,16 @@ public class AppContext {
         // Register fonts
         PdfUtil.registerFonts();
 
+        // Replay the file processing interrupted by the last shutdown, once the startup transaction is committed
+        Thread replayThread = new Thread(FileUtil::replayProcessingJobs, "processing-replay");
+        replayThread.setDaemon(true);
+        ThreadLocalContext context = ThreadLocalContext.get();
+        if (context.getEntityManager() == null) {
+            replayThread.start();
+        } else {
+            context.addTransactionEndHook(replayThread::start);
+        }
+
         // Change the admin password if needed
         String envAdminPassword = System.getenv(Constants.ADMIN_PASSWORD_INIT_ENV);
         if (!Strings.isNullOrEmpty(envAdminPassword)) {
@@ -134,16 +204,19 @@ public class AppContext {
     private void resetEventBus() {
         asyncExecutorList = new ArrayList<>();
 
-        asyncEventBus = newAsyncEventBus();
-        asyncEventBus.register(new FileProcessingAsyncListener());
-        asyncEventBus.register(new FileDeletedAsyncListener());
-        asyncEventBus.register(new DocumentCreatedAsyncListener());
-        asyncEventBus.register(new DocumentUpdatedAsyncListener());
-        asyncEventBus.register(new DocumentDeletedAsyncListener());
-        asyncEventBus.register(new RebuildIndexAsyncListener());
-        asyncEventBus.register(new AclCreatedAsyncListener());
-        asyncEventBus.register(new AclDeletedAsyncListener());
-        asyncEventBus.register(new WebhookAsyncListener());
+        processingScheduler = new ProcessingScheduler();
+        processingScheduler.register(ProcessingLane.THUMBNAIL, new FileThumbnailAsyncListener());
+        processingScheduler.register(ProcessingLane.CONTENT, new FileProcessingAsyncListener());
+        processingScheduler.register(ProcessingLane.INDEXING, new FileDeletedAsyncListener());
+        processingScheduler.register(ProcessingLane.INDEXING, new DocumentCreatedAsyncListener());
+        processingScheduler.register(ProcessingLane.INDEXING, new DocumentUpdatedAsyncListener());
+        processingScheduler.register(ProcessingLane.INDEXING, new DocumentDeletedAsyncListener());
+        processingScheduler.register(ProcessingLane.INDEXING, new RebuildIndexAsyncListener());
+        processingScheduler.register(ProcessingLane.INDEXING, new AclCreatedAsyncListener());
+        processingScheduler.register(ProcessingLane.INDEXING, new AclDeletedAsyncListener());
+        processingScheduler.register(ProcessingLane.INDEXING, new TagUpdatedAsyncListener());
+        processingScheduler.register(ProcessingLane.WEBHOOK, new WebhookAsyncListener());
+        processingScheduler.register(ProcessingLane.STORAGE, new CleanStorageAsyncListener());
 
         mailEventBus = newAsyncEventBus();
         mailEventBus.register(new PasswordLostAsyncListener());
@@ -181,21 +254,8 @@ public class AppContext {
         }
     }
 
-    /**
-     * Return the current number of queued tasks waiting to be processed.
-     *
-     * @return Number of queued tasks
-     */
-    public int getQueuedTaskCount() {
-        int queueSize = 0;
-        for (ThreadPoolExecutor executor : asyncExecutorList) {
-            queueSize += executor.getTaskCount() - executor.getCompletedTaskCount();
-        }
-        return queueSize;
-    }
-
-    public EventBus getAsyncEventBus() {
-        return asyncEventBus;
+    public ProcessingScheduler getProcessingScheduler() {
+        return processingScheduler;
     }
 
     public EventBus getMailEventBus() {
@@ -206,6 +266,26 @@ public class AppContext {
         return indexingHandler;
     }
 
+    public IndexRebuilder getIndexRebuilder() {
+        return indexRebuilder;
+    }
+
+    public StorageBackend getStorageBackend() {
+        return storageBackend;
+    }
+
+    public StorageCleaner getStorageCleaner() {
+        return storageCleaner;
+    }
+
+    public RenditionManager getRenditionManager() {
+        return renditionManager;
+    }
+
+    public OcrEngine getOcrEngine() {
+        return ocrEngine;
+    }
+
     public InboxService getInboxService() {
         return inboxService;
     }
@@ -215,6 +295,19 @@ public class AppContext {
     }
 
     public void shutDown() {
+        if (indexRebuilder != null) {
+            // Stop the rebuild before its listener, it will resume on next startup
+            indexRebuilder.shutDown();
+        }
+
+        if (storageCleaner != null) {
+            storageCleaner.shutDown();
+        }
+
+        if (processingScheduler != null) {
+            processingScheduler.shutDown();
+        }
+
         for (ExecutorService executor : asyncExecutorList) {
             // Shutdown executor, don't accept any more tasks (can cause error with nested events)
             try {
@@ -229,6 +322,10 @@ public class AppContext {
             indexingHandler.shutDown();
         }
 
+        if (ocrEngine != null) {
+            ocrEngine.shutDown();
+        }
+
         if (inboxService != null) {
             inboxService.stopAsync();
             inboxService.awaitTerminated();
@@ -238,6 +335,10 @@ public class AppContext {
             fileService.stopAsync();
         }
 
+        if (storageBackend != null) {
+            storageBackend.shutDown();
+        }
+
         instance = null;
     }
 }
@@ -88,6 +88,18 @@ public class File implements Loggable {
     @Column(name = "FIL_LATESTVERSION_B", nullable = false)
     private boolean latestVersion;
 
+    /**
+     * SHA-256 hash of the unencrypted content, null for files stored before hashing.
+     */
+    @Column(name = "FIL_HASH_C", length = 64)
+    private String hash;
+
+    /**
+     * ID of the stored data, shared by the identical files of a user.
+     */
+    @Column(name = "FIL_IDSTORAGE_C", length = 36, nullable = false)
+    private String storageId;
+
     /**
      * Private key to decrypt the file.
      * Not saved to database, of course.
@@ -204,6 +216,24 @@ public class File implements Loggable {
         return this;
     }
 
+    public String getHash() {
+        return hash;
+    }
+
+    public File setHash(String hash) {
+        this.hash = hash;
+        return this;
+    }
+
+    public String getStorageId() {
+        return storageId;
+    }
+
+    public File setStorageId(String storageId) {
+        this.storageId = storageId;
+        return this;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -0,0 +1,134 @@
+package com.sismics.docs.core.model.jpa;
+
+import com.google.common.base.MoreObjects;
+import com.sismics.docs.core.constant.ProcessingJobType;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Pending file processing job.
+ * Recorded with the file, and deleted once the file is processed.
+ *
+ * @author bgamard
+ */
+@Entity
+@Table(name = "T_PROCESSING_JOB")
+public class ProcessingJob {
+    /**
+     * Job ID.
+     */
+    @Id
+    @Column(name = "PJB_ID_C", nullable = false, length = 36)
+    private String id;
+
+    /**
+     * File ID.
+     */
+    @Column(name = "PJB_IDFILE_C", nullable = false, length = 36)
+    private String fileId;
+
+    /**
+     * ID of the user who requested the processing.
+     */
+    @Column(name = "PJB_IDUSER_C", nullable = false, length = 36)
+    private String userId;
+
+    /**
+     * Job type.
+     */
+    @Column(name = "PJB_TYPE_C", nullable = false, length = 20)
+    @Enumerated(EnumType.STRING)
+    private ProcessingJobType type;
+
+    /**
+     * Language of the file content.
+     */
+    @Column(name = "PJB_LANGUAGE_C", length = 7)
+    private String language;
+
+    /**
+     * Number of times the job has been replayed after a restart.
+     */
+    @Column(name = "PJB_ATTEMPT_N", nullable = false)
+    private Integer attemptCount;
+
+    /**
+     * Creation date.
+     */
+    @Column(name = "PJB_CREATEDATE_D", nullable = false)
+    private Date createDate;
+
+    public String getId() {
+        return id;
+    }
+
+    public ProcessingJob setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public ProcessingJob setFileId(String fileId) {
+        this.fileId = fileId;
+        return this;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public ProcessingJob setUserId(String userId) {
+        this.userId = userId;
+        return this;
+    }
+
+    public ProcessingJobType getType() {
+        return type;
+    }
+
+    public ProcessingJob setType(ProcessingJobType type) {
+        this.type = type;
+        return this;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public ProcessingJob setLanguage(String language) {
+        this.language = language;
+        return this;
+    }
+
+    public Integer getAttemptCount() {
+        return attemptCount;
+    }
+
+    public ProcessingJob setAttemptCount(Integer attemptCount) {
+        this.attemptCount = attemptCount;
+        return this;
+    }
+
+    public Date getCreateDate() {
+        return createDate;
+    }
+
+    public ProcessingJob setCreateDate(Date createDate) {
+        this.createDate = createDate;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", id)
+                .add("fileId", fileId)
+                .add("type", type)
+                .add("attemptCount", attemptCount)
+                .toString();
+    }
+}
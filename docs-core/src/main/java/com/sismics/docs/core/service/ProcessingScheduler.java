@@ -0,0 +1,356 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.eventbus.AsyncEventBus;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.constant.ProcessingLane;
+import com.sismics.docs.core.util.ConfigUtil;
+import com.sismics.util.EnvironmentUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous processing scheduler.
+ * Events are dispatched to the listeners of each processing lane, every lane running
+ * its own workers on a bounded queue. Posting to a full lane blocks the caller until
+ * a worker is available, slowing down the producers instead of queuing without limit.
+ * The workers of any lane run the task themselves instead, so lanes never wait for each other.
+ *
+ * @author bgamard
+ */
+public class ProcessingScheduler {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ProcessingScheduler.class);
+
+    /**
+     * Interval between two checks of a lane capacity (in milliseconds).
+     */
+    private static final long CAPACITY_POLL_MS = 100;
+
+    /**
+     * Name prefix of the workers threads of all lanes.
+     */
+    private static final String THREAD_NAME_PREFIX = "processing-";
+
+    /**
+     * Event bus of each lane.
+     */
+    private final Map<ProcessingLane, EventBus> eventBusMap = new EnumMap<>(ProcessingLane.class);
+
+    /**
+     * Executor of each lane, empty in unit tests where events are processed synchronously.
+     */
+    private final Map<ProcessingLane, LaneExecutor> executorMap = new EnumMap<>(ProcessingLane.class);
+
+    /**
+     * Constructor.
+     */
+    public ProcessingScheduler() {
+        for (ProcessingLane lane : ProcessingLane.values()) {
+            if (EnvironmentUtil.isUnitTest()) {
+                eventBusMap.put(lane, new EventBus(lane.name()));
+            } else {
+                int concurrency = Math.max(ConfigUtil.getEnvIntegerValue(lane.getConcurrencyEnv(), lane.getDefaultConcurrency()), 1);
+                int queueSize = Math.max(ConfigUtil.getEnvIntegerValue(lane.getQueueSizeEnv(), lane.getDefaultQueueSize()), 1);
+                log.info("Processing lane {} with {} workers and {} queued tasks at most", lane, concurrency, queueSize);
+                LaneExecutor executor = new LaneExecutor(lane, concurrency, queueSize);
+                executorMap.put(lane, executor);
+                eventBusMap.put(lane, new AsyncEventBus(lane.name(), executor));
+            }
+        }
+    }
+
+    /**
+     * Register a listener on a lane.
+     *
+     * @param lane Processing lane
+     * @param listener Listener
+     */
+    public void register(ProcessingLane lane, Object listener) {
+        eventBusMap.get(lane).register(listener);
+    }
+
+    /**
+     * Post an event to the listeners of all lanes.
+     * Blocks while the queue of a lane interested in this event is full.
+     *
+     * @param event Event
+     */
+    public void post(Object event) {
+        for (EventBus eventBus : eventBusMap.values()) {
+            eventBus.post(event);
+        }
+    }
+
+    /**
+     * Wait until some lanes can queue a new task.
+     *
+     * @param timeout Maximum time to wait (in milliseconds)
+     * @param lanes Processing lanes
+     * @return True if all lanes can queue a new task, false if the timeout elapsed
+     */
+    public boolean awaitCapacity(long timeout, ProcessingLane... lanes) {
+        long deadline = System.currentTimeMillis() + timeout;
+        for (ProcessingLane lane : lanes) {
+            LaneExecutor executor = executorMap.get(lane);
+            if (executor == null) {
+                continue;
+            }
+            while (executor.getQueue().remainingCapacity() == 0) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                try {
+                    Thread.sleep(CAPACITY_POLL_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of tasks queued or running in all lanes.
+     *
+     * @return Number of tasks
+     */
+    public int getQueuedTaskCount() {
+        int count = 0;
+        for (ProcessingLane lane : ProcessingLane.values()) {
+            count += getQueueDepth(lane) + getActiveCount(lane);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of tasks waiting in a lane.
+     *
+     * @param lane Processing lane
+     * @return Number of queued tasks
+     */
+    public int getQueueDepth(ProcessingLane lane) {
+        LaneExecutor executor = executorMap.get(lane);
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * Returns the number of tasks running in a lane.
+     *
+     * @param lane Processing lane
+     * @return Number of running tasks
+     */
+    public int getActiveCount(ProcessingLane lane) {
+        LaneExecutor executor = executorMap.get(lane);
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    /**
+     * Returns the number of workers of a lane.
+     *
+     * @param lane Processing lane
+     * @return Number of workers
+     */
+    public int getConcurrency(ProcessingLane lane) {
+        LaneExecutor executor = executorMap.get(lane);
+        return executor == null ? 0 : executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Returns the number of tasks completed by a lane.
+     *
+     * @param lane Processing lane
+     * @return Number of completed tasks
+     */
+    public long getCompletedCount(ProcessingLane lane) {
+        LaneExecutor executor = executorMap.get(lane);
+        return executor == null ? 0 : executor.getCompletedTaskCount();
+    }
+
+    /**
+     * Returns the average time recent tasks waited in the queue of a lane.
+     *
+     * @param lane Processing lane
+     * @return Wait time (in milliseconds)
+     */
+    public long getAverageWaitTime(ProcessingLane lane) {
+        LaneExecutor executor = executorMap.get(lane);
+        return executor == null ? 0 : executor.averageWaitTime;
+    }
+
+    /**
+     * Returns the average time recent tasks of a lane took to run.
+     *
+     * @param lane Processing lane
+     * @return Run time (in milliseconds)
+     */
+    public long getAverageRunTime(ProcessingLane lane) {
+        LaneExecutor executor = executorMap.get(lane);
+        return executor == null ? 0 : executor.averageRunTime;
+    }
+
+    /**
+     * Returns the number of times producers had to wait for room in the queue of a lane.
+     *
+     * @param lane Processing lane
+     * @return Number of blocked posts
+     */
+    public long getBlockedCount(ProcessingLane lane) {
+        LaneExecutor executor = executorMap.get(lane);
+        return executor == null ? 0 : executor.blockedCount.get();
+    }
+
+    /**
+     * Shutdown all lanes, letting them process their queued tasks.
+     */
+    public void shutDown() {
+        for (LaneExecutor executor : executorMap.values()) {
+            // Shutdown executor, don't accept any more tasks (can cause error with nested events)
+            try {
+                executor.shutdown();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                // NOP
+            }
+        }
+    }
+
+    /**
+     * Executor of a processing lane.
+     * Blocks the producers when the queue is full, and measures the tasks latency.
+     *
+     * @author bgamard
+     */
+    private static class LaneExecutor extends ThreadPoolExecutor {
+        /**
+         * Weight of the last task in the average times.
+         */
+        private static final double AVERAGE_WEIGHT = 0.1;
+
+        /**
+         * Average time recent tasks waited in the queue (in milliseconds).
+         */
+        private volatile long averageWaitTime;
+
+        /**
+         * Average time recent tasks took to run (in milliseconds).
+         */
+        private volatile long averageRunTime;
+
+        /**
+         * Number of times producers had to wait for room in the queue.
+         */
+        private final AtomicLong blockedCount = new AtomicLong();
+
+        /**
+         * Constructor.
+         *
+         * @param lane Processing lane
+         * @param concurrency Number of workers
+         * @param queueSize Maximum number of queued tasks
+         */
+        LaneExecutor(ProcessingLane lane, int concurrency, int queueSize) {
+            super(concurrency, concurrency, 1L, TimeUnit.MINUTES, new ArrayBlockingQueue<>(queueSize));
+            setThreadFactory(new ThreadFactoryBuilder().setNameFormat(THREAD_NAME_PREFIX + lane.name().toLowerCase() + "-%d").build());
+            setRejectedExecutionHandler((runnable, executor) -> {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("Processing lane " + lane + " is shut down");
+                }
+                if (Thread.currentThread().getName().startsWith(THREAD_NAME_PREFIX)) {
+                    // Workers of two lanes waiting for each other's queue would never be released, run the task now
+                    runnable.run();
+                    return;
+                }
+
+                // Wait for room in the queue
+                blockedCount.incrementAndGet();
+                try {
+                    executor.getQueue().put(runnable);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for processing lane " + lane, e);
+                }
+            });
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(new TimedTask(command));
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable runnable) {
+            if (runnable instanceof TimedTask) {
+                TimedTask task = (TimedTask) runnable;
+                task.startTime = System.currentTimeMillis();
+                averageWaitTime = average(averageWaitTime, task.startTime - task.queueTime);
+            }
+        }
+
+        @Override
+        protected void afterExecute(Runnable runnable, Throwable throwable) {
+            if (runnable instanceof TimedTask) {
+                TimedTask task = (TimedTask) runnable;
+                averageRunTime = average(averageRunTime, System.currentTimeMillis() - task.startTime);
+            }
+        }
+
+        /**
+         * Add a value to a moving average.
+         *
+         * @param average Current average
+         * @param value New value
+         * @return New average
+         */
+        private static long average(long average, long value) {
+            return Math.round(average + AVERAGE_WEIGHT * (value - average));
+        }
+    }
+
+    /**
+     * Task timed by its lane executor.
+     *
+     * @author bgamard
+     */
+    private static class TimedTask implements Runnable {
+        /**
+         * Wrapped task.
+         */
+        private final Runnable runnable;
+
+        /**
+         * Time the task has been queued.
+         */
+        private final long queueTime = System.currentTimeMillis();
+
+        /**
+         * Time the task started to run.
+         */
+        private long startTime;
+
+        /**
+         * Constructor.
+         *
+         * @param runnable Wrapped task
+         */
+        TimedTask(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.sismics.docs.core.util;
 
+import com.google.common.base.Strings;
 import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.ConfigDao;
 import com.sismics.docs.core.model.jpa.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ResourceBundle;
 
@@ -12,6 +16,11 @@ import java.util.ResourceBundle;
  * @author jtremeaux
  */
 public class ConfigUtil {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ConfigUtil.class);
+
     /**
      * Returns the textual value of a configuration parameter.
      * 
@@ -75,4 +84,49 @@ public class ConfigUtil {
         
         return Boolean.parseBoolean(value);
     }
+
+    /**
+     * Returns the integer value of an environment variable.
+     *
+     * @param envName Name of the environment variable
+     * @param defaultValue Value returned if the variable is undefined or invalid
+     * @return Integer value of the environment variable
+     */
+    public static int getEnvIntegerValue(String envName, int defaultValue) {
+        String value = System.getenv(envName);
+        if (Strings.isNullOrEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            log.warn(envName + " needs to be a number. Falling back to " + defaultValue + ".");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the boolean value of an environment variable.
+     *
+     * @param envName Name of the environment variable
+     * @param defaultValue Value returned if the variable is undefined
+     * @return Boolean value of the environment variable
+     */
+    public static boolean getEnvBooleanValue(String envName, boolean defaultValue) {
+        String value = System.getenv(envName);
+        if (Strings.isNullOrEmpty(value)) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Returns the number of images OCR-ized in parallel.
+     *
+     * @return Number of images
+     */
+    public static int getOcrConcurrency() {
+        return Math.max(getEnvIntegerValue(Constants.OCR_CONCURRENCY_ENV,
+                Math.max(Runtime.getRuntime().availableProcessors() / 2, 1)), 1);
+    }
 }
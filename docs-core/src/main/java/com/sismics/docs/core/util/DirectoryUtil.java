@@ -68,6 +68,15 @@ public class DirectoryUtil {
         return getDataSubDirectory("lucene");
     }
     
+    /**
+     * Returns the search suggestions directory, next to the lucene indexes.
+     *
+     * @return Search suggestions directory.
+     */
+    public static Path getLuceneSuggestDirectory() {
+        return getDataSubDirectory("lucene/suggest");
+    }
+
     /**
      * Returns the storage directory.
      * 
@@ -77,6 +86,15 @@ public class DirectoryUtil {
         return getDataSubDirectory("storage");
     }
     
+    /**
+     * Returns the directory of the cached file renditions.
+     *
+     * @return Renditions directory.
+     */
+    public static Path getRenditionDirectory() {
+        return getDataSubDirectory("rendition");
+    }
+
     /**
      * Returns the log directory.
      * 
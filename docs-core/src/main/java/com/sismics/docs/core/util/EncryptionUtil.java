@@ -1,6 +1,11 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.io.ByteStreams;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.model.context.AppContext;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
@@ -8,7 +13,9 @@ import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
+import javax.security.auth.DestroyFailedException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.nio.file.Files;
@@ -17,6 +24,7 @@ import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Encryption utilities.
@@ -28,6 +36,20 @@ public class EncryptionUtil {
      * Salt.
      */
     private static final String SALT = "LEpxZmm2SMu2PeKzPNrar2rhVAS6LrrgvXKeL9uyXC4vgKHg";
+
+    /**
+     * Size of a cipher block.
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Keys derived from the private keys, the derivation being slow on purpose.
+     * Evicted keys are destroyed, wiping the key material from memory.
+     */
+    private static final Cache<String, SecretKey> secretKeyCache = CacheBuilder.newBuilder()
+            .maximumSize(ConfigUtil.getEnvIntegerValue(Constants.ENCRYPTION_KEY_CACHE_SIZE_ENV, Constants.DEFAULT_ENCRYPTION_KEY_CACHE_SIZE))
+            .removalListener((RemovalListener<String, SecretKey>) notification -> destroy(notification.getValue()))
+            .build();
     
     static {
         // Initialize Bouncy Castle provider
@@ -62,22 +84,46 @@ public class EncryptionUtil {
     }
 
     /**
-     * Decrypt a file to a temporary file using the specified private key.
+     * Decrypt an InputStream from an offset using the specified private key.
+     * In counter mode, any block can be decrypted without the data before it.
      *
-     * @param file Encrypted file
+     * @param is InputStream to decrypt, starting at the block offset of the offset
      * @param privateKey Private key
-     * @return Decrypted temporary file
+     * @param offset Offset of the first byte to decrypt
+     * @return Decrypted stream, starting at the offset
      * @throws Exception e
      */
-    public static Path decryptFile(Path file, String privateKey) throws Exception {
-        if (privateKey == null) {
-            // For unit testing
-            return file;
-        }
+    public static InputStream decryptInputStream(InputStream is, String privateKey, long offset) throws Exception {
+        InputStream decryptedStream = new CipherInputStream(is, getCipher(privateKey, Cipher.DECRYPT_MODE, offset / BLOCK_SIZE));
+        ByteStreams.skipFully(decryptedStream, offset - getBlockOffset(offset));
+        return decryptedStream;
+    }
 
+    /**
+     * Returns the offset of the block containing an offset.
+     * Encrypted data must be read from there to be decrypted from the offset.
+     *
+     * @param offset Offset
+     * @return Offset of the block
+     */
+    public static long getBlockOffset(long offset) {
+        return offset - offset % BLOCK_SIZE;
+    }
+
+    /**
+     * Decrypt stored data to a temporary file using the specified private key.
+     *
+     * @param is Encrypted stream, closed once decrypted
+     * @param privateKey Private key
+     * @return Decrypted temporary file
+     * @throws Exception e
+     */
+    public static Path decryptFile(InputStream is, String privateKey) throws Exception {
         Path tmpFile = AppContext.getInstance().getFileService().createTemporaryFile();
-        try (InputStream is = Files.newInputStream(file)) {
-            Files.copy(new CipherInputStream(is, getCipher(privateKey, Cipher.DECRYPT_MODE)), tmpFile, StandardCopyOption.REPLACE_EXISTING);
+        try (InputStream inputStream = is) {
+            // Unencrypted for unit testing
+            Files.copy(privateKey == null ? inputStream : new CipherInputStream(inputStream, getCipher(privateKey, Cipher.DECRYPT_MODE)),
+                    tmpFile, StandardCopyOption.REPLACE_EXISTING);
         }
         return tmpFile;
     }
@@ -95,6 +141,22 @@ public class EncryptionUtil {
         }
         return getCipher(privateKey, Cipher.ENCRYPT_MODE);
     }
+
+    /**
+     * Return an encryption cipher, continuing an encryption from the block containing an offset.
+     * The data from the block offset of the offset must be encrypted first.
+     *
+     * @param privateKey Private key
+     * @param offset Offset of the next byte to encrypt
+     * @return Encryption cipher
+     * @throws Exception e
+     */
+    public static Cipher getEncryptionCipher(String privateKey, long offset) throws Exception {
+        if (Strings.isNullOrEmpty(privateKey)) {
+            throw new IllegalArgumentException("The private key is null or empty");
+        }
+        return getCipher(privateKey, Cipher.ENCRYPT_MODE, offset / BLOCK_SIZE);
+    }
     
     /**
      * Initialize a Cipher.
@@ -105,11 +167,96 @@ public class EncryptionUtil {
      * @throws Exception e
      */
     private static Cipher getCipher(String privateKey, int mode) throws Exception {
-        PBEKeySpec keySpec = new PBEKeySpec(privateKey.toCharArray(), SALT.getBytes(), 2000, 256);
-        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC");
-        SecretKey desKey = skf.generateSecret(keySpec);
+        return getCipher(privateKey, mode, 0);
+    }
+
+    /**
+     * Initialize a Cipher, starting at a block.
+     *
+     * @param privateKey Private key
+     * @param mode Mode (encrypt or decrypt)
+     * @param block Index of the first block
+     * @return Cipher
+     * @throws Exception e
+     */
+    private static Cipher getCipher(String privateKey, int mode, long block) throws Exception {
         Cipher cipher = Cipher.getInstance("AES/CTR/NOPADDING");
-        cipher.init(mode, desKey);
+        SecretKey secretKey;
+        try {
+            secretKey = secretKeyCache.get(privateKey, () -> deriveSecretKey(privateKey));
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+
+        // The key can't be destroyed by an eviction while the cipher copies it
+        synchronized (secretKey) {
+            if (!secretKey.isDestroyed()) {
+                init(cipher, mode, secretKey, block);
+                return cipher;
+            }
+        }
+
+        // Evicted in the meantime, use a fresh key once
+        secretKey = deriveSecretKey(privateKey);
+        init(cipher, mode, secretKey, block);
+        destroy(secretKey);
         return cipher;
     }
+
+    /**
+     * Initialize a Cipher with a key, starting at a block.
+     *
+     * @param cipher Cipher
+     * @param mode Mode (encrypt or decrypt)
+     * @param secretKey Secret key
+     * @param block Index of the first block
+     * @throws Exception e
+     */
+    private static void init(Cipher cipher, int mode, SecretKey secretKey, long block) throws Exception {
+        cipher.init(mode, secretKey);
+        if (block == 0) {
+            return;
+        }
+
+        // Add the block index to the initial counter, the 128 bits counter wrapping around
+        byte[] iv = cipher.getIV();
+        BigInteger counter = new BigInteger(1, iv).add(BigInteger.valueOf(block));
+        byte[] counterBytes = counter.toByteArray();
+        byte[] blockIv = new byte[iv.length];
+        int length = Math.min(counterBytes.length, iv.length);
+        System.arraycopy(counterBytes, counterBytes.length - length, blockIv, iv.length - length, length);
+        cipher.init(mode, secretKey, new IvParameterSpec(blockIv));
+    }
+
+    /**
+     * Derive a secret key from a private key.
+     *
+     * @param privateKey Private key
+     * @return Secret key
+     * @throws Exception e
+     */
+    private static SecretKey deriveSecretKey(String privateKey) throws Exception {
+        PBEKeySpec keySpec = new PBEKeySpec(privateKey.toCharArray(), SALT.getBytes(), 2000, 256);
+        try {
+            SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC");
+            return skf.generateSecret(keySpec);
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    /**
+     * Destroy a secret key, wiping its material from memory.
+     *
+     * @param secretKey Secret key
+     */
+    private static void destroy(SecretKey secretKey) {
+        synchronized (secretKey) {
+            try {
+                secretKey.destroy();
+            } catch (DestroyFailedException e) {
+                // NOP, the key material will be garbage collected
+            }
+        }
+    }
 }
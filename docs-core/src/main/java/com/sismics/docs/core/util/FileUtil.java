@@ -1,20 +1,28 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
-import com.google.common.io.CharStreams;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.constant.ProcessingJobType;
 import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.ProcessingJobDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.event.DocumentUpdatedAsyncEvent;
 import com.sismics.docs.core.event.FileCreatedAsyncEvent;
+import com.sismics.docs.core.event.FileEvent;
+import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.ProcessingJob;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.storage.StorageBackend;
+import com.sismics.docs.core.util.storage.StorageOutputStream;
 import com.sismics.util.ImageDeskew;
 import com.sismics.util.Scalr;
 import com.sismics.util.context.ThreadLocalContext;
-import com.sismics.util.io.InputStreamReaderThread;
 import com.sismics.util.mime.MimeTypeUtil;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -22,15 +30,15 @@ import org.slf4j.LoggerFactory;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * File entity utilities.
@@ -44,9 +52,24 @@ public class FileUtil {
     private static final Logger log = LoggerFactory.getLogger(FileUtil.class);
 
     /**
-     * File ID of files currently being processed.
+     * Number of processing steps of a file (thumbnails and content extraction).
      */
-    private static Set<String> processingFileSet = Collections.synchronizedSet(new HashSet<>());
+    private static final int PROCESSING_STEP_COUNT = 2;
+
+    /**
+     * Maximum number of times an interrupted processing job is replayed.
+     */
+    private static final int PROCESSING_MAX_ATTEMPT = 3;
+
+    /**
+     * File ID of files currently being processed, counted once per remaining processing step.
+     */
+    private static Multiset<String> processingFileSet = ConcurrentHashMultiset.create();
+
+    /**
+     * Storage ID of files whose data is stored but whose transaction is not over yet.
+     */
+    private static Set<String> storingSet = ConcurrentHashMap.newKeySet();
     
     /**
      * Optical character recognition on an image.
@@ -63,42 +86,21 @@ public class FileUtil {
         ImageDeskew imageDeskew = new ImageDeskew(resizedImage);
         BufferedImage deskewedImage = Scalr.rotate(resizedImage, - imageDeskew.getSkewAngle(), Scalr.OP_ANTIALIAS, Scalr.OP_GRAYSCALE);
         resizedImage.flush();
-        Path tmpFile = AppContext.getInstance().getFileService().createTemporaryFile();
-        ImageIO.write(deskewedImage, "tiff", tmpFile.toFile());
-
-        List<String> result = Lists.newLinkedList(Arrays.asList("tesseract", tmpFile.toAbsolutePath().toString(), "stdout", "-l", language));
-        ProcessBuilder pb = new ProcessBuilder(result);
-        Process process = pb.start();
 
-        // Consume the process error stream
-        final String commandName = pb.command().get(0);
-        new InputStreamReaderThread(process.getErrorStream(), commandName).start();
-
-        // Consume the data as text
-        try (InputStream is = process.getInputStream()) {
-            return CharStreams.toString(new InputStreamReader(is, StandardCharsets.UTF_8));
-        }
+        return AppContext.getInstance().getOcrEngine().ocr(language, deskewedImage);
     }
 
     /**
-     * Remove a file from the storage filesystem.
+     * Remove stored data from the storage backend.
      * 
-     * @param fileId ID of file to delete
-     */
-    public static void delete(String fileId) throws IOException {
-        Path storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
-        Path webFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_web");
-        Path thumbnailFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_thumb");
-        
-        if (Files.exists(storedFile)) {
-            Files.delete(storedFile);
-        }
-        if (Files.exists(webFile)) {
-            Files.delete(webFile);
-        }
-        if (Files.exists(thumbnailFile)) {
-            Files.delete(thumbnailFile);
-        }
+     * @param storageId ID of the stored data to delete
+     */
+    public static void delete(String storageId) throws IOException {
+        StorageBackend storageBackend = AppContext.getInstance().getStorageBackend();
+        storageBackend.delete(storageId);
+        storageBackend.delete(storageId + "_web");
+        storageBackend.delete(storageId + "_thumb"); // Stored by earlier versions
+        AppContext.getInstance().getRenditionManager().evict(storageId);
     }
 
     /**
@@ -115,17 +117,45 @@ public class FileUtil {
      * @throws Exception e
      */
     public static String createFile(String name, String previousFileId, Path unencryptedFile, long fileSize, String language, String userId, String documentId) throws Exception {
-        // Validate mime type
-        String mimeType;
-        try {
-            mimeType = MimeTypeUtil.guessMimeType(unencryptedFile, name);
-        } catch (IOException e) {
-            throw new IOException("ErrorGuessMime", e);
-        }
+        return createFile(name, previousFileId, unencryptedFile, null, fileSize, language, userId, documentId);
+    }
 
-        // Validate user quota
+    /**
+     * Create a new file from a complete upload.
+     * The uploaded data is already encrypted, it is moved to the storage backend.
+     *
+     * @param uploadSession Complete upload session
+     * @param language File language, can be null if associated to no document
+     * @return File ID
+     * @throws Exception e
+     */
+    public static String createFile(UploadSession uploadSession, String language) throws Exception {
+        return createFile(uploadSession.getName(), uploadSession.getPreviousFileId(), uploadSession.getUnencryptedFile(), uploadSession,
+                uploadSession.getOffset(), language, uploadSession.getUserId(), uploadSession.getDocumentId());
+    }
+
+    /**
+     * Check that a user has room for a new file.
+     *
+     * @param userId User ID
+     * @param fileSize File size
+     * @throws IOException If a quota is reached
+     */
+    public static void checkQuota(String userId, long fileSize) throws IOException {
         UserDao userDao = new UserDao();
-        User user = userDao.getById(userId);
+        checkQuota(userDao, userDao.getById(userId), fileSize);
+    }
+
+    /**
+     * Check that a user has room for a new file.
+     *
+     * @param userDao User DAO
+     * @param user User
+     * @param fileSize File size
+     * @throws IOException If a quota is reached
+     */
+    private static void checkQuota(UserDao userDao, User user, long fileSize) throws IOException {
+        // Validate user quota
         if (user.getStorageCurrent() + fileSize > user.getStorageQuota()) {
             throw new IOException("QuotaReached");
         }
@@ -139,6 +169,36 @@ public class FileUtil {
                 throw new IOException("QuotaReached");
             }
         }
+    }
+
+    /**
+     * Create a new file.
+     *
+     * @param name File name, can be null
+     * @param previousFileId ID of the previous version of the file, if the new file is a new version
+     * @param unencryptedFile Path to the unencrypted file
+     * @param uploadSession Complete upload session holding the encrypted file, null to encrypt the unencrypted file
+     * @param fileSize File size
+     * @param language File language, can be null if associated to no document
+     * @param userId User ID creating the file
+     * @param documentId Associated document ID or null if no document
+     * @return File ID
+     * @throws Exception e
+     */
+    private static String createFile(String name, String previousFileId, Path unencryptedFile, UploadSession uploadSession,
+                                     long fileSize, String language, String userId, String documentId) throws Exception {
+        // Validate mime type
+        String mimeType;
+        try {
+            mimeType = MimeTypeUtil.guessMimeType(unencryptedFile, name);
+        } catch (IOException e) {
+            throw new IOException("ErrorGuessMime", e);
+        }
+
+        // Validate quotas
+        UserDao userDao = new UserDao();
+        User user = userDao.getById(userId);
+        checkQuota(userDao, user, fileSize);
 
         // Prepare the file
         File file = new File();
@@ -181,25 +241,51 @@ public class FileUtil {
         // Create the file
         String fileId = fileDao.create(file, userId);
 
-        // Save the file
-        Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-        Path path = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-        try (InputStream inputStream = Files.newInputStream(unencryptedFile)) {
-            Files.copy(new CipherInputStream(inputStream, cipher), path);
+        // Save the file, the stored data isn't referenced until the transaction is committed
+        String storageId = file.getStorageId();
+        storingSet.add(storageId);
+        ThreadLocalContext.get().addTransactionEndHook(() -> storingSet.remove(storageId));
+        StorageBackend storageBackend = AppContext.getInstance().getStorageBackend();
+        if (uploadSession == null) {
+            Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
+            try (DigestInputStream inputStream = new DigestInputStream(Files.newInputStream(unencryptedFile), MessageDigest.getInstance("SHA-256"));
+                 StorageOutputStream outputStream = storageBackend.write(file.getStorageId())) {
+                try {
+                    ByteStreams.copy(new CipherInputStream(inputStream, cipher), outputStream);
+                } catch (IOException e) {
+                    // Don't store partial data
+                    outputStream.abort();
+                    throw e;
+                }
+                file.setHash(BaseEncoding.base16().lowerCase().encode(inputStream.getMessageDigest().digest()));
+            }
+        } else {
+            storageBackend.store(file.getStorageId(), uploadSession.getStoredFile());
+            file.setHash(uploadSession.getHash());
         }
 
+        // Share the stored data of an identical file, with its content and thumbnails
+        File identicalFile = null;
+        if (ConfigUtil.getEnvBooleanValue(Constants.STORAGE_DEDUPLICATION_ENV, false)) {
+            identicalFile = fileDao.getIdenticalFile(userId, file.getHash(), language, fileId);
+            if (identicalFile != null && isProcessingFile(identicalFile.getId())) {
+                // Its content and thumbnails are not there yet
+                identicalFile = null;
+            }
+        }
+        if (identicalFile != null) {
+            storageBackend.delete(file.getStorageId());
+            file.setStorageId(identicalFile.getStorageId());
+            file.setContent(identicalFile.getContent());
+        }
+        fileDao.update(file);
+
         // Update the user quota
         user.setStorageCurrent(user.getStorageCurrent() + fileSize);
         userDao.updateQuota(user);
 
         // Raise a new file created event and document updated event if we have a document
-        startProcessingFile(fileId);
-        FileCreatedAsyncEvent fileCreatedAsyncEvent = new FileCreatedAsyncEvent();
-        fileCreatedAsyncEvent.setUserId(userId);
-        fileCreatedAsyncEvent.setLanguage(language);
-        fileCreatedAsyncEvent.setFileId(file.getId());
-        fileCreatedAsyncEvent.setUnencryptedFile(unencryptedFile);
-        ThreadLocalContext.get().addAsyncEvent(fileCreatedAsyncEvent);
+        processFile(ProcessingJobType.FILE_CREATED, fileId, userId, language, unencryptedFile, identicalFile != null);
 
         if (documentId != null) {
             DocumentUpdatedAsyncEvent documentUpdatedAsyncEvent = new DocumentUpdatedAsyncEvent();
@@ -211,24 +297,143 @@ public class FileUtil {
         return fileId;
     }
 
+    /**
+     * Returns true if the data of a file is being stored, its file not committed yet.
+     *
+     * @param storageId Storage ID
+     * @return True if being stored
+     */
+    public static boolean isStoring(String storageId) {
+        return storingSet.contains(storageId);
+    }
+
+    /**
+     * Record a processing job for a file, and start processing it once the current transaction is committed.
+     * The job is recorded in the same transaction as the file, so it can be replayed if the processing is interrupted.
+     *
+     * @param type Job type
+     * @param fileId File ID
+     * @param userId ID of the user requesting the processing
+     * @param language File language, can be null
+     * @param unencryptedFile Path to the unencrypted file
+     */
+    public static void processFile(ProcessingJobType type, String fileId, String userId, String language, Path unencryptedFile) {
+        processFile(type, fileId, userId, language, unencryptedFile, false);
+    }
+
+    /**
+     * Record a processing job for a file, and start processing it once the current transaction is committed.
+     * A replayed job processes the file fully, even if its content was reused.
+     *
+     * @param type Job type
+     * @param fileId File ID
+     * @param userId ID of the user requesting the processing
+     * @param language File language, can be null
+     * @param unencryptedFile Path to the unencrypted file
+     * @param contentReused True if the content and thumbnails are shared with an identical file
+     */
+    private static void processFile(ProcessingJobType type, String fileId, String userId, String language, Path unencryptedFile, boolean contentReused) {
+        ProcessingJob processingJob = new ProcessingJob()
+                .setType(type)
+                .setFileId(fileId)
+                .setUserId(userId)
+                .setLanguage(language);
+        new ProcessingJobDao().create(processingJob);
+        fireProcessingEvent(processingJob, unencryptedFile, contentReused);
+    }
+
+    /**
+     * Replay the processing jobs interrupted by the last shutdown.
+     * Jobs failing again and again are given up after a few attempts.
+     */
+    public static void replayProcessingJobs() {
+        List<String> jobIdList = new ArrayList<>();
+        TransactionUtil.handle(() -> {
+            for (ProcessingJob processingJob : new ProcessingJobDao().findAll()) {
+                jobIdList.add(processingJob.getId());
+            }
+        });
+        if (jobIdList.isEmpty()) {
+            return;
+        }
+
+        log.info("Replaying " + jobIdList.size() + " interrupted processing jobs");
+        for (String jobId : jobIdList) {
+            // Each job in its own transaction, its event is fired once the attempt is recorded
+            TransactionUtil.handle(() -> {
+                ProcessingJobDao processingJobDao = new ProcessingJobDao();
+                ProcessingJob processingJob = ThreadLocalContext.get().getEntityManager().find(ProcessingJob.class, jobId);
+                if (processingJob == null) {
+                    // Already processed
+                    return;
+                }
+
+                File file = new FileDao().getActiveById(processingJob.getFileId());
+                if (file == null) {
+                    // The file has been deleted since
+                    processingJobDao.deleteByFileId(processingJob.getFileId());
+                    return;
+                }
+                if (processingJob.getAttemptCount() >= PROCESSING_MAX_ATTEMPT) {
+                    log.error("Giving up processing after " + processingJob.getAttemptCount() + " attempts: " + processingJob);
+                    processingJobDao.deleteByFileId(processingJob.getFileId());
+                    return;
+                }
+
+                try {
+                    User user = new UserDao().getById(file.getUserId());
+                    Path unencryptedFile = EncryptionUtil.decryptFile(
+                            AppContext.getInstance().getStorageBackend().read(file.getStorageId()), user.getPrivateKey());
+                    processingJob.setAttemptCount(processingJob.getAttemptCount() + 1);
+                    processingJobDao.update(processingJob);
+                    fireProcessingEvent(processingJob, unencryptedFile, false);
+                } catch (Exception e) {
+                    log.error("Unable to replay the processing job: " + processingJob, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Fire the event starting the processing of a job.
+     *
+     * @param processingJob Processing job
+     * @param unencryptedFile Path to the unencrypted file
+     * @param contentReused True if the content and thumbnails are shared with an identical file
+     */
+    private static void fireProcessingEvent(ProcessingJob processingJob, Path unencryptedFile, boolean contentReused) {
+        startProcessingFile(processingJob.getFileId());
+        FileEvent fileEvent = processingJob.getType() == ProcessingJobType.FILE_CREATED ?
+                new FileCreatedAsyncEvent() : new FileUpdatedAsyncEvent();
+        fileEvent.setUserId(processingJob.getUserId());
+        fileEvent.setLanguage(processingJob.getLanguage());
+        fileEvent.setFileId(processingJob.getFileId());
+        fileEvent.setUnencryptedFile(unencryptedFile);
+        fileEvent.setContentReused(contentReused);
+        ThreadLocalContext.get().addAsyncEvent(fileEvent);
+    }
+
     /**
      * Start processing a file.
      *
      * @param fileId File ID
      */
     public static void startProcessingFile(String fileId) {
-        processingFileSet.add(fileId);
+        processingFileSet.add(fileId, PROCESSING_STEP_COUNT);
         log.info("Processing started for file: " + fileId);
     }
 
     /**
-     * End processing a file.
+     * End a processing step of a file.
      *
      * @param fileId File ID
      */
     public static void endProcessingFile(String fileId) {
-        processingFileSet.remove(fileId);
-        log.info("Processing ended for file: " + fileId);
+        if (processingFileSet.remove(fileId, 1) <= 1) {
+            // All steps are done, the processing doesn't need to be replayed anymore
+            TransactionUtil.handle(() -> new ProcessingJobDao().deleteByFileId(fileId));
+            log.info("Processing ended for file: " + fileId);
+        }
     }
 
     /**
@@ -7,6 +7,7 @@ import com.google.common.io.Resources;
 import com.lowagie.text.FontFactory;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.format.FormatHandler;
 import com.sismics.docs.core.util.format.FormatHandlerUtil;
@@ -26,7 +27,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * PDF utilities.
@@ -101,12 +104,12 @@ public class PdfUtil {
                 }
             }
             
-            // Add files
+            // Add files, read ahead from the storage backend
+            Iterator<InputStream> storedFileIterator = AppContext.getInstance().getStorageBackend()
+                    .readAll(fileList.stream().map(File::getStorageId).collect(Collectors.toList()));
             for (File file : fileList) {
-                Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-
                 // Decrypt the file to a temporary file
-                Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, file.getPrivateKey());
+                Path unencryptedFile = EncryptionUtil.decryptFile(storedFileIterator.next(), file.getPrivateKey());
                 FormatHandler formatHandler = FormatHandlerUtil.find(file.getMimeType());
                 if (formatHandler != null) {
                     formatHandler.appendToPdf(unencryptedFile, doc, fitImageToPage, margin, memUsageSettings, closer);
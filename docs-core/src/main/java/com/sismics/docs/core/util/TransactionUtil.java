@@ -62,20 +62,31 @@ public class TransactionUtil {
                     log.error("Error closing entity manager", ce);
                 }
             }
+            context.runTransactionEndHooks();
             return;
         }
         
         // No error in the current request : commit the transaction
-        if (em.isOpen()) {
-            if (em.getTransaction() != null && em.getTransaction().isActive()) {
-                em.getTransaction().commit();
-                
-                try {
-                    em.close();
-                } catch (Exception e) {
-                    log.error("Error closing entity manager", e);
+        try {
+            if (em.isOpen()) {
+                if (em.getTransaction() != null && em.getTransaction().isActive()) {
+                    try {
+                        em.getTransaction().commit();
+                    } finally {
+                        try {
+                            em.close();
+                        } catch (Exception e) {
+                            log.error("Error closing entity manager", e);
+                        }
+                    }
                 }
             }
+        } catch (RuntimeException e) {
+            ThreadLocalContext.cleanup();
+            throw e;
+        } finally {
+            // The transaction has ended, even if the commit failed
+            context.runTransactionEndHooks();
         }
 
         // Fire all pending async events after request transaction commit.
@@ -0,0 +1,334 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.io.BaseEncoding;
+import com.sismics.docs.core.model.context.AppContext;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Upload of a file, possibly received in several chunks.
+ * Received data is encrypted directly into the storage directory, while an unencrypted copy is kept
+ * for the file processing, and the content is hashed in the same pass.
+ * Chunks must be appended in order, from the current offset.
+ *
+ * @author bgamard
+ */
+public class UploadSession {
+    /**
+     * Suffix of the stored files being uploaded.
+     */
+    public static final String STORED_FILE_SUFFIX = "_upload";
+
+    /**
+     * Size of the copy buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Upload ID.
+     */
+    private final String id;
+
+    /**
+     * User ID.
+     */
+    private final String userId;
+
+    /**
+     * Document ID, can be null.
+     */
+    private final String documentId;
+
+    /**
+     * ID of the previous version of the file, can be null.
+     */
+    private final String previousFileId;
+
+    /**
+     * File name, can be null.
+     */
+    private final String name;
+
+    /**
+     * Expected file size, -1 if unknown.
+     */
+    private final long length;
+
+    /**
+     * Number of bytes received.
+     */
+    private long offset;
+
+    /**
+     * Private key of the user.
+     */
+    private final String privateKey;
+
+    /**
+     * Encryption cipher, its counter follows the received data.
+     */
+    private Cipher cipher;
+
+    /**
+     * Digest of the received data.
+     */
+    private MessageDigest digest;
+
+    /**
+     * Encrypted file, in the storage directory.
+     */
+    private final Path storedFile;
+
+    /**
+     * Unencrypted file.
+     */
+    private final Path unencryptedFile;
+
+    /**
+     * Content hash, set once the upload is complete.
+     */
+    private String hash;
+
+    /**
+     * Constructor.
+     *
+     * @param userId User ID
+     * @param privateKey Private key of the user
+     * @param documentId Document ID, can be null
+     * @param previousFileId ID of the previous version of the file, can be null
+     * @param name File name, can be null
+     * @param length Expected file size, -1 if unknown
+     * @throws Exception e
+     */
+    public UploadSession(String userId, String privateKey, String documentId, String previousFileId, String name, long length) throws Exception {
+        this.id = UUID.randomUUID().toString();
+        this.userId = userId;
+        this.documentId = documentId;
+        this.previousFileId = previousFileId;
+        this.name = name;
+        this.length = length;
+        this.storedFile = DirectoryUtil.getStorageDirectory().resolve(id + STORED_FILE_SUFFIX);
+        this.unencryptedFile = AppContext.getInstance().getFileService().createTemporaryFile(name);
+        this.privateKey = privateKey;
+        this.cipher = EncryptionUtil.getEncryptionCipher(privateKey);
+        this.digest = newDigest();
+        Files.createFile(storedFile);
+    }
+
+    /**
+     * Append a chunk of data.
+     * Reading stops at the end of the stream, or when the connection is lost; the data received so far is kept
+     * if the expected size is known.
+     * A chunk which can't be written, or exceeds the expected size, is rolled back entirely.
+     *
+     * @param inputStream Chunk data
+     * @return New offset
+     * @throws IOException If the data can't be written
+     * @throws IllegalArgumentException If the data exceeds the expected size
+     */
+    public synchronized long append(InputStream inputStream) throws IOException {
+        if (hash != null) {
+            throw new IOException("Upload already complete");
+        }
+
+        long chunkOffset = offset;
+        MessageDigest chunkDigest = cloneDigest();
+        try {
+            appendData(inputStream);
+        } catch (IOException | RuntimeException e) {
+            rollback(chunkOffset, chunkDigest);
+            throw e;
+        }
+
+        return offset;
+    }
+
+    /**
+     * Append the data of a chunk.
+     * Each byte is written twice, encrypted and unencrypted: the processing needs an unencrypted file anyway,
+     * and decrypting the stored data later would only move that write after a read of the whole file.
+     *
+     * @param inputStream Chunk data
+     * @throws IOException e
+     */
+    private void appendData(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream storedOutputStream = Files.newOutputStream(storedFile, StandardOpenOption.APPEND);
+             OutputStream unencryptedOutputStream = Files.newOutputStream(unencryptedFile, StandardOpenOption.APPEND)) {
+            while (true) {
+                int read;
+                try {
+                    read = inputStream.read(buffer);
+                } catch (IOException e) {
+                    if (length < 0) {
+                        // Nothing to resume without the expected size
+                        throw e;
+                    }
+                    // Connection lost, the upload can be resumed from the current offset
+                    break;
+                }
+                if (read == -1) {
+                    break;
+                }
+                if (length >= 0 && offset + read > length) {
+                    throw new IllegalArgumentException("Upload larger than expected");
+                }
+
+                digest.update(buffer, 0, read);
+                unencryptedOutputStream.write(buffer, 0, read);
+                byte[] encrypted = cipher.update(buffer, 0, read);
+                if (encrypted != null) {
+                    storedOutputStream.write(encrypted);
+                }
+                offset += read;
+            }
+        }
+    }
+
+    /**
+     * Go back to the state before a chunk.
+     * The cipher only outputs whole blocks, the bytes of the last partial block are encrypted again.
+     *
+     * @param chunkOffset Offset before the chunk
+     * @param chunkDigest Digest before the chunk
+     * @throws IOException e
+     */
+    private void rollback(long chunkOffset, MessageDigest chunkDigest) throws IOException {
+        long blockOffset = EncryptionUtil.getBlockOffset(chunkOffset);
+        ByteBuffer pending = ByteBuffer.allocate((int) (chunkOffset - blockOffset));
+        try (FileChannel storedChannel = FileChannel.open(storedFile, StandardOpenOption.WRITE);
+             FileChannel unencryptedChannel = FileChannel.open(unencryptedFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            storedChannel.truncate(blockOffset);
+            unencryptedChannel.truncate(chunkOffset);
+            while (pending.hasRemaining()) {
+                if (unencryptedChannel.read(pending, blockOffset + pending.position()) < 0) {
+                    throw new IOException("Unable to read the received data");
+                }
+            }
+        }
+        try {
+            cipher = EncryptionUtil.getEncryptionCipher(privateKey, chunkOffset);
+        } catch (Exception e) {
+            throw new IOException("Unable to restore the encryption", e);
+        }
+        cipher.update(pending.array());
+        digest = chunkDigest;
+        offset = chunkOffset;
+    }
+
+    /**
+     * Complete the upload.
+     * Must be called once all data is received.
+     *
+     * @throws Exception e
+     */
+    public synchronized void complete() throws Exception {
+        if (hash != null) {
+            return;
+        }
+        if (length >= 0 && offset != length) {
+            throw new IOException("Upload incomplete");
+        }
+
+        try (OutputStream storedOutputStream = Files.newOutputStream(storedFile, StandardOpenOption.APPEND)) {
+            storedOutputStream.write(cipher.doFinal());
+        }
+        hash = BaseEncoding.base16().lowerCase().encode(digest.digest());
+    }
+
+    /**
+     * Delete the uploaded data.
+     *
+     * @throws IOException e
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(storedFile);
+        Files.deleteIfExists(unencryptedFile);
+    }
+
+    /**
+     * Returns true if all the expected data is received.
+     *
+     * @return True if complete
+     */
+    public synchronized boolean isReceived() {
+        return offset == length;
+    }
+
+    /**
+     * Copy the digest of the data received so far.
+     *
+     * @return Digest copy
+     */
+    private MessageDigest cloneDigest() {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Create a digest of the file contents.
+     *
+     * @return SHA-256 digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public String getPreviousFileId() {
+        return previousFileId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    public Path getStoredFile() {
+        return storedFile;
+    }
+
+    public Path getUnencryptedFile() {
+        return unencryptedFile;
+    }
+
+    public synchronized String getHash() {
+        return hash;
+    }
+}
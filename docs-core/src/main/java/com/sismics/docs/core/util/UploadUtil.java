@@ -0,0 +1,107 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.sismics.docs.core.constant.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resumable upload sessions.
+ * Sessions are kept in memory, idle sessions are discarded with their data.
+ *
+ * @author bgamard
+ */
+public class UploadUtil {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(UploadUtil.class);
+
+    /**
+     * Upload sessions in progress, by ID.
+     */
+    private static final Cache<String, UploadSession> sessionCache = CacheBuilder.newBuilder()
+            .expireAfterAccess(Constants.UPLOAD_SESSION_EXPIRATION_HOUR, TimeUnit.HOURS)
+            .removalListener((RemovalListener<String, UploadSession>) notification -> {
+                if (notification.wasEvicted()) {
+                    log.info("Discarding the expired upload session: " + notification.getKey());
+                    delete(notification.getValue());
+                }
+            })
+            .build();
+
+    /**
+     * Register a new upload session.
+     *
+     * @param uploadSession Upload session
+     */
+    public static void register(UploadSession uploadSession) {
+        // Discard the expired sessions
+        sessionCache.cleanUp();
+        sessionCache.put(uploadSession.getId(), uploadSession);
+    }
+
+    /**
+     * Returns an upload session.
+     *
+     * @param id Upload ID
+     * @param userId ID of the user owning the session
+     * @return Upload session, null if not found
+     */
+    public static UploadSession get(String id, String userId) {
+        UploadSession uploadSession = sessionCache.getIfPresent(id);
+        if (uploadSession == null || !uploadSession.getUserId().equals(userId)) {
+            return null;
+        }
+        return uploadSession;
+    }
+
+    /**
+     * Unregister an upload session, its data is kept.
+     *
+     * @param id Upload ID
+     */
+    public static void unregister(String id) {
+        sessionCache.invalidate(id);
+    }
+
+    /**
+     * Discard an upload session and its data.
+     *
+     * @param uploadSession Upload session
+     */
+    public static void discard(UploadSession uploadSession) {
+        unregister(uploadSession.getId());
+        delete(uploadSession);
+    }
+
+    /**
+     * Returns true if a stored file belongs to an upload in progress.
+     * The session is not accessed, so its idle time still expires.
+     *
+     * @param storedFileName Name of the stored file
+     * @return True if an upload is in progress
+     */
+    public static boolean isUploading(String storedFileName) {
+        return storedFileName.endsWith(UploadSession.STORED_FILE_SUFFIX) &&
+                sessionCache.asMap().containsKey(storedFileName.substring(0, storedFileName.length() - UploadSession.STORED_FILE_SUFFIX.length()));
+    }
+
+    /**
+     * Delete the data of an upload session.
+     *
+     * @param uploadSession Upload session
+     */
+    private static void delete(UploadSession uploadSession) {
+        try {
+            uploadSession.delete();
+        } catch (IOException e) {
+            log.error("Unable to delete the upload data: " + uploadSession.getId(), e);
+        }
+    }
+}
@@ -23,6 +23,7 @@ public interface FormatHandler {
 
     /**
      * Generate a thumbnail.
+     * Only the resolution needed by the web rendition is decoded.
      *
      * @param file File
      * @return Thumbnail
@@ -3,6 +3,8 @@ package com.sismics.docs.core.util.format;
 import com.google.common.io.Closer;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.rendition.RenditionManager;
+import com.sismics.util.ImageUtil;
 import com.sismics.util.mime.MimeType;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
@@ -38,9 +40,8 @@ public class ImageFormatHandler implements FormatHandler {
 
     @Override
     public BufferedImage generateThumbnail(Path file) throws Exception {
-        try (InputStream inputStream = Files.newInputStream(file)) {
-            return ImageIO.read(inputStream);
-        }
+        // Decode only the pixels needed by the web rendition, whatever the image size
+        return ImageUtil.readImage(file, RenditionManager.WEB_SIZE);
     }
 
     @Override
@@ -1,11 +1,16 @@
 package com.sismics.docs.core.util.format;
 
 import com.google.common.io.Closer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.rendition.RenditionManager;
+import com.sismics.util.ImageUtil;
 import com.sismics.util.mime.MimeType;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.multipdf.PDFMergerUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.apache.pdfbox.text.PDFTextStripper;
@@ -16,6 +21,13 @@ import java.awt.image.BufferedImage;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * PDF format handler.
@@ -28,6 +40,17 @@ public class PdfFormatHandler implements FormatHandler {
      */
     private static final Logger log = LoggerFactory.getLogger(PdfFormatHandler.class);
 
+    /**
+     * Number of pages OCR-ized in parallel.
+     */
+    private static final int OCR_CONCURRENCY = ConfigUtil.getOcrConcurrency();
+
+    /**
+     * Workers OCR-izing the pages, shared by all PDF files to bound the number of running OCR processes.
+     */
+    private static final ExecutorService OCR_EXECUTOR = Executors.newFixedThreadPool(OCR_CONCURRENCY,
+            new ThreadFactoryBuilder().setNameFormat("pdf-ocr-%d").setDaemon(true).build());
+
     @Override
     public boolean accept(String mimeType) {
         return mimeType.equals(MimeType.APPLICATION_PDF);
@@ -38,10 +61,28 @@ public class PdfFormatHandler implements FormatHandler {
         try (InputStream inputStream = Files.newInputStream(file);
              PDDocument pdfDocument = PDDocument.load(inputStream)) {
             PDFRenderer renderer = new PDFRenderer(pdfDocument);
-            return renderer.renderImage(0);
+            // Embedded images are decoded at the rendering resolution, not at their own
+            renderer.setSubsamplingAllowed(true);
+            PDRectangle cropBox = pdfDocument.getPage(0).getCropBox();
+            return renderer.renderImage(0, getRenderScale(cropBox.getWidth(), cropBox.getHeight(), RenditionManager.WEB_SIZE));
         }
     }
 
+    /**
+     * Returns the scale to render a page so that its largest side is of the requested size.
+     * The scale is 1 at 72 DPI. The number of rendered pixels is bounded whatever the page format.
+     *
+     * @param width Page width, in points
+     * @param height Page height, in points
+     * @param size Size of the largest side needed, in pixels
+     * @return Render scale
+     */
+    public static float getRenderScale(float width, float height, int size) {
+        float scale = size / Math.max(Math.max(width, height), 1f);
+        float maxScale = (float) Math.sqrt(ImageUtil.MAX_DECODED_PIXEL_COUNT / Math.max(width * height, 1f));
+        return Math.min(scale, maxScale);
+    }
+
     @Override
     public String extractContent(String language, Path file) {
         String content = null;
@@ -54,16 +95,8 @@ public class PdfFormatHandler implements FormatHandler {
 
         // No text content, try to OCR it
         if (language != null && content != null && content.trim().isEmpty()) {
-            StringBuilder sb = new StringBuilder();
-            try (InputStream inputStream = Files.newInputStream(file);
-                 PDDocument pdfDocument = PDDocument.load(inputStream)) {
-                PDFRenderer renderer = new PDFRenderer(pdfDocument);
-                for (int pageIndex = 0; pageIndex < pdfDocument.getNumberOfPages(); pageIndex++) {
-                    log.info("OCR page " + (pageIndex + 1) + "/" + pdfDocument.getNumberOfPages() + " of PDF file containing only images");
-                    sb.append(" ");
-                    sb.append(FileUtil.ocrFile(language, renderer.renderImageWithDPI(pageIndex, 300, ImageType.GRAY)));
-                }
-                return sb.toString();
+            try {
+                return ocrPages(language, file);
             } catch (Exception e) {
                 log.error("Error while OCR-izing the PDF", e);
             }
@@ -72,6 +105,59 @@ public class PdfFormatHandler implements FormatHandler {
         return content;
     }
 
+    /**
+     * OCR all pages of a PDF.
+     * Pages are rendered one after the other, then deskewed and OCR-ized in parallel.
+     * The number of rendered pages waiting for OCR is bounded, so a large PDF doesn't fill the memory.
+     *
+     * @param language Language to OCR
+     * @param file PDF file
+     * @return Content of all pages, in page order
+     * @throws Exception e
+     */
+    private String ocrPages(String language, Path file) throws Exception {
+        List<Future<String>> futureList = new ArrayList<>();
+        try (InputStream inputStream = Files.newInputStream(file);
+             PDDocument pdfDocument = PDDocument.load(inputStream)) {
+            PDFRenderer renderer = new PDFRenderer(pdfDocument);
+            int pageCount = pdfDocument.getNumberOfPages();
+            Semaphore inFlightPages = new Semaphore(OCR_CONCURRENCY * 2);
+            AtomicInteger donePageCount = new AtomicInteger();
+            log.info("OCR {} pages of PDF file {} containing only images", pageCount, file.getFileName());
+
+            for (int pageIndex = 0; pageIndex < pageCount; pageIndex++) {
+                inFlightPages.acquire();
+                BufferedImage image;
+                try {
+                    image = renderer.renderImageWithDPI(pageIndex, 300, ImageType.GRAY);
+                } catch (Exception e) {
+                    inFlightPages.release();
+                    throw e;
+                }
+                futureList.add(OCR_EXECUTOR.submit(() -> {
+                    try {
+                        return FileUtil.ocrFile(language, image);
+                    } finally {
+                        inFlightPages.release();
+                        log.info("OCR page {}/{} done for PDF file {}", donePageCount.incrementAndGet(), pageCount, file.getFileName());
+                    }
+                }));
+            }
+
+            // Reassemble the pages in order
+            StringBuilder sb = new StringBuilder();
+            for (Future<String> future : futureList) {
+                sb.append(" ");
+                sb.append(future.get());
+            }
+            return sb.toString();
+        } finally {
+            for (Future<String> future : futureList) {
+                future.cancel(true);
+            }
+        }
+    }
+
     @Override
     public void appendToPdf(Path file, PDDocument doc, boolean fitImageToPage, int margin, MemoryUsageSetting memUsageSettings, Closer closer) throws Exception {
         PDDocument mergeDoc = PDDocument.load(file.toFile(), memUsageSettings);
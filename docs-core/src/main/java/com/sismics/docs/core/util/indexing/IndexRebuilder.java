@@ -0,0 +1,260 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Full index rebuild.
+ * Documents and files are split in ranges of IDs, each range is paged through by ID
+ * in its own short transactions and indexed by a pool of workers.
+ * The last indexed ID of each range is checkpointed with the index, so an interrupted rebuild resumes where it stopped.
+ *
+ * @author bgamard
+ */
+public class IndexRebuilder {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(IndexRebuilder.class);
+
+    /**
+     * Number of documents or files read and indexed at once.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Bounds of the ID ranges indexed in parallel, IDs being random UUIDs.
+     */
+    private static final String[] RANGE_BOUNDS = { null, "1", "2", "3", "4", "5", "6", "7", "8", "9", "a", "b", "c", "d", "e", "f", null };
+
+    /**
+     * Checkpoint value of a fully indexed range.
+     */
+    private static final String CHECKPOINT_DONE = "done";
+
+    /**
+     * Checkpoint key of the number of indexed documents and files.
+     */
+    private static final String CHECKPOINT_INDEXED_COUNT = "indexed";
+
+    /**
+     * True while a rebuild is running.
+     */
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /**
+     * True if the rebuild must stop as soon as possible.
+     */
+    private volatile boolean stopping = false;
+
+    /**
+     * Start time of the current rebuild.
+     */
+    private volatile long startTime;
+
+    /**
+     * Number of documents and files to index.
+     */
+    private volatile long totalCount;
+
+    /**
+     * Number of documents and files indexed before the current rebuild resumed.
+     */
+    private volatile long resumedCount;
+
+    /**
+     * Number of documents and files indexed.
+     */
+    private final AtomicLong indexedCount = new AtomicLong();
+
+    /**
+     * Rebuild the index, or resume an interrupted rebuild.
+     * Does nothing if a rebuild is already running.
+     */
+    public void rebuild() {
+        if (!running.compareAndSet(false, true)) {
+            log.info("An index rebuild is already running");
+            return;
+        }
+
+        ExecutorService executor = null;
+        try {
+            IndexingHandler indexingHandler = AppContext.getInstance().getIndexingHandler();
+            Map<String, String> checkpointMap = indexingHandler.startRebuild();
+
+            // Count what's to be indexed
+            startTime = System.currentTimeMillis();
+            resumedCount = Long.parseLong(checkpointMap.getOrDefault(CHECKPOINT_INDEXED_COUNT, "0"));
+            indexedCount.set(resumedCount);
+            TransactionUtil.handle(() -> totalCount = new DocumentDao().getDocumentCount() + new FileDao().getFileCount());
+            log.info("Rebuilding the index of {} documents and files, {} already indexed", totalCount, resumedCount);
+
+            // Index all ranges in parallel
+            int threadCount = Math.max(Runtime.getRuntime().availableProcessors() / 2, 2);
+            executor = Executors.newFixedThreadPool(threadCount,
+                    new ThreadFactoryBuilder().setNameFormat("index-rebuild-%d").setDaemon(true).build());
+            List<Future<?>> futureList = Lists.newArrayList();
+            for (int i = 0; i < RANGE_BOUNDS.length - 1; i++) {
+                String fromId = RANGE_BOUNDS[i];
+                String toId = RANGE_BOUNDS[i + 1];
+                String documentKey = "document." + i;
+                String fileKey = "file." + i;
+                futureList.add(executor.submit(() -> indexRange(indexingHandler, documentKey,
+                        checkpointMap.getOrDefault(documentKey, fromId), toId,
+                        (lastId, toIdBound) -> new DocumentDao().findByIdRange(lastId, toIdBound, BATCH_SIZE),
+                        indexingHandler::createDocuments, Document::getId)));
+                futureList.add(executor.submit(() -> indexRange(indexingHandler, fileKey,
+                        checkpointMap.getOrDefault(fileKey, fromId), toId,
+                        (lastId, toIdBound) -> new FileDao().findByIdRange(lastId, toIdBound, BATCH_SIZE),
+                        indexingHandler::createFiles, File::getId)));
+            }
+
+            boolean complete = true;
+            for (Future<?> future : futureList) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.error("Error rebuilding the index", e.getCause());
+                    complete = false;
+                }
+            }
+
+            if (complete && !stopping) {
+                indexingHandler.finishRebuild();
+                log.info("Rebuilding index done in {}ms", System.currentTimeMillis() - startTime);
+            } else {
+                log.info("Index rebuild interrupted, it will resume from the last checkpoint");
+            }
+        } catch (Exception e) {
+            log.error("Error rebuilding the index", e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            running.set(false);
+        }
+    }
+
+    /**
+     * Index a range of documents or files, page by page.
+     *
+     * @param indexingHandler Indexing handler
+     * @param checkpointKey Checkpoint key of this range
+     * @param fromId Last indexed ID, exclusive
+     * @param toId Upper bound of the range, exclusive
+     * @param pageReader Reads a page of entities following an ID
+     * @param pageIndexer Indexes a page of entities
+     * @param idGetter Returns the ID of an entity
+     * @param <T> Entity type
+     */
+    private <T> void indexRange(IndexingHandler indexingHandler, String checkpointKey, String fromId, String toId,
+                                BiFunction<String, String, List<T>> pageReader, Consumer<List<T>> pageIndexer, Function<T, String> idGetter) {
+        if (CHECKPOINT_DONE.equals(fromId)) {
+            return;
+        }
+
+        AtomicReference<String> lastId = new AtomicReference<>(fromId);
+        while (!stopping) {
+            // Each page in its own transaction
+            AtomicReference<List<T>> page = new AtomicReference<>();
+            TransactionUtil.handle(() -> {
+                List<T> entityList = pageReader.apply(lastId.get(), toId);
+                pageIndexer.accept(entityList);
+                page.set(entityList);
+            });
+            if (page.get() == null) {
+                throw new IllegalStateException("Error indexing the page following " + lastId.get() + " of " + checkpointKey);
+            }
+
+            if (page.get().isEmpty()) {
+                indexingHandler.checkpointRebuild(checkpointKey, CHECKPOINT_DONE);
+                return;
+            }
+
+            lastId.set(idGetter.apply(page.get().get(page.get().size() - 1)));
+            indexingHandler.checkpointRebuild(checkpointKey, lastId.get());
+            indexingHandler.checkpointRebuild(CHECKPOINT_INDEXED_COUNT, Long.toString(indexedCount.addAndGet(page.get().size())));
+        }
+    }
+
+    /**
+     * Stop the running rebuild, which will resume on the next startup.
+     */
+    public void shutDown() {
+        stopping = true;
+    }
+
+    /**
+     * Returns true if a rebuild is running.
+     *
+     * @return True if running
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Returns the number of documents and files to index.
+     *
+     * @return Total count
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the number of documents and files indexed.
+     *
+     * @return Indexed count
+     */
+    public long getIndexedCount() {
+        return indexedCount.get();
+    }
+
+    /**
+     * Returns the number of documents and files indexed per second by the current rebuild.
+     *
+     * @return Throughput
+     */
+    public double getThroughput() {
+        long elapsed = System.currentTimeMillis() - startTime;
+        if (!isRunning() || elapsed <= 0) {
+            return 0;
+        }
+        return (indexedCount.get() - resumedCount) * 1000d / elapsed;
+    }
+
+    /**
+     * Returns the estimated time before the current rebuild is done, in seconds.
+     *
+     * @return Estimated time, -1 if unknown
+     */
+    public long getEta() {
+        double throughput = getThroughput();
+        if (throughput <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil(Math.max(totalCount - indexedCount.get(), 0) / throughput);
+    }
+}
@@ -3,12 +3,14 @@ package com.sismics.docs.core.util.indexing;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.criteria.DocumentCriteria;
 import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.dao.dto.DocumentFacetsDto;
 import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.SortCriteria;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Indexing handler.
@@ -41,19 +43,50 @@ public interface IndexingHandler {
     void clearIndex();
 
     /**
-     * Index a list of documents.
+     * Index a list of documents, replacing them if they are already indexed.
      *
      * @param documentList All documents
      */
     void createDocuments(List<Document> documentList);
 
     /**
-     * Index a list of files.
+     * Index a list of files, replacing them if they are already indexed.
      *
      * @param fileList All files
      */
     void createFiles(List<File> fileList);
 
+    /**
+     * Start rebuilding the index, or resume an interrupted rebuild.
+     * The current index keeps serving searches while the documents are indexed again.
+     *
+     * @return Checkpoints of the interrupted rebuild, empty if the rebuild starts from scratch
+     * @throws Exception e
+     */
+    Map<String, String> startRebuild() throws Exception;
+
+    /**
+     * Record the progress of the rebuild, persisted with the documents indexed so far.
+     *
+     * @param key Checkpoint key
+     * @param value Checkpoint value
+     */
+    void checkpointRebuild(String key, String value);
+
+    /**
+     * Finish the rebuild, removing everything which has not been indexed again.
+     *
+     * @throws Exception e
+     */
+    void finishRebuild() throws Exception;
+
+    /**
+     * Returns true if a rebuild has been interrupted and should be resumed.
+     *
+     * @return True if a rebuild is pending
+     */
+    boolean isRebuildPending();
+
     /**
      * Index a new document.
      *
@@ -107,14 +140,49 @@ public interface IndexingHandler {
      */
     void deleteAcl(String sourceId, PermType perm, String targetId);
 
+    /**
+     * Update the documents of a tag and of its children,
+     * after the tag has been moved in the hierarchy or deleted.
+     *
+     * @param tagId Tag ID
+     */
+    void updateTag(String tagId);
+
+    /**
+     * Returns the size of the index kept on the Java heap, in bytes.
+     *
+     * @return Heap index size
+     * @throws Exception e
+     */
+    long getHeapIndexSize() throws Exception;
+
+    /**
+     * Returns the size of the index stored outside the Java heap (on disk or memory-mapped), in bytes.
+     *
+     * @return Off-heap index size
+     * @throws Exception e
+     */
+    long getOffHeapIndexSize() throws Exception;
+
+    /**
+     * Suggest search terms completing the last word of a query.
+     *
+     * @param search Search query
+     * @param count Maximum number of suggestions
+     * @return Suggested terms
+     * @throws Exception e
+     */
+    List<String> suggestSearchTerms(String search, int count) throws Exception;
+
     /**
      * Searches documents by criteria.
      *
      * @param paginatedList List of documents (updated by side effects)
      * @param suggestionList Suggestion of search query (updated by side effects)
+     * @param facets Facet counts of all matching documents (updated by side effects), null if not needed
      * @param criteria Search criteria
-     * @param sortCriteria Sort criteria
+     * @param sortCriteria Sort criteria, null to sort a fulltext search by relevance
      * @throws Exception e
      */
-    void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception;
+    void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentFacetsDto facets, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception;
 }
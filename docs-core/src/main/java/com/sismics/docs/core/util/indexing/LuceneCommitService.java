@@ -0,0 +1,97 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import org.apache.lucene.index.IndexWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lucene commit service.
+ * Periodically commits the pending index changes, so that bulk writes
+ * don't pay a commit (and a fsync) each.
+ *
+ * @author bgamard
+ */
+public class LuceneCommitService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(LuceneCommitService.class);
+
+    /**
+     * Index writer.
+     */
+    private final IndexWriter indexWriter;
+
+    /**
+     * Search terms suggester.
+     */
+    private final LuceneSuggester suggester;
+
+    /**
+     * Interval between two commits, in seconds.
+     */
+    private final int commitInterval;
+
+    /**
+     * Constructor.
+     *
+     * @param indexWriter Index writer
+     * @param suggester Search terms suggester
+     * @param commitInterval Interval between two commits, in seconds
+     */
+    public LuceneCommitService(IndexWriter indexWriter, LuceneSuggester suggester, int commitInterval) {
+        this.indexWriter = indexWriter;
+        this.suggester = suggester;
+        this.commitInterval = commitInterval;
+    }
+
+    @Override
+    protected void startUp() {
+        log.info("Lucene commit service starting up, committing every {} seconds", commitInterval);
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("Lucene commit service shutting down");
+        commit();
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            commit();
+        } catch (Throwable e) {
+            log.error("Exception during Lucene commit service iteration", e);
+        }
+    }
+
+    /**
+     * Commit the index writer and the suggester if they have pending changes.
+     */
+    private void commit() {
+        try {
+            suggester.commit();
+        } catch (IOException e) {
+            log.error("Cannot commit suggester", e);
+        }
+
+        if (!indexWriter.isOpen() || !indexWriter.hasUncommittedChanges()) {
+            return;
+        }
+
+        try {
+            indexWriter.commit();
+        } catch (IOException e) {
+            log.error("Cannot commit index writer", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(commitInterval, commitInterval, TimeUnit.SECONDS);
+    }
+}
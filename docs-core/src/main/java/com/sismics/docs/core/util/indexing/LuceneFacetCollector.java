@@ -0,0 +1,188 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.google.common.collect.Maps;
+import com.sismics.docs.core.dao.dto.DocumentFacetsDto;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the facets of the matching documents from their doc values.
+ * Values are counted by ordinal in each segment, and only resolved once the segment is done.
+ *
+ * @author bgamard
+ */
+public class LuceneFacetCollector extends SimpleCollector {
+    /**
+     * Format of the creation month buckets.
+     */
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM");
+
+    /**
+     * Counts by facet value.
+     */
+    private final Map<String, Integer> tagCountMap = Maps.newHashMap();
+    private final Map<String, Integer> mimeTypeCountMap = Maps.newHashMap();
+    private final Map<String, Integer> languageCountMap = Maps.newHashMap();
+    private final Map<String, Integer> creatorCountMap = Maps.newHashMap();
+    private final Map<String, Integer> createMonthCountMap = Maps.newHashMap();
+
+    /**
+     * Doc values of the current segment.
+     */
+    private SortedSetDocValues tagValues;
+    private SortedSetDocValues mimeTypeValues;
+    private SortedDocValues languageValues;
+    private SortedDocValues creatorValues;
+    private NumericDocValues createDateValues;
+
+    /**
+     * Counts by ordinal in the current segment.
+     */
+    private int[] tagCounts;
+    private int[] mimeTypeCounts;
+    private int[] languageCounts;
+    private int[] creatorCounts;
+
+    /**
+     * Last creation month bucket, as consecutive documents are often created in the same month.
+     */
+    private long monthStart = Long.MAX_VALUE;
+    private long monthEnd = Long.MIN_VALUE;
+    private String month;
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        flushSegment();
+        LeafReader reader = context.reader();
+        tagValues = DocValues.getSortedSet(reader, "tag");
+        mimeTypeValues = DocValues.getSortedSet(reader, "mime_type");
+        languageValues = DocValues.getSorted(reader, "language");
+        creatorValues = DocValues.getSorted(reader, "creator");
+        createDateValues = DocValues.getNumeric(reader, "create_date");
+        tagCounts = new int[(int) tagValues.getValueCount()];
+        mimeTypeCounts = new int[(int) mimeTypeValues.getValueCount()];
+        languageCounts = new int[languageValues.getValueCount()];
+        creatorCounts = new int[creatorValues.getValueCount()];
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        countOrds(tagValues, tagCounts, doc);
+        countOrds(mimeTypeValues, mimeTypeCounts, doc);
+        if (languageValues.advanceExact(doc)) {
+            languageCounts[languageValues.ordValue()]++;
+        }
+        if (creatorValues.advanceExact(doc)) {
+            creatorCounts[creatorValues.ordValue()]++;
+        }
+        if (createDateValues.advanceExact(doc)) {
+            long createDate = createDateValues.longValue();
+            if (createDate < monthStart || createDate >= monthEnd) {
+                ZonedDateTime start = Instant.ofEpochMilli(createDate).atZone(ZoneId.systemDefault())
+                        .withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS);
+                monthStart = start.toInstant().toEpochMilli();
+                monthEnd = start.plusMonths(1).toInstant().toEpochMilli();
+                month = MONTH_FORMATTER.format(start);
+            }
+            createMonthCountMap.merge(month, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Count the ordinals of a multi-valued field.
+     *
+     * @param docValues Doc values
+     * @param counts Counts by ordinal (updated by side effects)
+     * @param doc Document number
+     * @throws IOException e
+     */
+    private void countOrds(SortedSetDocValues docValues, int[] counts, int doc) throws IOException {
+        if (docValues.advanceExact(doc)) {
+            for (long ord = docValues.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = docValues.nextOrd()) {
+                counts[(int) ord]++;
+            }
+        }
+    }
+
+    /**
+     * Resolve the counts of the current segment to values.
+     *
+     * @throws IOException e
+     */
+    private void flushSegment() throws IOException {
+        if (tagValues == null) {
+            return;
+        }
+
+        for (int ord = 0; ord < tagCounts.length; ord++) {
+            if (tagCounts[ord] > 0) {
+                tagCountMap.merge(tagValues.lookupOrd(ord).utf8ToString(), tagCounts[ord], Integer::sum);
+            }
+        }
+        for (int ord = 0; ord < mimeTypeCounts.length; ord++) {
+            if (mimeTypeCounts[ord] > 0) {
+                mimeTypeCountMap.merge(mimeTypeValues.lookupOrd(ord).utf8ToString(), mimeTypeCounts[ord], Integer::sum);
+            }
+        }
+        for (int ord = 0; ord < languageCounts.length; ord++) {
+            if (languageCounts[ord] > 0) {
+                languageCountMap.merge(languageValues.lookupOrd(ord).utf8ToString(), languageCounts[ord], Integer::sum);
+            }
+        }
+        for (int ord = 0; ord < creatorCounts.length; ord++) {
+            if (creatorCounts[ord] > 0) {
+                creatorCountMap.merge(creatorValues.lookupOrd(ord).utf8ToString(), creatorCounts[ord], Integer::sum);
+            }
+        }
+        tagValues = null;
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE_NO_SCORES;
+    }
+
+    /**
+     * Copy the facet counts, once the search is done.
+     *
+     * @param facets Facet counts (updated by side effects)
+     * @throws IOException e
+     */
+    public void copyTo(DocumentFacetsDto facets) throws IOException {
+        flushSegment();
+        facets.setTagCountMap(sortByCount(tagCountMap));
+        facets.setMimeTypeCountMap(sortByCount(mimeTypeCountMap));
+        facets.setLanguageCountMap(sortByCount(languageCountMap));
+        facets.setCreatorCountMap(sortByCount(creatorCountMap));
+        facets.setCreateMonthCountMap(sortByCount(createMonthCountMap));
+    }
+
+    /**
+     * Sort counts by decreasing count.
+     *
+     * @param countMap Counts
+     * @return Sorted counts
+     */
+    private Map<String, Integer> sortByCount(Map<String, Integer> countMap) {
+        Map<String, Integer> sortedCountMap = new LinkedHashMap<>();
+        countMap.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .forEach(entry -> sortedCountMap.put(entry.getKey(), entry.getValue()));
+        return sortedCountMap;
+    }
+}
@@ -4,26 +4,43 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.ConfigDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.DocumentPermissionDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.RouteStepDao;
+import com.sismics.docs.core.dao.ShareDao;
+import com.sismics.docs.core.dao.TagDao;
 import com.sismics.docs.core.dao.criteria.DocumentCriteria;
 import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.dao.dto.DocumentFacetsDto;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Config;
 import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.SecurityUtil;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.QueryParam;
+import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
 import com.sismics.util.ClasspathScanner;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
@@ -33,13 +50,13 @@ import org.apache.lucene.search.highlight.Highlighter;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
-import org.apache.lucene.search.spell.LuceneDictionary;
-import org.apache.lucene.search.suggest.Lookup;
-import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
+import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.NIOFSDirectory;
 import org.apache.lucene.store.NoLockFactory;
-import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NativeFSLockFactory;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,11 +65,24 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
  * Lucene indexing handler.
  * Documents and files are indexed in Lucene, but only used for fulltext search.
  * Other search criteria are still using the database.
+ * The targets allowed to read a document are indexed with it and its files,
+ * so searches only score what the user can read.
+ * Structured criteria are indexed too, and document lists can optionally
+ * be answered from the index alone, the database only returning the requested page.
+ * Facets are counted from the doc values of the structured criteria.
+ * Searches are served near-real-time from the index writer,
+ * and commits are batched by a background service.
  *
  * @author bgamard
  */
@@ -69,15 +99,117 @@ public class LuceneIndexingHandler implements IndexingHandler {
     private Directory directory;
 
     /**
-     * Directory reader.
+     * Maximum time to wait for the searcher to be reopened on a write (in seconds).
      */
-    private DirectoryReader directoryReader;
+    private static final double REOPEN_MAX_STALE_SEC = 1.0;
+
+    /**
+     * Minimum time to wait for the searcher to be reopened on a write (in seconds).
+     */
+    private static final double REOPEN_MIN_STALE_SEC = 0.025;
+
+    /**
+     * Maximum time a search waits for the last write to be visible (in milliseconds).
+     */
+    private static final int REOPEN_WAIT_MS = 1000;
+
+    /**
+     * Commit data key of the generation given to indexed documents.
+     */
+    private static final String GENERATION_KEY = "generation";
+
+    /**
+     * Commit data key of the version of the indexed fields.
+     */
+    private static final String VERSION_KEY = "version";
+
+    /**
+     * Version of the indexed fields, an index of another version is rebuilt on startup.
+     */
+    private static final String INDEX_VERSION = "3";
+
+    /**
+     * Number of documents read and indexed at once when their targets change.
+     */
+    private static final int TARGET_UPDATE_BATCH_SIZE = 100;
+
+    /**
+     * Index sort fields by document list sort column.
+     */
+    private static final Map<Integer, SortField> SORT_FIELD_MAP = Map.of(
+            0, new SortField("id", SortField.Type.STRING),
+            1, new SortField("title_exact", SortField.Type.STRING),
+            3, new SortField("create_date", SortField.Type.LONG),
+            4, new SortField("language", SortField.Type.STRING),
+            8, new SortField("update_date", SortField.Type.LONG));
+
+    /**
+     * Commit data key present while a rebuild is in progress.
+     */
+    private static final String REBUILD_KEY = "rebuild";
+
+    /**
+     * Commit data key prefix of the rebuild checkpoints.
+     */
+    private static final String REBUILD_CHECKPOINT_KEY_PREFIX = "rebuild.";
 
     /**
      * Index writer.
      */
     private IndexWriter indexWriter;
 
+    /**
+     * Near-real-time searcher manager.
+     * Searchers are reference counted, always acquire and release them through {@link #withSearcher}.
+     */
+    private SearcherManager searcherManager;
+
+    /**
+     * Executor used by searchers to search segments in parallel.
+     */
+    private ExecutorService searchExecutor;
+
+    /**
+     * Thread reopening the searcher manager after writes.
+     */
+    private ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+
+    /**
+     * Search terms suggester.
+     */
+    private LuceneSuggester suggester;
+
+    /**
+     * Background commit service, null if the index is committed on each write.
+     */
+    private LuceneCommitService commitService;
+
+    /**
+     * Sequence number of the last write operation.
+     */
+    private final AtomicLong lastWriteGeneration = new AtomicLong(-1);
+
+    /**
+     * User data persisted with each commit of the index.
+     */
+    private final Map<String, String> commitData = new ConcurrentHashMap<>();
+
+    /**
+     * Generation given to indexed documents.
+     * A rebuild starts a new generation, and documents of the older ones are removed when it finishes.
+     */
+    private volatile String indexGeneration;
+
+    /**
+     * True if document lists are answered from the index only.
+     */
+    private boolean structuredSearch;
+
+    /**
+     * True if fulltext searches are paged in the index, even without structured search.
+     */
+    private boolean fulltextInIndex = true;
+
     @Override
     public boolean accept() {
         // Embedded Lucene can always start
@@ -97,10 +229,25 @@ public class LuceneIndexingHandler implements IndexingHandler {
                     .map(Path::toFile)
                     .forEach(java.io.File::delete);
 
-            // Re-initialize and schedule a full reindex
+            // Re-initialize and schedule a full reindex, searches know about it until it is done
             initLucene();
+            startRebuild();
+            RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
+            AppContext.getInstance().getProcessingScheduler().post(rebuildIndexAsyncEvent);
+            return;
+        }
+
+        if (isRebuildPending()) {
+            // Resume the rebuild interrupted by the last shutdown
+            log.info("Resuming the interrupted index rebuild");
             RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
-            AppContext.getInstance().getAsyncEventBus().post(rebuildIndexAsyncEvent);
+            AppContext.getInstance().getProcessingScheduler().post(rebuildIndexAsyncEvent);
+        } else if (!INDEX_VERSION.equals(commitData.get(VERSION_KEY))) {
+            // The indexed fields have changed
+            log.info("Rebuilding the index from version {} to version {}", commitData.get(VERSION_KEY), INDEX_VERSION);
+            startRebuild();
+            RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
+            AppContext.getInstance().getProcessingScheduler().post(rebuildIndexAsyncEvent);
         }
     }
 
@@ -110,22 +257,25 @@ public class LuceneIndexingHandler implements IndexingHandler {
         String luceneStorage = luceneStorageConfig == null ? null : luceneStorageConfig.getValue();
 
         // RAM directory storage by default
+        Directory suggestDirectory = null;
         if (luceneStorage == null || luceneStorage.equals("RAM")) {
-            directory = new RAMDirectory();
+            directory = new ByteBuffersDirectory();
+            suggestDirectory = new ByteBuffersDirectory();
             log.info("Using RAM Lucene storage");
         } else if (luceneStorage.equals("FILE")) {
             Path luceneDirectory = DirectoryUtil.getLuceneDirectory();
             log.info("Using file Lucene storage: {}", luceneDirectory);
             directory = new NIOFSDirectory(luceneDirectory, NoLockFactory.INSTANCE);
+            suggestDirectory = new NIOFSDirectory(DirectoryUtil.getLuceneSuggestDirectory());
+        } else if (luceneStorage.equals("MMAP")) {
+            Path luceneDirectory = DirectoryUtil.getLuceneDirectory();
+            log.info("Using memory-mapped file Lucene storage: {}", luceneDirectory);
+            directory = new MMapDirectory(luceneDirectory, NativeFSLockFactory.INSTANCE);
+            suggestDirectory = new MMapDirectory(DirectoryUtil.getLuceneSuggestDirectory(), NativeFSLockFactory.INSTANCE);
         }
 
-        // Create an index writer
-        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
-        config.setCommitOnClose(true);
-        config.setMergeScheduler(new ConcurrentMergeScheduler());
-        indexWriter = new IndexWriter(directory, config);
-
         // Check index version and rebuild it if necessary
+        // The check must run before the index writer holds the write lock
         if (DirectoryReader.indexExists(directory)) {
             log.info("Checking index health and version");
             try (CheckIndex checkIndex = new CheckIndex(directory)) {
@@ -135,15 +285,93 @@ public class LuceneIndexingHandler implements IndexingHandler {
                 }
             }
         }
+
+        // Create an index writer
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        config.setCommitOnClose(true);
+        config.setMergeScheduler(new ConcurrentMergeScheduler());
+        indexWriter = new IndexWriter(directory, config);
+
+        // Restore the commit data of the last commit
+        commitData.clear();
+        Iterable<Map.Entry<String, String>> lastCommitData = indexWriter.getLiveCommitData();
+        if (lastCommitData != null) {
+            for (Map.Entry<String, String> entry : lastCommitData) {
+                commitData.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!commitData.containsKey(GENERATION_KEY)) {
+            // New index, in the current version
+            commitData.put(GENERATION_KEY, UUID.randomUUID().toString());
+            commitData.put(VERSION_KEY, INDEX_VERSION);
+        }
+        indexGeneration = commitData.get(GENERATION_KEY);
+        indexWriter.setLiveCommitData(commitData.entrySet(), false);
+
+        // Serve searches near-real-time from the index writer
+        searchExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder().setNameFormat("lucene-search-%d").setDaemon(true).build());
+        List<Query> warmupQueryList = Lists.newArrayList(
+                new TermQuery(new Term("doctype", "document")),
+                new TermQuery(new Term("doctype", "file")));
+        searcherManager = new SearcherManager(indexWriter, new LuceneSearcherFactory(searchExecutor, warmupQueryList));
+        reopenThread = new ControlledRealTimeReopenThread<>(indexWriter, searcherManager, REOPEN_MAX_STALE_SEC, REOPEN_MIN_STALE_SEC);
+        reopenThread.setName("Lucene NRT reopen");
+        reopenThread.setDaemon(true);
+        reopenThread.start();
+
+        // Open the persisted suggestions, or build them once from the index
+        suggester = new LuceneSuggester(suggestDirectory);
+        withSearcher(searcher -> {
+            suggester.buildIfEmpty(searcher.getIndexReader());
+            return null;
+        });
+
+        // Commit the index in the background, unless asked to commit on each write
+        int commitInterval = ConfigUtil.getEnvIntegerValue(Constants.LUCENE_COMMIT_INTERVAL_ENV, Constants.DEFAULT_LUCENE_COMMIT_INTERVAL);
+        if (commitInterval > 0) {
+            commitService = new LuceneCommitService(indexWriter, suggester, commitInterval);
+            commitService.startAsync();
+            commitService.awaitRunning();
+        } else {
+            log.info("Committing Lucene index on each write");
+        }
+
+        structuredSearch = ConfigUtil.getEnvBooleanValue(Constants.LUCENE_STRUCTURED_SEARCH_ENV, false);
+        if (structuredSearch) {
+            log.info("Answering document lists from the Lucene index");
+        }
     }
 
     @Override
     public void shutDown() {
-        if (directoryReader != null) {
+        if (commitService != null) {
+            commitService.stopAsync();
+            commitService.awaitTerminated();
+        }
+        if (reopenThread != null) {
+            reopenThread.close();
+        }
+        if (suggester != null) {
             try {
-                directoryReader.close();
+                suggester.close();
             } catch (IOException e) {
-                log.error("Error closing the index reader", e);
+                log.error("Error closing the suggester", e);
+            }
+        }
+        if (searcherManager != null) {
+            try {
+                searcherManager.close();
+            } catch (IOException e) {
+                log.error("Error closing the searcher manager", e);
+            }
+        }
+        if (searchExecutor != null) {
+            try {
+                searchExecutor.shutdown();
+                searchExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                // NOP
             }
         }
         if (indexWriter != null) {
@@ -164,59 +392,159 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void clearIndex() {
-        handle(IndexWriter::deleteAll);
+        handle(indexWriter -> {
+            suggester.clear();
+            return indexWriter.deleteAll();
+        });
     }
 
     @Override
     public void createDocuments(List<Document> documentList) {
+        Map<String, DocumentData> documentDataMap = getDocumentDataMap(documentList.stream()
+                .map(Document::getId)
+                .collect(Collectors.toList()));
         handle(indexWriter -> {
+            long generation = -1;
             for (Document document : documentList) {
-                org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-                indexWriter.addDocument(luceneDocument);
+                org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document, documentDataMap.get(document.getId()));
+                generation = indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument);
+                addSuggestion(document.getTitle());
             }
+            return generation;
         });
     }
 
     @Override
     public void createFiles(List<File> fileList) {
+        Map<String, List<String>> targetIdMap = getFileTargetIdMap(fileList);
         handle(indexWriter -> {
+            long generation = -1;
             for (File file : fileList) {
-                org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
-                indexWriter.addDocument(luceneDocument);
+                org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file,
+                        targetIdMap.getOrDefault(file.getDocumentId(), Collections.emptyList()));
+                generation = indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument);
             }
+            return generation;
         });
     }
 
+    @Override
+    public Map<String, String> startRebuild() {
+        Map<String, String> checkpointMap = new HashMap<>();
+        if (isRebuildPending()) {
+            // Resume the rebuild, documents are still indexed in its generation
+            for (Map.Entry<String, String> entry : commitData.entrySet()) {
+                if (entry.getKey().startsWith(REBUILD_CHECKPOINT_KEY_PREFIX)) {
+                    checkpointMap.put(entry.getKey().substring(REBUILD_CHECKPOINT_KEY_PREFIX.length()), entry.getValue());
+                }
+            }
+            return checkpointMap;
+        }
+
+        // Index the documents in a new generation from now on
+        indexGeneration = UUID.randomUUID().toString();
+        commitData.put(GENERATION_KEY, indexGeneration);
+        commitData.put(VERSION_KEY, INDEX_VERSION);
+        commitData.put(REBUILD_KEY, Long.toString(System.currentTimeMillis()));
+        indexWriter.setLiveCommitData(commitData.entrySet());
+        return checkpointMap;
+    }
+
+    @Override
+    public void checkpointRebuild(String key, String value) {
+        commitData.put(REBUILD_CHECKPOINT_KEY_PREFIX + key, value);
+        indexWriter.setLiveCommitData(commitData.entrySet());
+    }
+
+    @Override
+    public void finishRebuild() throws Exception {
+        // Remove the documents which have not been indexed again
+        handle(indexWriter -> {
+            Query staleQuery = new BooleanQuery.Builder()
+                    .add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST)
+                    .add(new TermQuery(new Term("generation", indexGeneration)), BooleanClause.Occur.MUST_NOT)
+                    .build();
+            long generation = indexWriter.deleteDocuments(staleQuery);
+            commitData.keySet().removeIf(key -> key.equals(REBUILD_KEY) || key.startsWith(REBUILD_CHECKPOINT_KEY_PREFIX));
+            indexWriter.setLiveCommitData(commitData.entrySet());
+            return generation;
+        });
+
+        // Rebuild the suggestions without the terms of removed documents
+        withSearcher(searcher -> {
+            suggester.build(searcher.getIndexReader());
+            return null;
+        });
+    }
+
+    /**
+     * Answer document lists from the index only, or from the database.
+     *
+     * @param structuredSearch True to answer document lists from the index only
+     */
+    void setStructuredSearch(boolean structuredSearch) {
+        this.structuredSearch = structuredSearch;
+    }
+
+    /**
+     * Page fulltext searches in the index, or in the database as during a rebuild.
+     *
+     * @param fulltextInIndex True to page fulltext searches in the index
+     */
+    void setFulltextInIndex(boolean fulltextInIndex) {
+        this.fulltextInIndex = fulltextInIndex;
+    }
+
+    @Override
+    public boolean isRebuildPending() {
+        return commitData.containsKey(REBUILD_KEY);
+    }
+
     @Override
     public void createDocument(final Document document) {
+        DocumentData documentData = getDocumentData(document.getId());
         handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-            indexWriter.addDocument(luceneDocument);
+            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document, documentData);
+            long generation = indexWriter.addDocument(luceneDocument);
+            addSuggestion(document.getTitle());
+            return generation;
         });
     }
 
     @Override
     public void createFile(final File file) {
+        List<String> targetIdList = getTargetIdList(file.getDocumentId());
         handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
-            indexWriter.addDocument(luceneDocument);
+            // Replace any existing entry, a replayed processing job may index the same file again
+            org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file, targetIdList);
+            return indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument);
         });
     }
 
     @Override
     public void updateFile(final File file) {
+        List<String> targetIdList = getTargetIdList(file.getDocumentId());
         handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
-            indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument);
+            org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file, targetIdList);
+            return indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument);
         });
     }
 
     @Override
     public void updateDocument(final Document document) {
+        DocumentData documentData = getDocumentData(document.getId());
+        boolean targetChanged = !new HashSet<>(documentData.targetIdList).equals(getIndexedTargetIdSet(document.getId()));
         handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-            indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument);
+            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document, documentData);
+            long generation = indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument);
+            addSuggestion(document.getTitle());
+            return generation;
         });
+
+        if (targetChanged) {
+            // The tags of the document have changed its targets, its files must follow
+            createFiles(new FileDao().getByDocumentId(null, document.getId()));
+        }
     }
 
     @Override
@@ -226,58 +554,199 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void createAcl(String sourceId, PermType perm, String targetId) {
-        // Lucene does not index ACLs
+        if (perm == PermType.READ) {
+            updateTargets(sourceId);
+        }
     }
 
     @Override
     public void deleteAcl(String sourceId, PermType perm, String targetId) {
-        // Lucene does not index ACLs
+        if (perm == PermType.READ) {
+            updateTargets(sourceId);
+        }
     }
 
     @Override
-    public void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
+    public void updateTag(String tagId) {
+        // Documents indexed with this tag, directly or through a child tag
+        List<String> documentIdList;
+        try {
+            documentIdList = withSearcher(searcher -> {
+                Query query = new TermQuery(new Term("tag", tagId));
+                return searchIdList(searcher, query, searcher.count(query), new Sort(new SortField("id", SortField.Type.STRING)));
+            });
+        } catch (Exception e) {
+            log.error("Error searching the documents of tag " + tagId, e);
+            return;
+        }
+        updateDocuments(documentIdList);
+    }
+
+    /**
+     * Index again the documents and files whose targets depend on an ACL source.
+     *
+     * @param sourceId Document or tag ID
+     */
+    private void updateTargets(String sourceId) {
+        updateDocuments(new DocumentPermissionDao().getDocumentIdListBySourceId(sourceId));
+    }
+
+    /**
+     * Index again documents and their files.
+     *
+     * @param documentIdList Document IDs
+     */
+    private void updateDocuments(List<String> documentIdList) {
+        DocumentDao documentDao = new DocumentDao();
+        FileDao fileDao = new FileDao();
+        for (List<String> documentIdPage : Lists.partition(documentIdList, TARGET_UPDATE_BATCH_SIZE)) {
+            createDocuments(documentIdPage.stream()
+                    .map(documentDao::getById)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList()));
+            createFiles(fileDao.getByDocumentsIds(documentIdPage));
+        }
+    }
+
+    /**
+     * Returns the indexed data of a document read from other tables.
+     *
+     * @param documentId Document ID
+     * @return Document data
+     */
+    private DocumentData getDocumentData(String documentId) {
+        return getDocumentDataMap(Collections.singletonList(documentId)).get(documentId);
+    }
+
+    /**
+     * Returns the indexed data of documents read from other tables.
+     *
+     * @param documentIdList Document IDs
+     * @return Document data by document ID
+     */
+    private Map<String, DocumentData> getDocumentDataMap(List<String> documentIdList) {
+        TagDao tagDao = new TagDao();
+        Map<String, List<String>> targetIdMap = getTargetIdMap(documentIdList);
+        Map<String, List<String>> tagIdMap = tagDao.getTagIdMap(documentIdList);
+        Map<String, String> parentIdMap = tagIdMap.isEmpty() ? Collections.emptyMap() : tagDao.getParentIdMap();
+        Map<String, List<String>> mimeTypeMap = new FileDao().getMimeTypeMap(documentIdList);
+        Map<String, String> routeTargetIdMap = new RouteStepDao().getCurrentTargetIdMap(documentIdList);
+        Set<String> sharedDocumentIdSet = new ShareDao().getSharedDocumentIdSet(documentIdList);
+
+        Map<String, DocumentData> documentDataMap = Maps.newHashMap();
+        for (String documentId : documentIdList) {
+            // Tags are indexed with their ancestors
+            Set<String> tagIdSet = Sets.newHashSet();
+            for (String tagId : tagIdMap.getOrDefault(documentId, Collections.emptyList())) {
+                while (tagId != null && tagIdSet.add(tagId)) {
+                    tagId = parentIdMap.get(tagId);
+                }
+            }
+
+            documentDataMap.put(documentId, new DocumentData(
+                    targetIdMap.getOrDefault(documentId, Collections.emptyList()),
+                    tagIdSet,
+                    mimeTypeMap.getOrDefault(documentId, Collections.emptyList()),
+                    routeTargetIdMap.get(documentId),
+                    sharedDocumentIdSet.contains(documentId)));
+        }
+        return documentDataMap;
+    }
+
+    /**
+     * Returns the targets allowed to read a document.
+     *
+     * @param documentId Document ID, may be null
+     * @return Target IDs
+     */
+    private List<String> getTargetIdList(String documentId) {
+        if (documentId == null) {
+            return Collections.emptyList();
+        }
+        return getTargetIdMap(Collections.singletonList(documentId)).getOrDefault(documentId, Collections.emptyList());
+    }
+
+    /**
+     * Returns the targets allowed to read the documents of files.
+     *
+     * @param fileList Files
+     * @return Target IDs by document ID
+     */
+    private Map<String, List<String>> getFileTargetIdMap(List<File> fileList) {
+        return getTargetIdMap(fileList.stream()
+                .map(File::getDocumentId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Returns the targets allowed to read documents.
+     *
+     * @param documentIdList Document IDs
+     * @return Target IDs by document ID
+     */
+    private Map<String, List<String>> getTargetIdMap(List<String> documentIdList) {
+        return new DocumentPermissionDao().getTargetIdMap(documentIdList, PermType.READ);
+    }
+
+    /**
+     * Returns the targets indexed with a document.
+     *
+     * @param documentId Document ID
+     * @return Target IDs, null if the document is not indexed
+     */
+    private Set<String> getIndexedTargetIdSet(String documentId) {
+        try {
+            return withSearcher(searcher -> {
+                TopDocs topDocs = searcher.search(new TermQuery(new Term("id", documentId)), 1);
+                if (topDocs.scoreDocs.length == 0) {
+                    return null;
+                }
+                org.apache.lucene.document.Document document = searcher.doc(topDocs.scoreDocs[0].doc, Collections.singleton("target"));
+                return Sets.newHashSet(document.getValues("target"));
+            });
+        } catch (Exception e) {
+            log.error("Error reading the indexed targets of " + documentId, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentFacetsDto facets, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
+        // Fulltext searches are always paged in the index, unless it is rebuilding or can't sort on the requested column
+        boolean fulltext = !Strings.isNullOrEmpty(criteria.getSearch()) || !Strings.isNullOrEmpty(criteria.getFullSearch());
+        if ((structuredSearch || (fulltext && fulltextInIndex)) && !isRebuildPending()
+                && (sortCriteria == null || SORT_FIELD_MAP.containsKey(sortCriteria.getColumn()))) {
+            findByCriteriaInIndex(paginatedList, suggestionList, facets, criteria, sortCriteria);
+            return;
+        }
+
         Map<String, Object> parameterMap = new HashMap<>();
         List<String> criteriaList = new ArrayList<>();
-        Map<String, String> documentSearchMap = Maps.newHashMap();
+        LuceneSearchHitCollector searchHits = null;
 
-        StringBuilder sb = new StringBuilder("select distinct d.DOC_ID_C c0, d.DOC_TITLE_C c1, d.DOC_DESCRIPTION_C c2, d.DOC_CREATEDATE_D c3, d.DOC_LANGUAGE_C c4, d.DOC_IDFILE_C, ");
-        sb.append(" s.count c5, ");
-        sb.append(" f.count c6, ");
-        sb.append(" rs2.RTP_ID_C c7, rs2.RTP_NAME_C, d.DOC_UPDATEDATE_D c8 ");
-        sb.append(" from T_DOCUMENT d ");
-        sb.append(" left join (SELECT count(s.SHA_ID_C) count, ac.ACL_SOURCEID_C " +
-                "   FROM T_SHARE s, T_ACL ac " +
-                "   WHERE ac.ACL_TARGETID_C = s.SHA_ID_C AND ac.ACL_DELETEDATE_D IS NULL AND " +
-                "         s.SHA_DELETEDATE_D IS NULL group by ac.ACL_SOURCEID_C) s on s.ACL_SOURCEID_C = d.DOC_ID_C " +
-                "  left join (SELECT count(f.FIL_ID_C) count, f.FIL_IDDOC_C " +
-                "   FROM T_FILE f " +
-                "   WHERE f.FIL_DELETEDATE_D is null group by f.FIL_IDDOC_C) f on f.FIL_IDDOC_C = d.DOC_ID_C ");
-        sb.append(" left join (select rs.*, rs3.idDocument " +
-                "from T_ROUTE_STEP rs " +
-                "join (select r.RTE_IDDOCUMENT_C idDocument, rs.RTP_IDROUTE_C idRoute, min(rs.RTP_ORDER_N) minOrder from T_ROUTE_STEP rs join T_ROUTE r on r.RTE_ID_C = rs.RTP_IDROUTE_C and r.RTE_DELETEDATE_D is null where rs.RTP_DELETEDATE_D is null and rs.RTP_ENDDATE_D is null group by rs.RTP_IDROUTE_C, r.RTE_IDDOCUMENT_C) rs3 on rs.RTP_IDROUTE_C = rs3.idRoute and rs.RTP_ORDER_N = rs3.minOrder " +
-                "where rs.RTP_IDTARGET_C in (:targetIdList)) rs2 on rs2.idDocument = d.DOC_ID_C ");
+        StringBuilder sb = buildDocumentQuery();
 
         // Add search criterias
         if (criteria.getTargetIdList() != null) {
             if (!SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
                 // Read permission is enough for searching
-                sb.append(" left join T_ACL a on a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = d.DOC_ID_C and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null ");
-                sb.append(" left join T_DOCUMENT_TAG dta on dta.DOT_IDDOCUMENT_C = d.DOC_ID_C and dta.DOT_DELETEDATE_D is null ");
-                sb.append(" left join T_ACL a2 on a2.ACL_TARGETID_C in (:targetIdList) and a2.ACL_SOURCEID_C = dta.DOT_IDTAG_C and a2.ACL_PERM_C = 'READ' and a2.ACL_DELETEDATE_D is null ");
-                criteriaList.add("(a.ACL_ID_C is not null or a2.ACL_ID_C is not null)");
+                criteriaList.add("exists (select p.DPM_IDDOCUMENT_C from T_DOCUMENT_PERMISSION p where p.DPM_IDDOCUMENT_C = d.DOC_ID_C and p.DPM_IDTARGET_C in (:targetIdList) and p.DPM_PERM_C = 'READ')");
             }
             parameterMap.put("targetIdList", criteria.getTargetIdList());
         }
         if (!Strings.isNullOrEmpty(criteria.getSearch()) || !Strings.isNullOrEmpty(criteria.getFullSearch())) {
-            documentSearchMap = search(criteria.getSearch(), criteria.getFullSearch());
-            if (documentSearchMap.isEmpty()) {
+            searchHits = search(criteria.getSearch(), criteria.getFullSearch(), criteria.getTargetIdList());
+            Set<String> documentIdSet = searchHits.getDocumentIdSet();
+            if (documentIdSet.isEmpty()) {
                 // If the search doesn't find any document, the request should return nothing
-                documentSearchMap.put(UUID.randomUUID().toString(), null);
+                documentIdSet = Collections.singleton(UUID.randomUUID().toString());
             }
             criteriaList.add("d.DOC_ID_C in :documentIdList");
-            parameterMap.put("documentIdList", documentSearchMap.keySet());
+            parameterMap.put("documentIdList", documentIdSet);
 
-            suggestSearchTerms(criteria.getFullSearch(), suggestionList);
+            suggestionList.addAll(suggestSearchTerms(criteria.getFullSearch(), 10));
         }
         if (criteria.getCreateDateMin() != null) {
             criteriaList.add("d.DOC_CREATEDATE_D >= :createDateMin");
@@ -347,16 +816,238 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
         criteriaList.add("d.DOC_DELETEDATE_D is null");
 
-        if (!criteriaList.isEmpty()) {
-            sb.append(" where ");
-            sb.append(Joiner.on(" and ").join(criteriaList));
-        }
-
         // Perform the search
-        QueryParam queryParam = new QueryParam(sb.toString(), parameterMap);
-        List<Object[]> l = PaginatedLists.executePaginatedQuery(paginatedList, queryParam, sortCriteria);
+        List<Object[]> l;
+        if (searchHits != null && sortCriteria == null) {
+            l = executeRelevanceQuery(paginatedList, sb.toString(), criteriaList, parameterMap, searchHits);
+        } else {
+            QueryParam queryParam = new QueryParam(sb + " where " + Joiner.on(" and ").join(criteriaList), parameterMap);
+            l = PaginatedLists.executePaginatedQuery(paginatedList, queryParam, sortCriteria);
+        }
 
         // Assemble results
+        List<DocumentDto> documentDtoList = assembleDocumentDtoList(l);
+
+        // Highlight only the returned documents
+        if (searchHits != null) {
+            highlight(documentDtoList, searchHits);
+        }
+
+        // Count the facets in the index, unless they are not reliable during a rebuild
+        if (facets != null && !isRebuildPending()) {
+            Query query = buildIndexQuery(criteria, searchHits);
+            LuceneFacetCollector facetCollector = new LuceneFacetCollector();
+            withSearcher(searcher -> {
+                searcher.search(query, facetCollector);
+                return null;
+            });
+            facetCollector.copyTo(facets);
+        }
+
+        paginatedList.setResultList(documentDtoList);
+    }
+
+    /**
+     * Search documents in the index only, the database returns the requested page.
+     *
+     * @param paginatedList List of documents (updated by side effects)
+     * @param suggestionList Suggestion of search query (updated by side effects)
+     * @param facets Facet counts (updated by side effects), null if not needed
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria, null to sort by relevance
+     * @throws Exception e
+     */
+    private void findByCriteriaInIndex(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentFacetsDto facets,
+                                       DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
+        // Fulltext search in documents and files
+        LuceneSearchHitCollector searchHits = null;
+        if (!Strings.isNullOrEmpty(criteria.getSearch()) || !Strings.isNullOrEmpty(criteria.getFullSearch())) {
+            searchHits = search(criteria.getSearch(), criteria.getFullSearch(), criteria.getTargetIdList());
+            suggestionList.addAll(suggestSearchTerms(criteria.getFullSearch(), 10));
+        }
+        Query query = buildIndexQuery(criteria, searchHits);
+
+        // Find the IDs of the requested page, by relevance or by the requested column, the ID is the last sort field
+        SortField idSortField = new SortField("id", SortField.Type.STRING);
+        Sort sort = new Sort(idSortField);
+        if (sortCriteria != null) {
+            SortField sortField = SORT_FIELD_MAP.get(sortCriteria.getColumn());
+            sort = new Sort(new SortField(sortField.getField(), sortField.getType(), !sortCriteria.isAsc()), idSortField);
+        } else if (searchHits != null) {
+            sort = new Sort(searchHits.getScoreSortField(), idSortField);
+        }
+        Sort pageSort = sort;
+        List<String> pageIdList = withSearcher(searcher -> {
+            int count;
+            if (facets == null) {
+                count = searcher.count(query);
+            } else {
+                // Count the matching documents and their facets in the same pass
+                TotalHitCountCollector countCollector = new TotalHitCountCollector();
+                LuceneFacetCollector facetCollector = new LuceneFacetCollector();
+                searcher.search(query, MultiCollector.wrap(countCollector, facetCollector));
+                count = countCollector.getTotalHits();
+                facetCollector.copyTo(facets);
+            }
+            paginatedList.setResultCount(count);
+            int fromIndex = Math.min(paginatedList.getOffset(), count);
+            int toIndex = Math.min(paginatedList.getOffset() + paginatedList.getLimit(), count);
+            if (fromIndex >= toIndex) {
+                return new ArrayList<String>();
+            }
+
+            // Collect only the documents up to the end of the page
+            List<String> documentIdList = searchIdList(searcher, query, toIndex, pageSort);
+            return new ArrayList<>(documentIdList.subList(fromIndex, documentIdList.size()));
+        });
+        if (pageIdList.isEmpty()) {
+            paginatedList.setResultList(new ArrayList<>());
+            return;
+        }
+
+        // Fetch the page from the database, which still checks the permissions while the indexed targets are updated
+        Map<String, Object> parameterMap = new HashMap<>();
+        List<String> criteriaList = new ArrayList<>();
+        if (criteria.getTargetIdList() != null) {
+            if (!SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
+                criteriaList.add("exists (select p.DPM_IDDOCUMENT_C from T_DOCUMENT_PERMISSION p where p.DPM_IDDOCUMENT_C = d.DOC_ID_C and p.DPM_IDTARGET_C in (:targetIdList) and p.DPM_PERM_C = 'READ')");
+            }
+            parameterMap.put("targetIdList", criteria.getTargetIdList());
+        }
+        criteriaList.add("d.DOC_ID_C in :pageIdList");
+        criteriaList.add("d.DOC_DELETEDATE_D is null");
+        parameterMap.put("pageIdList", pageIdList);
+        QueryParam queryParam = new QueryParam(buildDocumentQuery() + " where " + Joiner.on(" and ").join(criteriaList), parameterMap);
+        @SuppressWarnings("unchecked")
+        List<Object[]> l = QueryUtil.getNativeQuery(queryParam).getResultList();
+        l.sort(Comparator.comparingInt(o -> pageIdList.indexOf((String) o[0])));
+        List<DocumentDto> documentDtoList = assembleDocumentDtoList(l);
+
+        // Highlight only the returned documents
+        if (searchHits != null) {
+            highlight(documentDtoList, searchHits);
+        }
+
+        paginatedList.setResultList(documentDtoList);
+    }
+
+    /**
+     * Build the index query of the documents matching search criteria.
+     *
+     * @param criteria Search criteria
+     * @param searchHits Fulltext search hits, null if there is no fulltext search
+     * @return Query
+     */
+    private Query buildIndexQuery(DocumentCriteria criteria, LuceneSearchHitCollector searchHits) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term("doctype", "document")), BooleanClause.Occur.FILTER);
+        if (searchHits != null) {
+            builder.add(new TermInSetQuery("id", toBytesRefList(searchHits.getDocumentIdSet())), BooleanClause.Occur.FILTER);
+        }
+        addCriteria(builder, criteria);
+        return filterByTarget(builder.build(), criteria.getTargetIdList());
+    }
+
+    /**
+     * Add the structured search criteria to an index query.
+     *
+     * @param builder Query builder (updated by side effects)
+     * @param criteria Search criteria
+     */
+    private void addCriteria(BooleanQuery.Builder builder, DocumentCriteria criteria) {
+        if (criteria.getCreateDateMin() != null || criteria.getCreateDateMax() != null) {
+            builder.add(LongPoint.newRangeQuery("create_date",
+                    criteria.getCreateDateMin() == null ? Long.MIN_VALUE : criteria.getCreateDateMin().getTime(),
+                    criteria.getCreateDateMax() == null ? Long.MAX_VALUE : criteria.getCreateDateMax().getTime()), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getUpdateDateMin() != null || criteria.getUpdateDateMax() != null) {
+            builder.add(LongPoint.newRangeQuery("update_date",
+                    criteria.getUpdateDateMin() == null ? Long.MIN_VALUE : criteria.getUpdateDateMin().getTime(),
+                    criteria.getUpdateDateMax() == null ? Long.MAX_VALUE : criteria.getUpdateDateMax().getTime()), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getTitle() != null) {
+            builder.add(new TermQuery(new Term("title_exact", criteria.getTitle())), BooleanClause.Occur.FILTER);
+        }
+        for (List<String> tagIdList : criteria.getTagIdList()) {
+            builder.add(new TermInSetQuery("tag", toBytesRefList(tagIdList)), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getExcludedTagIdList() != null) {
+            for (List<String> tagIdList : criteria.getExcludedTagIdList()) {
+                builder.add(new TermInSetQuery("tag", toBytesRefList(tagIdList)), BooleanClause.Occur.MUST_NOT);
+            }
+        }
+        if (criteria.getShared() != null && criteria.getShared()) {
+            builder.add(new TermQuery(new Term("shared", "true")), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getMimeType() != null) {
+            builder.add(new TermQuery(new Term("mime_type", criteria.getMimeType())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getLanguage() != null) {
+            builder.add(new TermQuery(new Term("language", criteria.getLanguage())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getCreatorId() != null) {
+            builder.add(new TermQuery(new Term("creator", criteria.getCreatorId())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getActiveRoute() != null && criteria.getActiveRoute()) {
+            List<String> targetIdList = criteria.getTargetIdList() == null ? Collections.emptyList() : criteria.getTargetIdList();
+            builder.add(new TermInSetQuery("route_target", toBytesRefList(targetIdList)), BooleanClause.Occur.FILTER);
+        }
+    }
+
+    /**
+     * Returns the IDs of the first documents matching a query.
+     *
+     * @param searcher Index searcher
+     * @param query Query
+     * @param count Number of documents to return
+     * @param sort Sort, the last sort field must be the ID
+     * @return Document IDs
+     */
+    private List<String> searchIdList(IndexSearcher searcher, Query query, int count, Sort sort) throws IOException {
+        List<String> idList = new ArrayList<>();
+        if (count <= 0) {
+            return idList;
+        }
+        TopFieldDocs topDocs = searcher.search(query, count, sort);
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            Object[] fields = ((FieldDoc) scoreDoc).fields;
+            idList.add(((BytesRef) fields[fields.length - 1]).utf8ToString());
+        }
+        return idList;
+    }
+
+    /**
+     * Build the document query, without its where clause.
+     *
+     * @return Document query
+     */
+    private StringBuilder buildDocumentQuery() {
+        StringBuilder sb = new StringBuilder("select distinct d.DOC_ID_C c0, d.DOC_TITLE_C c1, d.DOC_DESCRIPTION_C c2, d.DOC_CREATEDATE_D c3, d.DOC_LANGUAGE_C c4, d.DOC_IDFILE_C, ");
+        sb.append(" s.count c5, ");
+        sb.append(" f.count c6, ");
+        sb.append(" rs2.RTP_ID_C c7, rs2.RTP_NAME_C, d.DOC_UPDATEDATE_D c8 ");
+        sb.append(" from T_DOCUMENT d ");
+        sb.append(" left join (SELECT count(s.SHA_ID_C) count, ac.ACL_SOURCEID_C " +
+                "   FROM T_SHARE s, T_ACL ac " +
+                "   WHERE ac.ACL_TARGETID_C = s.SHA_ID_C AND ac.ACL_DELETEDATE_D IS NULL AND " +
+                "         s.SHA_DELETEDATE_D IS NULL group by ac.ACL_SOURCEID_C) s on s.ACL_SOURCEID_C = d.DOC_ID_C " +
+                "  left join (SELECT count(f.FIL_ID_C) count, f.FIL_IDDOC_C " +
+                "   FROM T_FILE f " +
+                "   WHERE f.FIL_DELETEDATE_D is null group by f.FIL_IDDOC_C) f on f.FIL_IDDOC_C = d.DOC_ID_C ");
+        sb.append(" left join (select rs.*, rs3.idDocument " +
+                "from T_ROUTE_STEP rs " +
+                "join (select r.RTE_IDDOCUMENT_C idDocument, rs.RTP_IDROUTE_C idRoute, min(rs.RTP_ORDER_N) minOrder from T_ROUTE_STEP rs join T_ROUTE r on r.RTE_ID_C = rs.RTP_IDROUTE_C and r.RTE_DELETEDATE_D is null where rs.RTP_DELETEDATE_D is null and rs.RTP_ENDDATE_D is null group by rs.RTP_IDROUTE_C, r.RTE_IDDOCUMENT_C) rs3 on rs.RTP_IDROUTE_C = rs3.idRoute and rs.RTP_ORDER_N = rs3.minOrder " +
+                "where rs.RTP_IDTARGET_C in (:targetIdList)) rs2 on rs2.idDocument = d.DOC_ID_C ");
+        return sb;
+    }
+
+    /**
+     * Assemble the documents read from the database.
+     *
+     * @param l Rows of the document query
+     * @return Documents
+     */
+    private List<DocumentDto> assembleDocumentDtoList(List<Object[]> l) {
         List<DocumentDto> documentDtoList = new ArrayList<>();
         for (Object[] o : l) {
             int i = 0;
@@ -374,35 +1065,97 @@ public class LuceneIndexingHandler implements IndexingHandler {
             documentDto.setActiveRoute(o[i++] != null);
             documentDto.setCurrentStepName((String) o[i++]);
             documentDto.setUpdateTimestamp(((Timestamp) o[i]).getTime());
-            documentDto.setHighlight(documentSearchMap.get(documentDto.getId()));
             documentDtoList.add(documentDto);
         }
-
-        paginatedList.setResultList(documentDtoList);
+        return documentDtoList;
     }
 
     /**
-     * Suggest search terms according to the user query.
+     * Executes a search sorted by fulltext relevance.
+     * The database only filters the matching documents, restricted to the fulltext hits,
+     * then only the requested page is fetched.
      *
-     * @param search User search query
-     * @param suggestionList Suggestion of search query (updated by side effects)
-     * @throws Exception e
+     * @param paginatedList Paginated list (updated by side effects)
+     * @param query Query without the where clause
+     * @param criteriaList Criteria list
+     * @param parameterMap Query parameters
+     * @param searchHits Fulltext search hits
+     * @return Rows of the requested page, by decreasing relevance
      */
-    private void suggestSearchTerms(String search, List<String> suggestionList) throws Exception {
-        DirectoryReader directoryReader = getDirectoryReader();
-        if (directoryReader == null) {
-            return;
+    @SuppressWarnings("unchecked")
+    private List<Object[]> executeRelevanceQuery(PaginatedList<DocumentDto> paginatedList, String query, List<String> criteriaList,
+                                                 Map<String, Object> parameterMap, LuceneSearchHitCollector searchHits) {
+        // Filter the matching documents
+        QueryParam idQueryParam = new QueryParam("select t.c0 from (" + query + " where " + Joiner.on(" and ").join(criteriaList) + ") t", parameterMap);
+        List<String> documentIdList = new ArrayList<>(QueryUtil.getNativeQuery(idQueryParam).getResultList());
+        paginatedList.setResultCount(documentIdList.size());
+
+        // Keep only the most relevant documents up to the end of the page
+        Ordering<String> relevanceOrdering = Ordering.from(Comparator.comparing(searchHits::getScore).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+        List<String> topIdList = relevanceOrdering.leastOf(documentIdList, paginatedList.getOffset() + paginatedList.getLimit());
+        List<String> pageIdList = topIdList.subList(Math.min(paginatedList.getOffset(), topIdList.size()), topIdList.size());
+        if (pageIdList.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Fetch the page
+        List<String> pageCriteriaList = new ArrayList<>(criteriaList);
+        pageCriteriaList.add("d.DOC_ID_C in :pageIdList");
+        Map<String, Object> pageParameterMap = new HashMap<>(parameterMap);
+        pageParameterMap.put("pageIdList", pageIdList);
+        QueryParam pageQueryParam = new QueryParam(query + " where " + Joiner.on(" and ").join(pageCriteriaList), pageParameterMap);
+        List<Object[]> resultList = QueryUtil.getNativeQuery(pageQueryParam).getResultList();
+        resultList.sort(Comparator.comparingInt(o -> pageIdList.indexOf((String) o[0])));
+        return resultList;
+    }
+
+    @Override
+    public long getHeapIndexSize() throws Exception {
+        long heapSize = withSearcher(searcher -> {
+            long readerHeapSize = 0;
+            for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+                LeafReader leafReader = FilterLeafReader.unwrap(context.reader());
+                if (leafReader instanceof SegmentReader) {
+                    readerHeapSize += ((SegmentReader) leafReader).ramBytesUsed();
+                }
+            }
+            return readerHeapSize;
+        });
+
+        if (directory instanceof ByteBuffersDirectory) {
+            // The index files are on the heap too
+            for (String fileName : directory.listAll()) {
+                heapSize += directory.fileLength(fileName);
+            }
+        }
+        return heapSize;
+    }
+
+    @Override
+    public long getOffHeapIndexSize() throws Exception {
+        if (directory instanceof ByteBuffersDirectory) {
+            // The whole index is on the heap
+            return 0;
         }
 
-        FuzzySuggester suggester = new FuzzySuggester(directory, "", new StandardAnalyzer());
-        LuceneDictionary dictionary = new LuceneDictionary(directoryReader, "title");
-        suggester.build(dictionary);
+        return withSearcher(searcher -> {
+            long segmentSize = 0;
+            for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+                LeafReader leafReader = FilterLeafReader.unwrap(context.reader());
+                if (leafReader instanceof SegmentReader) {
+                    segmentSize += ((SegmentReader) leafReader).getSegmentInfo().sizeInBytes();
+                }
+            }
+            return segmentSize;
+        });
+    }
+
+    @Override
+    public List<String> suggestSearchTerms(String search, int count) throws Exception {
         int lastIndex = search.lastIndexOf(' ');
         String suggestQuery = search.substring(Math.max(lastIndex, 0));
-        List<Lookup.LookupResult> lookupResultList = suggester.lookup(suggestQuery, false, 10);
-        for (Lookup.LookupResult lookupResult : lookupResultList) {
-            suggestionList.add(lookupResult.key.toString());
-        }
+        return suggester.lookup(suggestQuery, count);
     }
 
     /**
@@ -410,10 +1163,11 @@ public class LuceneIndexingHandler implements IndexingHandler {
      *
      * @param searchQuery Search query on metadatas
      * @param fullSearchQuery Search query on all fields
-     * @return Map of document IDs as key and highlight as value
+     * @param targetIdList Targets the results must be readable by, null to search everything
+     * @return Search hits
      * @throws Exception e
      */
-    private Map<String, String> search(String searchQuery, String fullSearchQuery) throws Exception {
+    private LuceneSearchHitCollector search(String searchQuery, String fullSearchQuery, List<String> targetIdList) throws Exception {
         // The fulltext query searches in all fields
         searchQuery = searchQuery + " " + fullSearchQuery;
 
@@ -437,42 +1191,86 @@ public class LuceneIndexingHandler implements IndexingHandler {
                 .build();
 
         // Search
-        DirectoryReader directoryReader = getDirectoryReader();
-        Map<String, String> documentMap = Maps.newHashMap();
-        if (directoryReader == null) {
-            // The directory reader is not yet initialized (probably because there is nothing indexed)
-            return documentMap;
+        LuceneSearchHitCollector searchHits = new LuceneSearchHitCollector(query);
+        Query filteredQuery = filterByTarget(query, targetIdList);
+        withSearcher(searcher -> {
+            searcher.search(filteredQuery, searchHits);
+            return null;
+        });
+        return searchHits;
+    }
+
+    /**
+     * Filter a query on the targets allowed to read the documents and files,
+     * so only the readable ones are scored.
+     * Targets are not reliable until a rebuild is done, the database checks the permissions anyway.
+     *
+     * @param query Query
+     * @param targetIdList Target IDs, null to search everything
+     * @return Filtered query
+     */
+    private Query filterByTarget(Query query, List<String> targetIdList) {
+        if (targetIdList == null || SecurityUtil.skipAclCheck(targetIdList) || isRebuildPending()) {
+            return query;
+        }
+
+        return new BooleanQuery.Builder()
+                .add(query, BooleanClause.Occur.MUST)
+                .add(new TermInSetQuery("target", toBytesRefList(targetIdList)), BooleanClause.Occur.FILTER)
+                .build();
+    }
+
+    /**
+     * Convert terms to bytes, for a terms query.
+     *
+     * @param termCollection Terms
+     * @return Terms as bytes
+     */
+    private List<BytesRef> toBytesRefList(Collection<String> termCollection) {
+        List<BytesRef> bytesRefList = Lists.newArrayList();
+        for (String term : termCollection) {
+            bytesRefList.add(new BytesRef(term));
         }
-        IndexSearcher searcher = new IndexSearcher(directoryReader);
-        TopDocs topDocs = searcher.search(query, Integer.MAX_VALUE);
-        ScoreDoc[] docs = topDocs.scoreDocs;
+        return bytesRefList;
+    }
 
+    /**
+     * Highlight the best matching file content of each document.
+     *
+     * @param documentDtoList Documents (updated by side effects)
+     * @param searchHits Fulltext search hits
+     * @throws Exception e
+     */
+    private void highlight(List<DocumentDto> documentDtoList, LuceneSearchHitCollector searchHits) throws Exception {
+        Analyzer analyzer = new StandardAnalyzer();
         SimpleHTMLFormatter simpleHTMLFormatter = new SimpleHTMLFormatter("<strong>", "</strong>");
         SimpleHTMLEncoder simpleHTMLEncoder = new SimpleHTMLEncoder();
-        Highlighter highlighter = new Highlighter(simpleHTMLFormatter, simpleHTMLEncoder, new QueryScorer(query));
-
-        // Extract document IDs and highlights
-        for (ScoreDoc doc : docs) {
-            org.apache.lucene.document.Document document = searcher.doc(doc.doc);
-            String type = document.get("doctype");
-            String documentId = null;
-            String highlight = null;
-            if (type.equals("document")) {
-                documentId = document.get("id");
-            } else if (type.equals("file")) {
-                documentId = document.get("document_id");
-                String content = document.get("content");
+        Highlighter highlighter = new Highlighter(simpleHTMLFormatter, simpleHTMLEncoder, new QueryScorer(searchHits.getQuery()));
+
+        // Load the content of the best matching file of the returned documents only
+        Map<String, String> highlightMap = withSearcher(searcher -> {
+            Map<String, String> documentHighlightMap = Maps.newHashMap();
+            for (DocumentDto documentDto : documentDtoList) {
+                Query fileQuery = new BooleanQuery.Builder()
+                        .add(searchHits.getQuery(), BooleanClause.Occur.MUST)
+                        .add(new TermQuery(new Term("doctype", "file")), BooleanClause.Occur.FILTER)
+                        .add(new TermQuery(new Term("document_id", documentDto.getId())), BooleanClause.Occur.FILTER)
+                        .build();
+                TopDocs topDocs = searcher.search(fileQuery, 1);
+                if (topDocs.scoreDocs.length == 0) {
+                    continue;
+                }
+                String content = searcher.doc(topDocs.scoreDocs[0].doc, Collections.singleton("content")).get("content");
                 if (content != null) {
-                    highlight = highlighter.getBestFragment(analyzer, "content", content);
+                    documentHighlightMap.put(documentDto.getId(), highlighter.getBestFragment(analyzer, "content", content));
                 }
             }
+            return documentHighlightMap;
+        });
 
-            if (documentId != null) {
-                documentMap.put(documentId, highlight);
-            }
+        for (DocumentDto documentDto : documentDtoList) {
+            documentDto.setHighlight(highlightMap.get(documentDto.getId()));
         }
-
-        return documentMap;
     }
 
     /**
@@ -492,13 +1290,50 @@ public class LuceneIndexingHandler implements IndexingHandler {
      * Build Lucene document from database document.
      *
      * @param document Document
+     * @param documentData Indexed data read from other tables
      * @return Document
      */
-    private org.apache.lucene.document.Document getDocumentFromDocument(Document document) {
+    private org.apache.lucene.document.Document getDocumentFromDocument(Document document, DocumentData documentData) {
         org.apache.lucene.document.Document luceneDocument = new org.apache.lucene.document.Document();
         luceneDocument.add(new StringField("id", document.getId(), Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("id", new BytesRef(document.getId())));
         luceneDocument.add(new StringField("doctype", "document", Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("doctype", new BytesRef("document")));
+        luceneDocument.add(new StringField("generation", indexGeneration, Field.Store.NO));
+        for (String targetId : documentData.targetIdList) {
+            luceneDocument.add(new StringField("target", targetId, Field.Store.YES));
+        }
         luceneDocument.add(new TextField("title", document.getTitle(), Field.Store.NO));
+
+        // Structured criteria
+        luceneDocument.add(new StringField("title_exact", document.getTitle(), Field.Store.NO));
+        luceneDocument.add(new SortedDocValuesField("title_exact", new BytesRef(document.getTitle())));
+        luceneDocument.add(new LongPoint("create_date", document.getCreateDate().getTime()));
+        luceneDocument.add(new NumericDocValuesField("create_date", document.getCreateDate().getTime()));
+        if (document.getUpdateDate() != null) {
+            luceneDocument.add(new LongPoint("update_date", document.getUpdateDate().getTime()));
+            luceneDocument.add(new NumericDocValuesField("update_date", document.getUpdateDate().getTime()));
+        }
+        if (document.getLanguage() != null) {
+            luceneDocument.add(new StringField("language", document.getLanguage(), Field.Store.NO));
+            luceneDocument.add(new SortedDocValuesField("language", new BytesRef(document.getLanguage())));
+        }
+        luceneDocument.add(new StringField("creator", document.getUserId(), Field.Store.NO));
+        luceneDocument.add(new SortedDocValuesField("creator", new BytesRef(document.getUserId())));
+        for (String tagId : documentData.tagIdSet) {
+            luceneDocument.add(new StringField("tag", tagId, Field.Store.NO));
+            luceneDocument.add(new SortedSetDocValuesField("tag", new BytesRef(tagId)));
+        }
+        for (String mimeType : documentData.mimeTypeList) {
+            luceneDocument.add(new StringField("mime_type", mimeType, Field.Store.NO));
+            luceneDocument.add(new SortedSetDocValuesField("mime_type", new BytesRef(mimeType)));
+        }
+        if (documentData.routeTargetId != null) {
+            luceneDocument.add(new StringField("route_target", documentData.routeTargetId, Field.Store.NO));
+        }
+        if (documentData.shared) {
+            luceneDocument.add(new StringField("shared", "true", Field.Store.NO));
+        }
         if (document.getDescription() != null) {
             luceneDocument.add(new TextField("description", document.getDescription(), Field.Store.NO));
         }
@@ -534,17 +1369,25 @@ public class LuceneIndexingHandler implements IndexingHandler {
      * Build Lucene document from file.
      *
      * @param file File
+     * @param targetIdList Targets allowed to read the document of the file
      * @return Document
      */
-    private org.apache.lucene.document.Document getDocumentFromFile(File file) {
+    private org.apache.lucene.document.Document getDocumentFromFile(File file, List<String> targetIdList) {
         org.apache.lucene.document.Document luceneDocument = new org.apache.lucene.document.Document();
         luceneDocument.add(new StringField("id", file.getId(), Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("id", new BytesRef(file.getId())));
         luceneDocument.add(new StringField("doctype", "file", Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("doctype", new BytesRef("file")));
+        luceneDocument.add(new StringField("generation", indexGeneration, Field.Store.NO));
+        for (String targetId : targetIdList) {
+            luceneDocument.add(new StringField("target", targetId, Field.Store.YES));
+        }
         if (file.getName() != null) {
             luceneDocument.add(new TextField("filename", file.getName(), Field.Store.NO));
         }
         if (file.getDocumentId() != null) {
             luceneDocument.add(new StringField("document_id", file.getDocumentId(), Field.Store.YES));
+            luceneDocument.add(new SortedDocValuesField("document_id", new BytesRef(file.getDocumentId())));
         }
         if (file.getContent() != null) {
             luceneDocument.add(new TextField("content", file.getContent(), Field.Store.YES));
@@ -554,34 +1397,45 @@ public class LuceneIndexingHandler implements IndexingHandler {
     }
 
     /**
-     * Returns a valid directory reader.
-     * Take care of reopening the reader if the index has changed
-     * and closing the previous one.
+     * Encapsulate a search into a Lucene context.
+     * The searcher sees at least the last write operation,
+     * and is released to the searcher manager once the search is done.
      *
-     * @return the directoryReader
+     * @param callable Callable
+     * @param <T> Result type
+     * @return Result of the callable
+     * @throws Exception e
      */
-    private DirectoryReader getDirectoryReader() {
-        if (directoryReader == null) {
+    private <T> T withSearcher(LuceneSearcherCallable<T> callable) throws Exception {
+        long generation = lastWriteGeneration.get();
+        if (generation >= 0) {
             try {
-                if (!DirectoryReader.indexExists(directory)) {
-                    return null;
-                }
-                directoryReader = DirectoryReader.open(directory);
-            } catch (IOException e) {
-                log.error("Error creating the directory reader", e);
-            }
-        } else {
-            try {
-                DirectoryReader newReader = DirectoryReader.openIfChanged(directoryReader);
-                if (newReader != null) {
-                    directoryReader.close();
-                    directoryReader = newReader;
-                }
-            } catch (IOException e) {
-                log.error("Error while reopening the directory reader", e);
+                reopenThread.waitForGeneration(generation, REOPEN_WAIT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
-        return directoryReader;
+
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return callable.call(searcher);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Add a document title to the search suggestions.
+     * Suggestions are best-effort, a failure never prevents the index from being written.
+     *
+     * @param title Document title
+     */
+    private void addSuggestion(String title) {
+        try {
+            suggester.add(title);
+        } catch (Exception e) {
+            log.error("Error adding a search suggestion", e);
+        }
     }
 
     /**
@@ -591,18 +1445,72 @@ public class LuceneIndexingHandler implements IndexingHandler {
      */
     private void handle(LuceneRunnable runnable) {
         try {
-            runnable.run(indexWriter);
+            long generation = runnable.run(indexWriter);
+            lastWriteGeneration.accumulateAndGet(generation, Math::max);
         } catch (Exception e) {
             log.error("Error in running index writing", e);
         }
 
+        if (commitService != null) {
+            // The commit service will commit this change
+            return;
+        }
+
         try {
             indexWriter.commit();
+            suggester.commit();
         } catch (IOException e) {
             log.error("Cannot commit index writer", e);
         }
     }
 
+    /**
+     * Indexed data of a document read from other tables.
+     */
+    private static class DocumentData {
+        /**
+         * Targets allowed to read the document.
+         */
+        private final List<String> targetIdList;
+
+        /**
+         * Tags of the document, with their ancestors.
+         */
+        private final Set<String> tagIdSet;
+
+        /**
+         * MIME types of the files.
+         */
+        private final List<String> mimeTypeList;
+
+        /**
+         * Target of the current route step, null if no route is active.
+         */
+        private final String routeTargetId;
+
+        /**
+         * True if the document is shared.
+         */
+        private final boolean shared;
+
+        /**
+         * Constructor.
+         *
+         * @param targetIdList Targets allowed to read the document
+         * @param tagIdSet Tags of the document, with their ancestors
+         * @param mimeTypeList MIME types of the files
+         * @param routeTargetId Target of the current route step
+         * @param shared True if the document is shared
+         */
+        DocumentData(List<String> targetIdList, Set<String> tagIdSet, List<String> mimeTypeList, String routeTargetId, boolean shared) {
+            this.targetIdList = targetIdList;
+            this.tagIdSet = tagIdSet;
+            this.mimeTypeList = mimeTypeList;
+            this.routeTargetId = routeTargetId;
+            this.shared = shared;
+        }
+    }
+
     /**
      * Lucene runnable.
      *
@@ -613,8 +1521,25 @@ public class LuceneIndexingHandler implements IndexingHandler {
          * Code to run in a Lucene context.
          *
          * @param indexWriter Index writer
+         * @return Sequence number of the last write operation
+         * @throws Exception e
+         */
+        long run(IndexWriter indexWriter) throws Exception;
+    }
+
+    /**
+     * Lucene searcher callable.
+     *
+     * @author bgamard
+     */
+    private interface LuceneSearcherCallable<T> {
+        /**
+         * Code to run with an acquired searcher.
+         *
+         * @param searcher Index searcher
+         * @return Result
          * @throws Exception e
          */
-        void run(IndexWriter indexWriter) throws Exception;
+        T call(IndexSearcher searcher) throws Exception;
     }
 }
@@ -0,0 +1,232 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.google.common.collect.Maps;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.DoubleValues;
+import org.apache.lucene.search.DoubleValuesSource;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorable;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.SortField;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the documents matching a fulltext search.
+ * Files hits are collapsed on their document, keeping only the best score of each document,
+ * and only the IDs are read from the index (doc values), never the stored content.
+ *
+ * @author bgamard
+ */
+public class LuceneSearchHitCollector extends SimpleCollector {
+    /**
+     * Fields read for documents indexed without doc values.
+     */
+    private static final Set<String> ID_FIELD_SET = Set.of("id", "doctype", "document_id");
+
+    /**
+     * Fulltext query.
+     */
+    private final Query query;
+
+    /**
+     * Best score by document ID.
+     */
+    private final Map<String, Float> scoreMap = Maps.newHashMap();
+
+    /**
+     * Current scorer.
+     */
+    private Scorable scorer;
+
+    /**
+     * Current leaf reader.
+     */
+    private LeafReader reader;
+
+    /**
+     * Doc values of the current segment, null if the segment has none.
+     */
+    private SortedDocValues idValues;
+    private SortedDocValues doctypeValues;
+    private SortedDocValues documentIdValues;
+
+    /**
+     * Constructor.
+     *
+     * @param query Fulltext query
+     */
+    public LuceneSearchHitCollector(Query query) {
+        this.query = query;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        reader = context.reader();
+        FieldInfo doctypeFieldInfo = reader.getFieldInfos().fieldInfo("doctype");
+        if (doctypeFieldInfo != null && doctypeFieldInfo.getDocValuesType() == DocValuesType.SORTED) {
+            idValues = DocValues.getSorted(reader, "id");
+            doctypeValues = DocValues.getSorted(reader, "doctype");
+            documentIdValues = DocValues.getSorted(reader, "document_id");
+        } else {
+            idValues = null;
+            doctypeValues = null;
+            documentIdValues = null;
+        }
+    }
+
+    @Override
+    public void setScorer(Scorable scorer) {
+        this.scorer = scorer;
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        String id;
+        String doctype = doctypeValues == null ? null : readValue(doctypeValues, doc);
+        String documentId;
+        if (doctype != null) {
+            id = readValue(idValues, doc);
+            documentId = readValue(documentIdValues, doc);
+        } else {
+            // Document indexed by an older version, fallback to stored fields
+            org.apache.lucene.document.Document document = reader.document(doc, ID_FIELD_SET);
+            id = document.get("id");
+            doctype = document.get("doctype");
+            documentId = document.get("document_id");
+        }
+
+        if ("document".equals(doctype)) {
+            documentId = id;
+        } else if (!"file".equals(doctype) || documentId == null) {
+            return;
+        }
+
+        scoreMap.merge(documentId, scorer.score(), Math::max);
+    }
+
+    /**
+     * Read a doc value.
+     *
+     * @param docValues Doc values
+     * @param doc Document number
+     * @return Value or null
+     * @throws IOException e
+     */
+    private String readValue(SortedDocValues docValues, int doc) throws IOException {
+        if (docValues.advanceExact(doc)) {
+            return docValues.binaryValue().utf8ToString();
+        }
+        return null;
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE;
+    }
+
+    /**
+     * Returns the IDs of all matching documents.
+     *
+     * @return Set of document IDs
+     */
+    public Set<String> getDocumentIdSet() {
+        return scoreMap.keySet();
+    }
+
+    /**
+     * Returns the best score of a document.
+     *
+     * @param documentId Document ID
+     * @return Score
+     */
+    public float getScore(String documentId) {
+        return scoreMap.getOrDefault(documentId, 0f);
+    }
+
+    /**
+     * Returns the fulltext query.
+     *
+     * @return Query
+     */
+    public Query getQuery() {
+        return query;
+    }
+
+    /**
+     * Returns a sort of the documents by decreasing best score,
+     * so the most relevant documents are found by a top documents search.
+     *
+     * @return Sort field
+     */
+    public SortField getScoreSortField() {
+        return new ScoreValuesSource().getSortField(true);
+    }
+
+    /**
+     * Best score of the indexed documents, read from their ID.
+     */
+    private class ScoreValuesSource extends DoubleValuesSource {
+        @Override
+        public DoubleValues getValues(LeafReaderContext context, DoubleValues scores) throws IOException {
+            LeafReader leafReader = context.reader();
+            SortedDocValues leafIdValues = DocValues.getSorted(leafReader, "id");
+            return new DoubleValues() {
+                private double value;
+
+                @Override
+                public double doubleValue() {
+                    return value;
+                }
+
+                @Override
+                public boolean advanceExact(int doc) throws IOException {
+                    String id = leafIdValues.advanceExact(doc) ?
+                            leafIdValues.binaryValue().utf8ToString() :
+                            leafReader.document(doc, ID_FIELD_SET).get("id");
+                    value = getScore(id);
+                    return true;
+                }
+            };
+        }
+
+        @Override
+        public boolean needsScores() {
+            return false;
+        }
+
+        @Override
+        public DoubleValuesSource rewrite(IndexSearcher searcher) {
+            return this;
+        }
+
+        @Override
+        public boolean isCacheable(LeafReaderContext context) {
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj == this;
+        }
+
+        @Override
+        public String toString() {
+            return "score(" + query + ")";
+        }
+    }
+}
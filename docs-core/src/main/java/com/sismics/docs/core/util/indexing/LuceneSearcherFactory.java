@@ -0,0 +1,63 @@
+package com.sismics.docs.core.util.indexing;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Lucene searcher factory.
+ * Searchers are shared between all concurrent searches, they search segments in parallel
+ * and are warmed up before being published by the searcher manager.
+ *
+ * @author bgamard
+ */
+public class LuceneSearcherFactory extends SearcherFactory {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(LuceneSearcherFactory.class);
+
+    /**
+     * Executor used to search segments in parallel.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Queries run on each new searcher to warm it up.
+     */
+    private final List<Query> warmupQueryList;
+
+    /**
+     * Constructor.
+     *
+     * @param executor Executor used to search segments in parallel
+     * @param warmupQueryList Queries run on each new searcher to warm it up
+     */
+    public LuceneSearcherFactory(ExecutorService executor, List<Query> warmupQueryList) {
+        this.executor = executor;
+        this.warmupQueryList = warmupQueryList;
+    }
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+        IndexSearcher searcher = new IndexSearcher(reader, executor);
+        if (previousReader == null) {
+            // Nothing to warm up on the first searcher
+            return searcher;
+        }
+
+        long startTime = System.currentTimeMillis();
+        for (Query query : warmupQueryList) {
+            searcher.search(query, 10);
+        }
+        log.debug("Searcher warmed up in {}ms", System.currentTimeMillis() - startTime);
+        return searcher;
+    }
+}
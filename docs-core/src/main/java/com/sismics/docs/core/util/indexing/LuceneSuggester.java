@@ -0,0 +1,169 @@
+package com.sismics.docs.core.util.indexing;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.search.spell.LuceneDictionary;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Search terms suggester.
+ * Terms of the documents title are kept in a dedicated index,
+ * updated as documents are indexed, so suggesting doesn't depend on the corpus size.
+ *
+ * @author bgamard
+ */
+public class LuceneSuggester {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(LuceneSuggester.class);
+
+    /**
+     * Analyzer used to extract the terms of titles.
+     */
+    private final Analyzer analyzer = new StandardAnalyzer();
+
+    /**
+     * Lucene suggester.
+     */
+    private final AnalyzingInfixSuggester suggester;
+
+    /**
+     * True if terms have been added since the last refresh.
+     */
+    private volatile boolean refreshNeeded = false;
+
+    /**
+     * True if terms have been added since the last commit.
+     */
+    private volatile boolean commitNeeded = false;
+
+    /**
+     * Constructor.
+     *
+     * @param directory Directory storing the suggestions
+     * @throws IOException e
+     */
+    public LuceneSuggester(Directory directory) throws IOException {
+        suggester = new AnalyzingInfixSuggester(directory, analyzer, analyzer,
+                AnalyzingInfixSuggester.DEFAULT_MIN_PREFIX_CHARS, true);
+    }
+
+    /**
+     * Build the suggestions from an index if none has been persisted yet.
+     *
+     * @param reader Index reader
+     * @throws IOException e
+     */
+    public synchronized void buildIfEmpty(IndexReader reader) throws IOException {
+        if (suggester.getCount() > 0 || reader.numDocs() == 0) {
+            return;
+        }
+
+        log.info("Building search suggestions from the index");
+        suggester.build(new LuceneDictionary(reader, "title").getEntryIterator());
+    }
+
+    /**
+     * Build the suggestions from an index, replacing the existing ones.
+     *
+     * @param reader Index reader
+     * @throws IOException e
+     */
+    public synchronized void build(IndexReader reader) throws IOException {
+        log.info("Rebuilding search suggestions from the index");
+        suggester.build(new LuceneDictionary(reader, "title").getEntryIterator());
+        refreshNeeded = false;
+        commitNeeded = false;
+    }
+
+    /**
+     * Add the terms of a title to the suggestions.
+     *
+     * @param title Title
+     * @throws IOException e
+     */
+    public synchronized void add(String title) throws IOException {
+        try (TokenStream tokenStream = analyzer.tokenStream("title", title)) {
+            CharTermAttribute charTermAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                suggester.update(new BytesRef(charTermAttribute), null, 1, null);
+            }
+            tokenStream.end();
+        }
+        refreshNeeded = true;
+        commitNeeded = true;
+    }
+
+    /**
+     * Remove all suggestions.
+     *
+     * @throws IOException e
+     */
+    public synchronized void clear() throws IOException {
+        suggester.build(InputIterator.EMPTY);
+        refreshNeeded = false;
+        commitNeeded = false;
+    }
+
+    /**
+     * Suggest terms.
+     *
+     * @param key Start of the term
+     * @param count Maximum number of suggestions
+     * @return Suggested terms
+     * @throws IOException e
+     */
+    public List<String> lookup(String key, int count) throws IOException {
+        if (refreshNeeded) {
+            refreshNeeded = false;
+            suggester.refresh();
+        }
+
+        List<String> suggestionList = new ArrayList<>();
+        if (suggester.getCount() == 0) {
+            return suggestionList;
+        }
+
+        for (Lookup.LookupResult lookupResult : suggester.lookup(key, count, true, false)) {
+            suggestionList.add(lookupResult.key.toString());
+        }
+        return suggestionList;
+    }
+
+    /**
+     * Commit the pending suggestions.
+     *
+     * @throws IOException e
+     */
+    public synchronized void commit() throws IOException {
+        if (commitNeeded) {
+            commitNeeded = false;
+            suggester.commit();
+        }
+    }
+
+    /**
+     * Close the suggester.
+     *
+     * @throws IOException e
+     */
+    public synchronized void close() throws IOException {
+        commit();
+        suggester.close();
+    }
+}
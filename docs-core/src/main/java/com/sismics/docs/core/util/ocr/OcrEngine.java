@@ -0,0 +1,25 @@
+package com.sismics.docs.core.util.ocr;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * An optical character recognition engine.
+ *
+ * @author bgamard
+ */
+public interface OcrEngine {
+    /**
+     * Extract the text of an image.
+     *
+     * @param language Language to OCR
+     * @param image Image, already prepared for the OCR
+     * @return Text content
+     * @throws Exception e
+     */
+    String ocr(String language, BufferedImage image) throws Exception;
+
+    /**
+     * Shut down the engine, stopping its workers.
+     */
+    void shutDown();
+}
@@ -0,0 +1,257 @@
+package com.sismics.docs.core.util.ocr;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.util.io.InputStreamReaderThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * OCR engine running tesseract processes.
+ * Tesseract loads the language data before reading the image on its standard input,
+ * so workers are started in advance for each language in use and wait for their image.
+ * Images are piped to the workers, a worker taking too long is killed.
+ *
+ * @author bgamard
+ */
+public class TesseractOcrEngine implements OcrEngine {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(TesseractOcrEngine.class);
+
+    /**
+     * Time the workers of an unused language are kept, in minutes.
+     */
+    private static final int IDLE_LANGUAGE_DURATION_MINUTES = 10;
+
+    /**
+     * Interval between two checks of the unused languages, in minutes.
+     */
+    private static final int CLEANUP_INTERVAL_MINUTES = 1;
+
+    /**
+     * Number of workers kept ready for each language.
+     */
+    private final int warmWorkerCount;
+
+    /**
+     * Maximum time to OCR an image, in seconds.
+     */
+    private final int timeout;
+
+    /**
+     * Workers ready to OCR an image, by language.
+     */
+    private final LoadingCache<String, BlockingQueue<Process>> warmWorkerCache;
+
+    /**
+     * All started workers.
+     */
+    private final Set<Process> workerSet = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Executor starting the workers and exchanging data with them.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("tesseract-%d").setDaemon(true).build());
+
+    /**
+     * Executor stopping the workers of the languages not used anymore.
+     */
+    private final ScheduledExecutorService cleanupExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("tesseract-cleanup-%d").setDaemon(true).build());
+
+    /**
+     * True if the engine is shut down.
+     */
+    private volatile boolean stopping;
+
+    /**
+     * Constructor.
+     *
+     * @param warmWorkerCount Number of workers kept ready for each language
+     * @param timeout Maximum time to OCR an image, in seconds
+     */
+    public TesseractOcrEngine(int warmWorkerCount, int timeout) {
+        this.warmWorkerCount = warmWorkerCount;
+        this.timeout = timeout;
+        warmWorkerCache = CacheBuilder.newBuilder()
+                .expireAfterAccess(IDLE_LANGUAGE_DURATION_MINUTES, TimeUnit.MINUTES)
+                .removalListener((RemovalListener<String, BlockingQueue<Process>>) notification -> destroy(notification.getValue()))
+                .build(CacheLoader.from(language -> new LinkedBlockingQueue<>()));
+
+        // Expired languages are only removed on cache accesses, which stop when no OCR is running
+        cleanupExecutor.scheduleWithFixedDelay(warmWorkerCache::cleanUp,
+                CLEANUP_INTERVAL_MINUTES, CLEANUP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public String ocr(String language, BufferedImage image) throws Exception {
+        // Stop the workers of the languages not used anymore
+        warmWorkerCache.cleanUp();
+
+        // Take a ready worker, or start one
+        BlockingQueue<Process> warmWorkerQueue = warmWorkerCache.getUnchecked(language);
+        Process process = warmWorkerQueue.poll();
+        while (process != null && !process.isAlive()) {
+            workerSet.remove(process);
+            process = warmWorkerQueue.poll();
+        }
+        if (process == null) {
+            process = startWorker(language);
+        }
+
+        // Get a replacement ready for the next image
+        executor.submit(() -> warmUp(language, warmWorkerQueue));
+
+        try {
+            return exchange(process, image);
+        } finally {
+            workerSet.remove(process);
+        }
+    }
+
+    /**
+     * Send an image to a worker and read its text content.
+     *
+     * @param process Worker
+     * @param image Image
+     * @return Text content
+     * @throws Exception e
+     */
+    private String exchange(Process process, BufferedImage image) throws Exception {
+        Future<String> future = executor.submit(() -> {
+            try (OutputStream outputStream = process.getOutputStream();
+                 ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(outputStream)) {
+                ImageIO.write(image, "tiff", imageOutputStream);
+            } catch (IOException e) {
+                // The worker exited without reading the image, its errors are logged
+                log.warn("Tesseract didn't read the image: " + e.getMessage());
+            }
+
+            try (InputStream inputStream = process.getInputStream()) {
+                return CharStreams.toString(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            }
+        });
+
+        try {
+            return future.get(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("Tesseract didn't respond in " + timeout + "s, the worker is killed");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            if (!future.isDone()) {
+                future.cancel(true);
+            }
+            // Normally the worker is already done
+            process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Start workers until enough are ready for a language.
+     *
+     * @param language Language
+     * @param warmWorkerQueue Workers ready for this language
+     */
+    private void warmUp(String language, BlockingQueue<Process> warmWorkerQueue) {
+        synchronized (warmWorkerQueue) {
+            try {
+                while (!stopping && warmWorkerQueue.size() < warmWorkerCount) {
+                    warmWorkerQueue.add(startWorker(language));
+                }
+            } catch (IOException e) {
+                log.error("Error starting a tesseract worker", e);
+            }
+
+            // The language may have been evicted meanwhile
+            if (stopping || warmWorkerCache.asMap().get(language) != warmWorkerQueue) {
+                destroy(warmWorkerQueue);
+            }
+        }
+    }
+
+    /**
+     * Start a worker waiting for an image on its standard input.
+     *
+     * @param language Language
+     * @return Worker
+     * @throws IOException e
+     */
+    private Process startWorker(String language) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(getCommand(language));
+        // Pages are OCR-ized in parallel, each tesseract process must stick to one thread
+        pb.environment().put("OMP_THREAD_LIMIT", "1");
+        Process process = pb.start();
+        workerSet.add(process);
+
+        // Consume the process error stream
+        new InputStreamReaderThread(process.getErrorStream(), pb.command().get(0)).start();
+        return process;
+    }
+
+    /**
+     * Returns the command of a worker.
+     *
+     * @param language Language
+     * @return Command
+     */
+    protected List<String> getCommand(String language) {
+        return List.of("tesseract", "stdin", "stdout", "-l", language);
+    }
+
+    /**
+     * Kill workers.
+     *
+     * @param processes Workers
+     */
+    private void destroy(Collection<Process> processes) {
+        for (Process process : processes) {
+            process.destroyForcibly();
+            workerSet.remove(process);
+        }
+        processes.clear();
+    }
+
+    /**
+     * Returns the number of running workers.
+     *
+     * @return Number of workers
+     */
+    public int getWorkerCount() {
+        workerSet.removeIf(process -> !process.isAlive());
+        return workerSet.size();
+    }
+
+    @Override
+    public void shutDown() {
+        stopping = true;
+        cleanupExecutor.shutdownNow();
+        executor.shutdownNow();
+        warmWorkerCache.invalidateAll();
+        for (Process process : workerSet) {
+            process.destroyForcibly();
+        }
+        workerSet.clear();
+    }
+}
@@ -0,0 +1,124 @@
+package com.sismics.docs.core.util.rendition;
+
+import com.sismics.docs.core.util.storage.StorageBackend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * Rendition of a file, or its original data, encrypted like the file data.
+ * A cached rendition evicted while it is served is generated again.
+ *
+ * @author bgamard
+ */
+public class Rendition {
+    /**
+     * Storage backend of the rendition.
+     */
+    private final StorageBackend storageBackend;
+
+    /**
+     * Key of the rendition in its storage backend.
+     */
+    private final String key;
+
+    /**
+     * MIME type.
+     */
+    private final String mimeType;
+
+    /**
+     * Generates the rendition again, null for data never evicted.
+     */
+    private final Generator generator;
+
+    /**
+     * Constructor.
+     *
+     * @param storageBackend Storage backend of the rendition
+     * @param key Key of the rendition in its storage backend
+     * @param mimeType MIME type
+     */
+    public Rendition(StorageBackend storageBackend, String key, String mimeType) {
+        this(storageBackend, key, mimeType, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param storageBackend Storage backend of the rendition
+     * @param key Key of the rendition in its storage backend
+     * @param mimeType MIME type
+     * @param generator Generates the rendition again under the same key
+     */
+    Rendition(StorageBackend storageBackend, String key, String mimeType, Generator generator) {
+        this.storageBackend = storageBackend;
+        this.key = key;
+        this.mimeType = mimeType;
+        this.generator = generator;
+    }
+
+    /**
+     * Returns the size of the rendition.
+     *
+     * @return Size in bytes
+     * @throws IOException e
+     */
+    public long size() throws IOException {
+        try {
+            return storageBackend.size(key);
+        } catch (NoSuchFileException e) {
+            if (generator == null) {
+                throw e;
+            }
+            generator.generate();
+            return storageBackend.size(key);
+        }
+    }
+
+    /**
+     * Read a range of the rendition.
+     *
+     * @param offset Offset of the first byte to read
+     * @param length Number of bytes to read, -1 to read until the end
+     * @return Data stream, to be closed by the caller
+     * @throws IOException e
+     */
+    public InputStream read(long offset, long length) throws IOException {
+        try {
+            return storageBackend.read(key, offset, length);
+        } catch (NoSuchFileException e) {
+            if (generator == null) {
+                throw e;
+            }
+            generator.generate();
+            return storageBackend.read(key, offset, length);
+        }
+    }
+
+    public StorageBackend getStorageBackend() {
+        return storageBackend;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Generates a rendition again.
+     */
+    @FunctionalInterface
+    interface Generator {
+        /**
+         * Generate the rendition.
+         *
+         * @throws IOException e
+         */
+        void generate() throws IOException;
+    }
+}
@@ -0,0 +1,463 @@
+package com.sismics.docs.core.util.rendition;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.format.FormatHandler;
+import com.sismics.docs.core.util.format.FormatHandlerUtil;
+import com.sismics.docs.core.util.storage.LocalStorageBackend;
+import com.sismics.docs.core.util.storage.StorageBackend;
+import com.sismics.docs.core.util.storage.StorageOutputStream;
+import com.sismics.util.ImageUtil;
+import com.sismics.util.Scalr;
+import com.sismics.util.mime.MimeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.CipherOutputStream;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Renditions of the files in any size.
+ * The web rendition is stored with the file data, generated with the file or lazily if missing.
+ * The smaller renditions are downscaled from it on demand, and cached on disk with a LRU eviction.
+ *
+ * @author bgamard
+ */
+public class RenditionManager {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(RenditionManager.class);
+
+    /**
+     * Size of the web rendition, the largest one.
+     */
+    public static final int WEB_SIZE = 1280;
+
+    /**
+     * Size of the thumbnail rendition.
+     */
+    public static final int THUMB_SIZE = 256;
+
+    /**
+     * Requested sizes are rounded up to a multiple of this step, to bound the number of renditions.
+     */
+    private static final int SIZE_STEP = 64;
+
+    /**
+     * JPEG quality of the web rendition, the other renditions are downscaled from it.
+     */
+    private static final float WEB_QUALITY = 0.9f;
+
+    /**
+     * JPEG quality of the other renditions.
+     */
+    private static final float JPEG_QUALITY = 0.8f;
+
+    /**
+     * WebP quality of the other renditions.
+     */
+    private static final float WEBP_QUALITY = 0.75f;
+
+    /**
+     * Suffix of the renditions being written.
+     */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Directory of the cached renditions.
+     */
+    private final Path directory;
+
+    /**
+     * Storage backend of the cached renditions.
+     */
+    private final LocalStorageBackend cacheBackend;
+
+    /**
+     * Maximum size of the cached renditions, in bytes.
+     */
+    private final long maxCacheSize;
+
+    /**
+     * Size of the cached renditions by key, least recently used first.
+     */
+    private final LinkedHashMap<String, Long> cacheMap = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Size of the cached renditions, in bytes.
+     */
+    private long cacheSize = 0;
+
+    /**
+     * Locks preventing a rendition from being generated twice at once.
+     */
+    private final Striped<Lock> lockStriped = Striped.lock(64);
+
+    /**
+     * Storage IDs of the files a web rendition couldn't be generated for recently.
+     */
+    private final Cache<String, Boolean> failureCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+
+    /**
+     * True if the renditions can be written in WebP.
+     */
+    private final boolean webpSupported = ImageUtil.isWriterAvailable("webp");
+
+    /**
+     * Constructor.
+     * The renditions cached by a previous run are kept.
+     *
+     * @param directory Directory of the cached renditions
+     * @param maxCacheSize Maximum size of the cached renditions, in bytes
+     */
+    public RenditionManager(Path directory, long maxCacheSize) {
+        this.directory = directory;
+        this.cacheBackend = new LocalStorageBackend(directory);
+        this.maxCacheSize = maxCacheSize;
+
+        try (Stream<Path> pathStream = Files.list(directory)) {
+            List<Path> pathList = pathStream.collect(Collectors.toList());
+            Map<Path, FileTime> lastModifiedMap = new LinkedHashMap<>();
+            for (Path path : pathList) {
+                if (path.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+                    Files.deleteIfExists(path);
+                } else {
+                    lastModifiedMap.put(path, Files.getLastModifiedTime(path));
+                }
+            }
+            lastModifiedMap.keySet().stream()
+                    .sorted(Comparator.comparing(lastModifiedMap::get))
+                    .forEach(path -> {
+                        try {
+                            put(path.getFileName().toString(), Files.size(path));
+                        } catch (IOException e) {
+                            // Deleted in the meantime
+                        }
+                    });
+        } catch (IOException e) {
+            log.error("Error reading the cached renditions", e);
+        }
+        log.info("{} cached renditions, WebP renditions {}", cacheMap.size(), webpSupported ? "enabled" : "disabled");
+    }
+
+    /**
+     * Returns the rendition size of a requested size.
+     *
+     * @param size "web", "thumb" or a size in pixels
+     * @return Rendition size in pixels, null if invalid
+     */
+    public static Integer getSize(String size) {
+        if ("web".equals(size)) {
+            return WEB_SIZE;
+        }
+        if ("thumb".equals(size)) {
+            return THUMB_SIZE;
+        }
+
+        int pixelSize;
+        try {
+            pixelSize = Integer.parseInt(size);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (pixelSize <= 0) {
+            return null;
+        }
+        return Math.min((pixelSize + SIZE_STEP - 1) / SIZE_STEP * SIZE_STEP, WEB_SIZE);
+    }
+
+    /**
+     * Returns true if the renditions can be written in WebP.
+     *
+     * @return True if WebP is supported
+     */
+    public boolean isWebpSupported() {
+        return webpSupported;
+    }
+
+    /**
+     * Returns a rendition of a file, generating it if needed.
+     *
+     * @param file File
+     * @param privateKey Private key of the creator of the file
+     * @param size Rendition size, from getSize
+     * @param webp True if the client accepts WebP
+     * @return Rendition, null if the file has none
+     * @throws IOException e
+     */
+    public Rendition getRendition(File file, String privateKey, int size, boolean webp) throws IOException {
+        // A rendition deleted before being read is generated again
+        Rendition.Generator generator = () -> {
+            if (getRendition(file, privateKey, size, webp) == null) {
+                throw new NoSuchFileException(file.getStorageId());
+            }
+        };
+
+        StorageBackend storageBackend = AppContext.getInstance().getStorageBackend();
+        String webKey = file.getStorageId() + "_web";
+        if (!storageBackend.exists(webKey) && !generateWebRendition(file, privateKey)) {
+            return null;
+        }
+        if (size >= WEB_SIZE) {
+            return new Rendition(storageBackend, webKey, MimeType.IMAGE_JPEG, generator);
+        }
+
+        boolean useWebp = webp && webpSupported;
+        String key = file.getStorageId() + "_" + size + (useWebp ? ".webp" : ".jpg");
+        Rendition rendition = new Rendition(cacheBackend, key, useWebp ? MimeType.IMAGE_WEBP : MimeType.IMAGE_JPEG, generator);
+        if (touch(key)) {
+            return rendition;
+        }
+
+        Lock lock = lockStriped.get(key);
+        lock.lock();
+        try {
+            if (touch(key)) {
+                return rendition;
+            }
+
+            // Downscale the web rendition
+            BufferedImage image;
+            try (InputStream inputStream = EncryptionUtil.decryptInputStream(storageBackend.read(webKey), privateKey)) {
+                image = ImageIO.read(inputStream);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            if (image == null) {
+                throw new IOException("Unreadable web rendition: " + webKey);
+            }
+            BufferedImage resized = downscale(image, size);
+
+            Path temporaryFile = directory.resolve(key + TEMPORARY_SUFFIX);
+            try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(temporaryFile),
+                    EncryptionUtil.getEncryptionCipher(privateKey))) {
+                ImageUtil.writeImage(resized, useWebp ? "webp" : "jpeg", useWebp ? WEBP_QUALITY : JPEG_QUALITY, outputStream);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            image.flush();
+            resized.flush();
+            Path cachedFile = directory.resolve(key);
+            Files.move(temporaryFile, cachedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            put(key, Files.size(cachedFile));
+            return rendition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the web rendition of a file.
+     * The renditions downscaled from the previous one are evicted.
+     *
+     * @param image Image of the file
+     * @param storageId Storage ID of the file
+     * @param privateKey Private key of the creator of the file
+     * @throws Exception e
+     */
+    public void writeWebRendition(BufferedImage image, String storageId, String privateKey) throws Exception {
+        BufferedImage web = downscale(image, WEB_SIZE);
+        StorageBackend storageBackend = AppContext.getInstance().getStorageBackend();
+        StorageOutputStream storageOutputStream = storageBackend.write(storageId + "_web");
+        try (OutputStream outputStream = new CipherOutputStream(storageOutputStream, EncryptionUtil.getEncryptionCipher(privateKey))) {
+            try {
+                ImageUtil.writeImage(web, "jpeg", WEB_QUALITY, outputStream);
+            } catch (Exception e) {
+                // Don't store a partial rendition
+                storageOutputStream.abort();
+                throw e;
+            }
+        }
+        failureCache.invalidate(storageId);
+        evict(storageId);
+    }
+
+    /**
+     * Generate the missing web rendition of a file from its data.
+     *
+     * @param file File
+     * @param privateKey Private key of the creator of the file
+     * @return True if the web rendition is there
+     */
+    private boolean generateWebRendition(File file, String privateKey) {
+        if (FileUtil.isProcessingFile(file.getId()) || failureCache.getIfPresent(file.getStorageId()) != null) {
+            // The processing generates it, or it can't be generated
+            return false;
+        }
+        FormatHandler formatHandler = FormatHandlerUtil.find(file.getMimeType());
+        if (formatHandler == null) {
+            failureCache.put(file.getStorageId(), true);
+            return false;
+        }
+
+        StorageBackend storageBackend = AppContext.getInstance().getStorageBackend();
+        Lock lock = lockStriped.get(file.getStorageId() + "_web");
+        lock.lock();
+        try {
+            if (storageBackend.exists(file.getStorageId() + "_web")) {
+                return true;
+            }
+
+            log.info("Generating the missing web rendition of the file: {}", file.getId());
+            Path unencryptedFile = EncryptionUtil.decryptFile(storageBackend.read(file.getStorageId()), privateKey);
+            BufferedImage image = formatHandler.generateThumbnail(unencryptedFile);
+            if (image == null) {
+                failureCache.put(file.getStorageId(), true);
+                return false;
+            }
+            writeWebRendition(image, file.getStorageId(), privateKey);
+            image.flush();
+            return true;
+        } catch (Throwable e) {
+            log.error("Unable to generate the web rendition of the file: " + file.getId(), e);
+            failureCache.put(file.getStorageId(), true);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evict the cached renditions of a file.
+     *
+     * @param storageId Storage ID of the file
+     */
+    public void evict(String storageId) {
+        synchronized (cacheMap) {
+            Iterator<Map.Entry<String, Long>> iterator = cacheMap.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (entry.getKey().startsWith(storageId + "_")) {
+                    iterator.remove();
+                    delete(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the cached renditions.
+     *
+     * @return Size in bytes
+     */
+    public long getCacheSize() {
+        synchronized (cacheMap) {
+            return cacheSize;
+        }
+    }
+
+    /**
+     * Mark a cached rendition as used.
+     *
+     * @param key Rendition key
+     * @return True if the rendition is cached
+     */
+    private boolean touch(String key) {
+        synchronized (cacheMap) {
+            if (cacheMap.get(key) == null) {
+                return false;
+            }
+        }
+
+        // Keep the order of use for the next run
+        Path path = directory.resolve(key);
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            // Deleted from the disk
+            synchronized (cacheMap) {
+                Long size = cacheMap.remove(key);
+                if (size != null) {
+                    cacheSize -= size;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Add a rendition to the cache, evicting the least recently used renditions if full.
+     *
+     * @param key Rendition key
+     * @param size Rendition size in bytes
+     */
+    private void put(String key, long size) {
+        synchronized (cacheMap) {
+            Long previousSize = cacheMap.put(key, size);
+            cacheSize += size - (previousSize == null ? 0 : previousSize);
+            Iterator<Map.Entry<String, Long>> iterator = cacheMap.entrySet().iterator();
+            while (cacheSize > maxCacheSize && iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (entry.getKey().equals(key)) {
+                    // Always keep the new rendition
+                    continue;
+                }
+                iterator.remove();
+                delete(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Delete a cached rendition from the disk.
+     * Must be called while holding the cache lock.
+     *
+     * @param key Rendition key
+     * @param size Rendition size in bytes
+     */
+    private void delete(String key, long size) {
+        cacheSize -= size;
+        try {
+            cacheBackend.delete(key);
+        } catch (IOException e) {
+            log.error("Error deleting the cached rendition: " + key, e);
+        }
+    }
+
+    /**
+     * Downscale an image, by halves first for a better quality.
+     * Images smaller than the size are kept as is.
+     *
+     * @param image Image
+     * @param size Maximum width and height
+     * @return Downscaled image
+     */
+    private static BufferedImage downscale(BufferedImage image, int size) {
+        if (Math.max(image.getWidth(), image.getHeight()) <= size) {
+            return image;
+        }
+        return Scalr.resize(image, Scalr.Method.QUALITY, Scalr.Mode.AUTOMATIC, size);
+    }
+}
@@ -0,0 +1,202 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.util.DirectoryUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+/**
+ * Storage backend on the local filesystem, in the storage directory.
+ *
+ * @author bgamard
+ */
+public class LocalStorageBackend implements StorageBackend {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(LocalStorageBackend.class);
+
+    /**
+     * Directory of the stored data, null for the storage directory.
+     */
+    private final Path directory;
+
+    /**
+     * Constructor of the backend storing in the storage directory.
+     */
+    public LocalStorageBackend() {
+        this(null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param directory Directory of the stored data
+     */
+    public LocalStorageBackend(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public boolean accept() {
+        // Used unless an object storage is configured
+        return Strings.isNullOrEmpty(System.getenv(Constants.S3_BUCKET_ENV));
+    }
+
+    @Override
+    public void startUp() {
+        // NOP
+    }
+
+    @Override
+    public void shutDown() {
+        // NOP
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(resolve(key));
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(resolve(key));
+    }
+
+    @Override
+    public InputStream read(String key, long offset, long length) throws IOException {
+        if (offset == 0 && length < 0) {
+            return Files.newInputStream(resolve(key));
+        }
+
+        SeekableByteChannel channel = Files.newByteChannel(resolve(key));
+        channel.position(offset);
+        InputStream inputStream = Channels.newInputStream(channel);
+        return length < 0 ? inputStream : ByteStreams.limit(inputStream, length);
+    }
+
+    @Override
+    public StorageOutputStream write(String key) throws IOException {
+        return new LocalOutputStream(resolve(key));
+    }
+
+    @Override
+    public void store(String key, Path file) throws IOException {
+        Files.move(file, resolve(key), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public Stream<String> list() throws IOException {
+        return Files.list(getDirectory())
+                .map(path -> path.getFileName().toString());
+    }
+
+    /**
+     * Returns the path of stored data.
+     *
+     * @param key Key
+     * @return Path in the storage directory
+     */
+    private Path resolve(String key) {
+        return getDirectory().resolve(key);
+    }
+
+    /**
+     * Returns the directory of the stored data.
+     *
+     * @return Directory
+     */
+    private Path getDirectory() {
+        return directory == null ? DirectoryUtil.getStorageDirectory() : directory;
+    }
+
+    /**
+     * Output stream to a local file, deleted if the writing is aborted.
+     */
+    private static class LocalOutputStream extends StorageOutputStream {
+        /**
+         * Path of the stored data.
+         */
+        private final Path path;
+
+        /**
+         * Output stream to the file.
+         */
+        private final OutputStream outputStream;
+
+        /**
+         * True once aborted.
+         */
+        private boolean aborted;
+
+        /**
+         * Constructor.
+         *
+         * @param path Path of the stored data
+         * @throws IOException e
+         */
+        LocalOutputStream(Path path) throws IOException {
+            this.path = path;
+            this.outputStream = Files.newOutputStream(path);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!aborted) {
+                outputStream.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!aborted) {
+                outputStream.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!aborted) {
+                outputStream.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!aborted) {
+                outputStream.close();
+            }
+        }
+
+        @Override
+        public void abort() {
+            if (aborted) {
+                return;
+            }
+            aborted = true;
+            try {
+                outputStream.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.error("Unable to delete the aborted data " + path, e);
+            }
+        }
+    }
+}
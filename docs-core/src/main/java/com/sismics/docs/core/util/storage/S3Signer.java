@@ -0,0 +1,177 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import okhttp3.HttpUrl;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Signature of the S3 requests (AWS signature version 4).
+ *
+ * @author bgamard
+ */
+class S3Signer {
+    /**
+     * Signing algorithm.
+     */
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+
+    /**
+     * Format of the request date.
+     */
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+    /**
+     * Access key.
+     */
+    private final String accessKey;
+
+    /**
+     * Secret key.
+     */
+    private final String secretKey;
+
+    /**
+     * Region.
+     */
+    private final String region;
+
+    /**
+     * Constructor.
+     *
+     * @param accessKey Access key
+     * @param secretKey Secret key
+     * @param region Region
+     */
+    S3Signer(String accessKey, String secretKey, String region) {
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.region = region;
+    }
+
+    /**
+     * Sign a request.
+     * The date, payload hash and host headers are added to the headers, which are all signed.
+     *
+     * @param method HTTP method
+     * @param url Request URL
+     * @param headers Request headers, lowercase names
+     * @param payload Request body
+     * @param date Request date
+     * @return Authorization header
+     */
+    String sign(String method, HttpUrl url, Map<String, String> headers, byte[] payload, ZonedDateTime date) {
+        String dateTime = DATE_TIME_FORMATTER.format(date.withZoneSameInstant(ZoneOffset.UTC));
+        String scope = dateTime.substring(0, 8) + "/" + region + "/s3/aws4_request";
+        headers.put("host", host(url));
+        headers.put("x-amz-date", dateTime);
+        headers.put("x-amz-content-sha256", hex(Hashing.sha256().hashBytes(payload).asBytes()));
+
+        // Canonical request, headers and query parameters sorted by name
+        Map<String, String> sortedHeaders = new TreeMap<>(headers);
+        String signedHeaders = String.join(";", sortedHeaders.keySet());
+        String canonicalRequest = method + "\n" +
+                url.encodedPath() + "\n" +
+                canonicalQuery(url) + "\n" +
+                sortedHeaders.entrySet().stream()
+                        .map(header -> header.getKey() + ":" + header.getValue().trim() + "\n")
+                        .collect(Collectors.joining()) + "\n" +
+                signedHeaders + "\n" +
+                headers.get("x-amz-content-sha256");
+
+        String stringToSign = ALGORITHM + "\n" +
+                dateTime + "\n" +
+                scope + "\n" +
+                hex(Hashing.sha256().hashString(canonicalRequest, StandardCharsets.UTF_8).asBytes());
+
+        // Key derived from the secret key for this day, region and service
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), dateTime.substring(0, 8));
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        String signature = hex(hmac(key, stringToSign));
+
+        return ALGORITHM + " Credential=" + accessKey + "/" + scope +
+                ",SignedHeaders=" + signedHeaders +
+                ",Signature=" + signature;
+    }
+
+    /**
+     * Returns the host header of a URL.
+     *
+     * @param url URL
+     * @return Host header
+     */
+    private static String host(HttpUrl url) {
+        if (url.port() == HttpUrl.defaultPort(url.scheme())) {
+            return url.host();
+        }
+        return url.host() + ":" + url.port();
+    }
+
+    /**
+     * Returns the canonical query string of a URL.
+     *
+     * @param url URL
+     * @return Query parameters, encoded and sorted by name
+     */
+    private static String canonicalQuery(HttpUrl url) {
+        List<String> parameterList = new ArrayList<>();
+        for (int i = 0; i < url.querySize(); i++) {
+            String value = url.queryParameterValue(i);
+            parameterList.add(encode(url.queryParameterName(i)) + "=" + encode(value == null ? "" : value));
+        }
+        parameterList.sort(null);
+        return String.join("&", parameterList);
+    }
+
+    /**
+     * URI-encode a string, the unreserved characters excepted.
+     *
+     * @param value Value
+     * @return Encoded value
+     */
+    private static String encode(String value) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if (c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9'
+                    || c == '-' || c == '_' || c == '.' || c == '~') {
+                sb.append(c);
+            } else {
+                sb.append('%').append(String.format("%02X", b & 0xff));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compute a HMAC-SHA256.
+     *
+     * @param key Key
+     * @param data Data
+     * @return HMAC
+     */
+    private static byte[] hmac(byte[] key, String data) {
+        return Hashing.hmacSha256(key).hashString(data, StandardCharsets.UTF_8).asBytes();
+    }
+
+    /**
+     * Encode bytes in lowercase hexadecimal.
+     *
+     * @param bytes Bytes
+     * @return Hexadecimal string
+     */
+    private static String hex(byte[] bytes) {
+        return BaseEncoding.base16().lowerCase().encode(bytes);
+    }
+}
@@ -0,0 +1,592 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.model.context.AppContext;
+import okhttp3.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Storage backend on an S3 compatible object storage.
+ * The bucket is addressed in the path, as supported by most implementations.
+ *
+ * @author bgamard
+ */
+public class S3StorageBackend implements StorageBackend {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(S3StorageBackend.class);
+
+    /**
+     * Size of the parts of a multipart upload, data smaller than that is uploaded at once.
+     */
+    static final int PART_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Number of objects downloaded ahead of the consumer.
+     */
+    private static final int PREFETCH_COUNT = 4;
+
+    /**
+     * Number of keys per listing request.
+     */
+    private static final int LIST_PAGE_SIZE = 1000;
+
+    /**
+     * HTTP client.
+     */
+    private OkHttpClient client;
+
+    /**
+     * Object storage URL.
+     */
+    private HttpUrl endpoint;
+
+    /**
+     * Bucket.
+     */
+    private String bucket;
+
+    /**
+     * Request signer.
+     */
+    private S3Signer signer;
+
+    /**
+     * Executor of the prefetching downloads.
+     */
+    private ExecutorService prefetchExecutor;
+
+    @Override
+    public boolean accept() {
+        return !Strings.isNullOrEmpty(System.getenv(Constants.S3_BUCKET_ENV));
+    }
+
+    @Override
+    public void startUp() throws Exception {
+        startUp(MoreObjects.firstNonNull(System.getenv(Constants.S3_ENDPOINT_ENV), Constants.DEFAULT_S3_ENDPOINT),
+                System.getenv(Constants.S3_BUCKET_ENV),
+                MoreObjects.firstNonNull(System.getenv(Constants.S3_REGION_ENV), Constants.DEFAULT_S3_REGION),
+                System.getenv(Constants.S3_ACCESS_KEY_ENV),
+                System.getenv(Constants.S3_SECRET_KEY_ENV));
+    }
+
+    /**
+     * Start the storage backend.
+     *
+     * @param endpoint Object storage URL
+     * @param bucket Bucket
+     * @param region Region
+     * @param accessKey Access key
+     * @param secretKey Secret key
+     * @throws IOException If the bucket is not accessible
+     */
+    void startUp(String endpoint, String bucket, String region, String accessKey, String secretKey) throws IOException {
+        this.endpoint = HttpUrl.get(endpoint);
+        this.bucket = bucket;
+        this.signer = new S3Signer(Strings.nullToEmpty(accessKey), Strings.nullToEmpty(secretKey), region);
+        this.client = new OkHttpClient.Builder()
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .writeTimeout(60, TimeUnit.SECONDS)
+                .build();
+        this.prefetchExecutor = Executors.newFixedThreadPool(PREFETCH_COUNT, new ThreadFactoryBuilder()
+                .setNameFormat("storage-prefetch-%d")
+                .setDaemon(true)
+                .build());
+
+        // Fail early on a wrong configuration
+        try (Response response = execute("HEAD", bucketUrl().build(), new HashMap<>(), new byte[0])) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Unable to access the bucket " + bucket + " at " + endpoint + ": " + response.code());
+            }
+        }
+        log.info("Storing files in the bucket " + bucket + " at " + endpoint);
+    }
+
+    @Override
+    public void shutDown() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
+        if (client != null) {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        try (Response response = execute("HEAD", objectUrl(key).build(), new HashMap<>(), new byte[0])) {
+            if (response.code() == 404) {
+                return false;
+            }
+            check(response, key);
+            return true;
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        try (Response response = execute("HEAD", objectUrl(key).build(), new HashMap<>(), new byte[0])) {
+            check(response, key);
+            return Long.parseLong(Objects.requireNonNull(response.header("Content-Length")));
+        }
+    }
+
+    @Override
+    public InputStream read(String key, long offset, long length) throws IOException {
+        if (length == 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        if (offset > 0 || length > 0) {
+            headers.put("range", "bytes=" + offset + "-" + (length < 0 ? "" : offset + length - 1));
+        }
+        Response response = execute("GET", objectUrl(key).build(), headers, new byte[0]);
+        try {
+            check(response, key);
+        } catch (IOException e) {
+            response.close();
+            throw e;
+        }
+
+        // Closing the stream releases the connection
+        return Objects.requireNonNull(response.body()).byteStream();
+    }
+
+    @Override
+    public Iterator<InputStream> readAll(List<String> keyList) {
+        return new Iterator<InputStream>() {
+            /**
+             * Downloads in progress, in order.
+             */
+            private final Deque<Future<Path>> futureQueue = new ArrayDeque<>();
+
+            /**
+             * Index of the next key to download.
+             */
+            private int nextIndex;
+
+            /**
+             * Number of streams returned.
+             */
+            private int readCount;
+
+            @Override
+            public boolean hasNext() {
+                return readCount < keyList.size();
+            }
+
+            @Override
+            public InputStream next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                readCount++;
+                try {
+                    // Keep downloading ahead
+                    while (nextIndex < keyList.size() && futureQueue.size() < PREFETCH_COUNT) {
+                        String key = keyList.get(nextIndex++);
+                        Path file = AppContext.getInstance().getFileService().createTemporaryFile();
+                        futureQueue.add(prefetchExecutor.submit(() -> download(key, file)));
+                    }
+
+                    return Files.newInputStream(futureQueue.remove().get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw new UncheckedIOException(cause instanceof IOException ? (IOException) cause : new IOException(cause));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public StorageOutputStream write(String key) {
+        return new S3OutputStream(key);
+    }
+
+    @Override
+    public void store(String key, Path file) throws IOException {
+        try (StorageOutputStream outputStream = write(key)) {
+            try {
+                Files.copy(file, outputStream);
+            } catch (IOException e) {
+                outputStream.abort();
+                throw e;
+            }
+        }
+        Files.delete(file);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        try (Response response = execute("DELETE", objectUrl(key).build(), new HashMap<>(), new byte[0])) {
+            if (response.code() != 404) {
+                check(response, key);
+            }
+        }
+    }
+
+    @Override
+    public Stream<String> list() {
+        Iterator<String> keyIterator = new Iterator<String>() {
+            /**
+             * Keys of the current page.
+             */
+            private final Deque<String> keyQueue = new ArrayDeque<>();
+
+            /**
+             * Token of the next page, null once the last page is fetched.
+             */
+            private String continuationToken = "";
+
+            @Override
+            public boolean hasNext() {
+                while (keyQueue.isEmpty() && continuationToken != null) {
+                    try {
+                        fetchPage();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return !keyQueue.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return keyQueue.remove();
+            }
+
+            /**
+             * Fetch the next page of keys.
+             *
+             * @throws IOException e
+             */
+            private void fetchPage() throws IOException {
+                HttpUrl.Builder urlBuilder = bucketUrl()
+                        .addQueryParameter("list-type", "2")
+                        .addQueryParameter("max-keys", Integer.toString(LIST_PAGE_SIZE));
+                if (!continuationToken.isEmpty()) {
+                    urlBuilder.addQueryParameter("continuation-token", continuationToken);
+                }
+                Document document = executeXml("GET", urlBuilder.build(), new byte[0], bucket);
+                NodeList keyNodeList = document.getElementsByTagName("Key");
+                for (int i = 0; i < keyNodeList.getLength(); i++) {
+                    keyQueue.add(keyNodeList.item(i).getTextContent());
+                }
+                continuationToken = null;
+                if ("true".equals(textContent(document, "IsTruncated"))) {
+                    continuationToken = textContent(document, "NextContinuationToken");
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(keyIterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Download an object to a local file.
+     *
+     * @param key Key
+     * @param file Local file
+     * @return Local file
+     * @throws IOException e
+     */
+    private Path download(String key, Path file) throws IOException {
+        try (InputStream inputStream = read(key)) {
+            Files.copy(inputStream, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+
+    /**
+     * Returns the URL of the bucket.
+     *
+     * @return URL builder
+     */
+    private HttpUrl.Builder bucketUrl() {
+        return endpoint.newBuilder().addPathSegment(bucket);
+    }
+
+    /**
+     * Returns the URL of an object.
+     *
+     * @param key Key
+     * @return URL builder
+     */
+    private HttpUrl.Builder objectUrl(String key) {
+        return bucketUrl().addPathSegment(key);
+    }
+
+    /**
+     * Execute a signed request.
+     *
+     * @param method HTTP method
+     * @param url URL
+     * @param headers Headers, lowercase names
+     * @param body Request body
+     * @return Response, to be closed by the caller
+     * @throws IOException e
+     */
+    private Response execute(String method, HttpUrl url, Map<String, String> headers, byte[] body) throws IOException {
+        String authorization = signer.sign(method, url, headers, body, ZonedDateTime.now());
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(url)
+                .header("Authorization", authorization)
+                .method(method, "PUT".equals(method) || "POST".equals(method) ? RequestBody.create(body, null) : null);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            requestBuilder.header(header.getKey(), header.getValue());
+        }
+        return client.newCall(requestBuilder.build()).execute();
+    }
+
+    /**
+     * Execute a signed request returning an XML document.
+     *
+     * @param method HTTP method
+     * @param url URL
+     * @param body Request body
+     * @param key Key, for the error messages
+     * @return XML document
+     * @throws IOException e
+     */
+    private Document executeXml(String method, HttpUrl url, byte[] body, String key) throws IOException {
+        try (Response response = execute(method, url, new HashMap<>(), body)) {
+            check(response, key);
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            Document document = factory.newDocumentBuilder().parse(Objects.requireNonNull(response.body()).byteStream());
+
+            // Some errors are reported in a successful response
+            if ("Error".equals(document.getDocumentElement().getTagName())) {
+                throw new IOException("Object storage error on " + key + ": " + textContent(document, "Code"));
+            }
+            return document;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Invalid object storage response on " + key, e);
+        }
+    }
+
+    /**
+     * Check that a request is successful.
+     *
+     * @param response Response
+     * @param key Key, for the error messages
+     * @throws NoSuchFileException If the object doesn't exist
+     * @throws IOException If the request failed
+     */
+    private static void check(Response response, String key) throws IOException {
+        if (response.isSuccessful()) {
+            return;
+        }
+        if (response.code() == 404) {
+            throw new NoSuchFileException(key);
+        }
+        throw new IOException("Object storage error on " + key + ": " + response.code() + " " + response.message());
+    }
+
+    /**
+     * Returns the text content of the first element of an XML document with a given name.
+     *
+     * @param document XML document
+     * @param tagName Element name
+     * @return Text content, null if not found
+     */
+    private static String textContent(Document document, String tagName) {
+        NodeList nodeList = document.getElementsByTagName(tagName);
+        return nodeList.getLength() == 0 ? null : nodeList.item(0).getTextContent();
+    }
+
+    /**
+     * Output stream to an object.
+     * Small objects are uploaded at once on close, large objects are uploaded in parts while writing.
+     * Aborting the stream aborts the multipart upload instead of completing it.
+     */
+    private class S3OutputStream extends StorageOutputStream {
+        /**
+         * Key.
+         */
+        private final String key;
+
+        /**
+         * Data of the current part.
+         */
+        private final ByteArrayOutputStream partBuffer = new ByteArrayOutputStream();
+
+        /**
+         * Multipart upload ID, null until the first part is uploaded.
+         */
+        private String uploadId;
+
+        /**
+         * ETags of the uploaded parts.
+         */
+        private final List<String> etagList = new ArrayList<>();
+
+        /**
+         * True once closed.
+         */
+        private boolean closed;
+
+        /**
+         * True once aborted.
+         */
+        private boolean aborted;
+
+        /**
+         * Constructor.
+         *
+         * @param key Key
+         */
+        S3OutputStream(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (aborted) {
+                return;
+            }
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (len > 0) {
+                int count = Math.min(len, PART_SIZE - partBuffer.size());
+                partBuffer.write(b, off, count);
+                off += count;
+                len -= count;
+                if (partBuffer.size() == PART_SIZE) {
+                    uploadPart();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (uploadId == null) {
+                // Everything fits in a single request
+                try (Response response = execute("PUT", objectUrl(key).build(), new HashMap<>(), partBuffer.toByteArray())) {
+                    check(response, key);
+                }
+                return;
+            }
+
+            if (partBuffer.size() > 0) {
+                uploadPart();
+            }
+            StringBuilder sb = new StringBuilder("<CompleteMultipartUpload>");
+            for (int i = 0; i < etagList.size(); i++) {
+                sb.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                        .append(etagList.get(i)).append("</ETag></Part>");
+            }
+            sb.append("</CompleteMultipartUpload>");
+            try {
+                executeXml("POST", objectUrl(key).addQueryParameter("uploadId", uploadId).build(),
+                        sb.toString().getBytes(StandardCharsets.UTF_8), key);
+            } catch (IOException e) {
+                abortUpload();
+                throw e;
+            }
+        }
+
+        @Override
+        public void abort() {
+            if (aborted) {
+                return;
+            }
+            aborted = true;
+            if (!closed) {
+                closed = true;
+                partBuffer.reset();
+                abortUpload();
+            }
+        }
+
+        /**
+         * Upload the current part.
+         *
+         * @throws IOException e
+         */
+        private void uploadPart() throws IOException {
+            try {
+                if (uploadId == null) {
+                    Document document = executeXml("POST", objectUrl(key).addQueryParameter("uploads", null).build(), new byte[0], key);
+                    uploadId = textContent(document, "UploadId");
+                }
+
+                HttpUrl url = objectUrl(key)
+                        .addQueryParameter("partNumber", Integer.toString(etagList.size() + 1))
+                        .addQueryParameter("uploadId", uploadId)
+                        .build();
+                try (Response response = execute("PUT", url, new HashMap<>(), partBuffer.toByteArray())) {
+                    check(response, key);
+                    etagList.add(response.header("ETag"));
+                }
+                partBuffer.reset();
+            } catch (IOException e) {
+                closed = true;
+                abortUpload();
+                throw e;
+            }
+        }
+
+        /**
+         * Abort the multipart upload, freeing the uploaded parts.
+         */
+        private void abortUpload() {
+            if (uploadId == null) {
+                return;
+            }
+            try (Response response = execute("DELETE", objectUrl(key).addQueryParameter("uploadId", uploadId).build(), new HashMap<>(), new byte[0])) {
+                check(response, key);
+            } catch (IOException e) {
+                log.error("Unable to abort the multipart upload of " + key, e);
+            }
+        }
+    }
+}
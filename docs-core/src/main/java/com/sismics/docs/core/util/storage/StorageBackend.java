@@ -0,0 +1,145 @@
+package com.sismics.docs.core.util.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Storage backend of the files data.
+ * Stored data is identified by a key: the storage ID of a file, suffixed by "_web" for its web rendition
+ * (or "_thumb" for the thumbnails stored by earlier versions).
+ *
+ * @author bgamard
+ */
+public interface StorageBackend {
+    /**
+     * Return true if this storage backend can start.
+     *
+     * @return True if able to start
+     */
+    boolean accept();
+
+    /**
+     * Start the storage backend.
+     *
+     * @throws Exception e
+     */
+    void startUp() throws Exception;
+
+    /**
+     * Shutdown the storage backend.
+     */
+    void shutDown();
+
+    /**
+     * Return true if some data is stored under a key.
+     *
+     * @param key Key
+     * @return True if the data exists
+     * @throws IOException e
+     */
+    boolean exists(String key) throws IOException;
+
+    /**
+     * Returns the size of stored data.
+     *
+     * @param key Key
+     * @return Size in bytes
+     * @throws java.nio.file.NoSuchFileException If no data is stored under this key
+     * @throws IOException e
+     */
+    long size(String key) throws IOException;
+
+    /**
+     * Read stored data.
+     *
+     * @param key Key
+     * @return Data stream, to be closed by the caller
+     * @throws java.nio.file.NoSuchFileException If no data is stored under this key
+     * @throws IOException e
+     */
+    default InputStream read(String key) throws IOException {
+        return read(key, 0, -1);
+    }
+
+    /**
+     * Read a range of stored data.
+     *
+     * @param key Key
+     * @param offset Offset of the first byte to read
+     * @param length Number of bytes to read, -1 to read until the end
+     * @return Data stream, to be closed by the caller
+     * @throws java.nio.file.NoSuchFileException If no data is stored under this key
+     * @throws IOException e
+     */
+    InputStream read(String key, long offset, long length) throws IOException;
+
+    /**
+     * Read a list of stored data, in order.
+     * Backends with a high latency read ahead of the consumer.
+     * The iterator throws an UncheckedIOException if some data can't be read.
+     *
+     * @param keyList Keys
+     * @return Data streams, each one to be closed by the caller
+     */
+    default Iterator<InputStream> readAll(List<String> keyList) {
+        Iterator<String> keyIterator = keyList.iterator();
+        return new Iterator<InputStream>() {
+            @Override
+            public boolean hasNext() {
+                return keyIterator.hasNext();
+            }
+
+            @Override
+            public InputStream next() {
+                try {
+                    return read(keyIterator.next());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Write data under a key, replacing the existing data.
+     * The data is stored once the stream is closed, the caller aborts the stream if the writing fails.
+     *
+     * @param key Key
+     * @return Output stream, to be closed by the caller
+     * @throws IOException e
+     */
+    StorageOutputStream write(String key) throws IOException;
+
+    /**
+     * Store a local file under a key, replacing the existing data.
+     * The local file is moved, or deleted once stored.
+     *
+     * @param key Key
+     * @param file Local file
+     * @throws IOException e
+     */
+    void store(String key, Path file) throws IOException;
+
+    /**
+     * Delete stored data, if it exists.
+     *
+     * @param key Key
+     * @throws IOException e
+     */
+    void delete(String key) throws IOException;
+
+    /**
+     * List all the keys.
+     * The stream is lazily populated, and throws an UncheckedIOException if the listing fails.
+     *
+     * @return Keys, to be closed by the caller
+     * @throws IOException e
+     */
+    Stream<String> list() throws IOException;
+}
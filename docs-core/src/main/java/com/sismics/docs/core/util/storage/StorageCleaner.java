@@ -0,0 +1,591 @@
+package com.sismics.docs.core.util.storage;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.sismics.docs.core.dao.DocumentPermissionDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.UploadUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Storage garbage collector.
+ * Orphan and soft deleted rows are cleaned in chunks, each in its own short transaction.
+ * Then the stored data is checked against a Bloom filter of the storage IDs in use, paged through by ID,
+ * and the data not referenced anymore is deleted.
+ * Nothing cleaned is lost if the collection is interrupted, running it again finishes the job.
+ *
+ * @author bgamard
+ */
+public class StorageCleaner {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(StorageCleaner.class);
+
+    /**
+     * Number of rows, storage IDs or stored data handled at once.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * False positive probability of the storage IDs filter.
+     * A false positive only keeps orphan data until a later collection.
+     */
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.001;
+
+    /**
+     * Maximum number of orphan stored data listed in the report.
+     */
+    private static final int ORPHAN_SAMPLE_SIZE = 100;
+
+    /**
+     * Database cleanups, in order.
+     */
+    private static final List<Cleanup> CLEANUP_LIST = List.of(
+            new Cleanup("orphan_audit_logs", "T_AUDIT_LOG", "LOG_ID_C", null,
+                    "select al.LOG_ID_C from T_AUDIT_LOG al " +
+                    " left join T_DOCUMENT d on d.DOC_ID_C = al.LOG_IDENTITY_C and d.DOC_DELETEDATE_D is null " +
+                    " left join T_ACL a on a.ACL_ID_C = al.LOG_IDENTITY_C and a.ACL_DELETEDATE_D is null " +
+                    " left join T_COMMENT c on c.COM_ID_C = al.LOG_IDENTITY_C and c.COM_DELETEDATE_D is null " +
+                    " left join T_FILE f on f.FIL_ID_C = al.LOG_IDENTITY_C and f.FIL_DELETEDATE_D is null " +
+                    " left join T_TAG t on t.TAG_ID_C = al.LOG_IDENTITY_C and t.TAG_DELETEDATE_D is null " +
+                    " left join T_USER u on u.USE_ID_C = al.LOG_IDENTITY_C and u.USE_DELETEDATE_D is null " +
+                    " left join T_GROUP g on g.GRP_ID_C = al.LOG_IDENTITY_C and g.GRP_DELETEDATE_D is null " +
+                    " where d.DOC_ID_C is null and a.ACL_ID_C is null and c.COM_ID_C is null and f.FIL_ID_C is null and t.TAG_ID_C is null and u.USE_ID_C is null and g.GRP_ID_C is null"),
+            new Cleanup("orphan_acls", "T_ACL", "ACL_ID_C", "ACL_DELETEDATE_D",
+                    "select a.ACL_ID_C from T_ACL a " +
+                    " left join T_SHARE s on s.SHA_ID_C = a.ACL_TARGETID_C " +
+                    " left join T_USER u on u.USE_ID_C = a.ACL_TARGETID_C " +
+                    " left join T_GROUP g on g.GRP_ID_C = a.ACL_TARGETID_C " +
+                    " left join T_DOCUMENT d on d.DOC_ID_C = a.ACL_SOURCEID_C " +
+                    " left join T_TAG t on t.TAG_ID_C = a.ACL_SOURCEID_C " +
+                    " where a.ACL_DELETEDATE_D is null and (s.SHA_ID_C is null and u.USE_ID_C is null and g.GRP_ID_C is null or d.DOC_ID_C is null and t.TAG_ID_C is null)"),
+            new Cleanup("orphan_comments", "T_COMMENT", "COM_ID_C", "COM_DELETEDATE_D",
+                    "select c.COM_ID_C from T_COMMENT c " +
+                    " left join T_DOCUMENT d on d.DOC_ID_C = c.COM_IDDOC_C and d.DOC_DELETEDATE_D is null " +
+                    " where c.COM_DELETEDATE_D is null and d.DOC_ID_C is null"),
+            new Cleanup("orphan_document_tags", "T_DOCUMENT_TAG", "DOT_ID_C", "DOT_DELETEDATE_D",
+                    "select dt.DOT_ID_C from T_DOCUMENT_TAG dt " +
+                    " left join T_DOCUMENT d on dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and d.DOC_DELETEDATE_D is null " +
+                    " left join T_TAG t on t.TAG_ID_C = dt.DOT_IDTAG_C and t.TAG_DELETEDATE_D is null " +
+                    " where dt.DOT_DELETEDATE_D is null and (d.DOC_ID_C is null or t.TAG_ID_C is null)"),
+            new Cleanup("orphan_shares", "T_SHARE", "SHA_ID_C", "SHA_DELETEDATE_D",
+                    "select s.SHA_ID_C from T_SHARE s " +
+                    " left join T_ACL a on a.ACL_TARGETID_C = s.SHA_ID_C and a.ACL_DELETEDATE_D is null " +
+                    " where s.SHA_DELETEDATE_D is null and a.ACL_ID_C is null"),
+            new Cleanup("orphan_tags", "T_TAG", "TAG_ID_C", "TAG_DELETEDATE_D",
+                    "select t.TAG_ID_C from T_TAG t " +
+                    " left join T_USER u on u.USE_ID_C = t.TAG_IDUSER_C and u.USE_DELETEDATE_D is null " +
+                    " where t.TAG_DELETEDATE_D is null and u.USE_ID_C is null"),
+            new Cleanup("orphan_documents", "T_DOCUMENT", "DOC_ID_C", "DOC_DELETEDATE_D",
+                    "select d.DOC_ID_C from T_DOCUMENT d " +
+                    " left join T_USER u on u.USE_ID_C = d.DOC_IDUSER_C and u.USE_DELETEDATE_D is null " +
+                    " where d.DOC_DELETEDATE_D is null and u.USE_ID_C is null"),
+            new Cleanup("orphan_files", "T_FILE", "FIL_ID_C", "FIL_DELETEDATE_D",
+                    "select f.FIL_ID_C from T_FILE f " +
+                    " left join T_USER u on u.USE_ID_C = f.FIL_IDUSER_C and u.USE_DELETEDATE_D is null " +
+                    " where f.FIL_DELETEDATE_D is null and u.USE_ID_C is null"),
+            Cleanup.purge("deleted_document_tags", "T_DOCUMENT_TAG", "DOT_ID_C", "DOT_DELETEDATE_D"),
+            Cleanup.purge("deleted_acls", "T_ACL", "ACL_ID_C", "ACL_DELETEDATE_D"),
+            Cleanup.purge("deleted_shares", "T_SHARE", "SHA_ID_C", "SHA_DELETEDATE_D"),
+            Cleanup.purge("deleted_tags", "T_TAG", "TAG_ID_C", "TAG_DELETEDATE_D"),
+            Cleanup.purge("deleted_comments", "T_COMMENT", "COM_ID_C", "COM_DELETEDATE_D"),
+            Cleanup.purge("deleted_files", "T_FILE", "FIL_ID_C", "FIL_DELETEDATE_D"),
+            Cleanup.purge("deleted_documents", "T_DOCUMENT", "DOC_ID_C", "DOC_DELETEDATE_D"),
+            Cleanup.purge("deleted_users", "T_USER", "USE_ID_C", "USE_DELETEDATE_D"),
+            Cleanup.purge("deleted_groups", "T_GROUP", "GRP_ID_C", "GRP_DELETEDATE_D"));
+
+    /**
+     * Collection phase.
+     */
+    public enum Phase {
+        /**
+         * Cleaning the orphan and soft deleted rows.
+         */
+        DATABASE,
+
+        /**
+         * Reading the storage IDs in use.
+         */
+        REFERENCES,
+
+        /**
+         * Checking the stored data.
+         */
+        STORAGE,
+
+        /**
+         * Collection done or interrupted.
+         */
+        DONE
+    }
+
+    /**
+     * True while a collection is running.
+     */
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /**
+     * True if the collection must stop as soon as possible.
+     */
+    private volatile boolean stopping = false;
+
+    /**
+     * True if the last collection only reports what would be cleaned.
+     */
+    private volatile boolean dryRun;
+
+    /**
+     * Phase of the last collection, null if none has run.
+     */
+    private volatile Phase phase;
+
+    /**
+     * Start date of the last collection.
+     */
+    private volatile Date startDate;
+
+    /**
+     * End date of the last collection.
+     */
+    private volatile Date endDate;
+
+    /**
+     * Number of storage IDs in use.
+     */
+    private volatile long referenceCount;
+
+    /**
+     * Number of stored data checked.
+     */
+    private volatile long checkedCount;
+
+    /**
+     * Number of orphan stored data.
+     */
+    private volatile long orphanCount;
+
+    /**
+     * Size of the orphan stored data.
+     */
+    private volatile long orphanSize;
+
+    /**
+     * First orphan stored data.
+     */
+    private final List<String> orphanSampleList = new CopyOnWriteArrayList<>();
+
+    /**
+     * Number of rows cleaned by each database cleanup.
+     */
+    private final Map<String, Long> rowCountMap = new LinkedHashMap<>();
+
+    /**
+     * Collect the storage garbage.
+     * Does nothing if a collection is already running.
+     *
+     * @param dryRun True to only report what would be cleaned
+     */
+    public void clean(boolean dryRun) {
+        if (!running.compareAndSet(false, true)) {
+            log.info("A storage cleaning is already running");
+            return;
+        }
+
+        try {
+            this.dryRun = dryRun;
+            startDate = new Date();
+            endDate = null;
+            referenceCount = 0;
+            checkedCount = 0;
+            orphanCount = 0;
+            orphanSize = 0;
+            orphanSampleList.clear();
+            synchronized (rowCountMap) {
+                rowCountMap.clear();
+            }
+            log.info("Cleaning the storage{}", dryRun ? " (dry run)" : "");
+
+            // Clean the database first, the data of the files deleted now is collected right after
+            phase = Phase.DATABASE;
+            long cleanedCount = 0;
+            for (Cleanup cleanup : CLEANUP_LIST) {
+                if (stopping) {
+                    return;
+                }
+                long count = dryRun ? countRows(cleanup) : cleanRows(cleanup);
+                synchronized (rowCountMap) {
+                    rowCountMap.put(cleanup.name, count);
+                }
+                cleanedCount += count;
+                log.info("{} {} {}", dryRun ? "Found" : "Cleaned", count, cleanup.name);
+            }
+
+            if (!dryRun && cleanedCount > 0) {
+                // ACLs and documents may have been deleted, rebuild the document permissions
+                TransactionUtil.handle(() -> new DocumentPermissionDao().rebuild());
+            }
+
+            // Collect the stored data not referenced anymore
+            phase = Phase.REFERENCES;
+            BloomFilter<String> referenceFilter = readReferences();
+            if (referenceFilter == null) {
+                return;
+            }
+            phase = Phase.STORAGE;
+            cleanStorage(referenceFilter);
+
+            log.info("Storage cleaning done in {}ms", System.currentTimeMillis() - startDate.getTime());
+        } catch (Exception e) {
+            log.error("Error cleaning the storage", e);
+        } finally {
+            phase = Phase.DONE;
+            endDate = new Date();
+            running.set(false);
+        }
+    }
+
+    /**
+     * Count the rows a database cleanup would clean.
+     *
+     * @param cleanup Database cleanup
+     * @return Number of rows
+     */
+    private long countRows(Cleanup cleanup) {
+        AtomicReference<Long> count = new AtomicReference<>();
+        TransactionUtil.handle(() -> {
+            EntityManager em = ThreadLocalContext.get().getEntityManager();
+            Query q = em.createNativeQuery("select count(*) from (" + cleanup.selectQuery + ") x");
+            count.set(((Number) q.getSingleResult()).longValue());
+        });
+        if (count.get() == null) {
+            throw new IllegalStateException("Error counting the " + cleanup.name);
+        }
+        return count.get();
+    }
+
+    /**
+     * Clean the rows of a database cleanup, chunk by chunk.
+     *
+     * @param cleanup Database cleanup
+     * @return Number of rows cleaned
+     */
+    @SuppressWarnings("unchecked")
+    private long cleanRows(Cleanup cleanup) {
+        long count = 0;
+        while (!stopping) {
+            // Each chunk in its own transaction
+            AtomicReference<Integer> chunkSize = new AtomicReference<>();
+            TransactionUtil.handle(() -> {
+                EntityManager em = ThreadLocalContext.get().getEntityManager();
+                Query q = em.createNativeQuery(cleanup.selectQuery);
+                q.setMaxResults(BATCH_SIZE);
+                List<String> idList = q.getResultList();
+                if (!idList.isEmpty()) {
+                    if (cleanup.deleteDateColumn == null) {
+                        q = em.createNativeQuery("delete from " + cleanup.table + " where " + cleanup.idColumn + " in (:ids)");
+                    } else {
+                        q = em.createNativeQuery("update " + cleanup.table + " set " + cleanup.deleteDateColumn + " = :dateNow where " + cleanup.idColumn + " in (:ids)");
+                        q.setParameter("dateNow", new Date());
+                    }
+                    q.setParameter("ids", idList);
+                    q.executeUpdate();
+                }
+                chunkSize.set(idList.size());
+            });
+            if (chunkSize.get() == null) {
+                throw new IllegalStateException("Error cleaning the " + cleanup.name);
+            }
+
+            count += chunkSize.get();
+            if (chunkSize.get() < BATCH_SIZE) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Read the storage IDs in use, page by page.
+     *
+     * @return Filter of the storage IDs in use, null if interrupted
+     */
+    private BloomFilter<String> readReferences() {
+        AtomicReference<Long> fileCount = new AtomicReference<>();
+        TransactionUtil.handle(() -> fileCount.set(new FileDao().getFileCount()));
+        if (fileCount.get() == null) {
+            throw new IllegalStateException("Error counting the files");
+        }
+
+        BloomFilter<String> referenceFilter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8),
+                Math.max(fileCount.get(), BATCH_SIZE), FALSE_POSITIVE_PROBABILITY);
+        String lastStorageId = null;
+        while (!stopping) {
+            // Each page in its own transaction
+            String fromStorageId = lastStorageId;
+            AtomicReference<List<String>> page = new AtomicReference<>();
+            TransactionUtil.handle(() -> page.set(new FileDao().findStorageIds(fromStorageId, BATCH_SIZE)));
+            if (page.get() == null) {
+                throw new IllegalStateException("Error reading the storage IDs following " + fromStorageId);
+            }
+
+            for (String storageId : page.get()) {
+                referenceFilter.put(storageId);
+            }
+            referenceCount += page.get().size();
+            if (page.get().size() < BATCH_SIZE) {
+                log.info("Checking the stored data against {} storage IDs", referenceCount);
+                return referenceFilter;
+            }
+            lastStorageId = page.get().get(page.get().size() - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Check each stored data against the storage IDs in use.
+     *
+     * @param referenceFilter Filter of the storage IDs in use
+     * @throws IOException e
+     */
+    private void cleanStorage(BloomFilter<String> referenceFilter) throws IOException {
+        StorageBackend storageBackend = AppContext.getInstance().getStorageBackend();
+        List<String> candidateList = new ArrayList<>();
+        try (Stream<String> keyStream = storageBackend.list()) {
+            for (String key : (Iterable<String>) keyStream::iterator) {
+                if (stopping) {
+                    return;
+                }
+                checkedCount++;
+                if (!referenceFilter.mightContain(getStorageId(key)) && !UploadUtil.isUploading(key)) {
+                    candidateList.add(key);
+                    if (candidateList.size() == BATCH_SIZE) {
+                        cleanCandidates(storageBackend, candidateList);
+                        candidateList.clear();
+                    }
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        cleanCandidates(storageBackend, candidateList);
+    }
+
+    /**
+     * Delete the stored data not referenced by any file.
+     * The candidates are checked again, files may have been added since the storage IDs were read.
+     * The data of files being created is skipped: it is stored before their transaction is committed.
+     * It is checked before the database, so a file committed meanwhile is seen by one or the other.
+     *
+     * @param storageBackend Storage backend
+     * @param candidateList Keys of the stored data not referenced when the storage IDs were read
+     * @throws IOException e
+     */
+    private void cleanCandidates(StorageBackend storageBackend, List<String> candidateList) throws IOException {
+        if (candidateList.isEmpty()) {
+            return;
+        }
+
+        Set<String> storingSet = candidateList.stream()
+                .map(StorageCleaner::getStorageId)
+                .filter(FileUtil::isStoring)
+                .collect(Collectors.toSet());
+        Set<String> storageIdSet = candidateList.stream()
+                .map(StorageCleaner::getStorageId)
+                .collect(Collectors.toSet());
+        AtomicReference<Set<String>> referencedSet = new AtomicReference<>();
+        TransactionUtil.handle(() -> referencedSet.set(new FileDao().getReferencedStorageIds(storageIdSet)));
+        if (referencedSet.get() == null) {
+            throw new IllegalStateException("Error checking the storage IDs");
+        }
+
+        for (String key : candidateList) {
+            String storageId = getStorageId(key);
+            if (storingSet.contains(storageId) || referencedSet.get().contains(storageId)) {
+                continue;
+            }
+
+            long size = 0;
+            try {
+                size = storageBackend.size(key);
+            } catch (IOException e) {
+                // Deleted in the meantime
+            }
+            orphanCount++;
+            orphanSize += size;
+            if (orphanSampleList.size() < ORPHAN_SAMPLE_SIZE) {
+                orphanSampleList.add(key);
+            }
+            if (!dryRun) {
+                log.info("Deleting orphan stored data: {}", key);
+                storageBackend.delete(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the storage ID of a stored data, its key without the variant suffix.
+     *
+     * @param key Key
+     * @return Storage ID
+     */
+    private static String getStorageId(String key) {
+        return key.split("_")[0];
+    }
+
+    /**
+     * Stop the running collection.
+     */
+    public void shutDown() {
+        stopping = true;
+    }
+
+    /**
+     * Returns true if a collection is running.
+     *
+     * @return True if running
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Returns true if the last collection only reports what would be cleaned.
+     *
+     * @return True if dry run
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Returns the phase of the last collection.
+     *
+     * @return Phase, null if none has run
+     */
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    public long getReferenceCount() {
+        return referenceCount;
+    }
+
+    public long getCheckedCount() {
+        return checkedCount;
+    }
+
+    public long getOrphanCount() {
+        return orphanCount;
+    }
+
+    public long getOrphanSize() {
+        return orphanSize;
+    }
+
+    public List<String> getOrphanSampleList() {
+        return new ArrayList<>(orphanSampleList);
+    }
+
+    /**
+     * Returns the number of rows cleaned, or to clean in a dry run, by each database cleanup.
+     *
+     * @return Number of rows by cleanup name
+     */
+    public Map<String, Long> getRowCountMap() {
+        synchronized (rowCountMap) {
+            return new LinkedHashMap<>(rowCountMap);
+        }
+    }
+
+    /**
+     * Cleanup of the database rows selected by a query.
+     */
+    private static class Cleanup {
+        /**
+         * Name.
+         */
+        private final String name;
+
+        /**
+         * Table name.
+         */
+        private final String table;
+
+        /**
+         * ID column.
+         */
+        private final String idColumn;
+
+        /**
+         * Delete date column to soft delete the rows, null to hard delete them.
+         */
+        private final String deleteDateColumn;
+
+        /**
+         * Query selecting the IDs of the rows to clean.
+         */
+        private final String selectQuery;
+
+        /**
+         * Constructor.
+         *
+         * @param name Name
+         * @param table Table name
+         * @param idColumn ID column
+         * @param deleteDateColumn Delete date column, null to hard delete
+         * @param selectQuery Query selecting the IDs of the rows to clean, cleaned rows must not be selected again
+         */
+        private Cleanup(String name, String table, String idColumn, String deleteDateColumn, String selectQuery) {
+            this.name = name;
+            this.table = table;
+            this.idColumn = idColumn;
+            this.deleteDateColumn = deleteDateColumn;
+            this.selectQuery = selectQuery;
+        }
+
+        /**
+         * Cleanup hard deleting the soft deleted rows of a table.
+         *
+         * @param name Name
+         * @param table Table name
+         * @param idColumn ID column
+         * @param deleteDateColumn Delete date column
+         * @return Cleanup
+         */
+        private static Cleanup purge(String name, String table, String idColumn, String deleteDateColumn) {
+            return new Cleanup(name, table, idColumn, null,
+                    "select " + idColumn + " from " + table + " where " + deleteDateColumn + " is not null");
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.sismics.docs.core.util.storage;
+
+import java.io.OutputStream;
+
+/**
+ * Output stream to stored data.
+ * The data is stored once the stream is closed, unless the writing is aborted.
+ *
+ * @author bgamard
+ */
+public abstract class StorageOutputStream extends OutputStream {
+    /**
+     * Abandon the data written so far, nothing is stored under the key.
+     * Writing to the stream afterwards is ignored, and closing it does nothing,
+     * so the streams wrapping this one can still be closed.
+     */
+    public abstract void abort();
+}
@@ -3,6 +3,8 @@ package com.sismics.util;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * HTTP request utilities.
@@ -15,6 +17,11 @@ public class HttpUtil {
      */
     private static final SimpleDateFormat EXPIRES_FORMAT = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.ENGLISH);
 
+    /**
+     * Single byte range of a Range header.
+     */
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=\\s*(\\d*)-(\\d*)\\s*");
+
     /**
      * Build an Expires HTTP header.
      *
@@ -24,4 +31,76 @@ public class HttpUtil {
     public static String buildExpiresHeader(long futureTime) {
         return EXPIRES_FORMAT.format(new Date().getTime() + futureTime);
     }
+
+    /**
+     * Parse a Range header with a single byte range.
+     * Other headers are ignored, the whole representation being sent.
+     *
+     * @param range Range header, can be null
+     * @param size Size of the representation
+     * @return Positions of the first and last bytes, null to send the whole representation,
+     * or an empty array if the range is not satisfiable
+     */
+    public static long[] parseRange(String range, long size) {
+        if (range == null) {
+            return null;
+        }
+        Matcher matcher = RANGE_PATTERN.matcher(range);
+        if (!matcher.matches() || matcher.group(1).isEmpty() && matcher.group(2).isEmpty()) {
+            return null;
+        }
+
+        long first;
+        long last;
+        try {
+            if (matcher.group(1).isEmpty()) {
+                // Last bytes
+                long suffixLength = Long.parseLong(matcher.group(2));
+                if (suffixLength == 0) {
+                    return new long[0];
+                }
+                first = Math.max(size - suffixLength, 0);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(matcher.group(1));
+                last = size - 1;
+                if (!matcher.group(2).isEmpty()) {
+                    long requestedLast = Long.parseLong(matcher.group(2));
+                    if (requestedLast < first) {
+                        // Invalid range
+                        return null;
+                    }
+                    last = Math.min(requestedLast, last);
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Too large
+            return null;
+        }
+
+        if (first >= size) {
+            return new long[0];
+        }
+        return new long[] { first, last };
+    }
+
+    /**
+     * Return true if an entity tag matches an If-None-Match header.
+     *
+     * @param ifNoneMatch If-None-Match header, can be null
+     * @param entityTag Current entity tag
+     * @return True if the representation is not modified
+     */
+    public static boolean isNotModified(String ifNoneMatch, String entityTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(entityTag) || tag.equals("W/" + entityTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -1,9 +1,16 @@
 package com.sismics.util;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
 
 /**
  * <a url=http://www.jdeskew.com/>JDeskew</a>
+ * The image is read once, row bands in parallel, into a bit array of the lower edge points.
+ * The Hough transformation then runs in parallel by bands of angles, each owning its cells of the matrix.
  */
 public class ImageDeskew {
     /**
@@ -21,8 +28,15 @@ public class ImageDeskew {
         public double d;
     }
 
+    // rows of the image read by each fork-join task
+    private static final int ROW_BAND_SIZE = 64;
+    // angles accumulated by each fork-join task
+    private static final int ALPHA_BAND_SIZE = 8;
+
     // the source image
     private BufferedImage cImage;
+    // black pixels by gray level, for grayscale images
+    private boolean[] cBlackGrayLevels;
     // the range of angles to search for lines
     private double cAlphaStart = -20;
     private double cAlphaStep = 0.2;
@@ -36,6 +50,10 @@ public class ImageDeskew {
     private int cDCount;
     // count of points that fit in a line
     private int[] cHMatrix;
+    // lower edge points, one bit per pixel of the rows analyzed
+    private long[] cEdges;
+    private int cEdgeWordsPerRow;
+    private int cHMin;
 
     // constructor
     public ImageDeskew(BufferedImage image) {
@@ -105,37 +123,106 @@ public class ImageDeskew {
 
     // Hough Transformation
     private void calc() {
-        int hMin = (int) ((this.cImage.getHeight()) / 4.0);
+        this.cHMin = (int) ((this.cImage.getHeight()) / 4.0);
         int hMax = (int) ((this.cImage.getHeight()) * 3.0 / 4.0);
         init();
+        if (hMax <= this.cHMin) {
+            return;
+        }
+
+        // find the lower edges in the middle of the image
+        this.cEdgeWordsPerRow = (this.cImage.getWidth() + 63) >>> 6;
+        this.cEdges = new long[(hMax - this.cHMin) * this.cEdgeWordsPerRow];
+        ForkJoinPool.commonPool().invoke(new BandAction(this.cHMin, hMax, ROW_BAND_SIZE, this::findEdges));
+
+        // calculate all lines through the lower edges
+        ForkJoinPool.commonPool().invoke(new BandAction(0, this.cSteps - 1, ALPHA_BAND_SIZE, this::calc));
+        this.cEdges = null;
+    }
+
+    // find the lower edges of the rows [yStart, yEnd)
+    private void findEdges(int yStart, int yEnd) {
+        int width = this.cImage.getWidth();
+        int[] buffer = new int[width];
+        boolean[] black = new boolean[width];
+        boolean[] blackBelow = new boolean[width];
+        readBlack(yStart, buffer, black);
 
-        for (int y = hMin; y < hMax; y++) {
-            for (int x = 1; x < (this.cImage.getWidth() - 2); x++) {
+        for (int y = yStart; y < yEnd; y++) {
+            readBlack(y + 1, buffer, blackBelow);
+            int offset = (y - this.cHMin) * this.cEdgeWordsPerRow;
+            for (int x = 1; x < (width - 2); x++) {
                 // only lower edges are considered
-                if (ImageUtil.isBlack(this.cImage, x, y)) {
-                    if (!ImageUtil.isBlack(this.cImage, x, y + 1)) {
-                        calc(x, y);
-                    }
+                if (black[x] && !blackBelow[x]) {
+                    this.cEdges[offset + (x >>> 6)] |= 1L << x;
                 }
             }
+            boolean[] tmp = black;
+            black = blackBelow;
+            blackBelow = tmp;
         }
+    }
 
+    // read which pixels of the row y are black, as ImageUtil.isBlack(image, x, y) would
+    private void readBlack(int y, int[] buffer, boolean[] black) {
+        int width = this.cImage.getWidth();
+        Raster raster = this.cImage.getRaster();
+        switch (this.cImage.getType()) {
+            case BufferedImage.TYPE_BYTE_BINARY:
+                raster.getSamples(0, y, width, 1, 0, buffer);
+                for (int x = 0; x < width; x++) {
+                    black[x] = buffer[x] == 0;
+                }
+                break;
+            case BufferedImage.TYPE_BYTE_GRAY:
+                raster.getSamples(0, y, width, 1, 0, buffer);
+                for (int x = 0; x < width; x++) {
+                    black[x] = this.cBlackGrayLevels[buffer[x]];
+                }
+                break;
+            case BufferedImage.TYPE_INT_RGB:
+                raster.getDataElements(0, y, width, 1, buffer);
+                for (int x = 0; x < width; x++) {
+                    black[x] = ImageUtil.isBlack(buffer[x]);
+                }
+                break;
+            default:
+                this.cImage.getRGB(0, y, width, 1, buffer, 0, width);
+                for (int x = 0; x < width; x++) {
+                    black[x] = ImageUtil.isBlack(buffer[x]);
+                }
+        }
     }
 
-    // calculate all lines through the point (x,y)
-    private void calc(int x, int y) {
+    // calculate the lines through all lower edges for the angles [alphaStart, alphaEnd)
+    private void calc(int alphaStart, int alphaEnd) {
+        int rowCount = this.cEdges.length / this.cEdgeWordsPerRow;
+        for (int row = 0; row < rowCount; row++) {
+            int y = this.cHMin + row;
+            int offset = row * this.cEdgeWordsPerRow;
+            for (int word = 0; word < this.cEdgeWordsPerRow; word++) {
+                long edges = this.cEdges[offset + word];
+                while (edges != 0) {
+                    int x = (word << 6) + Long.numberOfTrailingZeros(edges);
+                    edges &= edges - 1;
+                    calc(x, y, alphaStart, alphaEnd);
+                }
+            }
+        }
+    }
+
+    // calculate the lines through the point (x,y) for the angles [alphaStart, alphaEnd)
+    private void calc(int x, int y, int alphaStart, int alphaEnd) {
         double d;
         int dIndex;
         int index;
 
-        for (int alpha = 0; alpha < (this.cSteps - 1); alpha++) {
+        for (int alpha = alphaStart; alpha < alphaEnd; alpha++) {
             d = y * this.cCosA[alpha] - x * this.cSinA[alpha];
             dIndex = (int) (d - this.cDMin);
             index = dIndex * this.cSteps + alpha;
-            try {
+            if (index >= 0 && index < this.cHMatrix.length) {
                 this.cHMatrix[index] += 1;
-            } catch (Exception ex) {
-                System.out.println(ex.toString());
             }
         }
     }
@@ -159,9 +246,45 @@ public class ImageDeskew {
         this.cDCount = (int) (2.0 * ((this.cImage.getWidth() + this.cImage.getHeight())) / this.cDStep);
         this.cHMatrix = new int[this.cDCount * this.cSteps];
 
+        // black gray levels, converted to RGB like BufferedImage.getRGB does
+        if (this.cImage.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            ColorModel colorModel = this.cImage.getColorModel();
+            this.cBlackGrayLevels = new boolean[256];
+            for (int level = 0; level < 256; level++) {
+                this.cBlackGrayLevels[level] = ImageUtil.isBlack(colorModel.getRGB(new byte[] { (byte) level }));
+            }
+        }
+
     }
 
     private double getAlpha(int index) {
         return this.cAlphaStart + (index * this.cAlphaStep);
     }
+
+    /**
+     * Fork-join action processing a range in bands.
+     */
+    private static class BandAction extends RecursiveAction {
+        private final int start;
+        private final int end;
+        private final int bandSize;
+        private final BiConsumer<Integer, Integer> band;
+
+        BandAction(int start, int end, int bandSize, BiConsumer<Integer, Integer> band) {
+            this.start = start;
+            this.end = end;
+            this.bandSize = bandSize;
+            this.band = band;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= bandSize) {
+                band.accept(start, end);
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new BandAction(start, middle, bandSize, band), new BandAction(middle, end, bandSize, band));
+        }
+    }
 }
@@ -4,8 +4,11 @@ import com.google.common.hash.Hashing;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -13,6 +16,7 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Iterator;
 
 /**
@@ -22,25 +26,109 @@ import java.util.Iterator;
  */
 public class ImageUtil {
     /**
-     * Write a high quality JPEG.
-     * 
+     * Maximum number of pixels decoded to read a downscaled image (64MB in RGBA).
+     */
+    public static final long MAX_DECODED_PIXEL_COUNT = 4096L * 4096L;
+
+    /**
+     * Pixels darker than this luminance are black.
+     */
+    private static final int BLACK_LUMINANCE_CUTOFF = 140;
+
+    /**
+     * Read an image at a reduced resolution.
+     * Only every n-th pixel of every n-th row is decoded, so the memory used
+     * depends on the requested size and not on the size of the image.
+     *
+     * @param file Image file
+     * @param size Size of the largest side needed, the image returned is at least this size if the image allows it
+     * @return Image, or null if no ImageIO reader can decode it
+     * @throws IOException e
+     */
+    public static BufferedImage readImage(Path file, int size) throws IOException {
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(file.toFile())) {
+            if (imageInputStream == null) {
+                return null;
+            }
+            Iterator<ImageReader> iter = ImageIO.getImageReaders(imageInputStream);
+            if (!iter.hasNext()) {
+                return null;
+            }
+            ImageReader reader = iter.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0), size, MAX_DECODED_PIXEL_COUNT);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Returns the subsampling factor to read an image at a reduced resolution.
+     * The largest factor keeping the largest side at least of the requested size is chosen,
+     * unless the decoded image would have more pixels than allowed.
+     *
+     * @param width Image width
+     * @param height Image height
+     * @param size Size of the largest side needed
+     * @param maxPixelCount Maximum number of decoded pixels
+     * @return Subsampling factor, 1 to decode every pixel
+     */
+    public static int getSubsampling(int width, int height, int size, long maxPixelCount) {
+        int subsampling = Math.max(Math.max(width, height) / size, 1);
+        while ((long) ceilDiv(width, subsampling) * ceilDiv(height, subsampling) > maxPixelCount) {
+            subsampling++;
+        }
+        return subsampling;
+    }
+
+    /**
+     * Divide and round up.
+     *
+     * @param dividend Dividend
+     * @param divisor Divisor
+     * @return Quotient rounded up
+     */
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    /**
+     * Write an image.
+     * The alpha channel is stripped for the formats not supporting it.
+     *
      * @param image Image
+     * @param formatName Format name, "jpeg" or any format with an ImageIO writer
+     * @param quality Compression quality, between 0 and 1
      * @param outputStream Output stream
      * @throws IOException e
      */
-    public static void writeJpeg(BufferedImage image, OutputStream outputStream) throws IOException {
-        Iterator<ImageWriter> iter = ImageIO.getImageWritersByFormatName("jpeg");
+    public static void writeImage(BufferedImage image, String formatName, float quality, OutputStream outputStream) throws IOException {
+        Iterator<ImageWriter> iter = ImageIO.getImageWritersByFormatName(formatName);
+        if (!iter.hasNext()) {
+            throw new IOException("No writer for the image format: " + formatName);
+        }
         ImageWriter writer = null;
         ImageOutputStream imageOutputStream = null;
         try {
             writer = iter.next();
             ImageWriteParam iwp = writer.getDefaultWriteParam();
-            iwp.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            iwp.setCompressionQuality(1.f);
+            if (iwp.canWriteCompressed()) {
+                iwp.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (iwp.getCompressionTypes() != null && iwp.getCompressionType() == null) {
+                    // Lossy compression comes first
+                    iwp.setCompressionType(iwp.getCompressionTypes()[0]);
+                }
+                iwp.setCompressionQuality(quality);
+            }
             imageOutputStream = ImageIO.createImageOutputStream(outputStream);
             writer.setOutput(imageOutputStream);
 
-            if (image.getColorModel().hasAlpha()) {
+            if (image.getColorModel().hasAlpha() && "jpeg".equals(formatName)) {
                 // Strip alpha channel
                 BufferedImage noAlphaImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
                 Graphics graphics = noAlphaImage.getGraphics();
@@ -65,7 +153,17 @@ public class ImageUtil {
             }
         }
     }
-    
+
+    /**
+     * Returns true if images can be written in a format.
+     *
+     * @param formatName Format name
+     * @return True if an ImageIO writer is available
+     */
+    public static boolean isWriterAvailable(String formatName) {
+        return ImageIO.getImageWritersByFormatName(formatName).hasNext();
+    }
+
     /**
      * Compute Gravatar hash.
      * See https://en.gravatar.com/site/implement/hash/.
@@ -99,8 +197,17 @@ public class ImageUtil {
             return pixelRGBValue == 0;
         }
 
-        int luminanceValue = 140;
-        return isBlack(image, x, y, luminanceValue);
+        return isBlack(image, x, y, BLACK_LUMINANCE_CUTOFF);
+    }
+
+    /**
+     * Return true if a pixel is black.
+     *
+     * @param pixelRGBValue Pixel in the default RGB color model
+     * @return True if black
+     */
+    public static boolean isBlack(int pixelRGBValue) {
+        return getLuminance(pixelRGBValue) < BLACK_LUMINANCE_CUTOFF;
     }
 
     /**
@@ -113,10 +220,6 @@ public class ImageUtil {
      * @return True if black
      */
     private static boolean isBlack(BufferedImage image, int x, int y, int luminanceCutOff) {
-        int pixelRGBValue;
-        int r;
-        int g;
-        int b;
         double luminance = 0.0;
 
         // return white on areas outside of image boundaries
@@ -125,15 +228,24 @@ public class ImageUtil {
         }
 
         try {
-            pixelRGBValue = image.getRGB(x, y);
-            r = (pixelRGBValue >> 16) & 0xff;
-            g = (pixelRGBValue >> 8) & 0xff;
-            b = (pixelRGBValue) & 0xff;
-            luminance = (r * 0.299) + (g * 0.587) + (b * 0.114);
+            luminance = getLuminance(image.getRGB(x, y));
         } catch (Exception e) {
             // NOP
         }
 
         return luminance < luminanceCutOff;
     }
+
+    /**
+     * Returns the luminance of a pixel.
+     *
+     * @param pixelRGBValue Pixel in the default RGB color model
+     * @return Luminance, between 0 and 255
+     */
+    private static double getLuminance(int pixelRGBValue) {
+        int r = (pixelRGBValue >> 16) & 0xff;
+        int g = (pixelRGBValue >> 8) & 0xff;
+        int b = (pixelRGBValue) & 0xff;
+        return (r * 0.299) + (g * 0.587) + (b * 0.114);
+    }
 }
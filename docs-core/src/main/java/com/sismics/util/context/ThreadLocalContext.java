@@ -28,6 +28,11 @@ public class ThreadLocalContext {
      */
     private List<Object> asyncEventList = Lists.newArrayList();
 
+    /**
+     * List of tasks to run once the transaction of this request is over.
+     */
+    private List<Runnable> transactionEndHookList = Lists.newArrayList();
+
     /**
      * Private constructor.
      */
@@ -96,7 +101,28 @@ public class ThreadLocalContext {
         while (iterator.hasNext()) {
             Object asyncEvent = iterator.next();
             iterator.remove();
-            AppContext.getInstance().getAsyncEventBus().post(asyncEvent);
+            AppContext.getInstance().getProcessingScheduler().post(asyncEvent);
+        }
+    }
+
+    /**
+     * Add a task to run once the current transaction is committed or rolled back.
+     *
+     * @param hook Task
+     */
+    public void addTransactionEndHook(Runnable hook) {
+        transactionEndHookList.add(hook);
+    }
+
+    /**
+     * Run all pending transaction end tasks.
+     */
+    public void runTransactionEndHooks() {
+        Iterator<Runnable> iterator = transactionEndHookList.iterator();
+        while (iterator.hasNext()) {
+            Runnable hook = iterator.next();
+            iterator.remove();
+            hook.run();
         }
     }
 }
@@ -0,0 +1,3 @@
+create cached table T_PROCESSING_JOB ( PJB_ID_C varchar(36) not null, PJB_IDFILE_C varchar(36) not null, PJB_IDUSER_C varchar(36) not null, PJB_TYPE_C varchar(20) not null, PJB_LANGUAGE_C varchar(7), PJB_ATTEMPT_N int not null, PJB_CREATEDATE_D datetime not null, primary key (PJB_ID_C) );
+create index IDX_PJB_IDFILE_C on T_PROCESSING_JOB (PJB_IDFILE_C);
+update T_CONFIG set CFG_VALUE_C = '29' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,4 @@
+create cached table T_DOCUMENT_PERMISSION ( DPM_IDDOCUMENT_C varchar(36) not null, DPM_IDTARGET_C varchar(36) not null, DPM_PERM_C varchar(30) not null, primary key (DPM_IDDOCUMENT_C, DPM_IDTARGET_C, DPM_PERM_C) );
+create index IDX_DPM_IDTARGET_C on T_DOCUMENT_PERMISSION (DPM_IDTARGET_C);
+insert into T_DOCUMENT_PERMISSION (DPM_IDDOCUMENT_C, DPM_IDTARGET_C, DPM_PERM_C) select d.DOC_ID_C, a.ACL_TARGETID_C, a.ACL_PERM_C from T_DOCUMENT d join T_ACL a on a.ACL_SOURCEID_C = d.DOC_ID_C and a.ACL_DELETEDATE_D is null where d.DOC_DELETEDATE_D is null union select d.DOC_ID_C, a.ACL_TARGETID_C, a.ACL_PERM_C from T_DOCUMENT d join T_DOCUMENT_TAG dt on dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt.DOT_DELETEDATE_D is null join T_ACL a on a.ACL_SOURCEID_C = dt.DOT_IDTAG_C and a.ACL_DELETEDATE_D is null where d.DOC_DELETEDATE_D is null;
+update T_CONFIG set CFG_VALUE_C = '30' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,6 @@
+alter table T_FILE add column FIL_IDSTORAGE_C varchar(36);
+update T_FILE set FIL_IDSTORAGE_C = FIL_ID_C;
+alter table T_FILE alter column FIL_IDSTORAGE_C set not null;
+create index IDX_FIL_IDSTORAGE_C on T_FILE (FIL_IDSTORAGE_C);
+create index IDX_FIL_HASH_C on T_FILE (FIL_IDUSER_C, FIL_HASH_C);
+update T_CONFIG set CFG_VALUE_C = '32' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,97 @@
+package com.sismics.docs.core.dao.jpa;
+
+import com.google.common.collect.Sets;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.AclDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.DocumentPermissionDao;
+import com.sismics.docs.core.dao.TagDao;
+import com.sismics.docs.core.model.jpa.Acl;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.Tag;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests the document permissions.
+ *
+ * @author bgamard
+ */
+public class TestDocumentPermissionDao extends BaseTransactionalTest {
+    @Test
+    public void testDocumentPermission() {
+        AclDao aclDao = new AclDao();
+        TagDao tagDao = new TagDao();
+        DocumentDao documentDao = new DocumentDao();
+        DocumentPermissionDao documentPermissionDao = new DocumentPermissionDao();
+        List<String> targetIdList = Collections.singletonList("reader");
+
+        // Create a document readable by its creator only
+        Document document = new Document();
+        document.setTitle("Permissions");
+        document.setLanguage("eng");
+        document.setUserId("admin");
+        document.setCreateDate(new Date());
+        String documentId = documentDao.create(document, "admin");
+        aclDao.create(createAcl(documentId, "owner"), "admin");
+        Assert.assertTrue(aclDao.checkPermission(documentId, PermType.READ, Collections.singletonList("owner")));
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+
+        // Tag it with a tag readable by another target
+        Tag tag = new Tag();
+        tag.setName("shared");
+        tag.setColor("#ff0000");
+        tag.setUserId("admin");
+        String tagId = tagDao.create(tag, "admin");
+        aclDao.create(createAcl(tagId, "reader"), "admin");
+        tagDao.updateTagList(documentId, Sets.newHashSet(tagId));
+        Assert.assertTrue(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.WRITE, targetIdList));
+        Assert.assertEquals(Collections.singletonList(documentId), documentPermissionDao.getDocumentIdListBySourceId(tagId));
+        Assert.assertEquals(Sets.newHashSet("owner", "reader"),
+                Sets.newHashSet(documentPermissionDao.getTargetIdMap(Collections.singletonList(documentId), PermType.READ).get(documentId)));
+
+        // Remove the permission from the tag
+        aclDao.delete(tagId, PermType.READ, "reader", "admin", AclType.USER);
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+
+        // Give it back, then remove the tag from the document
+        aclDao.create(createAcl(tagId, "reader"), "admin");
+        Assert.assertTrue(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+        tagDao.updateTagList(documentId, Collections.emptySet());
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.READ, targetIdList));
+        Assert.assertEquals(0, documentPermissionDao.getMissingCount());
+        Assert.assertEquals(0, documentPermissionDao.getExtraCount());
+
+        // Delete the document
+        documentDao.delete(documentId, "admin");
+        Assert.assertFalse(aclDao.checkPermission(documentId, PermType.READ, Collections.singletonList("owner")));
+
+        // Rebuild everything
+        documentPermissionDao.rebuild();
+        Assert.assertEquals(0, documentPermissionDao.getMissingCount());
+        Assert.assertEquals(0, documentPermissionDao.getExtraCount());
+    }
+
+    /**
+     * Create a read ACL.
+     *
+     * @param sourceId Source ID
+     * @param targetId Target ID
+     * @return ACL
+     */
+    private Acl createAcl(String sourceId, String targetId) {
+        Acl acl = new Acl();
+        acl.setPerm(PermType.READ);
+        acl.setType(AclType.USER);
+        acl.setSourceId(sourceId);
+        acl.setTargetId(targetId);
+        return acl;
+    }
+}
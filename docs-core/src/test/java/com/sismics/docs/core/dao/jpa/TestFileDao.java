@@ -0,0 +1,80 @@
+package com.sismics.docs.core.dao.jpa;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.File;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Tests the files sharing stored data.
+ *
+ * @author bgamard
+ */
+public class TestFileDao extends BaseTransactionalTest {
+    @Test
+    public void testIdenticalFile() {
+        FileDao fileDao = new FileDao();
+
+        // Create a document
+        Document document = new Document();
+        document.setTitle("Identical files");
+        document.setLanguage("eng");
+        document.setUserId("admin");
+        document.setCreateDate(new Date());
+        String documentId = new DocumentDao().create(document, "admin");
+
+        // Create a file, owning its stored data
+        String file1Id = fileDao.create(createFile(documentId, "hash1"), "admin");
+        File file1 = fileDao.getActiveById(file1Id);
+        Assert.assertEquals(file1Id, file1.getStorageId());
+        Assert.assertEquals(1, fileDao.getStorageReferenceCount(file1Id));
+
+        // Create an identical file
+        File file2 = createFile(documentId, "hash1");
+        String file2Id = fileDao.create(file2, "admin");
+        File identicalFile = fileDao.getIdenticalFile("admin", "hash1", "eng", file2Id);
+        Assert.assertNotNull(identicalFile);
+        Assert.assertEquals(file1Id, identicalFile.getId());
+        file2.setStorageId(identicalFile.getStorageId());
+        fileDao.update(file2);
+        Assert.assertEquals(2, fileDao.getStorageReferenceCount(file1Id));
+
+        // No identical file for another content, user or language
+        Assert.assertNull(fileDao.getIdenticalFile("admin", "hash2", "eng", file2Id));
+        Assert.assertNull(fileDao.getIdenticalFile("other", "hash1", "eng", file2Id));
+        Assert.assertNull(fileDao.getIdenticalFile("admin", "hash1", "fra", file2Id));
+        Assert.assertNull(fileDao.getIdenticalFile("admin", "hash1", null, file2Id));
+
+        // The stored data is referenced until the last file is deleted
+        fileDao.delete(file1Id, "admin");
+        Assert.assertEquals(1, fileDao.getStorageReferenceCount(file1Id));
+        Assert.assertEquals(file2Id, fileDao.getIdenticalFile("admin", "hash1", "eng", file1Id).getId());
+        fileDao.delete(file2Id, "admin");
+        Assert.assertEquals(0, fileDao.getStorageReferenceCount(file1Id));
+        Assert.assertNull(fileDao.getIdenticalFile("admin", "hash1", "eng", file1Id));
+    }
+
+    /**
+     * Create a file.
+     *
+     * @param documentId Document ID
+     * @param hash Content hash
+     * @return File
+     */
+    private File createFile(String documentId, String hash) {
+        File file = new File();
+        file.setDocumentId(documentId);
+        file.setUserId("admin");
+        file.setMimeType("application/pdf");
+        file.setOrder(0);
+        file.setVersion(0);
+        file.setLatestVersion(true);
+        file.setHash(hash);
+        return file;
+    }
+}
@@ -0,0 +1,150 @@
+package com.sismics.docs.core.dao.jpa;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.AclDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.TagDao;
+import com.sismics.docs.core.dao.criteria.TagCriteria;
+import com.sismics.docs.core.dao.dto.TagDto;
+import com.sismics.docs.core.model.jpa.Acl;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.Tag;
+import com.sismics.docs.core.util.jpa.SortCriteria;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Tests the tag DAO.
+ *
+ * @author bgamard
+ */
+public class TestTagDao extends BaseTransactionalTest {
+    @Test
+    public void testFindByDocumentIdList() {
+        AclDao aclDao = new AclDao();
+        TagDao tagDao = new TagDao();
+
+        // Create tags readable by different targets, the first one by two targets of the same search
+        String alphaTagId = createTag("Alpha", null);
+        aclDao.create(createAcl(alphaTagId, "reader"), "admin");
+        aclDao.create(createAcl(alphaTagId, "group"), "admin");
+        String betaTagId = createTag("Beta", alphaTagId);
+        aclDao.create(createAcl(betaTagId, "reader"), "admin");
+        String gammaTagId = createTag("Gamma", null);
+        aclDao.create(createAcl(gammaTagId, "other"), "admin");
+
+        // Create documents with various tags
+        String documentId1 = createDocument(Sets.newHashSet(gammaTagId, betaTagId, alphaTagId));
+        String documentId2 = createDocument(Sets.newHashSet(gammaTagId));
+        String documentId3 = createDocument(Sets.newHashSet(betaTagId));
+        String documentId4 = createDocument(Collections.emptySet());
+        List<String> documentIdList = Lists.newArrayList(documentId1, documentId2, documentId3, documentId4);
+
+        // Same tags as the search of each document alone, for each reader
+        for (List<String> targetIdList : Lists.<List<String>>newArrayList(
+                Collections.singletonList("reader"),
+                Lists.newArrayList("reader", "group"),
+                Collections.singletonList("other"),
+                Collections.singletonList("nobody"),
+                Collections.singletonList("admin"))) {
+            Map<String, List<TagDto>> tagDtoMap = tagDao.findByDocumentIdList(documentIdList, targetIdList);
+            for (String documentId : documentIdList) {
+                List<TagDto> expectedList = tagDao.findByCriteria(new TagCriteria()
+                        .setTargetIdList(targetIdList)
+                        .setDocumentId(documentId), new SortCriteria(1, true));
+                Assert.assertEquals(toStringList(expectedList),
+                        toStringList(tagDtoMap.getOrDefault(documentId, Collections.emptyList())));
+                Assert.assertEquals(!expectedList.isEmpty(), tagDtoMap.containsKey(documentId));
+            }
+        }
+
+        // Only readable tags are returned
+        Map<String, List<TagDto>> tagDtoMap = tagDao.findByDocumentIdList(documentIdList, Collections.singletonList("reader"));
+        Assert.assertEquals(Lists.newArrayList("Alpha", "Beta"),
+                tagDtoMap.get(documentId1).stream().map(TagDto::getName).collect(Collectors.toList()));
+        Assert.assertFalse(tagDtoMap.containsKey(documentId2));
+
+        // A deleted tag is not returned anymore
+        tagDao.delete(betaTagId, "admin");
+        tagDtoMap = tagDao.findByDocumentIdList(documentIdList, Collections.singletonList("reader"));
+        Assert.assertEquals(Collections.singletonList("Alpha"),
+                tagDtoMap.get(documentId1).stream().map(TagDto::getName).collect(Collectors.toList()));
+        Assert.assertFalse(tagDtoMap.containsKey(documentId3));
+
+        // No document, no tag
+        Assert.assertTrue(tagDao.findByDocumentIdList(Collections.emptyList(), Collections.singletonList("reader")).isEmpty());
+    }
+
+    /**
+     * Returns the tags as comparable strings.
+     *
+     * @param tagDtoList Tags
+     * @return Strings of all the tag fields
+     */
+    private List<String> toStringList(List<TagDto> tagDtoList) {
+        return tagDtoList.stream()
+                .map(tagDto -> tagDto.getId() + "|" + tagDto.getName() + "|" + tagDto.getColor() + "|"
+                        + tagDto.getParentId() + "|" + tagDto.getCreator())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Create a tag.
+     *
+     * @param name Name
+     * @param parentId Parent tag ID
+     * @return Tag ID
+     */
+    private String createTag(String name, String parentId) {
+        Tag tag = new Tag();
+        tag.setName(name);
+        tag.setColor("#00ff00");
+        tag.setUserId("admin");
+        tag.setParentId(parentId);
+        return new TagDao().create(tag, "admin");
+    }
+
+    /**
+     * Create a document.
+     *
+     * @param tagIdSet Tag IDs
+     * @return Document ID
+     */
+    private String createDocument(Set<String> tagIdSet) {
+        Document document = new Document();
+        document.setTitle("Tags");
+        document.setLanguage("eng");
+        document.setUserId("admin");
+        document.setCreateDate(new Date());
+        String documentId = new DocumentDao().create(document, "admin");
+        new TagDao().updateTagList(documentId, tagIdSet);
+        return documentId;
+    }
+
+    /**
+     * Create a read ACL.
+     *
+     * @param sourceId Source ID
+     * @param targetId Target ID
+     * @return ACL
+     */
+    private Acl createAcl(String sourceId, String targetId) {
+        Acl acl = new Acl();
+        acl.setPerm(PermType.READ);
+        acl.setType(AclType.USER);
+        acl.setSourceId(sourceId);
+        acl.setTargetId(targetId);
+        return acl;
+    }
+}
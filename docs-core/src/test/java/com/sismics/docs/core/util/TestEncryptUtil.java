@@ -7,7 +7,9 @@ import org.junit.Test;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Arrays;
 
 /**
  * Test of the encryption utilities.
@@ -47,4 +49,28 @@ public class TestEncryptUtil {
         
         Assert.assertEquals(encryptedData.length, assertData.length);
     }
+
+    @Test
+    public void cachedKeyTest() throws Exception {
+        // The cached key must give the same result as the first derivation
+        byte[] assertData = ByteStreams.toByteArray(this.getClass().getResourceAsStream("/file/udhr.pdf"));
+        for (int i = 0; i < 2; i++) {
+            InputStream inputStream = EncryptionUtil.decryptInputStream(
+                    this.getClass().getResourceAsStream("/file/udhr_encrypted.pdf"), "OnceUponATime");
+            Assert.assertArrayEquals(assertData, ByteStreams.toByteArray(inputStream));
+        }
+    }
+
+    @Test
+    public void decryptStreamOffsetTest() throws Exception {
+        // Decrypt from any offset, reading the encrypted data from its block
+        byte[] assertData = ByteStreams.toByteArray(this.getClass().getResourceAsStream("/file/udhr.pdf"));
+        byte[] encryptedData = ByteStreams.toByteArray(this.getClass().getResourceAsStream("/file/udhr_encrypted.pdf"));
+        for (long offset : new long[] { 0, 5, 16, 33, 4096, assertData.length - 1 }) {
+            long blockOffset = EncryptionUtil.getBlockOffset(offset);
+            InputStream inputStream = EncryptionUtil.decryptInputStream(
+                    new ByteArrayInputStream(encryptedData, (int) blockOffset, encryptedData.length - (int) blockOffset), "OnceUponATime", offset);
+            Assert.assertArrayEquals(Arrays.copyOfRange(assertData, (int) offset, assertData.length), ByteStreams.toByteArray(inputStream));
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Resources;
 import com.sismics.docs.core.dao.dto.DocumentDto;
 import com.sismics.docs.core.model.jpa.File;
@@ -10,12 +11,14 @@ import com.sismics.util.mime.MimeTypeUtil;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.Date;
 
 /**
@@ -101,18 +104,21 @@ public class TestFileUtil {
             Files.copy(inputStream0, DirectoryUtil.getStorageDirectory().resolve("apollo_landscape"), StandardCopyOption.REPLACE_EXISTING);
             File file0 = new File();
             file0.setId("apollo_landscape");
+            file0.setStorageId("apollo_landscape");
             file0.setMimeType(MimeType.IMAGE_JPEG);
             
             // Second file
             Files.copy(inputStream1, DirectoryUtil.getStorageDirectory().resolve("apollo_portrait"), StandardCopyOption.REPLACE_EXISTING);
             File file1 = new File();
             file1.setId("apollo_portrait");
+            file1.setStorageId("apollo_portrait");
             file1.setMimeType(MimeType.IMAGE_JPEG);
             
             // Third file
             Files.copy(inputStream2, DirectoryUtil.getStorageDirectory().resolve("udhr"), StandardCopyOption.REPLACE_EXISTING);
             File file2 = new File();
             file2.setId("udhr");
+            file2.setStorageId("udhr");
             file2.setPrivateKey("OnceUponATime");
             file2.setMimeType(MimeType.APPLICATION_PDF);
             
@@ -120,18 +126,21 @@ public class TestFileUtil {
             Files.copy(inputStream3, DirectoryUtil.getStorageDirectory().resolve("document_docx"), StandardCopyOption.REPLACE_EXISTING);
             File file3 = new File();
             file3.setId("document_docx");
+            file3.setStorageId("document_docx");
             file3.setMimeType(MimeType.OFFICE_DOCUMENT);
             
             // Fifth file
             Files.copy(inputStream4, DirectoryUtil.getStorageDirectory().resolve("document_odt"), StandardCopyOption.REPLACE_EXISTING);
             File file4 = new File();
             file4.setId("document_odt");
+            file4.setStorageId("document_odt");
             file4.setMimeType(MimeType.OPEN_DOCUMENT_TEXT);
 
             // Sixth file
             Files.copy(inputStream5, DirectoryUtil.getStorageDirectory().resolve("document_pptx"), StandardCopyOption.REPLACE_EXISTING);
             File file5 = new File();
             file5.setId("document_pptx");
+            file5.setStorageId("document_pptx");
             file5.setMimeType(MimeType.OFFICE_PRESENTATION);
 
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -139,4 +148,38 @@ public class TestFileUtil {
             Assert.assertTrue(outputStream.toByteArray().length > 0);
         }
     }
+
+    @Test
+    public void uploadSessionTest() throws Exception {
+        // Upload a file in two chunks
+        byte[] data = Resources.toByteArray(Resources.getResource("file/udhr.pdf"));
+        UploadSession uploadSession = new UploadSession("admin", "OnceUponATime", null, null, "udhr.pdf", data.length);
+        try {
+            Assert.assertEquals(1000, uploadSession.append(new ByteArrayInputStream(data, 0, 1000)));
+            Assert.assertFalse(uploadSession.isReceived());
+
+            // A chunk larger than expected is rolled back
+            byte[] tooLarge = Arrays.copyOfRange(data, 1000, data.length + 100);
+            try {
+                uploadSession.append(new ByteArrayInputStream(tooLarge));
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals(1000, uploadSession.getOffset());
+            }
+            Assert.assertEquals(1000, Files.size(uploadSession.getUnencryptedFile()));
+
+            Assert.assertEquals(data.length, uploadSession.append(new ByteArrayInputStream(data, 1000, data.length - 1000)));
+            Assert.assertTrue(uploadSession.isReceived());
+            uploadSession.complete();
+
+            // Hashed and encrypted in the same pass as if received at once
+            Assert.assertEquals(Hashing.sha256().hashBytes(data).toString(), uploadSession.getHash());
+            Assert.assertArrayEquals(data, Files.readAllBytes(uploadSession.getUnencryptedFile()));
+            Assert.assertArrayEquals(Resources.toByteArray(Resources.getResource("file/udhr_encrypted.pdf")),
+                    Files.readAllBytes(uploadSession.getStoredFile()));
+        } finally {
+            uploadSession.delete();
+        }
+        Assert.assertFalse(Files.exists(uploadSession.getStoredFile()));
+    }
 }
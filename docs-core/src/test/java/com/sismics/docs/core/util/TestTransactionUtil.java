@@ -0,0 +1,80 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.model.jpa.Tag;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test of the transaction utilities.
+ *
+ * @author bgamard
+ */
+public class TestTransactionUtil extends BaseTransactionalTest {
+    @Test
+    public void testHandle() throws Exception {
+        // The hooks run after a commit
+        AtomicBoolean committedHookRun = new AtomicBoolean();
+        runInOtherThread(() -> TransactionUtil.handle(() ->
+                ThreadLocalContext.get().addTransactionEndHook(() -> committedHookRun.set(true))));
+        Assert.assertTrue(committedHookRun.get());
+
+        // The hooks run after a rollback
+        AtomicBoolean rolledBackHookRun = new AtomicBoolean();
+        runInOtherThread(() -> TransactionUtil.handle(() -> {
+            ThreadLocalContext.get().addTransactionEndHook(() -> rolledBackHookRun.set(true));
+            throw new IllegalStateException("Rollback");
+        }));
+        Assert.assertTrue(rolledBackHookRun.get());
+
+        // The hooks run and the context is cleaned up when the commit fails
+        AtomicBoolean failedHookRun = new AtomicBoolean();
+        AtomicReference<Exception> commitException = new AtomicReference<>();
+        AtomicBoolean contextCleaned = new AtomicBoolean();
+        runInOtherThread(() -> {
+            try {
+                TransactionUtil.handle(() -> {
+                    ThreadLocalContext.get().addTransactionEndHook(() -> failedHookRun.set(true));
+                    // A tag of an unknown user violates a foreign key when it is inserted at commit
+                    Tag tag = new Tag();
+                    tag.setId(UUID.randomUUID().toString());
+                    tag.setName("Orphan");
+                    tag.setColor("#ff0000");
+                    tag.setUserId(UUID.randomUUID().toString());
+                    tag.setCreateDate(new Date());
+                    ThreadLocalContext.get().getEntityManager().persist(tag);
+                });
+            } catch (Exception e) {
+                commitException.set(e);
+            }
+            contextCleaned.set(ThreadLocalContext.get().getEntityManager() == null);
+        });
+        Assert.assertNotNull(commitException.get());
+        Assert.assertTrue(failedHookRun.get());
+        Assert.assertTrue(contextCleaned.get());
+    }
+
+    /**
+     * Run a process in a thread without transactional context.
+     *
+     * @param runnable Process
+     * @throws InterruptedException e
+     */
+    private static void runInOtherThread(Runnable runnable) throws InterruptedException {
+        Thread thread = new Thread(() -> {
+            try {
+                runnable.run();
+            } finally {
+                ThreadLocalContext.cleanup();
+            }
+        });
+        thread.start();
+        thread.join();
+    }
+}
@@ -0,0 +1,297 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.AclDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.TagDao;
+import com.sismics.docs.core.dao.criteria.DocumentCriteria;
+import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.Acl;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.Tag;
+import com.sismics.docs.core.util.jpa.PaginatedList;
+import com.sismics.docs.core.util.jpa.PaginatedLists;
+import com.sismics.docs.core.util.jpa.SortCriteria;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Test of the document lists answered from the index, against the database queries.
+ *
+ * @author bgamard
+ */
+public class TestLuceneStructuredSearch extends BaseTransactionalTest {
+    /**
+     * Target allowed to read the documents of this test.
+     */
+    private final String targetId = UUID.randomUUID().toString();
+
+    @Test
+    public void structuredSearchTest() throws Exception {
+        LuceneIndexingHandler indexingHandler = (LuceneIndexingHandler) AppContext.getInstance().getIndexingHandler();
+        TagDao tagDao = new TagDao();
+        Date startDate = new Date();
+
+        // Create a tag hierarchy, the last tag gives its readers access to its documents
+        String parentTagId = createTag("Parent", null);
+        String childTagId = createTag("Child", parentTagId);
+        String otherParentTagId = createTag("OtherParent", null);
+        String sharedTagId = createTag("Shared", null);
+        new AclDao().create(createAcl(sharedTagId, targetId), "admin");
+
+        // Create documents, readable directly or through a tag
+        List<Document> documentList = Lists.newArrayList(
+                createDocument("Structured A", "eng", 1, "admin", targetId, childTagId, "application/pdf"),
+                createDocument("Structured B", "fra", 2, "admin", targetId, parentTagId, "text/plain"),
+                createDocument("Structured C", "deu", 3, "guest", targetId, null, "application/pdf"),
+                createDocument("Structured D", "spa", 4, "admin", targetId, otherParentTagId, null),
+                createDocument("Structured E", "ita", 5, "admin", UUID.randomUUID().toString(), sharedTagId, "image/png"),
+                createDocument("Structured F", "por", 6, "admin", UUID.randomUUID().toString(), parentTagId, "text/plain"));
+        for (Document document : documentList) {
+            indexingHandler.createDocument(document);
+        }
+        File contentFile = createFile(documentList.get(0).getId(), "admin", "application/pdf", "A lighthouse on the coast");
+        indexingHandler.createFile(contentFile);
+
+        try {
+            // All readable documents, and each criteria
+            assertSameResults(indexingHandler, 5, criteria -> { });
+            assertSameResults(indexingHandler, 2, criteria -> criteria.getTagIdList().add(Lists.newArrayList(parentTagId, childTagId)));
+            assertSameResults(indexingHandler, 1, criteria -> criteria.getTagIdList().add(Lists.newArrayList(childTagId)));
+            assertSameResults(indexingHandler, 3, criteria -> criteria.getExcludedTagIdList().add(Lists.newArrayList(parentTagId, childTagId)));
+            assertSameResults(indexingHandler, 3, criteria -> criteria.setCreateDateMin(createDate(3)));
+            assertSameResults(indexingHandler, 2, criteria -> criteria.setCreateDateMax(createDate(2)));
+            assertSameResults(indexingHandler, 5, criteria -> criteria.setUpdateDateMin(startDate));
+            assertSameResults(indexingHandler, 1, criteria -> criteria.setCreatorId("guest"));
+            assertSameResults(indexingHandler, 2, criteria -> criteria.setMimeType("application/pdf"));
+            assertSameResults(indexingHandler, 1, criteria -> criteria.setMimeType("image/png"));
+            assertSameResults(indexingHandler, 1, criteria -> criteria.setLanguage("spa"));
+            assertSameResults(indexingHandler, 1, criteria -> criteria.setTitle("Structured B"));
+            assertSameResults(indexingHandler, 5, criteria -> {
+                criteria.setSearch("Structured");
+                criteria.setFullSearch("");
+            });
+            assertSameResults(indexingHandler, 5, criteria -> {
+                criteria.setSearch("");
+                criteria.setFullSearch("Structured | C | D");
+            });
+            assertSameResults(indexingHandler, 3, criteria -> {
+                criteria.setSearch("A | B | E");
+                criteria.setFullSearch("");
+            });
+            // The content of the best matching file is highlighted
+            for (boolean fulltextInIndex : new boolean[] { true, false }) {
+                DocumentCriteria criteria = new DocumentCriteria();
+                criteria.setTargetIdList(Collections.singletonList(targetId));
+                criteria.setSearch("");
+                criteria.setFullSearch("lighthouse");
+                PaginatedList<DocumentDto> paginatedList = PaginatedLists.create(10, 0);
+                indexingHandler.setFulltextInIndex(fulltextInIndex);
+                indexingHandler.findByCriteria(paginatedList, new ArrayList<>(), null, criteria, null);
+                Assert.assertEquals(1, paginatedList.getResultCount());
+                Assert.assertEquals(documentList.get(0).getId(), paginatedList.getResultList().get(0).getId());
+                Assert.assertTrue(paginatedList.getResultList().get(0).getHighlight().contains("<strong>lighthouse</strong>"));
+            }
+
+            assertSameResults(indexingHandler, 1, criteria -> {
+                criteria.getTagIdList().add(Lists.newArrayList(parentTagId, childTagId));
+                criteria.setMimeType("text/plain");
+                criteria.setCreatorId("admin");
+            });
+
+            // Moving and renaming a tag changes the documents found through its ancestors
+            Tag childTag = tagDao.getById(childTagId);
+            childTag.setName("MovedChild");
+            childTag.setParentId(otherParentTagId);
+            tagDao.update(childTag, "admin");
+            indexingHandler.updateTag(childTagId);
+            assertSameResults(indexingHandler, 1, criteria -> criteria.getTagIdList().add(Lists.newArrayList(parentTagId)));
+            assertSameResults(indexingHandler, 2, criteria -> criteria.getTagIdList().add(Lists.newArrayList(otherParentTagId, childTagId)));
+            assertSameResults(indexingHandler, 1, criteria -> criteria.getTagIdList().add(Lists.newArrayList(childTagId)));
+
+            // A revoked permission hides the document before its indexed targets are updated
+            String revokedDocumentId = documentList.get(2).getId();
+            Assert.assertTrue(findIdList(indexingHandler, true, criteria -> { }, new SortCriteria(3, true), 0, 10).contains(revokedDocumentId));
+            new AclDao().delete(revokedDocumentId, PermType.READ, targetId, "guest", AclType.USER);
+            DocumentCriteria criteria = new DocumentCriteria();
+            criteria.setTargetIdList(Collections.singletonList(targetId));
+            PaginatedList<DocumentDto> paginatedList = PaginatedLists.create(10, 0);
+            indexingHandler.setStructuredSearch(true);
+            indexingHandler.findByCriteria(paginatedList, new ArrayList<>(), null, criteria, new SortCriteria(3, true));
+            Assert.assertEquals(4, paginatedList.getResultList().size());
+            Assert.assertFalse(paginatedList.getResultList().stream().anyMatch(documentDto -> documentDto.getId().equals(revokedDocumentId)));
+        } finally {
+            indexingHandler.setStructuredSearch(false);
+            indexingHandler.setFulltextInIndex(true);
+            for (Document document : documentList) {
+                indexingHandler.deleteDocument(document.getId());
+            }
+            indexingHandler.deleteDocument(contentFile.getId());
+        }
+    }
+
+    /**
+     * Run the same search from the database and from the index, with each sort order.
+     *
+     * @param indexingHandler Indexing handler
+     * @param expectedCount Expected number of documents
+     * @param criteriaBuilder Fills the search criteria
+     * @throws Exception e
+     */
+    private void assertSameResults(LuceneIndexingHandler indexingHandler, int expectedCount, Consumer<DocumentCriteria> criteriaBuilder) throws Exception {
+        for (SortCriteria sortCriteria : Lists.newArrayList(null, new SortCriteria(0, true), new SortCriteria(1, false),
+                new SortCriteria(3, true), new SortCriteria(3, false), new SortCriteria(4, true))) {
+            List<String> databaseIdList = findIdList(indexingHandler, false, criteriaBuilder, sortCriteria, 0, 10);
+            List<String> indexIdList = findIdList(indexingHandler, true, criteriaBuilder, sortCriteria, 0, 10);
+            Assert.assertEquals(expectedCount, databaseIdList.size());
+            DocumentCriteria probeCriteria = new DocumentCriteria();
+            criteriaBuilder.accept(probeCriteria);
+            if (sortCriteria == null && probeCriteria.getSearch() == null) {
+                // Without sort criteria nor fulltext search, the database returns the documents in any order
+                Assert.assertEquals(Sets.newHashSet(databaseIdList), Sets.newHashSet(indexIdList));
+            } else {
+                Assert.assertEquals(databaseIdList, indexIdList);
+
+                // The second page starts at the same document
+                Assert.assertEquals(databaseIdList.subList(Math.min(2, expectedCount), expectedCount),
+                        findIdList(indexingHandler, true, criteriaBuilder, sortCriteria, 2, 10));
+            }
+        }
+    }
+
+    /**
+     * Returns the IDs of the documents found by a search.
+     *
+     * @param indexingHandler Indexing handler
+     * @param structuredSearch True to search in the index only
+     * @param criteriaBuilder Fills the search criteria
+     * @param sortCriteria Sort criteria
+     * @param offset Offset of the page
+     * @param limit Size of the page
+     * @return Document IDs
+     * @throws Exception e
+     */
+    private List<String> findIdList(LuceneIndexingHandler indexingHandler, boolean structuredSearch, Consumer<DocumentCriteria> criteriaBuilder,
+                                    SortCriteria sortCriteria, int offset, int limit) throws Exception {
+        DocumentCriteria criteria = new DocumentCriteria();
+        criteria.setTargetIdList(Collections.singletonList(targetId));
+        criteriaBuilder.accept(criteria);
+        PaginatedList<DocumentDto> paginatedList = PaginatedLists.create(limit, offset);
+        indexingHandler.setStructuredSearch(structuredSearch);
+        indexingHandler.setFulltextInIndex(structuredSearch);
+        indexingHandler.findByCriteria(paginatedList, new ArrayList<>(), null, criteria, sortCriteria);
+        List<String> idList = paginatedList.getResultList().stream()
+                .map(DocumentDto::getId)
+                .collect(Collectors.toList());
+        Assert.assertEquals(Math.max(Math.min(paginatedList.getResultCount(), offset + limit) - offset, 0), idList.size());
+        return idList;
+    }
+
+    /**
+     * Create a tag.
+     *
+     * @param name Name
+     * @param parentId Parent tag ID
+     * @return Tag ID
+     */
+    private String createTag(String name, String parentId) {
+        Tag tag = new Tag();
+        tag.setName(name);
+        tag.setColor("#ff0000");
+        tag.setUserId("admin");
+        tag.setParentId(parentId);
+        return new TagDao().create(tag, "admin");
+    }
+
+    /**
+     * Create a document.
+     *
+     * @param title Title
+     * @param language Language
+     * @param month Month of the creation date
+     * @param userId Creator ID
+     * @param readerId Target allowed to read the document
+     * @param tagId Tag ID
+     * @param mimeType MIME type of its file
+     * @return Document
+     */
+    private Document createDocument(String title, String language, int month, String userId, String readerId, String tagId, String mimeType) {
+        Document document = new Document();
+        document.setTitle(title);
+        document.setLanguage(language);
+        document.setUserId(userId);
+        document.setCreateDate(createDate(month));
+        String documentId = new DocumentDao().create(document, userId);
+        new AclDao().create(createAcl(documentId, readerId), userId);
+        if (tagId != null) {
+            new TagDao().updateTagList(documentId, Sets.newHashSet(tagId));
+        }
+        if (mimeType != null) {
+            createFile(documentId, userId, mimeType, null);
+        }
+        return document;
+    }
+
+    /**
+     * Create a file.
+     *
+     * @param documentId Document ID
+     * @param userId Creator ID
+     * @param mimeType MIME type
+     * @param content Content
+     * @return File
+     */
+    private File createFile(String documentId, String userId, String mimeType, String content) {
+        File file = new File();
+        file.setDocumentId(documentId);
+        file.setUserId(userId);
+        file.setMimeType(mimeType);
+        file.setContent(content);
+        file.setOrder(0);
+        file.setVersion(0);
+        file.setLatestVersion(true);
+        new FileDao().create(file, userId);
+        return file;
+    }
+
+    /**
+     * Returns a creation date.
+     *
+     * @param month Month
+     * @return Date
+     */
+    private static Date createDate(int month) {
+        return new Date(1577836800000L + (month - 1) * 31L * 24 * 3600 * 1000);
+    }
+
+    /**
+     * Create a read ACL.
+     *
+     * @param sourceId Source ID
+     * @param targetId Target ID
+     * @return ACL
+     */
+    private static Acl createAcl(String sourceId, String targetId) {
+        Acl acl = new Acl();
+        acl.setPerm(PermType.READ);
+        acl.setType(AclType.USER);
+        acl.setSourceId(sourceId);
+        acl.setTargetId(targetId);
+        return acl;
+    }
+}
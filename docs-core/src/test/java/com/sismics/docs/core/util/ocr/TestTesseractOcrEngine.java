@@ -0,0 +1,65 @@
+package com.sismics.docs.core.util.ocr;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Test of the tesseract OCR engine, with shell workers.
+ *
+ * @author bgamard
+ */
+public class TestTesseractOcrEngine {
+    @Test
+    public void ocrTest() throws Exception {
+        TesseractOcrEngine ocrEngine = new TesseractOcrEngine(2, 2) {
+            @Override
+            protected List<String> getCommand(String language) {
+                if (language.equals("hang")) {
+                    return List.of("sh", "-c", "cat > /dev/null; exec sleep 60");
+                }
+                return List.of("sh", "-c", "cat > /dev/null; echo " + language);
+            }
+        };
+        BufferedImage image = new BufferedImage(100, 50, BufferedImage.TYPE_BYTE_GRAY);
+
+        try {
+            // The image is piped to a worker, then workers are kept ready for the language
+            Assert.assertEquals("eng\n", ocrEngine.ocr("eng", image));
+            waitForWorkerCount(ocrEngine, 2);
+            Assert.assertEquals("eng\n", ocrEngine.ocr("eng", image));
+            Assert.assertEquals("fra\n", ocrEngine.ocr("fra", image));
+            waitForWorkerCount(ocrEngine, 4);
+
+            // A worker hanging is killed
+            try {
+                ocrEngine.ocr("hang", image);
+                Assert.fail();
+            } catch (IOException e) {
+                // Timeout
+            }
+            waitForWorkerCount(ocrEngine, 6);
+        } finally {
+            // All workers are stopped
+            ocrEngine.shutDown();
+        }
+        waitForWorkerCount(ocrEngine, 0);
+    }
+
+    /**
+     * Wait for the workers to be started or stopped.
+     *
+     * @param ocrEngine OCR engine
+     * @param workerCount Expected number of workers
+     * @throws InterruptedException e
+     */
+    private void waitForWorkerCount(TesseractOcrEngine ocrEngine, int workerCount) throws InterruptedException {
+        for (int i = 0; i < 100 && ocrEngine.getWorkerCount() != workerCount; i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(workerCount, ocrEngine.getWorkerCount());
+    }
+}
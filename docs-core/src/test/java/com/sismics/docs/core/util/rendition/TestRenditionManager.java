@@ -0,0 +1,139 @@
+package com.sismics.docs.core.util.rendition;
+
+import com.google.common.io.Resources;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.storage.StorageBackend;
+import com.sismics.util.mime.MimeType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * Test of the file renditions.
+ *
+ * @author bgamard
+ */
+public class TestRenditionManager extends BaseTransactionalTest {
+    @Test
+    public void getSizeTest() {
+        Assert.assertEquals(1280, RenditionManager.getSize("web").intValue());
+        Assert.assertEquals(256, RenditionManager.getSize("thumb").intValue());
+        Assert.assertEquals(64, RenditionManager.getSize("1").intValue());
+        Assert.assertEquals(256, RenditionManager.getSize("256").intValue());
+        Assert.assertEquals(320, RenditionManager.getSize("257").intValue());
+        Assert.assertEquals(1280, RenditionManager.getSize("5000").intValue());
+        Assert.assertNull(RenditionManager.getSize("0"));
+        Assert.assertNull(RenditionManager.getSize("-64"));
+        Assert.assertNull(RenditionManager.getSize("large"));
+        Assert.assertNull(RenditionManager.getSize("99999999999"));
+    }
+
+    @Test
+    public void renditionTest() throws Exception {
+        StorageBackend storageBackend = AppContext.getInstance().getStorageBackend();
+        String privateKey = EncryptionUtil.generatePrivateKey();
+        Path directory = Files.createTempDirectory("rendition");
+        RenditionManager renditionManager = new RenditionManager(directory, 10_000);
+
+        // Write the web rendition of an image
+        File file = new File();
+        file.setId(UUID.randomUUID().toString());
+        file.setStorageId(file.getId());
+        file.setMimeType(MimeType.IMAGE_JPEG);
+        BufferedImage image = new BufferedImage(2000, 1500, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, 2000, 1500, Color.ORANGE));
+        graphics.fillRect(0, 0, 2000, 1500);
+        graphics.dispose();
+        renditionManager.writeWebRendition(image, file.getStorageId(), privateKey);
+        BufferedImage web = readRendition(renditionManager.getRendition(file, privateKey, RenditionManager.WEB_SIZE, false), privateKey);
+        Assert.assertEquals(RenditionManager.WEB_SIZE, web.getWidth());
+        Assert.assertEquals(960, web.getHeight());
+
+        // Smaller images are not upscaled
+        File smallFile = new File();
+        smallFile.setId(UUID.randomUUID().toString());
+        smallFile.setStorageId(smallFile.getId());
+        renditionManager.writeWebRendition(ImageIO.read(Resources.getResource("file/apollo_landscape.jpg")), smallFile.getStorageId(), privateKey);
+        BufferedImage smallWeb = readRendition(renditionManager.getRendition(smallFile, privateKey, RenditionManager.WEB_SIZE, false), privateKey);
+        Assert.assertTrue(getSize(smallWeb) < RenditionManager.WEB_SIZE);
+        storageBackend.delete(smallFile.getStorageId() + "_web");
+
+        // Smaller renditions are downscaled on demand and cached
+        Rendition thumb = renditionManager.getRendition(file, privateKey, RenditionManager.THUMB_SIZE, false);
+        Assert.assertEquals(MimeType.IMAGE_JPEG, thumb.getMimeType());
+        Assert.assertTrue(Files.exists(directory.resolve(thumb.getKey())));
+        Assert.assertEquals(RenditionManager.THUMB_SIZE, getSize(readRendition(thumb, privateKey)));
+        long thumbSize = renditionManager.getCacheSize();
+        Assert.assertEquals(Files.size(directory.resolve(thumb.getKey())), thumbSize);
+        Assert.assertEquals(thumb.getKey(), renditionManager.getRendition(file, privateKey, RenditionManager.THUMB_SIZE, false).getKey());
+        Assert.assertEquals(thumbSize, renditionManager.getCacheSize());
+
+        // The least recently used renditions are evicted when the cache is full
+        Rendition small = renditionManager.getRendition(file, privateKey, 64, false);
+        Assert.assertEquals(64, getSize(readRendition(small, privateKey)));
+        Rendition medium = renditionManager.getRendition(file, privateKey, 512, false);
+        Assert.assertFalse(Files.exists(directory.resolve(thumb.getKey())));
+        Assert.assertTrue(Files.exists(directory.resolve(small.getKey())));
+        Assert.assertTrue(Files.exists(directory.resolve(medium.getKey())));
+        Assert.assertEquals(Files.size(directory.resolve(small.getKey())) + Files.size(directory.resolve(medium.getKey())),
+                renditionManager.getCacheSize());
+
+        // The cached renditions are kept by the next run
+        RenditionManager nextRenditionManager = new RenditionManager(directory, 10_000);
+        Assert.assertEquals(renditionManager.getCacheSize(), nextRenditionManager.getCacheSize());
+
+        // A new web rendition evicts the renditions downscaled from the previous one
+        renditionManager.writeWebRendition(image, file.getStorageId(), privateKey);
+        Assert.assertEquals(0, renditionManager.getCacheSize());
+        Assert.assertFalse(Files.exists(directory.resolve(medium.getKey())));
+
+        // A rendition evicted before being read is generated again
+        Assert.assertEquals(512, getSize(readRendition(medium, privateKey)));
+        Assert.assertTrue(Files.exists(directory.resolve(medium.getKey())));
+        Assert.assertEquals(Files.size(directory.resolve(medium.getKey())), renditionManager.getCacheSize());
+
+        // No rendition for a file without web rendition nor format handler
+        File otherFile = new File();
+        otherFile.setId(UUID.randomUUID().toString());
+        otherFile.setStorageId(otherFile.getId());
+        otherFile.setMimeType(MimeType.APPLICATION_ZIP);
+        Assert.assertNull(renditionManager.getRendition(otherFile, privateKey, RenditionManager.THUMB_SIZE, false));
+
+        storageBackend.delete(file.getStorageId() + "_web");
+    }
+
+    /**
+     * Returns the largest dimension of an image.
+     *
+     * @param image Image
+     * @return Width or height
+     */
+    private int getSize(BufferedImage image) {
+        return Math.max(image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Read and decrypt a rendition.
+     *
+     * @param rendition Rendition
+     * @param privateKey Private key
+     * @return Image
+     * @throws Exception e
+     */
+    private BufferedImage readRendition(Rendition rendition, String privateKey) throws Exception {
+        try (InputStream inputStream = EncryptionUtil.decryptInputStream(rendition.read(0, -1), privateKey)) {
+            return ImageIO.read(inputStream);
+        }
+    }
+}
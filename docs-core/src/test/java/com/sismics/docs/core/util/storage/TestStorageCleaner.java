@@ -0,0 +1,126 @@
+package com.sismics.docs.core.util.storage;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Test of the storage garbage collector.
+ *
+ * @author bgamard
+ */
+public class TestStorageCleaner extends BaseTransactionalTest {
+    @Test
+    public void cleanTest() throws Exception {
+        FileDao fileDao = new FileDao();
+        StorageBackend storageBackend = AppContext.getInstance().getStorageBackend();
+        StorageCleaner storageCleaner = new StorageCleaner();
+        Assert.assertNull(storageCleaner.getPhase());
+
+        // Create a document with a file and a deleted file
+        Document document = new Document();
+        document.setTitle("Storage cleaning");
+        document.setLanguage("eng");
+        document.setUserId("admin");
+        document.setCreateDate(new Date());
+        String documentId = new DocumentDao().create(document, "admin");
+        String fileId = fileDao.create(createFile(documentId), "admin");
+        String deletedFileId = fileDao.create(createFile(documentId), "admin");
+        fileDao.delete(deletedFileId, "admin");
+
+        // Store the data of the file, the data of the deleted file and orphan data
+        String orphanKey = UUID.randomUUID().toString();
+        for (String key : new String[] { fileId, fileId + "_web", deletedFileId, orphanKey }) {
+            try (OutputStream outputStream = storageBackend.write(key)) {
+                outputStream.write(key.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        // Dry run, nothing is deleted
+        storageCleaner.clean(true);
+        Assert.assertFalse(storageCleaner.isRunning());
+        Assert.assertTrue(storageCleaner.isDryRun());
+        Assert.assertEquals(StorageCleaner.Phase.DONE, storageCleaner.getPhase());
+        Assert.assertNotNull(storageCleaner.getEndDate());
+        Assert.assertTrue(storageCleaner.getReferenceCount() >= 1);
+        Assert.assertTrue(storageCleaner.getCheckedCount() >= 4);
+        Assert.assertTrue(storageCleaner.getOrphanCount() >= 2);
+        Assert.assertTrue(storageCleaner.getOrphanSize() >= 72);
+        Assert.assertTrue(storageCleaner.getOrphanSampleList().contains(orphanKey));
+        Assert.assertTrue(storageCleaner.getOrphanSampleList().contains(deletedFileId));
+        Assert.assertFalse(storageCleaner.getOrphanSampleList().contains(fileId));
+        Assert.assertFalse(storageCleaner.getOrphanSampleList().contains(fileId + "_web"));
+        Assert.assertTrue(storageCleaner.getRowCountMap().get("deleted_files") >= 1);
+        Assert.assertTrue(storageBackend.exists(orphanKey));
+        Assert.assertTrue(storageBackend.exists(deletedFileId));
+        Assert.assertNotNull(ThreadLocalContext.get().getEntityManager().find(File.class, deletedFileId));
+
+        // Clean the storage, only the data and rows in use are kept
+        storageCleaner.clean(false);
+        Assert.assertFalse(storageCleaner.isDryRun());
+        Assert.assertEquals(StorageCleaner.Phase.DONE, storageCleaner.getPhase());
+        Assert.assertTrue(storageCleaner.getRowCountMap().get("deleted_files") >= 1);
+        Assert.assertFalse(storageBackend.exists(orphanKey));
+        Assert.assertFalse(storageBackend.exists(deletedFileId));
+        Assert.assertTrue(storageBackend.exists(fileId));
+        Assert.assertTrue(storageBackend.exists(fileId + "_web"));
+        Assert.assertNull(ThreadLocalContext.get().getEntityManager().find(File.class, deletedFileId));
+        Assert.assertNotNull(fileDao.getActiveById(fileId));
+
+        // Nothing left to clean
+        storageCleaner.clean(true);
+        Assert.assertEquals(0, storageCleaner.getRowCountMap().get("deleted_files").longValue());
+        Assert.assertFalse(storageCleaner.getOrphanSampleList().contains(orphanKey));
+
+        // The data of a file being created is kept until its transaction is over
+        Path unencryptedFile = AppContext.getInstance().getFileService().createTemporaryFile();
+        Files.write(unencryptedFile, "Storing".getBytes(StandardCharsets.UTF_8));
+        String storingFileId = FileUtil.createFile("storing.txt", null, unencryptedFile, 7, null, "admin", null);
+        String storingStorageId = fileDao.getActiveById(storingFileId).getStorageId();
+        Assert.assertTrue(FileUtil.isStoring(storingStorageId));
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.createNativeQuery("delete from T_PROCESSING_JOB where PJB_IDFILE_C = :fileId").setParameter("fileId", storingFileId).executeUpdate();
+        em.createNativeQuery("delete from T_FILE where FIL_ID_C = :fileId").setParameter("fileId", storingFileId).executeUpdate();
+        storageCleaner.clean(false);
+        Assert.assertTrue(storageBackend.exists(storingStorageId));
+        ThreadLocalContext.get().runTransactionEndHooks();
+        Assert.assertFalse(FileUtil.isStoring(storingStorageId));
+        storageCleaner.clean(false);
+        Assert.assertFalse(storageBackend.exists(storingStorageId));
+
+        storageBackend.delete(fileId);
+        storageBackend.delete(fileId + "_web");
+    }
+
+    /**
+     * Create a file.
+     *
+     * @param documentId Document ID
+     * @return File
+     */
+    private File createFile(String documentId) {
+        File file = new File();
+        file.setDocumentId(documentId);
+        file.setUserId("admin");
+        file.setMimeType("text/plain");
+        file.setOrder(0);
+        file.setVersion(0);
+        file.setLatestVersion(true);
+        return file;
+    }
+}
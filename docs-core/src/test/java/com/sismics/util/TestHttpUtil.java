@@ -0,0 +1,42 @@
+package com.sismics.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test of the HTTP utilities.
+ *
+ * @author bgamard
+ */
+public class TestHttpUtil {
+    @Test
+    public void parseRangeTest() {
+        // Whole representation
+        Assert.assertNull(HttpUtil.parseRange(null, 100));
+        Assert.assertNull(HttpUtil.parseRange("bytes=0-10,20-30", 100));
+        Assert.assertNull(HttpUtil.parseRange("items=0-10", 100));
+        Assert.assertNull(HttpUtil.parseRange("bytes=20-10", 100));
+        Assert.assertNull(HttpUtil.parseRange("bytes=-", 100));
+
+        // Satisfiable ranges
+        Assert.assertArrayEquals(new long[] { 0, 9 }, HttpUtil.parseRange("bytes=0-9", 100));
+        Assert.assertArrayEquals(new long[] { 50, 99 }, HttpUtil.parseRange("bytes=50-", 100));
+        Assert.assertArrayEquals(new long[] { 50, 99 }, HttpUtil.parseRange("bytes=50-1000", 100));
+        Assert.assertArrayEquals(new long[] { 90, 99 }, HttpUtil.parseRange("bytes=-10", 100));
+        Assert.assertArrayEquals(new long[] { 0, 99 }, HttpUtil.parseRange("bytes=-1000", 100));
+
+        // Unsatisfiable ranges
+        Assert.assertEquals(0, HttpUtil.parseRange("bytes=100-", 100).length);
+        Assert.assertEquals(0, HttpUtil.parseRange("bytes=-0", 100).length);
+        Assert.assertEquals(0, HttpUtil.parseRange("bytes=0-", 0).length);
+    }
+
+    @Test
+    public void isNotModifiedTest() {
+        Assert.assertFalse(HttpUtil.isNotModified(null, "\"file-1\""));
+        Assert.assertFalse(HttpUtil.isNotModified("\"file-0\"", "\"file-1\""));
+        Assert.assertTrue(HttpUtil.isNotModified("\"file-1\"", "\"file-1\""));
+        Assert.assertTrue(HttpUtil.isNotModified("\"file-0\", W/\"file-1\"", "\"file-1\""));
+        Assert.assertTrue(HttpUtil.isNotModified("*", "\"file-1\""));
+    }
+}
@@ -0,0 +1,71 @@
+package com.sismics.util;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+
+/**
+ * Test of the image deskew.
+ * The expected angles are the ones computed by the original pixel by pixel implementation.
+ *
+ * @author bgamard
+ */
+public class TestImageDeskew {
+    @Test
+    public void syntheticTest() {
+        Assert.assertEquals(2.431578947368424, new ImageDeskew(createTextImage(BufferedImage.TYPE_BYTE_GRAY)).getSkewAngle(), 0);
+        Assert.assertEquals(2.4210526315789496, new ImageDeskew(createTextImage(BufferedImage.TYPE_BYTE_BINARY)).getSkewAngle(), 0);
+        Assert.assertEquals(2.431578947368424, new ImageDeskew(createTextImage(BufferedImage.TYPE_INT_RGB)).getSkewAngle(), 0);
+    }
+
+    @Test
+    public void scannedTest() throws Exception {
+        // Scanned page rotated by 1.7°
+        BufferedImage image;
+        try (InputStream inputStream = ClassLoader.getSystemResourceAsStream("file/scanned.pdf");
+             PDDocument pdfDocument = PDDocument.load(inputStream)) {
+            PDResources resources = pdfDocument.getPage(0).getResources();
+            BufferedImage scan = ((PDImageXObject) resources.getXObject(resources.getXObjectNames().iterator().next())).getImage();
+            image = new BufferedImage(scan.getWidth(), scan.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D graphics = image.createGraphics();
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+            graphics.rotate(Math.toRadians(-1.7), image.getWidth() / 2.0, image.getHeight() / 2.0);
+            graphics.drawImage(scan, 0, 0, null);
+            graphics.dispose();
+        }
+        Assert.assertEquals(-1.7052631578947364, new ImageDeskew(image).getSkewAngle(), 0);
+
+        // Photo
+        Assert.assertEquals(-14.515789473684212, new ImageDeskew(ImageIO.read(ClassLoader.getSystemResource("file/apollo_portrait.jpg"))).getSkewAngle(), 0);
+    }
+
+    /**
+     * Create an A4 page at 300 DPI with lines of words rotated by 2.5°.
+     *
+     * @param type Image type
+     * @return Image
+     */
+    private BufferedImage createTextImage(int type) {
+        BufferedImage image = new BufferedImage(2480, 3508, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.rotate(Math.toRadians(2.5), image.getWidth() / 2.0, image.getHeight() / 2.0);
+        graphics.setColor(Color.BLACK);
+        for (int y = 200; y < 3300; y += 60) {
+            for (int x = 200; x < 2280; x += 70) {
+                graphics.fillRect(x, y, 50 + (x * 7 + y) % 15, 30);
+            }
+        }
+        graphics.dispose();
+        return image;
+    }
+}
@@ -1,8 +1,14 @@
 package com.sismics.util;
 
+import com.google.common.io.Resources;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /**
  * Test of the image utilities.
  * 
@@ -14,4 +20,36 @@ public class TestImageUtil {
     public void computeGravatarTest() {
         Assert.assertEquals("0bc83cb571cd1c50ba6f3e8a78ef1346", ImageUtil.computeGravatar("MyEmailAddress@example.com "));
     }
+
+    @Test
+    public void getSubsamplingTest() {
+        // Largest factor keeping the requested size
+        Assert.assertEquals(1, ImageUtil.getSubsampling(1000, 800, 1280, ImageUtil.MAX_DECODED_PIXEL_COUNT));
+        Assert.assertEquals(1, ImageUtil.getSubsampling(2000, 1500, 1280, ImageUtil.MAX_DECODED_PIXEL_COUNT));
+        Assert.assertEquals(10, ImageUtil.getSubsampling(9933, 14043, 1280, ImageUtil.MAX_DECODED_PIXEL_COUNT));
+
+        // The decoded pixel count is bounded
+        Assert.assertEquals(3, ImageUtil.getSubsampling(2000, 2000, 1000, 900_000));
+        Assert.assertEquals(130, ImageUtil.getSubsampling(4000, 4000, 100, 1000));
+    }
+
+    @Test
+    public void readImageTest() throws Exception {
+        Path file = Paths.get(Resources.getResource("file/apollo_portrait.jpg").toURI());
+        BufferedImage image = ImageIO.read(file.toFile());
+
+        // Large enough, the image is decoded as is
+        BufferedImage fullImage = ImageUtil.readImage(file, Math.max(image.getWidth(), image.getHeight()));
+        Assert.assertEquals(image.getWidth(), fullImage.getWidth());
+        Assert.assertEquals(image.getHeight(), fullImage.getHeight());
+
+        // Only the needed pixels are decoded
+        BufferedImage smallImage = ImageUtil.readImage(file, 100);
+        int size = Math.max(smallImage.getWidth(), smallImage.getHeight());
+        Assert.assertTrue(size >= 100);
+        Assert.assertTrue(size < 200);
+
+        // Not an image
+        Assert.assertNull(ImageUtil.readImage(Paths.get(Resources.getResource("file/document.txt").toURI()), 100));
+    }
 }
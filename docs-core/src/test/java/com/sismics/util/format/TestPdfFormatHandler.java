@@ -1,9 +1,12 @@
 package com.sismics.util.format;
 
 import com.sismics.docs.core.util.format.PdfFormatHandler;
+import com.sismics.docs.core.util.rendition.RenditionManager;
+import com.sismics.util.ImageUtil;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.awt.image.BufferedImage;
 import java.nio.file.Paths;
 
 /**
@@ -24,4 +27,22 @@ public class TestPdfFormatHandler {
         Assert.assertTrue(content.contains("Grundumsatzmessungen"));
         Assert.assertTrue(content.contains("ermitteln"));
     }
+
+    /**
+     * Test the thumbnail generation.
+     */
+    @Test
+    public void generateThumbnailTest() throws Exception {
+        // The first page is rendered at the size of the web rendition
+        PdfFormatHandler formatHandler = new PdfFormatHandler();
+        BufferedImage image = formatHandler.generateThumbnail(Paths.get(ClassLoader.getSystemResource("file/udhr.pdf").toURI()));
+        Assert.assertEquals(RenditionManager.WEB_SIZE, Math.max(image.getWidth(), image.getHeight()), 1);
+
+        // A0 at 1280 pixels
+        Assert.assertEquals(1280f / 3370f, PdfFormatHandler.getRenderScale(2384, 3370, 1280), 0.0001f);
+
+        // Extreme page formats don't render more pixels than allowed
+        float scale = PdfFormatHandler.getRenderScale(14400, 14400, 100_000);
+        Assert.assertTrue(14400 * scale * 14400 * scale <= ImageUtil.MAX_DECODED_PIXEL_COUNT * 1.001);
+    }
 }
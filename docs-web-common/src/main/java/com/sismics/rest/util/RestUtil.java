@@ -1,7 +1,7 @@
 package com.sismics.rest.util;
 
+import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.FileUtil;
 import com.sismics.rest.exception.ServerException;
 import com.sismics.util.JsonUtil;
@@ -9,7 +9,6 @@ import com.sismics.util.JsonUtil;
 import javax.json.Json;
 import javax.json.JsonObjectBuilder;
 import java.io.IOException;
-import java.nio.file.Files;
 
 /**
  * Rest utilities.
@@ -32,7 +31,7 @@ public class RestUtil {
                     .add("mimetype", fileDb.getMimeType())
                     .add("document_id", JsonUtil.nullable(fileDb.getDocumentId()))
                     .add("create_date", fileDb.getCreateDate().getTime())
-                    .add("size", Files.size(DirectoryUtil.getStorageDirectory().resolve(fileDb.getId())));
+                    .add("size", AppContext.getInstance().getStorageBackend().size(fileDb.getStorageId()));
         } catch (IOException e) {
             throw new ServerException("FileError", "Unable to get the size of " + fileDb.getId(), e);
         }
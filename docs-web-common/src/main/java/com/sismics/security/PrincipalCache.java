@@ -0,0 +1,165 @@
+package com.sismics.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.util.ConfigUtil;
+import com.sismics.util.context.ThreadLocalContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the authenticated principals, by authentication token.
+ * Saves the queries resolving the user, its groups and its base functions on each request.
+ * Entries must be invalidated when a token, a user or a group is modified.
+ * Each invalidation, applied again once the current transaction ends, starts a new generation:
+ * a principal read by a concurrent request before the commit is only cached if no
+ * invalidation happened since its authentication started.
+ *
+ * @author bgamard
+ */
+public class PrincipalCache {
+    /**
+     * Cached principals.
+     */
+    private static final Cache<String, Entry> cache = CacheBuilder.newBuilder()
+            .maximumSize(ConfigUtil.getEnvIntegerValue(Constants.PRINCIPAL_CACHE_SIZE_ENV, Constants.DEFAULT_PRINCIPAL_CACHE_SIZE))
+            .expireAfterWrite(Constants.PRINCIPAL_CACHE_DURATION_SECONDS, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+    /**
+     * Generation of the cache, incremented by each invalidation.
+     */
+    private static final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Returns a cached principal.
+     *
+     * @param authToken Authentication token
+     * @return Principal, null if not cached or expired
+     */
+    public static UserPrincipal get(String authToken) {
+        Entry entry = cache.getIfPresent(authToken);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expiryTime) {
+            cache.invalidate(authToken);
+            return null;
+        }
+        return entry.userPrincipal;
+    }
+
+    /**
+     * Returns the current generation, to be read before authenticating a principal.
+     *
+     * @return Generation
+     */
+    public static long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Cache a principal, unless an invalidation happened since its authentication started.
+     *
+     * @param authToken Authentication token
+     * @param userPrincipal Principal
+     * @param expiryTime Time the authentication token expires
+     * @param authenticationGeneration Generation read before authenticating the principal
+     */
+    public static void put(String authToken, UserPrincipal userPrincipal, long expiryTime, long authenticationGeneration) {
+        synchronized (generation) {
+            if (generation.get() == authenticationGeneration) {
+                cache.put(authToken, new Entry(userPrincipal, expiryTime));
+            }
+        }
+    }
+
+    /**
+     * Invalidate the principal of an authentication token.
+     *
+     * @param authToken Authentication token
+     */
+    public static void invalidateToken(String authToken) {
+        invalidate(() -> cache.invalidate(authToken));
+    }
+
+    /**
+     * Invalidate the principals of a user.
+     *
+     * @param userId User ID
+     */
+    public static void invalidateUser(String userId) {
+        invalidate(() -> cache.asMap().values().removeIf(entry -> entry.userPrincipal.getId().equals(userId)));
+    }
+
+    /**
+     * Invalidate all principals, when groups membership or roles change.
+     */
+    public static void invalidateAll() {
+        invalidate(cache::invalidateAll);
+    }
+
+    /**
+     * Run an invalidation now, and again after the current transaction is committed or rolled back.
+     *
+     * @param invalidation Invalidation
+     */
+    private static void invalidate(Runnable invalidation) {
+        Runnable generationInvalidation = () -> {
+            synchronized (generation) {
+                generation.incrementAndGet();
+                invalidation.run();
+            }
+        };
+        generationInvalidation.run();
+        ThreadLocalContext.get().addTransactionEndHook(generationInvalidation);
+    }
+
+    /**
+     * Returns the number of cached principals.
+     *
+     * @return Number of principals
+     */
+    public static long size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the cache statistics.
+     *
+     * @return Statistics
+     */
+    public static CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * Cached principal.
+     */
+    private static class Entry {
+        /**
+         * Principal.
+         */
+        private final UserPrincipal userPrincipal;
+
+        /**
+         * Time the authentication token expires.
+         */
+        private final long expiryTime;
+
+        /**
+         * Constructor.
+         *
+         * @param userPrincipal Principal
+         * @param expiryTime Time the authentication token expires
+         */
+        Entry(UserPrincipal userPrincipal, long expiryTime) {
+            this.userPrincipal = userPrincipal;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
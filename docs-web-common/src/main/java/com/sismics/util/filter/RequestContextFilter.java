@@ -106,6 +106,7 @@ public class RequestContextFilter implements Filter {
                         log.error("Error closing entity manager", ce);
                     }
                 }
+                context.runTransactionEndHooks();
                 throw new ServletException(e);
             }
         }
@@ -134,6 +135,8 @@ public class RequestContextFilter implements Filter {
             }
         }
 
+        context.runTransactionEndHooks();
+
         // Fire all pending async events after request transaction commit.
         // This way, all modifications done during this request are available in the listeners.
         context.fireAllAsyncEvents();
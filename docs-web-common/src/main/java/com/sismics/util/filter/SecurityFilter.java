@@ -8,6 +8,7 @@ import com.sismics.docs.core.dao.criteria.GroupCriteria;
 import com.sismics.docs.core.dao.dto.GroupDto;
 import com.sismics.docs.core.model.jpa.User;
 import com.sismics.security.AnonymousPrincipal;
+import com.sismics.security.PrincipalCache;
 import com.sismics.security.UserPrincipal;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
@@ -16,6 +17,7 @@ import org.slf4j.LoggerFactory;
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -34,6 +36,11 @@ public abstract class SecurityFilter implements Filter {
      */
     public static final String PRINCIPAL_ATTRIBUTE = "principal";
 
+    /**
+     * Name of the attribute containing the time until which the principal can be cached.
+     */
+    private static final String PRINCIPAL_CACHE_EXPIRY_ATTRIBUTE = "principal_cache_expiry";
+
     /**
      * Logger.
      */
@@ -86,13 +93,13 @@ public abstract class SecurityFilter implements Filter {
                 groupRoleIdSet.add(groupDto.getRoleId());
             }
         }
-        userPrincipal.setGroupIdSet(groupIdSet);
+        userPrincipal.setGroupIdSet(Collections.unmodifiableSet(groupIdSet));
 
         // Add base functions
         groupRoleIdSet.add(user.getRoleId());
         RoleBaseFunctionDao userBaseFunction = new RoleBaseFunctionDao();
         Set<String> baseFunctionSet = userBaseFunction.findByRoleId(groupRoleIdSet);
-        userPrincipal.setBaseFunctionSet(baseFunctionSet);
+        userPrincipal.setBaseFunctionSet(Collections.unmodifiableSet(baseFunctionSet));
 
         // Add email
         userPrincipal.setEmail(user.getEmail());
@@ -127,8 +134,22 @@ public abstract class SecurityFilter implements Filter {
         HttpServletRequest request = (HttpServletRequest) req;
 
         if (!hasIdentifiedUser(request)) {
-            User user = authenticate(request);
-            injectUser(request, user);
+            String cacheKey = getPrincipalCacheKey(request);
+            UserPrincipal cachedPrincipal = cacheKey == null ? null : PrincipalCache.get(cacheKey);
+            if (cachedPrincipal != null) {
+                request.setAttribute(PRINCIPAL_ATTRIBUTE, cachedPrincipal);
+            } else {
+                // Changes committed during the authentication prevent caching its principal
+                long cacheGeneration = PrincipalCache.getGeneration();
+                User user = authenticate(request);
+                injectUser(request, user);
+
+                // Cache the principal if the authentication method allows it
+                Object expiryTime = request.getAttribute(PRINCIPAL_CACHE_EXPIRY_ATTRIBUTE);
+                if (cacheKey != null && expiryTime != null && hasIdentifiedUser(request)) {
+                    PrincipalCache.put(cacheKey, (UserPrincipal) request.getAttribute(PRINCIPAL_ATTRIBUTE), (Long) expiryTime, cacheGeneration);
+                }
+            }
         }
 
         filterChain.doFilter(request, response);
@@ -142,4 +163,24 @@ public abstract class SecurityFilter implements Filter {
      */
     protected abstract User authenticate(HttpServletRequest request);
 
+    /**
+     * Returns the key of the principal in the principal cache.
+     *
+     * @param request HTTP request
+     * @return Cache key, null if the principal must not be cached
+     */
+    protected String getPrincipalCacheKey(HttpServletRequest request) {
+        return null;
+    }
+
+    /**
+     * Allows the principal authenticated by this request to be cached.
+     *
+     * @param request HTTP request
+     * @param expiryTime Time until which the principal is valid
+     */
+    protected void allowPrincipalCache(HttpServletRequest request, long expiryTime) {
+        request.setAttribute(PRINCIPAL_CACHE_EXPIRY_ATTRIBUTE, expiryTime);
+    }
+
 }
\ No newline at end of file
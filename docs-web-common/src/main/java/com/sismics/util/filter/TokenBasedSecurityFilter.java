@@ -73,14 +73,23 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
      * @return Token expired
      */
     private boolean isTokenExpired(AuthenticationToken authenticationToken) {
-        final long now = new Date().getTime();
+        return new Date().getTime() >= getTokenExpiryTime(authenticationToken);
+    }
+
+    /**
+     * Returns the time the token expires.
+     *
+     * @param authenticationToken Authentication token
+     * @return Expiry time
+     */
+    private long getTokenExpiryTime(AuthenticationToken authenticationToken) {
         final long creationDate = authenticationToken.getCreationDate().getTime();
         if (authenticationToken.isLongLasted()) {
-            return now >= creationDate + ((long) TOKEN_LONG_LIFETIME) * 1000L;
+            return creationDate + ((long) TOKEN_LONG_LIFETIME) * 1000L;
         } else {
             long date = authenticationToken.getLastConnectionDate() != null ?
                     authenticationToken.getLastConnectionDate().getTime() : creationDate;
-            return now >= date + ((long) TOKEN_SESSION_LIFETIME) * 1000L;
+            return date + ((long) TOKEN_SESSION_LIFETIME) * 1000L;
         }
     }
 
@@ -104,6 +113,12 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
             return null;
         }
 
+        allowPrincipalCache(request, getTokenExpiryTime(authToken));
         return new UserDao().getById(authToken.getUserId());
     }
+
+    @Override
+    protected String getPrincipalCacheKey(HttpServletRequest request) {
+        return extractAuthToken(request.getCookies());
+    }
 }
@@ -0,0 +1,99 @@
+package com.sismics.security;
+
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test of the principal cache.
+ *
+ * @author bgamard
+ */
+public class TestPrincipalCache {
+    @Test
+    public void testPutAndInvalidate() throws Exception {
+        UserPrincipal userPrincipal = new UserPrincipal("user1", "user1");
+        long expiryTime = System.currentTimeMillis() + 3600000L;
+
+        // A principal authenticated without concurrent change is cached
+        PrincipalCache.put("token1", userPrincipal, expiryTime, PrincipalCache.getGeneration());
+        Assert.assertSame(userPrincipal, PrincipalCache.get("token1"));
+
+        // Logout from another transaction
+        startTransaction(() -> PrincipalCache.invalidateToken("token1"), null, null).join();
+        Assert.assertNull(PrincipalCache.get("token1"));
+
+        // An expired token is not returned
+        PrincipalCache.put("token1", userPrincipal, System.currentTimeMillis() - 1, PrincipalCache.getGeneration());
+        Assert.assertNull(PrincipalCache.get("token1"));
+    }
+
+    @Test
+    public void testInvalidateCommittedDuringAuthentication() throws Exception {
+        UserPrincipal userPrincipal = new UserPrincipal("user2", "user2");
+        long expiryTime = System.currentTimeMillis() + 3600000L;
+
+        // The request starts authenticating, then the token is deleted and committed before the principal is cached
+        long generation = PrincipalCache.getGeneration();
+        startTransaction(() -> PrincipalCache.invalidateToken("token2"), null, null).join();
+        PrincipalCache.put("token2", userPrincipal, expiryTime, generation);
+        Assert.assertNull(PrincipalCache.get("token2"));
+    }
+
+    @Test
+    public void testInvalidateCommittedAfterAuthenticationRead() throws Exception {
+        UserPrincipal userPrincipal = new UserPrincipal("user3", "user3");
+        long expiryTime = System.currentTimeMillis() + 3600000L;
+
+        // The transaction removes the user from a group, but is not committed yet
+        CountDownLatch invalidated = new CountDownLatch(1);
+        CountDownLatch authenticated = new CountDownLatch(1);
+        Thread transaction = startTransaction(PrincipalCache::invalidateAll, invalidated, authenticated);
+        Assert.assertTrue(invalidated.await(10, TimeUnit.SECONDS));
+
+        // The request reads the committed data, still with the group
+        long generation = PrincipalCache.getGeneration();
+        authenticated.countDown();
+
+        // The transaction commits and runs its hooks before the request caches its principal
+        transaction.join();
+        PrincipalCache.put("token3", userPrincipal, expiryTime, generation);
+        Assert.assertNull(PrincipalCache.get("token3"));
+
+        // The next request caches the up to date principal
+        PrincipalCache.put("token3", userPrincipal, expiryTime, PrincipalCache.getGeneration());
+        Assert.assertSame(userPrincipal, PrincipalCache.get("token3"));
+    }
+
+    /**
+     * Start a transaction in another thread, invalidating the cache then ending.
+     *
+     * @param invalidation Invalidation in the transaction
+     * @param invalidated Counted down once invalidated, null to ignore
+     * @param commit Awaited before ending the transaction, null to end it immediately
+     * @return Transaction thread
+     */
+    private static Thread startTransaction(Runnable invalidation, CountDownLatch invalidated, CountDownLatch commit) {
+        Thread thread = new Thread(() -> {
+            try {
+                invalidation.run();
+                if (invalidated != null) {
+                    invalidated.countDown();
+                }
+                if (commit != null) {
+                    commit.await(10, TimeUnit.SECONDS);
+                }
+                ThreadLocalContext.get().runTransactionEndHooks();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                ThreadLocalContext.cleanup();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
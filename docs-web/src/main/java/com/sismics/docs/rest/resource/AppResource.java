@@ -1,20 +1,25 @@
 package com.sismics.docs.rest.resource;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheStats;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.constant.ProcessingLane;
 import com.sismics.docs.core.dao.ConfigDao;
 import com.sismics.docs.core.dao.DocumentDao;
-import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.DocumentPermissionDao;
 import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.event.CleanStorageAsyncEvent;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Config;
-import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.service.InboxService;
+import com.sismics.docs.core.service.ProcessingScheduler;
 import com.sismics.docs.core.util.ConfigUtil;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.authentication.LdapAuthenticationHandler;
+import com.sismics.docs.core.util.indexing.IndexRebuilder;
+import com.sismics.docs.core.util.indexing.IndexingHandler;
+import com.sismics.docs.core.util.storage.StorageCleaner;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.rest.constant.BaseFunction;
@@ -22,6 +27,7 @@ import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
 import com.sismics.rest.util.ValidationUtil;
+import com.sismics.security.PrincipalCache;
 import com.sismics.util.JsonUtil;
 import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.log4j.LogCriteria;
@@ -36,13 +42,8 @@ import org.slf4j.LoggerFactory;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
-import javax.persistence.EntityManager;
-import javax.persistence.Query;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Response;
-import java.io.IOException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
 import java.text.MessageFormat;
 import java.util.*;
 
@@ -69,12 +70,28 @@ public class AppResource extends BaseResource {
      * @apiSuccess {Boolean} guest_login True if guest login is enabled
      * @apiSuccess {String} default_language Default platform language
      * @apiSuccess {Number} queued_tasks Number of queued tasks waiting to be processed
+     * @apiSuccess {Object[]} processing_lanes Asynchronous processing lanes
+     * @apiSuccess {String} processing_lanes.name Lane name (THUMBNAIL, CONTENT, INDEXING or WEBHOOK)
+     * @apiSuccess {Number} processing_lanes.concurrency Number of workers
+     * @apiSuccess {Number} processing_lanes.queue_depth Number of tasks waiting to be processed
+     * @apiSuccess {Number} processing_lanes.active Number of tasks being processed
+     * @apiSuccess {Number} processing_lanes.completed Number of tasks processed
+     * @apiSuccess {Number} processing_lanes.wait_time Average time recent tasks waited in the queue (in milliseconds)
+     * @apiSuccess {Number} processing_lanes.run_time Average time recent tasks took to be processed (in milliseconds)
+     * @apiSuccess {Number} processing_lanes.blocked Number of times producers waited for room in the queue
+     * @apiSuccess {Object} principal_cache Cache of the authenticated users
+     * @apiSuccess {Number} principal_cache.size Number of cached users
+     * @apiSuccess {Number} principal_cache.hit_count Number of requests authenticated from the cache
+     * @apiSuccess {Number} principal_cache.miss_count Number of requests authenticated from the database
      * @apiSuccess {String} total_memory Allocated JVM memory (in bytes)
      * @apiSuccess {String} free_memory Free JVM memory (in bytes)
+     * @apiSuccess {String} index_heap_size Size of the search index on the JVM heap (in bytes)
+     * @apiSuccess {String} index_off_heap_size Size of the search index outside the JVM heap (in bytes)
      * @apiSuccess {String} document_count Number of documents
      * @apiSuccess {String} active_user_count Number of active users
      * @apiSuccess {String} global_storage_current Global storage currently used (in bytes)
      * @apiSuccess {String} global_storage_quota Maximum global storage (in bytes)
+     * @apiError (server) IndexingError Error reading the index size
      * @apiPermission none
      * @apiVersion 1.5.0
      *
@@ -94,15 +111,46 @@ public class AppResource extends BaseResource {
         if (!Strings.isNullOrEmpty(globalQuotaStr)) {
             globalQuota = Long.valueOf(globalQuotaStr);
         }
-
+        IndexingHandler indexingHandler = AppContext.getInstance().getIndexingHandler();
+        long indexHeapSize;
+        long indexOffHeapSize;
+        try {
+            indexHeapSize = indexingHandler.getHeapIndexSize();
+            indexOffHeapSize = indexingHandler.getOffHeapIndexSize();
+        } catch (Exception e) {
+            throw new ServerException("IndexingError", "Error reading the index size", e);
+        }
+
+        ProcessingScheduler processingScheduler = AppContext.getInstance().getProcessingScheduler();
+        JsonArrayBuilder processingLanes = Json.createArrayBuilder();
+        for (ProcessingLane lane : ProcessingLane.values()) {
+            processingLanes.add(Json.createObjectBuilder()
+                    .add("name", lane.name())
+                    .add("concurrency", processingScheduler.getConcurrency(lane))
+                    .add("queue_depth", processingScheduler.getQueueDepth(lane))
+                    .add("active", processingScheduler.getActiveCount(lane))
+                    .add("completed", processingScheduler.getCompletedCount(lane))
+                    .add("wait_time", processingScheduler.getAverageWaitTime(lane))
+                    .add("run_time", processingScheduler.getAverageRunTime(lane))
+                    .add("blocked", processingScheduler.getBlockedCount(lane)));
+        }
+
+        CacheStats principalCacheStats = PrincipalCache.stats();
         JsonObjectBuilder response = Json.createObjectBuilder()
                 .add("current_version", currentVersion.replace("-SNAPSHOT", ""))
                 .add("min_version", minVersion)
                 .add("guest_login", guestLogin)
                 .add("default_language", defaultLanguage)
-                .add("queued_tasks", AppContext.getInstance().getQueuedTaskCount())
+                .add("queued_tasks", processingScheduler.getQueuedTaskCount())
+                .add("processing_lanes", processingLanes)
+                .add("principal_cache", Json.createObjectBuilder()
+                        .add("size", PrincipalCache.size())
+                        .add("hit_count", principalCacheStats.hitCount())
+                        .add("miss_count", principalCacheStats.missCount()))
                 .add("total_memory", Runtime.getRuntime().totalMemory())
                 .add("free_memory", Runtime.getRuntime().freeMemory())
+                .add("index_heap_size", indexHeapSize)
+                .add("index_off_heap_size", indexOffHeapSize)
                 .add("document_count", documentDao.getDocumentCount())
                 .add("active_user_count", userDao.getActiveUserCount())
                 .add("global_storage_current", userDao.getGlobalStorageCurrent());
@@ -568,7 +616,43 @@ public class AppResource extends BaseResource {
     }
     
     /**
-     * Destroy and rebuild the search index.
+     * Get the progress of the search index rebuild.
+     *
+     * @api {get} /app/batch/reindex Get the progress of the search index rebuild
+     * @apiName GetAppBatchReindex
+     * @apiGroup App
+     * @apiSuccess {Boolean} running True if a rebuild is running
+     * @apiSuccess {Number} total Number of documents and files to index
+     * @apiSuccess {Number} indexed Number of documents and files indexed
+     * @apiSuccess {Number} throughput Documents and files indexed per second
+     * @apiSuccess {Number} eta Estimated time before the rebuild is done (in seconds, -1 if unknown)
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.10.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("batch/reindex")
+    public Response getBatchReindex() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        IndexRebuilder indexRebuilder = AppContext.getInstance().getIndexRebuilder();
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("running", indexRebuilder.isRunning())
+                .add("total", indexRebuilder.getTotalCount())
+                .add("indexed", indexRebuilder.getIndexedCount())
+                .add("throughput", indexRebuilder.getThroughput())
+                .add("eta", indexRebuilder.getEta());
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Rebuild the search index.
+     * Searches are served from the current index until the rebuild is done.
      *
      * @api {post} /app/batch/reindex Rebuild the search index
      * @apiName PostAppBatchReindex
@@ -598,118 +682,154 @@ public class AppResource extends BaseResource {
         return Response.ok().entity(response.build()).build();
     }
     
+    /**
+     * Check the document permissions against the ACLs.
+     *
+     * @api {get} /app/batch/permissions Check the document permissions
+     * @apiDescription Document permissions are computed from the ACLs of the documents and their tags.
+     * @apiName GetAppBatchPermissions
+     * @apiGroup App
+     * @apiSuccess {Number} missing Number of permissions given by the ACLs but missing
+     * @apiSuccess {Number} extra Number of permissions not given by the ACLs anymore
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.10.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("batch/permissions")
+    public Response getBatchPermissions() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        DocumentPermissionDao documentPermissionDao = new DocumentPermissionDao();
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("missing", documentPermissionDao.getMissingCount())
+                .add("extra", documentPermissionDao.getExtraCount());
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Rebuild the document permissions from the ACLs.
+     *
+     * @api {post} /app/batch/permissions Rebuild the document permissions
+     * @apiName PostAppBatchPermissions
+     * @apiGroup App
+     * @apiSuccess {String} status Status OK
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.10.0
+     *
+     * @return Response
+     */
+    @POST
+    @Path("batch/permissions")
+    public Response batchPermissions() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        new DocumentPermissionDao().rebuild();
+
+        // Always return OK
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("status", "ok");
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Get the progress and report of the storage cleaning.
+     *
+     * @api {get} /app/batch/clean_storage Get the progress and report of the storage cleaning
+     * @apiName GetAppBatchCleanStorage
+     * @apiGroup App
+     * @apiSuccess {Boolean} running True if a cleaning is running
+     * @apiSuccess {Boolean} dry_run True if the last cleaning only reports what would be cleaned
+     * @apiSuccess {String="DATABASE","REFERENCES","STORAGE","DONE"} phase Phase of the last cleaning (absent if none has run)
+     * @apiSuccess {Number} start_date Start date of the last cleaning (timestamp)
+     * @apiSuccess {Number} end_date End date of the last cleaning (timestamp)
+     * @apiSuccess {Object} rows Number of rows cleaned, or to clean, by cleanup name
+     * @apiSuccess {Number} references Number of storage IDs in use
+     * @apiSuccess {Number} checked Number of stored data checked
+     * @apiSuccess {Number} orphans Number of orphan stored data
+     * @apiSuccess {Number} orphan_size Size of the orphan stored data (in bytes)
+     * @apiSuccess {String[]} orphan_sample First orphan stored data
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.10.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("batch/clean_storage")
+    public Response getBatchCleanStorage() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        StorageCleaner storageCleaner = AppContext.getInstance().getStorageCleaner();
+        JsonObjectBuilder rows = Json.createObjectBuilder();
+        for (Map.Entry<String, Long> entry : storageCleaner.getRowCountMap().entrySet()) {
+            rows.add(entry.getKey(), entry.getValue());
+        }
+        JsonArrayBuilder orphanSample = Json.createArrayBuilder();
+        for (String key : storageCleaner.getOrphanSampleList()) {
+            orphanSample.add(key);
+        }
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("running", storageCleaner.isRunning())
+                .add("dry_run", storageCleaner.isDryRun())
+                .add("rows", rows)
+                .add("references", storageCleaner.getReferenceCount())
+                .add("checked", storageCleaner.getCheckedCount())
+                .add("orphans", storageCleaner.getOrphanCount())
+                .add("orphan_size", storageCleaner.getOrphanSize())
+                .add("orphan_sample", orphanSample);
+        if (storageCleaner.getPhase() != null) {
+            response.add("phase", storageCleaner.getPhase().name());
+        }
+        if (storageCleaner.getStartDate() != null) {
+            response.add("start_date", storageCleaner.getStartDate().getTime());
+        }
+        if (storageCleaner.getEndDate() != null) {
+            response.add("end_date", storageCleaner.getEndDate().getTime());
+        }
+        return Response.ok().entity(response.build()).build();
+    }
+
     /**
      * Clean storage.
+     * The cleaning runs in background, its progress and report are returned by GET /app/batch/clean_storage.
      *
      * @api {post} /app/batch/clean_storage Clean the file and DB storage
      * @apiName PostAppBatchCleanStorage
      * @apiGroup App
+     * @apiParam {Boolean} dry_run If true, only report what would be cleaned
      * @apiSuccess {String} status Status OK
      * @apiError (client) ForbiddenError Access denied
-     * @apiError (server) FileError Error deleting orphan files
      * @apiPermission admin
      * @apiVersion 1.5.0
      *
+     * @param dryRun True to only report what would be cleaned
      * @return Response
      */
     @POST
     @Path("batch/clean_storage")
-    public Response batchCleanStorage() {
+    public Response batchCleanStorage(@FormParam("dry_run") Boolean dryRun) {
         if (!authenticate()) {
             throw new ForbiddenClientException();
         }
         checkBaseFunction(BaseFunction.ADMIN);
-        
-        // Get all files
-        FileDao fileDao = new FileDao();
-        List<File> fileList = fileDao.findAll(0, Integer.MAX_VALUE);
-        Map<String, File> fileMap = new HashMap<>();
-        for (File file : fileList) {
-            fileMap.put(file.getId(), file);
-        }
-        log.info("Checking {} files", fileMap.size());
-        
-        // Check if each stored file is valid
-        try (DirectoryStream<java.nio.file.Path> storedFileList = Files.newDirectoryStream(DirectoryUtil.getStorageDirectory())) {
-            for (java.nio.file.Path storedFile : storedFileList) {
-                String fileName = storedFile.getFileName().toString();
-                String[] fileNameArray = fileName.split("_");
-                if (!fileMap.containsKey(fileNameArray[0])) {
-                    log.info("Deleting orphan files at this location: {}", storedFile);
-                    Files.delete(storedFile);
-                }
-            }
-        } catch (IOException e) {
-            throw new ServerException("FileError", "Error deleting orphan files", e);
-        }
-        
-        // Hard delete orphan audit logs
-        EntityManager em = ThreadLocalContext.get().getEntityManager();
-        StringBuilder sb = new StringBuilder("delete from T_AUDIT_LOG al where al.LOG_ID_C in (select al.LOG_ID_C from T_AUDIT_LOG al ");
-        sb.append(" left join T_DOCUMENT d on d.DOC_ID_C = al.LOG_IDENTITY_C and d.DOC_DELETEDATE_D is null ");
-        sb.append(" left join T_ACL a on a.ACL_ID_C = al.LOG_IDENTITY_C and a.ACL_DELETEDATE_D is null ");
-        sb.append(" left join T_COMMENT c on c.COM_ID_C = al.LOG_IDENTITY_C and c.COM_DELETEDATE_D is null ");
-        sb.append(" left join T_FILE f on f.FIL_ID_C = al.LOG_IDENTITY_C and f.FIL_DELETEDATE_D is null ");
-        sb.append(" left join T_TAG t on t.TAG_ID_C = al.LOG_IDENTITY_C and t.TAG_DELETEDATE_D is null ");
-        sb.append(" left join T_USER u on u.USE_ID_C = al.LOG_IDENTITY_C and u.USE_DELETEDATE_D is null ");
-        sb.append(" left join T_GROUP g on g.GRP_ID_C = al.LOG_IDENTITY_C and g.GRP_DELETEDATE_D is null ");
-        sb.append(" where d.DOC_ID_C is null and a.ACL_ID_C is null and c.COM_ID_C is null and f.FIL_ID_C is null and t.TAG_ID_C is null and u.USE_ID_C is null and g.GRP_ID_C is null)");
-        Query q = em.createNativeQuery(sb.toString());
-        log.info("Deleting {} orphan audit logs", q.executeUpdate());
-        
-        // Soft delete orphan ACLs
-        sb = new StringBuilder("update T_ACL a set ACL_DELETEDATE_D = :dateNow where a.ACL_ID_C in (select a.ACL_ID_C from T_ACL a ");
-        sb.append(" left join T_SHARE s on s.SHA_ID_C = a.ACL_TARGETID_C ");
-        sb.append(" left join T_USER u on u.USE_ID_C = a.ACL_TARGETID_C ");
-        sb.append(" left join T_GROUP g on g.GRP_ID_C = a.ACL_TARGETID_C ");
-        sb.append(" left join T_DOCUMENT d on d.DOC_ID_C = a.ACL_SOURCEID_C ");
-        sb.append(" left join T_TAG t on t.TAG_ID_C = a.ACL_SOURCEID_C ");
-        sb.append(" where s.SHA_ID_C is null and u.USE_ID_C is null and g.GRP_ID_C is null or d.DOC_ID_C is null and t.TAG_ID_C is null)");
-        q = em.createNativeQuery(sb.toString());
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan ACLs", q.executeUpdate());
-        
-        // Soft delete orphan comments
-        q = em.createNativeQuery("update T_COMMENT c set c.COM_DELETEDATE_D = :dateNow where c.COM_ID_C in (select c.COM_ID_C from T_COMMENT c left join T_DOCUMENT d on d.DOC_ID_C = c.COM_IDDOC_C and d.DOC_DELETEDATE_D is null where d.DOC_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan comments", q.executeUpdate());
-        
-        // Soft delete orphan document tag links
-        q = em.createNativeQuery("update T_DOCUMENT_TAG dt set dt.DOT_DELETEDATE_D = :dateNow where dt.DOT_ID_C in (select dt.DOT_ID_C from T_DOCUMENT_TAG dt left join T_DOCUMENT d on dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and d.DOC_DELETEDATE_D is null left join T_TAG t on t.TAG_ID_C = dt.DOT_IDTAG_C and t.TAG_DELETEDATE_D is null where d.DOC_ID_C is null or t.TAG_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan document tag links", q.executeUpdate());
-        
-        // Soft delete orphan shares
-        q = em.createNativeQuery("update T_SHARE s set s.SHA_DELETEDATE_D = :dateNow where s.SHA_ID_C in (select s.SHA_ID_C from T_SHARE s left join T_ACL a on a.ACL_TARGETID_C = s.SHA_ID_C and a.ACL_DELETEDATE_D is null where a.ACL_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan shares", q.executeUpdate());
-        
-        // Soft delete orphan tags
-        q = em.createNativeQuery("update T_TAG t set t.TAG_DELETEDATE_D = :dateNow where t.TAG_ID_C in (select t.TAG_ID_C from T_TAG t left join T_USER u on u.USE_ID_C = t.TAG_IDUSER_C and u.USE_DELETEDATE_D is null where u.USE_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan tags", q.executeUpdate());
-        
-        // Soft delete orphan documents
-        q = em.createNativeQuery("update T_DOCUMENT d set d.DOC_DELETEDATE_D = :dateNow where d.DOC_ID_C in (select d.DOC_ID_C from T_DOCUMENT d left join T_USER u on u.USE_ID_C = d.DOC_IDUSER_C and u.USE_DELETEDATE_D is null where u.USE_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan documents", q.executeUpdate());
-        
-        // Soft delete orphan files
-        q = em.createNativeQuery("update T_FILE f set f.FIL_DELETEDATE_D = :dateNow where f.FIL_ID_C in (select f.FIL_ID_C from T_FILE f left join T_USER u on u.USE_ID_C = f.FIL_IDUSER_C and u.USE_DELETEDATE_D is null where u.USE_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan files", q.executeUpdate());
-        
-        // Hard delete softly deleted data
-        log.info("Deleting {} soft deleted document tag links", em.createQuery("delete DocumentTag dt where dt.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted ACLs", em.createQuery("delete Acl a where a.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted shares", em.createQuery("delete Share s where s.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted tags", em.createQuery("delete Tag t where t.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted comments", em.createQuery("delete Comment c where c.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted files", em.createQuery("delete File f where f.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted documents", em.createQuery("delete Document d where d.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted users", em.createQuery("delete User u where u.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted groups", em.createQuery("delete Group g where g.deleteDate is not null").executeUpdate());
-        
+
+        CleanStorageAsyncEvent cleanStorageAsyncEvent = new CleanStorageAsyncEvent()
+                .setDryRun(Boolean.TRUE.equals(dryRun));
+        ThreadLocalContext.get().addAsyncEvent(cleanStorageAsyncEvent);
+
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
                 .add("status", "ok");
@@ -2,7 +2,9 @@ package com.sismics.docs.rest.resource;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multimaps;
 import com.sismics.docs.core.constant.AclType;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.constant.Constants;
@@ -214,10 +216,11 @@ public class DocumentResource extends BaseResource {
         // Add computed ACL
         if (tagDtoList != null) {
             JsonArrayBuilder aclList = Json.createArrayBuilder();
+            AclDao aclDao = new AclDao();
+            ListMultimap<String, AclDto> aclDtoMap = Multimaps.index(aclDao.getBySourceIdList(
+                    Lists.transform(tagDtoList, TagDto::getId), AclType.USER), AclDto::getSourceId);
             for (TagDto tagDto : tagDtoList) {
-                AclDao aclDao = new AclDao();
-                List<AclDto> aclDtoList = aclDao.getBySourceId(tagDto.getId(), AclType.USER);
-                for (AclDto aclDto : aclDtoList) {
+                for (AclDto aclDto : aclDtoMap.get(tagDto.getId())) {
                     aclList.add(Json.createObjectBuilder()
                             .add("perm", aclDto.getPerm().name())
                             .add("source_id", tagDto.getId())
@@ -362,10 +365,11 @@ public class DocumentResource extends BaseResource {
      * @apiGroup Document
      * @apiParam {String} limit Total number of documents to return
      * @apiParam {String} offset Start at this index
-     * @apiParam {Number} sort_column Column index to sort on
+     * @apiParam {Number} sort_column Column index to sort on (fulltext searches are sorted by relevance if omitted)
      * @apiParam {Boolean} asc If true, sort in ascending order
      * @apiParam {String} search Search query (see "Document search syntax" on the top of the page for explanations)
      * @apiParam {Booleans} files If true includes files information
+     * @apiParam {Boolean} [facets] If true includes the facet counts of all matching documents
      * @apiSuccess {Number} total Total number of documents
      * @apiSuccess {Object[]} documents List of documents
      * @apiSuccess {String} documents.id ID
@@ -391,6 +395,24 @@ public class DocumentResource extends BaseResource {
      * @apiSuccess {String} documents.files.mimetype MIME type
      * @apiSuccess {String} documents.files.create_date Create date (timestamp)
      * @apiSuccess {String[]} suggestions List of search suggestions
+     * @apiSuccess {Object} facets Facet counts, sorted by decreasing count (only if facets is true)
+     * @apiSuccess {Object[]} facets.tags Tags, counting the documents of their children
+     * @apiSuccess {String} facets.tags.id ID
+     * @apiSuccess {String} facets.tags.name Name
+     * @apiSuccess {String} facets.tags.color Color
+     * @apiSuccess {Number} facets.tags.count Number of documents
+     * @apiSuccess {Object[]} facets.mime_types MIME types of the files
+     * @apiSuccess {String} facets.mime_types.value MIME type
+     * @apiSuccess {Number} facets.mime_types.count Number of documents
+     * @apiSuccess {Object[]} facets.languages Languages
+     * @apiSuccess {String} facets.languages.value Language
+     * @apiSuccess {Number} facets.languages.count Number of documents
+     * @apiSuccess {Object[]} facets.creators Creators
+     * @apiSuccess {String} facets.creators.value Username
+     * @apiSuccess {Number} facets.creators.count Number of documents
+     * @apiSuccess {Object[]} facets.create_months Creation months
+     * @apiSuccess {String} facets.create_months.value Month (yyyy-MM)
+     * @apiSuccess {Number} facets.create_months.count Number of documents
      * @apiError (client) ForbiddenError Access denied
      * @apiError (server) SearchError Error searching in documents
      * @apiPermission user
@@ -402,6 +424,7 @@ public class DocumentResource extends BaseResource {
      * @param asc Sorting
      * @param search Search query
      * @param files Files list
+     * @param facets Facet counts
      * @return Response
      */
     @GET
@@ -412,7 +435,8 @@ public class DocumentResource extends BaseResource {
             @QueryParam("sort_column") Integer sortColumn,
             @QueryParam("asc") Boolean asc,
             @QueryParam("search") String search,
-            @QueryParam("files") Boolean files) {
+            @QueryParam("files") Boolean files,
+            @QueryParam("facets") Boolean facets) {
         if (!authenticate()) {
             throw new ForbiddenClientException();
         }
@@ -423,11 +447,16 @@ public class DocumentResource extends BaseResource {
         TagDao tagDao = new TagDao();
         PaginatedList<DocumentDto> paginatedList = PaginatedLists.create(limit, offset);
         List<String> suggestionList = Lists.newArrayList();
-        SortCriteria sortCriteria = new SortCriteria(sortColumn, asc);
+        DocumentFacetsDto documentFacetsDto = Boolean.TRUE == facets ? new DocumentFacetsDto() : null;
         DocumentCriteria documentCriteria = parseSearchQuery(search);
         documentCriteria.setTargetIdList(getTargetIdList(null));
+        SortCriteria sortCriteria = new SortCriteria(sortColumn, asc);
+        if (sortColumn == null && !Strings.isNullOrEmpty(documentCriteria.getFullSearch())) {
+            // Sort fulltext searches by relevance
+            sortCriteria = null;
+        }
         try {
-            AppContext.getInstance().getIndexingHandler().findByCriteria(paginatedList, suggestionList, documentCriteria, sortCriteria);
+            AppContext.getInstance().getIndexingHandler().findByCriteria(paginatedList, suggestionList, documentFacetsDto, documentCriteria, sortCriteria);
         } catch (Exception e) {
             throw new ServerException("SearchError", "Error searching in documents", e);
         }
@@ -440,11 +469,12 @@ public class DocumentResource extends BaseResource {
             filesList = fileDao.getByDocumentsIds(documentsIds);
         }
 
+        // Get tags accessible by the current user on the documents
+        Map<String, List<TagDto>> tagDtoMap = tagDao.findByDocumentIdList(
+                Lists.transform(paginatedList.getResultList(), DocumentDto::getId), getTargetIdList(null));
+
         for (DocumentDto documentDto : paginatedList.getResultList()) {
-            // Get tags accessible by the current user on this document
-            List<TagDto> tagDtoList = tagDao.findByCriteria(new TagCriteria()
-                    .setTargetIdList(getTargetIdList(null))
-                    .setDocumentId(documentDto.getId()), new SortCriteria(1, true));
+            List<TagDto> tagDtoList = tagDtoMap.getOrDefault(documentDto.getId(), Collections.emptyList());
             JsonArrayBuilder tags = Json.createArrayBuilder();
             for (TagDto tagDto : tagDtoList) {
                 tags.add(Json.createObjectBuilder()
@@ -487,10 +517,122 @@ public class DocumentResource extends BaseResource {
         response.add("total", paginatedList.getResultCount())
                 .add("documents", documents)
                 .add("suggestions", suggestions);
+        if (documentFacetsDto != null) {
+            response.add("facets", facetsToJson(documentFacetsDto));
+        }
         
         return Response.ok().entity(response.build()).build();
     }
+
+    /**
+     * Build the facet counts of a document list.
+     *
+     * @param documentFacetsDto Facet counts
+     * @return JSON facets
+     */
+    private JsonObjectBuilder facetsToJson(DocumentFacetsDto documentFacetsDto) {
+        // Only the tags readable by the current user are returned
+        Map<String, TagDto> tagDtoMap = new HashMap<>();
+        for (TagDto tagDto : new TagDao().findByCriteria(new TagCriteria().setTargetIdList(getTargetIdList(null)), null)) {
+            tagDtoMap.put(tagDto.getId(), tagDto);
+        }
+        JsonArrayBuilder tags = Json.createArrayBuilder();
+        for (Map.Entry<String, Integer> entry : documentFacetsDto.getTagCountMap().entrySet()) {
+            TagDto tagDto = tagDtoMap.get(entry.getKey());
+            if (tagDto != null) {
+                tags.add(Json.createObjectBuilder()
+                        .add("id", tagDto.getId())
+                        .add("name", tagDto.getName())
+                        .add("color", tagDto.getColor())
+                        .add("count", entry.getValue()));
+            }
+        }
+
+        // Creators are returned by username
+        UserDao userDao = new UserDao();
+        JsonArrayBuilder creators = Json.createArrayBuilder();
+        for (Map.Entry<String, Integer> entry : documentFacetsDto.getCreatorCountMap().entrySet()) {
+            User user = userDao.getById(entry.getKey());
+            if (user != null) {
+                creators.add(Json.createObjectBuilder()
+                        .add("value", user.getUsername())
+                        .add("count", entry.getValue()));
+            }
+        }
+
+        return Json.createObjectBuilder()
+                .add("tags", tags)
+                .add("mime_types", countsToJson(documentFacetsDto.getMimeTypeCountMap()))
+                .add("languages", countsToJson(documentFacetsDto.getLanguageCountMap()))
+                .add("creators", creators)
+                .add("create_months", countsToJson(documentFacetsDto.getCreateMonthCountMap()));
+    }
+
+    /**
+     * Build the counts of a facet.
+     *
+     * @param countMap Number of documents by value
+     * @return JSON counts
+     */
+    private JsonArrayBuilder countsToJson(Map<String, Integer> countMap) {
+        JsonArrayBuilder counts = Json.createArrayBuilder();
+        for (Map.Entry<String, Integer> entry : countMap.entrySet()) {
+            counts.add(Json.createObjectBuilder()
+                    .add("value", entry.getKey())
+                    .add("count", entry.getValue()));
+        }
+        return counts;
+    }
     
+    /**
+     * Suggest search terms.
+     *
+     * @api {get} /document/suggest Suggest search terms
+     * @apiName GetDocumentSuggest
+     * @apiGroup Document
+     * @apiParam {String} search Search query, the last word is completed
+     * @apiParam {Number} [limit] Maximum number of suggestions (default 10)
+     * @apiSuccess {String[]} suggestions List of search suggestions
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) ValidationError Validation error
+     * @apiError (server) SearchError Error suggesting search terms
+     * @apiPermission user
+     * @apiVersion 1.10.0
+     *
+     * @param search Search query
+     * @param limit Maximum number of suggestions
+     * @return Response
+     */
+    @GET
+    @Path("suggest")
+    public Response suggest(
+            @QueryParam("search") String search,
+            @QueryParam("limit") Integer limit) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        ValidationUtil.validateRequired(search, "search");
+        if (limit == null || limit <= 0 || limit > 100) {
+            limit = 10;
+        }
+
+        List<String> suggestionList;
+        try {
+            suggestionList = AppContext.getInstance().getIndexingHandler().suggestSearchTerms(search, limit);
+        } catch (Exception e) {
+            throw new ServerException("SearchError", "Error suggesting search terms", e);
+        }
+
+        JsonArrayBuilder suggestions = Json.createArrayBuilder();
+        for (String suggestion : suggestionList) {
+            suggestions.add(suggestion);
+        }
+
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("suggestions", suggestions);
+        return Response.ok().entity(response.build()).build();
+    }
+
     /**
      * Parse a query according to the specified syntax, eg.:
      * tag:assurance tag:other before:2012 after:2011-09 shared:yes lang:fra thing
@@ -1071,9 +1213,8 @@ public class DocumentResource extends BaseResource {
         long totalSize = 0L;
         for (File file : fileList) {
             // Store the file size to update the quota
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
             try {
-                totalSize += Files.size(storedFile);
+                totalSize += AppContext.getInstance().getStorageBackend().size(file.getStorageId());
             } catch (IOException e) {
                 // The file doesn't exists on disk, which is weird, but not fatal
             }
@@ -1082,6 +1223,7 @@ public class DocumentResource extends BaseResource {
             FileDeletedAsyncEvent fileDeletedAsyncEvent = new FileDeletedAsyncEvent();
             fileDeletedAsyncEvent.setUserId(principal.getId());
             fileDeletedAsyncEvent.setFileId(file.getId());
+            fileDeletedAsyncEvent.setStorageId(file.getStorageId());
             ThreadLocalContext.get().addAsyncEvent(fileDeletedAsyncEvent);
         }
 
@@ -4,6 +4,8 @@ import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.constant.ProcessingJobType;
+import com.sismics.docs.core.constant.ProcessingLane;
 import com.sismics.docs.core.dao.AclDao;
 import com.sismics.docs.core.dao.DocumentDao;
 import com.sismics.docs.core.dao.FileDao;
@@ -11,13 +13,15 @@ import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.dao.dto.DocumentDto;
 import com.sismics.docs.core.event.DocumentUpdatedAsyncEvent;
 import com.sismics.docs.core.event.FileDeletedAsyncEvent;
-import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.UploadSession;
+import com.sismics.docs.core.util.UploadUtil;
+import com.sismics.docs.core.util.rendition.Rendition;
+import com.sismics.docs.core.util.rendition.RenditionManager;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
@@ -41,14 +45,12 @@ import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -59,6 +61,16 @@ import java.util.zip.ZipOutputStream;
  */
 @Path("/file")
 public class FileResource extends BaseResource {
+    /**
+     * Maximum time a new file waits for room in the processing queues (in milliseconds).
+     */
+    private static final long PROCESSING_WAIT_MS = 30000;
+
+    /**
+     * Delay suggested to retry when the files processing is busy, in seconds.
+     */
+    private static final int PROCESSING_RETRY_AFTER_SECONDS = 10;
+
     /**
      * Add a file (with or without a document).
      *
@@ -76,6 +88,7 @@ public class FileResource extends BaseResource {
      * @apiError (client) ForbiddenError Access denied
      * @apiError (client) ValidationError Validation error
      * @apiError (client) NotFound Document not found
+     * @apiError (server) ProcessingBusy Too many files are waiting to be processed
      * @apiError (server) StreamError Error reading the input file
      * @apiError (server) ErrorGuessMime Error guessing mime type
      * @apiError (client) QuotaReached Quota limit reached
@@ -112,35 +125,379 @@ public class FileResource extends BaseResource {
             }
         }
         
-        // Keep unencrypted data temporary on disk
+        // Wait for room in the processing queues, instead of queuing files without limit
+        if (!AppContext.getInstance().getProcessingScheduler().awaitCapacity(PROCESSING_WAIT_MS,
+                ProcessingLane.THUMBNAIL, ProcessingLane.CONTENT)) {
+            throw new ServerException("ProcessingBusy", "Too many files are waiting to be processed, try again later");
+        }
+
+        // Encrypt the data into the storage in a single pass, keeping an unencrypted copy for the processing
         String name = fileBodyPart.getContentDisposition() != null ?
                 URLDecoder.decode(fileBodyPart.getContentDisposition().getFileName(), StandardCharsets.UTF_8) : null;
-        java.nio.file.Path unencryptedFile;
-        long fileSize;
+        UploadSession uploadSession;
         try {
-            unencryptedFile = AppContext.getInstance().getFileService().createTemporaryFile(name);
-            Files.copy(fileBodyPart.getValueAs(InputStream.class), unencryptedFile, StandardCopyOption.REPLACE_EXISTING);
-            fileSize = Files.size(unencryptedFile);
-        } catch (IOException e) {
+            User user = new UserDao().getById(principal.getId());
+            uploadSession = new UploadSession(principal.getId(), user.getPrivateKey(), documentId, previousFileId, name, -1);
+        } catch (Exception e) {
+            throw new ServerException("FileError", "Error adding a file", e);
+        }
+        try {
+            uploadSession.append(fileBodyPart.getValueAs(InputStream.class));
+            uploadSession.complete();
+        } catch (Exception e) {
+            UploadUtil.discard(uploadSession);
             throw new ServerException("StreamError", "Error reading the input file", e);
         }
 
+        String fileId = createFile(uploadSession, documentDto);
+
+        // Always return OK
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("status", "ok")
+                .add("id", fileId)
+                .add("size", uploadSession.getOffset());
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Start a resumable upload.
+     *
+     * @api {put} /file/upload Start a resumable upload
+     * @apiDescription The file data is then sent in one or several chunks with PATCH /file/upload/:id, in order.
+     * The file is created once all the data is received.
+     * An upload left idle for a day is discarded.
+     * @apiName PutFileUpload
+     * @apiGroup File
+     * @apiParam {String} id Document ID
+     * @apiParam {String} previousFileId ID of the file to replace by this new version
+     * @apiParam {String} name File name
+     * @apiParam {Number} size File size (in bytes)
+     * @apiSuccess {String} status Status OK
+     * @apiSuccess {String} id Upload ID
+     * @apiSuccess {Number} offset Number of bytes received
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) ValidationError Validation error
+     * @apiError (client) NotFound Document not found
+     * @apiError (client) QuotaReached Quota limit reached
+     * @apiError (server) FileError Error starting the upload
+     * @apiPermission user
+     * @apiVersion 1.10.0
+     *
+     * @param documentId Document ID
+     * @param previousFileId ID of the file to replace by this new version
+     * @param name File name
+     * @param sizeStr File size
+     * @return Response
+     */
+    @PUT
+    @Path("upload")
+    public Response startUpload(
+            @FormParam("id") String documentId,
+            @FormParam("previousFileId") String previousFileId,
+            @FormParam("name") String name,
+            @FormParam("size") String sizeStr) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        // Validate input data
+        ValidationUtil.validateRequired(sizeStr, "size");
+        long size = ValidationUtil.validateLong(sizeStr, "size");
+        if (size < 0) {
+            throw new ClientException("ValidationError", "size must be positive");
+        }
+        name = ValidationUtil.validateLength(name, "name", 1, 200, true);
+
+        // Check the document
+        if (Strings.isNullOrEmpty(documentId)) {
+            documentId = null;
+        } else if (new DocumentDao().getDocument(documentId, PermType.WRITE, getTargetIdList(null)) == null) {
+            throw new NotFoundException();
+        }
+
+        // Fail early if the file can't fit
         try {
-            String fileId = FileUtil.createFile(name, previousFileId, unencryptedFile, fileSize, documentDto == null ?
-                    null : documentDto.getLanguage(), principal.getId(), documentId);
-
-            // Always return OK
-            JsonObjectBuilder response = Json.createObjectBuilder()
-                    .add("status", "ok")
-                    .add("id", fileId)
-                    .add("size", fileSize);
-            return Response.ok().entity(response.build()).build();
+            FileUtil.checkQuota(principal.getId(), size);
         } catch (IOException e) {
             throw new ClientException(e.getMessage(), e.getMessage(), e);
+        }
+
+        UploadSession uploadSession;
+        try {
+            User user = new UserDao().getById(principal.getId());
+            uploadSession = new UploadSession(principal.getId(), user.getPrivateKey(), documentId, previousFileId, name, size);
         } catch (Exception e) {
+            throw new ServerException("FileError", "Error starting the upload", e);
+        }
+        UploadUtil.register(uploadSession);
+
+        return uploadResponse(uploadSession)
+                .entity(Json.createObjectBuilder()
+                        .add("status", "ok")
+                        .add("id", uploadSession.getId())
+                        .add("offset", 0)
+                        .build())
+                .build();
+    }
+
+    /**
+     * Returns the progress of a resumable upload.
+     *
+     * @api {get} /file/upload/:id Get the progress of a resumable upload
+     * @apiDescription The offset is also returned in the Upload-Offset header, HEAD can be used as well.
+     * If all the data is received but the file creation was deferred (ProcessingBusy), it is retried and the file ID returned.
+     * @apiName GetFileUpload
+     * @apiGroup File
+     * @apiParam {String} id Upload ID
+     * @apiSuccess {String} id Upload ID
+     * @apiSuccess {Number} offset Number of bytes received, the next chunk must start there
+     * @apiSuccess {Number} size File size (in bytes)
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) NotFound Upload not found
+     * @apiError (server) ProcessingBusy Too many files are waiting to be processed, retry later
+     * @apiPermission user
+     * @apiVersion 1.10.0
+     *
+     * @param id Upload ID
+     * @return Response
+     */
+    @GET
+    @Path("upload/{id: [a-z0-9\\-]+}")
+    public Response getUpload(@PathParam("id") String id) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        UploadSession uploadSession = UploadUtil.get(id, principal.getId());
+        if (uploadSession == null) {
+            throw new NotFoundException();
+        }
+
+        if (uploadSession.isReceived()) {
+            // The completion was deferred, retry it
+            synchronized (uploadSession) {
+                if (UploadUtil.get(id, principal.getId()) == null) {
+                    throw new NotFoundException();
+                }
+                return completeUpload(uploadSession);
+            }
+        }
+
+        return uploadResponse(uploadSession)
+                .entity(Json.createObjectBuilder()
+                        .add("id", uploadSession.getId())
+                        .add("offset", uploadSession.getOffset())
+                        .add("size", uploadSession.getLength())
+                        .build())
+                .build();
+    }
+
+    /**
+     * Send a chunk of a resumable upload.
+     *
+     * @api {patch} /file/upload/:id Send a chunk of a resumable upload
+     * @apiDescription The body contains the raw chunk data (application/offset+octet-stream).
+     * If the connection is lost, the upload can be resumed from the offset returned by GET /file/upload/:id.
+     * The file is created with the last chunk. If the files processing is busy, a 503 with a Retry-After header is returned,
+     * the data is kept and the creation can be retried with an empty chunk at the final offset.
+     * @apiName PatchFileUpload
+     * @apiGroup File
+     * @apiParam {String} id Upload ID
+     * @apiHeader {Number} Upload-Offset Offset of the chunk, must be the number of bytes already received
+     * @apiSuccess {String} status Status OK
+     * @apiSuccess {Number} offset Number of bytes received
+     * @apiSuccess {Number} size File size (in bytes)
+     * @apiSuccess {String} id File ID, once all the data is received
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) ValidationError Validation error
+     * @apiError (client) NotFound Upload or document not found
+     * @apiError (client) OffsetMismatch The chunk doesn't start at the current offset
+     * @apiError (client) UploadTooLarge The chunk exceeds the file size, it is rejected
+     * @apiError (server) ProcessingBusy Too many files are waiting to be processed, retry later
+     * @apiError (server) StreamError Error writing the chunk, the upload is discarded
+     * @apiError (server) ErrorGuessMime Error guessing mime type
+     * @apiError (client) QuotaReached Quota limit reached
+     * @apiError (server) FileError Error adding a file
+     * @apiPermission user
+     * @apiVersion 1.10.0
+     *
+     * @param id Upload ID
+     * @param offsetStr Chunk offset
+     * @param inputStream Chunk data
+     * @return Response
+     */
+    @PATCH
+    @Path("upload/{id: [a-z0-9\\-]+}")
+    @Consumes({ "application/offset+octet-stream", MediaType.APPLICATION_OCTET_STREAM })
+    public Response patchUpload(
+            @PathParam("id") String id,
+            @HeaderParam("Upload-Offset") String offsetStr,
+            InputStream inputStream) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        // Validate input data
+        ValidationUtil.validateRequired(offsetStr, "Upload-Offset");
+        long offset = ValidationUtil.validateLong(offsetStr, "Upload-Offset");
+
+        UploadSession uploadSession = UploadUtil.get(id, principal.getId());
+        if (uploadSession == null) {
+            throw new NotFoundException();
+        }
+
+        // Append the chunk, only one chunk at a time
+        synchronized (uploadSession) {
+            if (UploadUtil.get(id, principal.getId()) == null) {
+                // Completed or discarded while waiting
+                throw new NotFoundException();
+            }
+            if (offset != uploadSession.getOffset()) {
+                throw new ClientException("OffsetMismatch", MessageFormat.format("Expected offset: {0}", uploadSession.getOffset()));
+            }
+            try {
+                uploadSession.append(inputStream);
+            } catch (IllegalArgumentException e) {
+                // The chunk is rejected, the data received before is kept
+                throw new ClientException("UploadTooLarge", MessageFormat.format("Expected size: {0}", uploadSession.getLength()));
+            } catch (IOException e) {
+                UploadUtil.discard(uploadSession);
+                throw new ServerException("StreamError", "Error writing the chunk", e);
+            }
+
+            if (!uploadSession.isReceived()) {
+                return uploadResponse(uploadSession)
+                        .entity(Json.createObjectBuilder()
+                                .add("status", "ok")
+                                .add("offset", uploadSession.getOffset())
+                                .add("size", uploadSession.getLength())
+                                .build())
+                        .build();
+            }
+
+            return completeUpload(uploadSession);
+        }
+    }
+
+    /**
+     * Cancel a resumable upload.
+     *
+     * @api {delete} /file/upload/:id Cancel a resumable upload
+     * @apiName DeleteFileUpload
+     * @apiGroup File
+     * @apiParam {String} id Upload ID
+     * @apiSuccess {String} status Status OK
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) NotFound Upload not found
+     * @apiPermission user
+     * @apiVersion 1.10.0
+     *
+     * @param id Upload ID
+     * @return Response
+     */
+    @DELETE
+    @Path("upload/{id: [a-z0-9\\-]+}")
+    public Response deleteUpload(@PathParam("id") String id) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        UploadSession uploadSession = UploadUtil.get(id, principal.getId());
+        if (uploadSession == null) {
+            throw new NotFoundException();
+        }
+        UploadUtil.discard(uploadSession);
+
+        // Always return OK
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("status", "ok");
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Create the file of an upload once all the data is received.
+     * If the files processing is busy, the upload is kept and the completion can be retried
+     * with GET /file/upload/:id or an empty PATCH.
+     * Must be called while holding the lock of the upload session.
+     *
+     * @param uploadSession Upload session, all the data received
+     * @return Response
+     */
+    private Response completeUpload(UploadSession uploadSession) {
+        // Check the document again
+        DocumentDto documentDto = null;
+        if (uploadSession.getDocumentId() != null) {
+            documentDto = new DocumentDao().getDocument(uploadSession.getDocumentId(), PermType.WRITE, getTargetIdList(null));
+            if (documentDto == null) {
+                UploadUtil.discard(uploadSession);
+                throw new NotFoundException();
+            }
+        }
+        if (!AppContext.getInstance().getProcessingScheduler().awaitCapacity(PROCESSING_WAIT_MS,
+                ProcessingLane.THUMBNAIL, ProcessingLane.CONTENT)) {
+            return uploadResponse(uploadSession)
+                    .status(Status.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", PROCESSING_RETRY_AFTER_SECONDS)
+                    .entity(Json.createObjectBuilder()
+                            .add("type", "ProcessingBusy")
+                            .add("message", "Too many files are waiting to be processed, try again later")
+                            .add("offset", uploadSession.getOffset())
+                            .add("size", uploadSession.getLength())
+                            .build())
+                    .build();
+        }
+
+        UploadUtil.unregister(uploadSession.getId());
+        try {
+            uploadSession.complete();
+        } catch (Exception e) {
+            UploadUtil.discard(uploadSession);
+            throw new ServerException("StreamError", "Error writing the chunk", e);
+        }
+        String fileId = createFile(uploadSession, documentDto);
+
+        // Always return OK
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("status", "ok")
+                .add("id", fileId)
+                .add("offset", uploadSession.getOffset())
+                .add("size", uploadSession.getLength());
+        return uploadResponse(uploadSession).entity(response.build()).build();
+    }
+
+    /**
+     * Create a file from a complete upload.
+     *
+     * @param uploadSession Complete upload session
+     * @param documentDto Document, can be null
+     * @return File ID
+     */
+    private String createFile(UploadSession uploadSession, DocumentDto documentDto) {
+        try {
+            return FileUtil.createFile(uploadSession, documentDto == null ? null : documentDto.getLanguage());
+        } catch (IOException e) {
+            UploadUtil.discard(uploadSession);
+            throw new ClientException(e.getMessage(), e.getMessage(), e);
+        } catch (Exception e) {
+            UploadUtil.discard(uploadSession);
             throw new ServerException("FileError", "Error adding a file", e);
         }
     }
+
+    /**
+     * Build a response with the upload progress headers.
+     *
+     * @param uploadSession Upload session
+     * @return Response builder
+     */
+    private Response.ResponseBuilder uploadResponse(UploadSession uploadSession) {
+        Response.ResponseBuilder response = Response.ok()
+                .header("Upload-Offset", uploadSession.getOffset());
+        if (uploadSession.getLength() >= 0) {
+            response.header("Upload-Length", uploadSession.getLength());
+        }
+        return response;
+    }
     
     /**
      * Attach a file to a document.
@@ -198,15 +555,9 @@ public class FileResource extends BaseResource {
         
         // Raise a new file updated event and document updated event (it wasn't sent during file creation)
         try {
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
-            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
-            FileUtil.startProcessingFile(id);
-            FileUpdatedAsyncEvent fileUpdatedAsyncEvent = new FileUpdatedAsyncEvent();
-            fileUpdatedAsyncEvent.setUserId(principal.getId());
-            fileUpdatedAsyncEvent.setLanguage(documentDto.getLanguage());
-            fileUpdatedAsyncEvent.setFileId(file.getId());
-            fileUpdatedAsyncEvent.setUnencryptedFile(unencryptedFile);
-            ThreadLocalContext.get().addAsyncEvent(fileUpdatedAsyncEvent);
+            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(
+                    AppContext.getInstance().getStorageBackend().read(file.getStorageId()), user.getPrivateKey());
+            FileUtil.processFile(ProcessingJobType.FILE_UPDATED, file.getId(), principal.getId(), documentDto.getLanguage(), unencryptedFile);
             
             DocumentUpdatedAsyncEvent documentUpdatedAsyncEvent = new DocumentUpdatedAsyncEvent();
             documentUpdatedAsyncEvent.setUserId(principal.getId());
@@ -306,15 +657,9 @@ public class FileResource extends BaseResource {
 
         // Start the processing asynchronously
         try {
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
-            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
-            FileUtil.startProcessingFile(id);
-            FileUpdatedAsyncEvent event = new FileUpdatedAsyncEvent();
-            event.setUserId(principal.getId());
-            event.setLanguage(documentDto.getLanguage());
-            event.setFileId(file.getId());
-            event.setUnencryptedFile(unencryptedFile);
-            ThreadLocalContext.get().addAsyncEvent(event);
+            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(
+                    AppContext.getInstance().getStorageBackend().read(file.getStorageId()), user.getPrivateKey());
+            FileUtil.processFile(ProcessingJobType.FILE_UPDATED, file.getId(), principal.getId(), documentDto.getLanguage(), unencryptedFile);
         } catch (Exception e) {
             throw new ServerException("ProcessingError", "Error processing this file", e);
         }
@@ -525,9 +870,8 @@ public class FileResource extends BaseResource {
         // Update the user quota
         UserDao userDao = new UserDao();
         User user = userDao.getById(principal.getId());
-        java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
         try {
-            user.setStorageCurrent(user.getStorageCurrent() - Files.size(storedFile));
+            user.setStorageCurrent(user.getStorageCurrent() - AppContext.getInstance().getStorageBackend().size(file.getStorageId()));
             userDao.updateQuota(user);
         } catch (IOException e) {
             // The file doesn't exists on disk, which is weird, but not fatal
@@ -537,6 +881,7 @@ public class FileResource extends BaseResource {
         FileDeletedAsyncEvent fileDeletedAsyncEvent = new FileDeletedAsyncEvent();
         fileDeletedAsyncEvent.setUserId(principal.getId());
         fileDeletedAsyncEvent.setFileId(file.getId());
+        fileDeletedAsyncEvent.setStorageId(file.getStorageId());
         ThreadLocalContext.get().addAsyncEvent(fileDeletedAsyncEvent);
         
         if (file.getDocumentId() != null) {
@@ -561,9 +906,14 @@ public class FileResource extends BaseResource {
      * @apiGroup File
      * @apiParam {String} id File ID
      * @apiParam {String} share Share ID
-     * @apiParam {String="web","thumb","content"} [size] Size variation
-     * @apiSuccess {Object} file The file data is the whole response
-     * @apiError (client) SizeError Size must be web or thumb
+     * @apiParam {String} [size] Size variation: web, thumb, content or a size in pixels (rounded up to a multiple of 64, 1280 at most)
+     * @apiHeader {String} [Accept] Renditions are returned in WebP if accepted and supported, in JPEG otherwise
+     * @apiHeader {String} [Range] Single byte range to return, with a 206 status
+     * @apiHeader {String} [If-Range] Entity tag of the copy the range completes
+     * @apiHeader {String} [If-None-Match] Entity tags of the copies of the client, nothing is returned with a 304 status if current
+     * @apiSuccess {Object} file The file data, or the requested range of it, is the whole response
+     * @apiError (client) SizeError Size must be web, thumb, content or a size in pixels
+     * @apiError (client) RangeNotSatisfiable The range starts after the end of the file data
      * @apiError (client) ForbiddenError Access denied or document not visible
      * @apiError (client) NotFound File not found
      * @apiError (server) ServiceUnavailable Error reading the file
@@ -582,86 +932,140 @@ public class FileResource extends BaseResource {
             @QueryParam("size") String size) {
         authenticate();
         
-        if (size != null && !Lists.newArrayList("web", "thumb", "content").contains(size)) {
-            throw new ClientException("SizeError", "Size must be web, thumb or content");
+        Integer renditionSize = null;
+        if (size != null && !size.equals("content")) {
+            renditionSize = RenditionManager.getSize(size);
+            if (renditionSize == null) {
+                throw new ClientException("SizeError", "Size must be web, thumb, content or a size in pixels");
+            }
         }
 
         // Get the file
         File file = findFile(fileId, shareId);
+        if ("content".equals(size)) {
+            return Response.ok(Strings.nullToEmpty(file.getContent()))
+                    .header(HttpHeaders.CONTENT_TYPE, "text/plain; charset=utf-8")
+                    .build();
+        }
 
-        // Get the stored file
+        // A file is always encrypted by the creator of it
         UserDao userDao = new UserDao();
-        java.nio.file.Path storedFile;
-        String mimeType;
-        boolean decrypt;
-        if (size != null) {
-            if (size.equals("content")) {
-                return Response.ok(Strings.nullToEmpty(file.getContent()))
-                        .header(HttpHeaders.CONTENT_TYPE, "text/plain; charset=utf-8")
-                        .build();
+        User user = userDao.getById(file.getUserId());
+
+        // Stored data never changes for a file ID, the client can keep it
+        RenditionManager renditionManager = AppContext.getInstance().getRenditionManager();
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        boolean webp = renditionSize != null && renditionSize < RenditionManager.WEB_SIZE && renditionManager.isWebpSupported()
+                && accept != null && accept.contains(MimeType.IMAGE_WEBP);
+        String entityTag = "\"" + file.getId() + "-" + file.getVersion() +
+                (renditionSize == null ? "" : "-" + renditionSize) + (webp ? "-webp" : "") + "\"";
+        if (HttpUtil.isNotModified(request.getHeader(HttpHeaders.IF_NONE_MATCH), entityTag)) {
+            return Response.notModified()
+                    .header(HttpHeaders.ETAG, entityTag)
+                    .header(HttpHeaders.CACHE_CONTROL, "private")
+                    .build();
+        }
+
+        // Get the stored file, or the rendition of it
+        Rendition rendition = new Rendition(AppContext.getInstance().getStorageBackend(), file.getStorageId(), file.getMimeType());
+        if (renditionSize != null) {
+            try {
+                rendition = renditionManager.getRendition(file, user.getPrivateKey(), renditionSize, webp);
+            } catch (IOException e) {
+                return Response.status(Status.SERVICE_UNAVAILABLE).build();
             }
 
-            storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_" + size);
-            mimeType = MimeType.IMAGE_JPEG; // Thumbnails are JPEG
-            decrypt = true; // Thumbnails are encrypted
-            if (!Files.exists(storedFile)) {
-                try {
-                    storedFile = Paths.get(getClass().getResource("/image/file-" + size + ".png").toURI());
-                } catch (URISyntaxException e) {
-                    // Ignore
-                }
-                mimeType = MimeType.IMAGE_PNG;
-                decrypt = false;
+            if (rendition == null) {
+                // Do not cache the temporary thumbnail
+                final String resourceName = "/image/file-" + (renditionSize > RenditionManager.THUMB_SIZE ? "web" : "thumb") + ".png";
+                StreamingOutput stream = outputStream -> {
+                    try (InputStream inputStream = getClass().getResourceAsStream(resourceName)) {
+                        ByteStreams.copy(inputStream, outputStream);
+                    }
+                };
+                return Response.ok(stream)
+                        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"")
+                        .header(HttpHeaders.CONTENT_TYPE, MimeType.IMAGE_PNG)
+                        .header(HttpHeaders.CACHE_CONTROL, "no-store, must-revalidate")
+                        .header(HttpHeaders.EXPIRES, "0")
+                        .build();
             }
-        } else {
-            storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
-            mimeType = file.getMimeType();
-            decrypt = true; // Original files are encrypted
         }
-        
-        // Stream the output and decrypt it if necessary
-        StreamingOutput stream;
-        
-        // A file is always encrypted by the creator of it
-        User user = userDao.getById(file.getUserId());
-        
-        // Write the decrypted file to the output
+
+        // Send a range if requested, if the client copy is still current
+        long length;
         try {
-            InputStream fileInputStream = Files.newInputStream(storedFile);
-            final InputStream responseInputStream = decrypt ?
-                    EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey()) : fileInputStream;
-                    
-            stream = outputStream -> {
-                try {
-                    ByteStreams.copy(responseInputStream, outputStream);
-                } finally {
-                    try {
-                        responseInputStream.close();
-                        outputStream.close();
-                    } catch (IOException e) {
-                        // Ignore
-                    }
-                }
-            };
-        } catch (Exception e) {
+            length = rendition.size();
+        } catch (IOException e) {
             return Response.status(Status.SERVICE_UNAVAILABLE).build();
         }
+        String ifRange = request.getHeader("If-Range");
+        long[] range = ifRange == null || ifRange.equals(entityTag) ?
+                HttpUtil.parseRange(request.getHeader("Range"), length) : null;
+        if (range != null && range.length == 0) {
+            return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + length)
+                    .build();
+        }
 
+        // Write the decrypted file to the output, decrypting only the requested range
+        final Rendition data = rendition;
+        StreamingOutput stream = outputStream -> {
+            try (InputStream inputStream = range == null ?
+                    EncryptionUtil.decryptInputStream(data.read(0, -1), user.getPrivateKey()) :
+                    decryptRange(data, user.getPrivateKey(), range[0], range[1])) {
+                ByteStreams.copy(inputStream, outputStream);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new WebApplicationException(e);
+            }
+        };
+
+        // Cache real files
         Response.ResponseBuilder builder = Response.ok(stream)
                 .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, mimeType);
-        if (decrypt) {
-            // Cache real files
-            builder.header(HttpHeaders.CACHE_CONTROL, "private")
-                    .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 365L));
+                .header(HttpHeaders.CONTENT_TYPE, rendition.getMimeType())
+                .header(HttpHeaders.CACHE_CONTROL, "private")
+                .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 365L))
+                .header(HttpHeaders.ETAG, entityTag)
+                .header("Accept-Ranges", "bytes");
+        if (renditionManager.isWebpSupported() && renditionSize != null) {
+            // The format of the renditions depends on the formats accepted by the client
+            builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        if (range == null) {
+            builder.header(HttpHeaders.CONTENT_LENGTH, length);
         } else {
-            // Do not cache the temporary thumbnail
-            builder.header(HttpHeaders.CACHE_CONTROL, "no-store, must-revalidate")
-                    .header(HttpHeaders.EXPIRES, "0");
+            builder.status(Status.PARTIAL_CONTENT)
+                    .header("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length)
+                    .header(HttpHeaders.CONTENT_LENGTH, range[1] - range[0] + 1);
         }
         return builder.build();
     }
 
+    /**
+     * Decrypt a range of stored data.
+     * Only the blocks of the range are read and decrypted.
+     *
+     * @param data Stored data, or rendition of it
+     * @param privateKey Private key of the creator of the file
+     * @param first Position of the first byte
+     * @param last Position of the last byte
+     * @return Decrypted stream
+     * @throws Exception e
+     */
+    private static InputStream decryptRange(Rendition data, String privateKey, long first, long last) throws Exception {
+        long blockOffset = EncryptionUtil.getBlockOffset(first);
+        InputStream inputStream = data.read(blockOffset, last + 1 - blockOffset);
+        try {
+            return EncryptionUtil.decryptInputStream(inputStream, privateKey, first);
+        } catch (Exception e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
     /**
      * Returns all files from a document, zipped.
      *
@@ -737,11 +1141,12 @@ public class FileResource extends BaseResource {
         // Create the ZIP stream
         StreamingOutput stream = outputStream -> {
             try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
-                // Add each file to the ZIP stream
+                // Add each file to the ZIP stream, read ahead from the storage backend
+                Iterator<InputStream> storedFileIterator = AppContext.getInstance().getStorageBackend()
+                        .readAll(fileList.stream().map(File::getStorageId).collect(Collectors.toList()));
                 int index = 0;
                 for (File file : fileList) {
-                    java.nio.file.Path storedfile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-                    InputStream fileInputStream = Files.newInputStream(storedfile);
+                    InputStream fileInputStream = storedFileIterator.next();
 
                     // Add the decrypted file to the ZIP stream
                     // Files are encrypted by the creator of them
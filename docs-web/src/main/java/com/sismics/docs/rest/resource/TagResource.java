@@ -7,6 +7,7 @@ import com.sismics.docs.core.dao.AclDao;
 import com.sismics.docs.core.dao.TagDao;
 import com.sismics.docs.core.dao.criteria.TagCriteria;
 import com.sismics.docs.core.dao.dto.TagDto;
+import com.sismics.docs.core.event.TagUpdatedAsyncEvent;
 import com.sismics.docs.core.model.jpa.Acl;
 import com.sismics.docs.core.model.jpa.Tag;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -14,6 +15,7 @@ import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.util.AclUtil;
 import com.sismics.rest.util.ValidationUtil;
+import com.sismics.util.context.ThreadLocalContext;
 import org.apache.commons.lang.StringUtils;
 
 import javax.json.Json;
@@ -23,6 +25,7 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Response;
 import java.text.MessageFormat;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -295,9 +298,18 @@ public class TagResource extends BaseResource {
             tag.setColor(color);
         }
         // Parent tag is always updated to have the possibility to delete it
+        boolean parentChanged = !Objects.equals(tag.getParentId(), parentId);
         tag.setParentId(parentId);
         
         tagDao.update(tag, principal.getId());
+
+        if (parentChanged) {
+            // Raise a tag updated event
+            TagUpdatedAsyncEvent event = new TagUpdatedAsyncEvent();
+            event.setUserId(principal.getId());
+            event.setTagId(id);
+            ThreadLocalContext.get().addAsyncEvent(event);
+        }
         
         JsonObjectBuilder response = Json.createObjectBuilder()
                 .add("id", id);
@@ -337,6 +349,12 @@ public class TagResource extends BaseResource {
         // Delete the tag
         TagDao tagDao = new TagDao();
         tagDao.delete(id, principal.getId());
+
+        // Raise a tag updated event
+        TagUpdatedAsyncEvent event = new TagUpdatedAsyncEvent();
+        event.setUserId(principal.getId());
+        event.setTagId(id);
+        ThreadLocalContext.get().addAsyncEvent(event);
         
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
@@ -24,6 +24,7 @@ import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
 import com.sismics.rest.util.ValidationUtil;
+import com.sismics.security.PrincipalCache;
 import com.sismics.security.UserPrincipal;
 import com.sismics.util.JsonUtil;
 import com.sismics.util.context.ThreadLocalContext;
@@ -158,6 +159,7 @@ public class UserResource extends BaseResource {
             user.setEmail(email);
         }
         user = userDao.update(user, principal.getId());
+        PrincipalCache.invalidateUser(user.getId());
         
         // Change the password
         if (StringUtils.isNotBlank(password)) {
@@ -243,6 +245,7 @@ public class UserResource extends BaseResource {
             }
         }
         user = userDao.update(user, principal.getId());
+        PrincipalCache.invalidateUser(user.getId());
         
         // Change the password
         if (StringUtils.isNotBlank(password)) {
@@ -418,6 +421,7 @@ public class UserResource extends BaseResource {
         // Deletes the server token
         try {
             authenticationTokenDao.delete(authToken);
+            PrincipalCache.invalidateToken(authToken);
         } catch (Exception e) {
             throw new ServerException("AuthenticationTokenError", "Error deleting the authentication token: " + authToken, e);
         }
@@ -469,6 +473,7 @@ public class UserResource extends BaseResource {
         // Delete the user
         UserDao userDao = new UserDao();
         userDao.delete(principal.getName(), principal.getId());
+        PrincipalCache.invalidateUser(principal.getId());
         
         // Raise deleted events for documents
         for (Document document : documentList) {
@@ -483,6 +488,7 @@ public class UserResource extends BaseResource {
             FileDeletedAsyncEvent fileDeletedAsyncEvent = new FileDeletedAsyncEvent();
             fileDeletedAsyncEvent.setUserId(principal.getId());
             fileDeletedAsyncEvent.setFileId(file.getId());
+            fileDeletedAsyncEvent.setStorageId(file.getStorageId());
             ThreadLocalContext.get().addAsyncEvent(fileDeletedAsyncEvent);
         }
         
@@ -551,6 +557,7 @@ public class UserResource extends BaseResource {
         
         // Delete the user
         userDao.delete(user.getUsername(), principal.getId());
+        PrincipalCache.invalidateUser(user.getId());
         
         // Raise deleted events for documents
         for (Document document : documentList) {
@@ -565,6 +572,7 @@ public class UserResource extends BaseResource {
             FileDeletedAsyncEvent fileDeletedAsyncEvent = new FileDeletedAsyncEvent();
             fileDeletedAsyncEvent.setUserId(principal.getId());
             fileDeletedAsyncEvent.setFileId(file.getId());
+            fileDeletedAsyncEvent.setStorageId(file.getStorageId());
             ThreadLocalContext.get().addAsyncEvent(fileDeletedAsyncEvent);
         }
         
@@ -895,6 +903,7 @@ public class UserResource extends BaseResource {
         // Remove other tokens
         AuthenticationTokenDao authenticationTokenDao = new AuthenticationTokenDao();
         authenticationTokenDao.deleteByUserId(principal.getId(), authToken);
+        PrincipalCache.invalidateUser(principal.getId());
         
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
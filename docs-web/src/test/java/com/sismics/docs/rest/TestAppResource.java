@@ -40,6 +40,13 @@ public class TestAppResource extends BaseJerseyTest {
         Long totalMemory = json.getJsonNumber("total_memory").longValue();
         Assert.assertTrue(totalMemory > 0 && totalMemory > freeMemory);
         Assert.assertEquals(0, json.getJsonNumber("queued_tasks").intValue());
+        JsonArray processingLanes = json.getJsonArray("processing_lanes");
+        Assert.assertEquals(4, processingLanes.size());
+        Assert.assertEquals("CONTENT", processingLanes.getJsonObject(1).getString("name"));
+        Assert.assertEquals(0, processingLanes.getJsonObject(1).getJsonNumber("queue_depth").intValue());
+        Assert.assertTrue(json.getJsonObject("principal_cache").getJsonNumber("miss_count").longValue() >= 0);
+        Assert.assertTrue(json.getJsonNumber("index_heap_size").longValue() >= 0);
+        Assert.assertTrue(json.getJsonNumber("index_off_heap_size").longValue() >= 0);
         Assert.assertFalse(json.getBoolean("guest_login"));
         Assert.assertEquals("eng", json.getString("default_language"));
         Assert.assertTrue(json.containsKey("global_storage_current"));
@@ -50,13 +57,57 @@ public class TestAppResource extends BaseJerseyTest {
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
                 .post(Entity.form(new Form()));
         Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
-        
+
+        // Get the rebuild progress
+        json = target().path("/app/batch/reindex").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertFalse(json.getBoolean("running"));
+        Assert.assertEquals(json.getJsonNumber("total").longValue(), json.getJsonNumber("indexed").longValue());
+
+        // Check the document permissions
+        json = target().path("/app/batch/permissions").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(0, json.getJsonNumber("missing").longValue());
+        Assert.assertEquals(0, json.getJsonNumber("extra").longValue());
+
+        // Rebuild the document permissions
+        response = target().path("/app/batch/permissions").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()));
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+
+        // Report what the storage cleaning would clean
+        response = target().path("/app/batch/clean_storage").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form().param("dry_run", "true")));
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+
+        // Get the storage cleaning report
+        json = target().path("/app/batch/clean_storage").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertFalse(json.getBoolean("running"));
+        Assert.assertTrue(json.getBoolean("dry_run"));
+        Assert.assertEquals("DONE", json.getString("phase"));
+        Assert.assertTrue(json.getJsonObject("rows").containsKey("deleted_files"));
+        Assert.assertTrue(json.getJsonNumber("checked").longValue() >= json.getJsonNumber("orphans").longValue());
+
         // Clean storage
         response = target().path("/app/batch/clean_storage").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
                 .post(Entity.form(new Form()));
         Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
-        
+
+        // Get the storage cleaning report
+        json = target().path("/app/batch/clean_storage").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertFalse(json.getBoolean("running"));
+        Assert.assertFalse(json.getBoolean("dry_run"));
+        Assert.assertEquals("DONE", json.getString("phase"));
+
         // Change the default language
         response = target().path("/app/config").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
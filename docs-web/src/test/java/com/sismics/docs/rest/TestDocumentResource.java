@@ -125,6 +125,19 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals("SuperTag", tags.getJsonObject(1).getString("name"));
         Assert.assertEquals("#ffff00", tags.getJsonObject(1).getString("color"));
         Assert.assertFalse(documents.getJsonObject(0).getBoolean("active_route"));
+        Assert.assertNull(json.get("facets"));
+
+        // List all documents with their facets
+        json = target().path("/document/list")
+                .queryParam("facets", true)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        JsonObject facets = json.getJsonObject("facets");
+        Assert.assertEquals(2, facets.getJsonArray("tags").size());
+        Assert.assertEquals("document1", facets.getJsonArray("creators").getJsonObject(0).getString("value"));
+        Assert.assertEquals(2, facets.getJsonArray("creators").getJsonObject(0).getInt("count"));
+        Assert.assertEquals(1, facets.getJsonArray("mime_types").size());
 
         // List all documents from document3
         json = target().path("/document/list")
@@ -179,6 +192,12 @@ public class TestDocumentResource extends BaseJerseyTest {
                 .get(JsonObject.class);
         String suggestion = json.getJsonArray("suggestions").getString(0);
         Assert.assertEquals("document", suggestion);
+        json = target().path("/document/suggest")
+                .queryParam("search", "docu")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals("document", json.getJsonArray("suggestions").getString(0));
 
         // Search documents
         Assert.assertEquals(1, searchDocuments("full:uranium full:einstein", document1Token));
@@ -6,12 +6,14 @@ import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
 import com.sismics.util.mime.MimeType;
 import com.sismics.util.mime.MimeTypeUtil;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
 import org.glassfish.jersey.media.multipart.file.StreamDataBodyPart;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.imageio.ImageIO;
 import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.ws.rs.client.Entity;
@@ -19,9 +21,12 @@ import javax.ws.rs.core.Form;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.zip.ZipInputStream;
 
@@ -58,7 +63,52 @@ public class TestFileResource extends BaseJerseyTest {
         InputStream is = (InputStream) response.getEntity();
         byte[] fileBytes = ByteStreams.toByteArray(is);
         Assert.assertTrue(fileBytes.length > 0);
-        
+        Assert.assertEquals("bytes", response.getHeaderString("Accept-Ranges"));
+        String entityTag = response.getHeaderString("ETag");
+        Assert.assertEquals("\"" + file1Id + "-0\"", entityTag);
+
+        // Get a range of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=100-1099")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("bytes 100-1099/" + fileBytes.length, response.getHeaderString("Content-Range"));
+        Assert.assertArrayEquals(Arrays.copyOfRange(fileBytes, 100, 1100), ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // Get the end of the file data, if it is still the same
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=-10")
+                .header("If-Range", entityTag)
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertArrayEquals(Arrays.copyOfRange(fileBytes, fileBytes.length - 10, fileBytes.length), ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // The whole file data is sent for another version
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=-10")
+                .header("If-Range", "\"other\"")
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        Assert.assertArrayEquals(fileBytes, ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // A range after the end of the file data is not satisfiable
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=" + fileBytes.length + "-")
+                .get();
+        Assert.assertEquals(Status.REQUESTED_RANGE_NOT_SATISFIABLE, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("bytes */" + fileBytes.length, response.getHeaderString("Content-Range"));
+
+        // The client copy is current
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("If-None-Match", entityTag)
+                .get();
+        Assert.assertEquals(Status.NOT_MODIFIED, Status.fromStatusCode(response.getStatus()));
+
         // Get the thumbnail data
         response = target().path("/file/" + file1Id + "/data")
                 .queryParam("size", "thumb")
@@ -88,7 +138,30 @@ public class TestFileResource extends BaseJerseyTest {
         is = (InputStream) response.getEntity();
         fileBytes = ByteStreams.toByteArray(is);
         Assert.assertTrue(fileBytes.length > 0);
-        
+
+        // Get a rendition in a given size
+        response = target().path("/file/" + file1Id + "/data")
+                .queryParam("size", "100")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals(MimeType.IMAGE_JPEG, response.getHeaderString("Content-Type"));
+        Assert.assertEquals("\"" + file1Id + "-0-128\"", response.getHeaderString("ETag"));
+        is = (InputStream) response.getEntity();
+        fileBytes = ByteStreams.toByteArray(is);
+        Assert.assertEquals(fileBytes.length, Integer.parseInt(response.getHeaderString("Content-Length")));
+        BufferedImage rendition = ImageIO.read(new ByteArrayInputStream(fileBytes));
+        Assert.assertEquals(128, Math.max(rendition.getWidth(), rendition.getHeight()));
+
+        // Get a rendition in an invalid size
+        response = target().path("/file/" + file1Id + "/data")
+                .queryParam("size", "huge")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .get();
+        Assert.assertEquals(Status.BAD_REQUEST, Status.fromStatusCode(response.getStatus()));
+
         // Check that the files are not readable directly from FS
         Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file1Id);
         Assert.assertEquals(MimeType.DEFAULT, MimeTypeUtil.guessMimeType(storedFile, null));
@@ -400,6 +473,102 @@ public class TestFileResource extends BaseJerseyTest {
         Assert.assertEquals("ok", json.getString("status"));
     }
     
+    /**
+     * Test the resumable upload.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testResumableUpload() throws Exception {
+        // Login file_upload
+        clientUtil.createUser("file_upload");
+        String fileUploadToken = clientUtil.login("file_upload");
+        byte[] data = Resources.toByteArray(Resources.getResource(FILE_PIA_00452_JPG));
+
+        // Start an upload
+        JsonObject json = target().path("/file/upload").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileUploadToken)
+                .put(Entity.form(new Form()
+                        .param("name", "PIA00452.jpg")
+                        .param("size", Integer.toString(data.length))), JsonObject.class);
+        String uploadId = json.getString("id");
+        Assert.assertEquals(0, json.getJsonNumber("offset").longValue());
+
+        // Send the first chunk
+        json = patchChunk(uploadId, fileUploadToken, 0, Arrays.copyOfRange(data, 0, 100000))
+                .readEntity(JsonObject.class);
+        Assert.assertEquals(100000, json.getJsonNumber("offset").longValue());
+        Assert.assertFalse(json.containsKey("id"));
+
+        // Send a chunk at the wrong offset
+        Response response = patchChunk(uploadId, fileUploadToken, 0, Arrays.copyOfRange(data, 0, 100000));
+        Assert.assertEquals(Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+        Assert.assertEquals("OffsetMismatch", response.readEntity(JsonObject.class).getString("type"));
+
+        // Send a chunk larger than the file, it is rejected but the upload is kept
+        response = patchChunk(uploadId, fileUploadToken, 100000, Arrays.copyOfRange(data, 100000, data.length + 10));
+        Assert.assertEquals(Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+        Assert.assertEquals("UploadTooLarge", response.readEntity(JsonObject.class).getString("type"));
+
+        // Resume the upload
+        response = target().path("/file/upload/" + uploadId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileUploadToken)
+                .get();
+        Assert.assertEquals("100000", response.getHeaderString("Upload-Offset"));
+        Assert.assertEquals(data.length, response.readEntity(JsonObject.class).getJsonNumber("size").longValue());
+
+        // Send the last chunk
+        json = patchChunk(uploadId, fileUploadToken, 100000, Arrays.copyOfRange(data, 100000, data.length))
+                .readEntity(JsonObject.class);
+        String file1Id = json.getString("id");
+        Assert.assertEquals(data.length, json.getJsonNumber("offset").longValue());
+
+        // The upload is done
+        response = target().path("/file/upload/" + uploadId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileUploadToken)
+                .get();
+        Assert.assertEquals(Status.NOT_FOUND.getStatusCode(), response.getStatus());
+
+        // Get the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileUploadToken)
+                .get();
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertArrayEquals(data, ByteStreams.toByteArray(response.readEntity(InputStream.class)));
+
+        // Cancel an upload
+        json = target().path("/file/upload").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileUploadToken)
+                .put(Entity.form(new Form()
+                        .param("size", "1000")), JsonObject.class);
+        uploadId = json.getString("id");
+        json = target().path("/file/upload/" + uploadId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileUploadToken)
+                .delete(JsonObject.class);
+        Assert.assertEquals("ok", json.getString("status"));
+        response = target().path("/file/upload/" + uploadId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileUploadToken)
+                .get();
+        Assert.assertEquals(Status.NOT_FOUND.getStatusCode(), response.getStatus());
+    }
+
+    /**
+     * Send a chunk of a resumable upload.
+     *
+     * @param uploadId Upload ID
+     * @param token Authentication token
+     * @param offset Chunk offset
+     * @param chunk Chunk data
+     * @return Response
+     */
+    private Response patchChunk(String uploadId, String token, long offset, byte[] chunk) {
+        return target().path("/file/upload/" + uploadId).request()
+                .property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true)
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .header("Upload-Offset", offset)
+                .method("PATCH", Entity.entity(chunk, "application/offset+octet-stream"));
+    }
+
     /**
      * Test user quota.
      * 
@@ -55,6 +55,7 @@ public class TestSecurity extends BaseJerseyTest {
         Assert.assertEquals("ok", json.getString("status"));
 
         // User testsecurity logs out
+        String oldSecurityToken = testSecurityToken;
         response = target().path("/user/logout").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, testSecurityToken)
                 .post(Entity.form(new Form()));
@@ -62,6 +63,12 @@ public class TestSecurity extends BaseJerseyTest {
         testSecurityToken = clientUtil.getAuthenticationCookie(response);
         Assert.assertTrue(StringUtils.isEmpty(testSecurityToken));
 
+        // The old token is not accepted anymore, even if its user was cached
+        response = target().path("/user/logout").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, oldSecurityToken)
+                .post(Entity.form(new Form()));
+        Assert.assertEquals(Status.FORBIDDEN, Status.fromStatusCode(response.getStatus()));
+
         // User testsecurity logs out KO : he is not connected anymore
         response = target().path("/user/logout").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, testSecurityToken)